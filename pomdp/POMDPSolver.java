@@ -17,6 +17,7 @@ import pomdp.utilities.ExecutionProperties;
 import pomdp.utilities.JProf;
 import pomdp.utilities.Logger;
 import pomdp.utilities.MDPValueFunction;
+import pomdp.utilities.metrics.Metrics;
 
 /**
  * @author shanigu
@@ -91,6 +92,8 @@ public class POMDPSolver {
 		
 		ValueIteration viAlgorithm = AlgorithmsFactory.getAlgorithm( sMethodName, pomdp );
 		int cMaxIterations = 50;
+		if( Metrics.isEnabled() )
+			Metrics.startReporter( pomdp.getName() + "_" + sMethodName + "_metrics.jsonl", ExecutionProperties.getMetricsReportInterval() );
 		try{					
 			viAlgorithm.valueIteration( cMaxIterations, ExecutionProperties.getEpsilon(), dTargetADR );
 			double dDiscountedReward = pomdp.computeAverageDiscountedReward( 500, 150, viAlgorithm );
@@ -110,5 +113,8 @@ public class POMDPSolver {
 			System.out.print( "Stack trace: " );
 			err.printStackTrace();
 		}
+		finally{
+			Metrics.stopReporter();
+		}
 	}
 }
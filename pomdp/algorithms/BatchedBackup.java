@@ -0,0 +1,411 @@
+package pomdp.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import pomdp.environments.POMDP;
+import pomdp.utilities.AlphaVector;
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.CompiledModel;
+import pomdp.utilities.ExecutionProperties;
+import pomdp.valuefunction.LinearValueFunctionApproximation;
+
+/**
+ * Matrix form of the point-based backup.
+ * For every (a,o) the projections g^i_{a,o}(s) = \sum_s' O(a,s',o) tr(s,a,s') alpha_i(s') of all the vectors in the value function
+ * are kept in one contiguous double[] (row i holds g^i_{a,o}), instead of an AlphaVector per projection.
+ * The rows are synchronized incrementally with the value function - only new vectors are projected, so the engine can be kept
+ * across the backups of a sweep even when the value function changes during the sweep (Perseus).
+ * backupAll computes the argmax_i g^i_{a,o} * b for a set of beliefs as a blocked product of the beliefs and the projection
+ * matrices, splitting the beliefs between cores using fork/join.
+ * Requires the compiled model (flat POMDPs), and vectors must not be decayed while they are in the engine.
+ */
+public class BatchedBackup {
+	private static final int BELIEF_BLOCK = 32;
+	private static final int ROW_BLOCK = 64;
+
+	private POMDP m_pPOMDP;
+	private CompiledModel m_cmModel;
+	private int m_cStates;
+	private int m_cActions;
+	private int m_cObservations;
+	private double m_dGamma;
+	private double[][] m_adRewards;
+	private double[][] m_adObservations;
+	private double[][] m_adProjections;
+	private AlphaVector[] m_aRows;
+	private int m_cRows;
+	private IdentityHashMap<AlphaVector, Integer> m_mRows;
+	private boolean m_bValid;
+
+	private BatchedBackup( POMDP pomdp, CompiledModel cm ){
+		int iAction = 0, iObservation = 0, iState = 0;
+		m_pPOMDP = pomdp;
+		m_cmModel = cm;
+		m_cStates = pomdp.getStateCount();
+		m_cActions = pomdp.getActionCount();
+		m_cObservations = pomdp.getObservationCount();
+		m_dGamma = pomdp.getDiscountFactor();
+		m_adRewards = new double[m_cActions][m_cStates];
+		m_adObservations = new double[m_cActions * m_cObservations][];
+		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+			for( iState = 0 ; iState < m_cStates ; iState++ )
+				m_adRewards[iAction][iState] = pomdp.R( iState, iAction );
+			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
+				m_adObservations[iAction * m_cObservations + iObservation] = new double[m_cStates];
+			}
+			int[] aiRows = cm.getObservationRows( iAction );
+			int[] aiColumns = cm.getObservationColumns( iAction );
+			double[] adValues = cm.getObservationValues( iAction );
+			for( iState = 0 ; iState < m_cStates ; iState++ ){
+				for( int iEntry = aiRows[iState] ; iEntry < aiRows[iState + 1] ; iEntry++ )
+					m_adObservations[iAction * m_cObservations + aiColumns[iEntry]][iState] = adValues[iEntry];
+			}
+		}
+		m_adProjections = new double[m_cActions * m_cObservations][0];
+		m_aRows = new AlphaVector[0];
+		m_cRows = 0;
+		m_mRows = new IdentityHashMap<AlphaVector, Integer>();
+		m_bValid = true;
+	}
+
+	/**
+	 * @return a batched backup engine for the POMDP, or null if the POMDP has no compiled model or batching is disabled.
+	 */
+	public static BatchedBackup create( POMDP pomdp ){
+		if( !ExecutionProperties.useBatchedBackup() )
+			return null;
+		CompiledModel cm = pomdp.getCompiledModel();
+		if( cm == null )
+			return null;
+		return new BatchedBackup( pomdp, cm );
+	}
+
+	/**
+	 * Synchronizes the projection matrices with the vectors of the value function.
+	 * @return false if the projections do not fit into the memory limit, in which case the engine should not be used
+	 */
+	public boolean prepare( LinearValueFunctionApproximation vValueFunction ){
+		if( !m_bValid )
+			return false;
+		IdentityHashMap<AlphaVector, Boolean> mCurrent = new IdentityHashMap<AlphaVector, Boolean>();
+		List<AlphaVector> vNew = new ArrayList<AlphaVector>();
+		for( AlphaVector av : vValueFunction.getVectors() ){
+			if( av != null && mCurrent.put( av, Boolean.TRUE ) == null && !m_mRows.containsKey( av ) )
+				vNew.add( av );
+		}
+		if( mCurrent.size() != m_cRows + vNew.size() ){
+			int iRow = 0;
+			while( iRow < m_cRows ){
+				if( !mCurrent.containsKey( m_aRows[iRow] ) )
+					removeRow( iRow );
+				else
+					iRow++;
+			}
+		}
+		if( vNew.isEmpty() )
+			return true;
+		if( !ensureCapacity( m_cRows + vNew.size() ) ){
+			m_bValid = false;
+			m_adProjections = null;
+			m_aRows = null;
+			m_mRows = null;
+			return false;
+		}
+		int iFirstRow = m_cRows;
+		for( AlphaVector av : vNew ){
+			m_aRows[m_cRows] = av;
+			m_mRows.put( av, m_cRows );
+			m_cRows++;
+		}
+		ProjectRows task = new ProjectRows( iFirstRow, m_cRows );
+		if( m_cRows - iFirstRow > 1 )
+			ForkJoinPool.commonPool().invoke( task );
+		else
+			task.compute();
+		return true;
+	}
+
+	private boolean ensureCapacity( int cRows ){
+		int cCapacity = m_aRows.length;
+		if( cRows <= cCapacity )
+			return true;
+		cCapacity = Math.max( cRows, Math.max( 16, cCapacity * 2 ) );
+		long cBytes = 8L * cCapacity * m_cStates * m_cActions * m_cObservations;
+		if( cBytes > ExecutionProperties.getBatchedBackupMemoryLimit() ){
+			cCapacity = cRows;
+			cBytes = 8L * cCapacity * m_cStates * m_cActions * m_cObservations;
+			if( cBytes > ExecutionProperties.getBatchedBackupMemoryLimit() )
+				return false;
+		}
+		AlphaVector[] aRows = new AlphaVector[cCapacity];
+		System.arraycopy( m_aRows, 0, aRows, 0, m_cRows );
+		m_aRows = aRows;
+		for( int iActionObservation = 0 ; iActionObservation < m_adProjections.length ; iActionObservation++ ){
+			double[] adProjections = new double[cCapacity * m_cStates];
+			System.arraycopy( m_adProjections[iActionObservation], 0, adProjections, 0, m_cRows * m_cStates );
+			m_adProjections[iActionObservation] = adProjections;
+		}
+		return true;
+	}
+
+	private void removeRow( int iRow ){
+		int iLast = m_cRows - 1;
+		m_mRows.remove( m_aRows[iRow] );
+		if( iRow != iLast ){
+			m_aRows[iRow] = m_aRows[iLast];
+			m_mRows.put( m_aRows[iRow], iRow );
+			for( double[] adProjections : m_adProjections )
+				System.arraycopy( adProjections, iLast * m_cStates, adProjections, iRow * m_cStates, m_cStates );
+		}
+		m_aRows[iLast] = null;
+		m_cRows--;
+	}
+
+	/*
+	 * g^i_{a,o}(s) = \sum_s' tr(s,a,s') O(a,s',o) alpha_i(s'), computed over the CSR rows for all (a,o).
+	 */
+	private void project( int iRow ){
+		int iAction = 0, iObservation = 0, iState = 0, iEntry = 0, cEntries = 0;
+		double dSum = 0.0;
+		AlphaVector av = m_aRows[iRow];
+		double[] adAlpha = new double[m_cStates], adObservedAlpha = new double[m_cStates];
+		int[] aiIndexes = null;
+		double[] adValues = null, adObservations = null, adProjections = null;
+
+		if( av.getOffset() == 0.0 && ( aiIndexes = av.getNonZeroIndexes() ) != null ){
+			adValues = av.getNonZeroValues();
+			cEntries = av.getNonZeroEntriesCount();
+			for( iEntry = 0 ; iEntry < cEntries ; iEntry++ )
+				adAlpha[aiIndexes[iEntry]] = adValues[iEntry];
+		}
+		else if( av.getOffset() == 0.0 && av.getDenseValues() != null ){
+			System.arraycopy( av.getDenseValues(), 0, adAlpha, 0, m_cStates );
+		}
+		else{
+			for( iState = 0 ; iState < m_cStates ; iState++ )
+				adAlpha[iState] = av.valueAt( iState );
+		}
+
+		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+			int[] aiRows = m_cmModel.getTransitionRows( iAction );
+			int[] aiColumns = m_cmModel.getTransitionColumns( iAction );
+			double[] adTransitions = m_cmModel.getTransitionValues( iAction );
+			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
+				adObservations = m_adObservations[iAction * m_cObservations + iObservation];
+				adProjections = m_adProjections[iAction * m_cObservations + iObservation];
+				for( iState = 0 ; iState < m_cStates ; iState++ )
+					adObservedAlpha[iState] = adObservations[iState] * adAlpha[iState];
+				for( iState = 0 ; iState < m_cStates ; iState++ ){
+					dSum = 0.0;
+					for( iEntry = aiRows[iState] ; iEntry < aiRows[iState + 1] ; iEntry++ )
+						dSum += adTransitions[iEntry] * adObservedAlpha[aiColumns[iEntry]];
+					adProjections[iRow * m_cStates + iState] = dSum;
+				}
+			}
+		}
+	}
+
+	private class ProjectRows extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		private int m_iFirst, m_iLast;
+		public ProjectRows( int iFirst, int iLast ){
+			m_iFirst = iFirst;
+			m_iLast = iLast;
+		}
+		protected void compute(){
+			if( m_iLast - m_iFirst > 4 ){
+				int iMiddle = ( m_iFirst + m_iLast ) / 2;
+				invokeAll( new ProjectRows( m_iFirst, iMiddle ), new ProjectRows( iMiddle, m_iLast ) );
+			}
+			else{
+				for( int iRow = m_iFirst ; iRow < m_iLast ; iRow++ )
+					project( iRow );
+			}
+		}
+	}
+
+	/*
+	 * Selected action and argmax rows (one per observation) of a single belief.
+	 */
+	private static class Choice{
+		int m_iAction;
+		int[] m_aiRows;
+	}
+
+	/**
+	 * Computes the backup of every belief against the vectors given to the last prepare call.
+	 * @return the new vectors, in the order of the beliefs
+	 */
+	public AlphaVector[] backupAll( List<BeliefState> vBeliefs ){
+		int cBeliefs = vBeliefs.size(), iBelief = 0;
+		Choice[] aChoices = new Choice[cBeliefs];
+		AlphaVector[] aBackups = new AlphaVector[cBeliefs];
+		ChooseRows task = new ChooseRows( vBeliefs, aChoices, 0, cBeliefs );
+		if( cBeliefs > BELIEF_BLOCK )
+			ForkJoinPool.commonPool().invoke( task );
+		else
+			task.compute();
+		//vectors are allocated on the calling thread, so their ids follow the order of the beliefs
+		for( iBelief = 0 ; iBelief < cBeliefs ; iBelief++ ){
+			aBackups[iBelief] = newAlphaVector( aChoices[iBelief] );
+		}
+		return aBackups;
+	}
+
+	public AlphaVector backup( BeliefState bs ){
+		List<BeliefState> vBeliefs = new ArrayList<BeliefState>( 1 );
+		vBeliefs.add( bs );
+		return backupAll( vBeliefs )[0];
+	}
+
+	private class ChooseRows extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		private List<BeliefState> m_vBeliefs;
+		private Choice[] m_aChoices;
+		private int m_iFirst, m_iLast;
+		public ChooseRows( List<BeliefState> vBeliefs, Choice[] aChoices, int iFirst, int iLast ){
+			m_vBeliefs = vBeliefs;
+			m_aChoices = aChoices;
+			m_iFirst = iFirst;
+			m_iLast = iLast;
+		}
+		protected void compute(){
+			if( m_iLast - m_iFirst > BELIEF_BLOCK ){
+				int iMiddle = m_iFirst + ( ( ( m_iLast - m_iFirst ) / 2 + BELIEF_BLOCK - 1 ) / BELIEF_BLOCK ) * BELIEF_BLOCK;
+				invokeAll( new ChooseRows( m_vBeliefs, m_aChoices, m_iFirst, iMiddle ), new ChooseRows( m_vBeliefs, m_aChoices, iMiddle, m_iLast ) );
+			}
+			else{
+				chooseRows( m_vBeliefs, m_aChoices, m_iFirst, m_iLast );
+			}
+		}
+	}
+
+	/*
+	 * For a block of beliefs computes b * g^i_{a,o} for all rows, visiting the rows in blocks so that each block
+	 * of a projection matrix is reused by all the beliefs while it is in the cache.
+	 */
+	private void chooseRows( List<BeliefState> vBeliefs, Choice[] aChoices, int iFirst, int iLast ){
+		int cBeliefs = iLast - iFirst, iBelief = 0, iAction = 0, iObservation = 0, iRow = 0, iEndRow = 0, iEntry = 0, iBase = 0;
+		int iActionObservation = 0, iMaxAction = 0;
+		double dValue = 0.0, dMaxValue = 0.0;
+		int[][] aaiIndexes = new int[cBeliefs][];
+		double[][] aadValues = new double[cBeliefs][];
+		int[] acEntries = new int[cBeliefs];
+		double[] adMaxValues = new double[cBeliefs * m_cActions * m_cObservations];
+		int[] aiMaxRows = new int[cBeliefs * m_cActions * m_cObservations];
+
+		for( iBelief = 0 ; iBelief < cBeliefs ; iBelief++ )
+			setBeliefArrays( vBeliefs.get( iFirst + iBelief ), iBelief, aaiIndexes, aadValues, acEntries );
+		Arrays.fill( adMaxValues, Double.NEGATIVE_INFINITY );
+
+		for( iActionObservation = 0 ; iActionObservation < m_cActions * m_cObservations ; iActionObservation++ ){
+			double[] adProjections = m_adProjections[iActionObservation];
+			for( iRow = 0 ; iRow < m_cRows ; iRow = iEndRow ){
+				iEndRow = Math.min( m_cRows, iRow + ROW_BLOCK );
+				for( iBelief = 0 ; iBelief < cBeliefs ; iBelief++ ){
+					int[] aiIndexes = aaiIndexes[iBelief];
+					double[] adValues = aadValues[iBelief];
+					int cEntries = acEntries[iBelief], iMax = iBelief * m_cActions * m_cObservations + iActionObservation;
+					for( int iCurrentRow = iRow ; iCurrentRow < iEndRow ; iCurrentRow++ ){
+						iBase = iCurrentRow * m_cStates;
+						dValue = 0.0;
+						for( iEntry = 0 ; iEntry < cEntries ; iEntry++ )
+							dValue += adValues[iEntry] * adProjections[iBase + aiIndexes[iEntry]];
+						//ties go to the later row - for observations that cannot occur all rows have value 0, and we prefer the newest vectors
+						if( dValue >= adMaxValues[iMax] ){
+							adMaxValues[iMax] = dValue;
+							aiMaxRows[iMax] = iCurrentRow;
+						}
+					}
+				}
+			}
+		}
+
+		for( iBelief = 0 ; iBelief < cBeliefs ; iBelief++ ){
+			BeliefState bs = vBeliefs.get( iFirst + iBelief );
+			Choice c = new Choice();
+			iMaxAction = -1;
+			dMaxValue = Double.NEGATIVE_INFINITY;
+			Collection<Integer> colActions = null;
+			if( bs.getMaxErrorAction() != -1 ){
+				colActions = new ArrayList<Integer>( 1 );
+				colActions.add( bs.getMaxErrorAction() );
+			}
+			else{
+				colActions = m_pPOMDP.getRelevantActions( bs );
+			}
+			for( int iCurrentAction : colActions ){
+				iBase = ( iBelief * m_cActions + iCurrentAction ) * m_cObservations;
+				dValue = 0.0;
+				for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ )
+					dValue += adMaxValues[iBase + iObservation];
+				dValue = m_dGamma * dValue + m_pPOMDP.immediateReward( bs, iCurrentAction );
+				if( dValue >= dMaxValue ){
+					dMaxValue = dValue;
+					iMaxAction = iCurrentAction;
+				}
+			}
+			iAction = iMaxAction;
+			c.m_iAction = iAction;
+			c.m_aiRows = new int[m_cObservations];
+			iBase = ( iBelief * m_cActions + iAction ) * m_cObservations;
+			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ )
+				c.m_aiRows[iObservation] = aiMaxRows[iBase + iObservation];
+			aChoices[iFirst + iBelief] = c;
+		}
+	}
+
+	private void setBeliefArrays( BeliefState bs, int iBelief, int[][] aaiIndexes, double[][] aadValues, int[] acEntries ){
+		int[] aiIndexes = bs.getNonZeroIndexes();
+		if( aiIndexes != null ){
+			aaiIndexes[iBelief] = aiIndexes;
+			aadValues[iBelief] = bs.getNonZeroValues();
+			acEntries[iBelief] = bs.getNonZeroEntriesCount();
+		}
+		else{
+			Collection<Entry<Integer,Double>> colNonZero = bs.getNonZeroEntries();
+			int cEntries = colNonZero.size(), iEntry = 0;
+			Iterator<Entry<Integer,Double>> itNonZero = colNonZero.iterator();
+			Entry<Integer,Double> e = null;
+			aaiIndexes[iBelief] = new int[cEntries];
+			aadValues[iBelief] = new double[cEntries];
+			while( itNonZero.hasNext() && iEntry < cEntries ){
+				e = itNonZero.next();
+				aaiIndexes[iBelief][iEntry] = e.getKey();
+				aadValues[iBelief][iEntry] = e.getValue();
+				iEntry++;
+			}
+			acEntries[iBelief] = iEntry;
+		}
+	}
+
+	/*
+	 * alpha(s) = R(s,a) + gamma * \sum_o g^{i_o}_{a,o}(s), as in ValueIteration.G followed by AlphaVector.addReward.
+	 */
+	private AlphaVector newAlphaVector( Choice c ){
+		int iObservation = 0;
+		double dValue = 0.0;
+		AlphaVector avResult = m_pPOMDP.newAlphaVector();
+		for( int iState : m_pPOMDP.getValidStates() ){
+			dValue = 0.0;
+			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ )
+				dValue += m_adProjections[c.m_iAction * m_cObservations + iObservation][c.m_aiRows[iObservation] * m_cStates + iState];
+			avResult.setValue( iState, dValue * m_dGamma + m_adRewards[c.m_iAction][iState] );
+		}
+		avResult.finalizeValues();
+		avResult.setAction( c.m_iAction );
+		return avResult;
+	}
+
+	public int getRowCount(){
+		return m_cRows;
+	}
+}
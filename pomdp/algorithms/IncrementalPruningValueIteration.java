@@ -1,5 +1,6 @@
 package pomdp.algorithms;
 
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Vector;
 
@@ -7,12 +8,16 @@ import pomdp.environments.POMDP;
 import pomdp.utilities.AlphaVector;
 import pomdp.utilities.BeliefState;
 import pomdp.utilities.BeliefStateFactory;
+import pomdp.utilities.ExecutionProperties;
 import pomdp.utilities.JProf;
 import pomdp.utilities.Logger;
 import pomdp.utilities.Pair;
 import pomdp.utilities.TabularAlphaVector;
+import pomdp.utilities.lp.LPPruning;
+import pomdp.utilities.lp.WitnessLP;
 
 public class IncrementalPruningValueIteration extends ValueIteration{
+	private static final double LP_EPSILON = 1e-9;
 
 	protected Vector<BeliefState> m_vBeliefPoints;
 	
@@ -66,28 +71,11 @@ public class IncrementalPruningValueIteration extends ValueIteration{
 		return dMaxDiff;
 	}
 	
+	/**
+	 * The upper envelope of the old and the new value functions, pruned exactly with witness LPs.
+	 */
 	protected Vector<AlphaVector> combine( Vector<AlphaVector> vaOld, Vector<AlphaVector> vaNew ){
-		Vector<AlphaVector> vCombined = new Vector<AlphaVector>();
-		BeliefState bsCurrent = null;
-		Iterator<BeliefState> itPoints = m_vBeliefPoints.iterator();
-		AlphaVector avCurrent = null;
-		double dVOld = 0.0, dVNew = 0.0, dVCombined = 0.0;
-		
-		while( itPoints.hasNext() ){
-			bsCurrent = itPoints.next();
-			dVNew = valueAt( bsCurrent, vaNew );
-			dVOld = valueAt( bsCurrent, vaOld );
-			if( dVNew < dVOld ){
-				avCurrent = best( bsCurrent, vaOld );
-			}
-			else{
-				avCurrent = best( bsCurrent, vaNew );
-			}
-			if( !vCombined.contains( avCurrent ) )
-				vCombined.add( avCurrent );
-		}
-		
-		return vCombined;
+		return LPPruning.prune( union( vaOld, vaNew ), m_cStates, LP_EPSILON, ExecutionProperties.useParallelPruning() );
 	}
 
 	protected Vector<AlphaVector> executeIteraiton( Vector<AlphaVector> vCurrent, 
@@ -160,7 +148,7 @@ public class IncrementalPruningValueIteration extends ValueIteration{
 		Logger.getInstance().log( "IPVI", 2, "IP", " avSaz = " + toString( avSaz ) );
 		Vector<AlphaVector> avWinners = restrictedRegion( avSaz[0], avSaz[1] );
 		int iS = 0;
-		for( iS = 3 ; iS < avSaz.length ; iS++ )
+		for( iS = 2 ; iS < avSaz.length ; iS++ )
 			avWinners = restrictedRegion( avSaz[iS], avWinners );
 		return avWinners;
 	}
@@ -182,29 +170,48 @@ public class IncrementalPruningValueIteration extends ValueIteration{
 		Vector<AlphaVector> vWinners = new Vector<AlphaVector>();
 		Vector<AlphaVector> vDominate = null;
 		Vector<AlphaVector> vaFilter = crossSum( vFirst, vSecond );
+		Vector<AlphaVector> vRows = null;
+		IdentityHashMap<AlphaVector, Boolean> mActive = new IdentityHashMap<AlphaVector, Boolean>();
 		AlphaVector avCurrent = null, avBest = null;
-		BeliefState bsWitness = null;
-		Vector<BeliefState> vBeliefPoints = new Vector<BeliefState>( m_vBeliefPoints );
+		WitnessLP lp = null;
+		double[] adWitness = null;
+		int iRow = 0, iCurrent = 0, iRelevantIndex = ( vFirst.size() > vSecond.size() ) ? 1 : 2;
+		long iGroup = -1;
 		
 		if( vaFilter.size() == 1 ){
 			return vaFilter;
 		}
+		
+		//a single LP holds the vectors of every query - rows of vectors that the current candidate does not compete with are removed
+		//and added back between the queries, so successive LPs start from the previous basis. Candidates of the same sum group 
+		//compete with nearly the same vectors, so they are checked one after the other.
+		vRows = new Vector<AlphaVector>( vaFilter );
+		lp = new WitnessLP( m_cStates );
+		for( AlphaVector av : vRows )
+			lp.addVector( av, false );
 			
 		while( !vaFilter.isEmpty() ){
-			avCurrent = vaFilter.firstElement();
-			if( vFirst.size() > vSecond.size() ){
-				vDominate = getRelevantVectors( avCurrent.getSumIds(), 1, vaFilter, avCurrent.getId() );
-			}
-			else{
-				vDominate = getRelevantVectors( avCurrent.getSumIds(), 2, vaFilter, avCurrent.getId() );
+			iCurrent = 0;
+			for( iRow = 0 ; iRow < vaFilter.size() ; iRow++ ){
+				if( vaFilter.get( iRow ).getSumIds()[iRelevantIndex - 1] == iGroup ){
+					iCurrent = iRow;
+					break;
+				}
 			}
-			bsWitness = dominate( avCurrent, union( vDominate, vWinners ), vBeliefPoints );
-			if( bsWitness == null ){
-				vaFilter.remove( 0 );
+			avCurrent = vaFilter.get( iCurrent );
+			iGroup = avCurrent.getSumIds()[iRelevantIndex - 1];
+			vDominate = getRelevantVectors( avCurrent.getSumIds(), iRelevantIndex, vaFilter, avCurrent.getId() );
+			mActive.clear();
+			for( AlphaVector av : union( vDominate, vWinners ) )
+				mActive.put( av, Boolean.TRUE );
+			for( iRow = 0 ; iRow < vRows.size() ; iRow++ )
+				lp.setActive( iRow, mActive.containsKey( vRows.get( iRow ) ) );
+			adWitness = lp.findWitness( avCurrent, LP_EPSILON );
+			if( adWitness == null ){
+				vaFilter.remove( iCurrent );
 			}
 			else{
-				vBeliefPoints.remove( bsWitness );
-				avBest = best( bsWitness, vaFilter );
+				avBest = best( adWitness, vaFilter );
 				vaFilter.remove( avBest );
 				vWinners.add( avBest );
 			}
@@ -309,23 +316,7 @@ public class IncrementalPruningValueIteration extends ValueIteration{
 			Logger.getInstance().log( "IPVI", 3, "", "Filter - nothing to do" );
 			return new Vector<AlphaVector>( vFilter );
 		}
-		Vector<AlphaVector> vWinners = new Vector();
-		AlphaVector avCurrent = null, avBest = null;
-		BeliefState bsWitness = null;
-		Vector<BeliefState> vBeliefPoints = new Vector<BeliefState>( m_vBeliefPoints );
-		while( !vFilter.isEmpty() ){
-			avCurrent = vFilter.firstElement();
-			bsWitness = dominate( avCurrent, vWinners, vBeliefPoints );
-			if( bsWitness == null ){
-				vFilter.removeElement( avCurrent );
-			}
-			else{
-				avBest = best( bsWitness, vFilter );
-				vWinners.add( avBest );
-				vFilter.removeElement( avBest );
-				vBeliefPoints.removeElement( bsWitness );
-			}
-		}
+		Vector<AlphaVector> vWinners = LPPruning.prune( vFilter, m_cStates, LP_EPSILON, ExecutionProperties.useParallelPruning() );
 		
 		Logger.getInstance().log( "IPVI", 3, "", "Filter end " + toString( vWinners ) );
 		
@@ -349,6 +340,19 @@ public class IncrementalPruningValueIteration extends ValueIteration{
 		return avBest;
 	}
 
+	private AlphaVector best( double[] adWitness, Vector<AlphaVector> vVectors ){
+		double dValue = 0, dMaxValue = MIN_INF;
+		AlphaVector avBest = null;
+		for( AlphaVector avCurrent : vVectors ){
+			dValue = avCurrent.dotProduct( adWitness );
+			if( dValue > dMaxValue ){
+				dMaxValue = dValue;
+				avBest = avCurrent;
+			}
+		}
+		return avBest;
+	}
+
 	private double valueAt( BeliefState bs, Vector<AlphaVector> vVectors ){
 		if( vVectors.isEmpty() )
 			return MIN_INF;
@@ -356,23 +360,6 @@ public class IncrementalPruningValueIteration extends ValueIteration{
 		return avBest.dotProduct( bs );
 	}
 	
-	private BeliefState dominate( AlphaVector avCurrent, Vector<AlphaVector> vVectors, Vector<BeliefState> vBeliefPoints ){
-		Logger.getInstance().log( "IPVI", 4, "", "dominate: AV" + avCurrent.getId() + ", " + toString( vVectors ) );
-
-		Iterator<BeliefState> itPoints = vBeliefPoints.iterator();
-		BeliefState bsCurrent = null;
-		double dValue = 0.0, dNewValue = 0.0;
-		
-		while( itPoints.hasNext() ){
-			bsCurrent = itPoints.next();
-			dValue = valueAt( bsCurrent, vVectors );
-			dNewValue = avCurrent.dotProduct( bsCurrent );
-			if( dNewValue >= dValue + 0.01 )
-				return bsCurrent;
-		}
-		return null;
-	}
-
 	private Vector<AlphaVector> next( Vector<AlphaVector> vS, int iAction, int iObservation ){
 		Vector<AlphaVector> vNext = new Vector<AlphaVector>();
 		Iterator<AlphaVector> itVectors = vS.iterator();
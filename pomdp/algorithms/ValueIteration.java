@@ -13,6 +13,7 @@ package pomdp.algorithms;
  * Window&gt;Preferences&gt;Java&gt;Code Generation&gt;Code and Comments
  */
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Vector;
@@ -24,7 +25,11 @@ import pomdp.environments.FactoredPOMDP.BeliefType;
 import pomdp.utilities.AlphaVector;
 import pomdp.utilities.BeliefState;
 import pomdp.utilities.ExecutionProperties;
-import pomdp.utilities.JProf;
+import pomdp.utilities.metrics.BackupEvent;
+import pomdp.utilities.metrics.BatchedBackupEvent;
+import pomdp.utilities.metrics.IterationEvent;
+import pomdp.utilities.metrics.Metrics;
+import pomdp.utilities.Logger;
 import pomdp.utilities.MDPValueFunction;
 import pomdp.utilities.Pair;
 import pomdp.utilities.RandomGenerator;
@@ -32,8 +37,9 @@ import pomdp.utilities.TabularAlphaVector;
 import pomdp.utilities.concurrent.ComputeG;
 import pomdp.utilities.concurrent.ComputeLowLevelG;
 import pomdp.utilities.concurrent.FindMaxAlphas;
-import pomdp.utilities.concurrent.ThreadPool;
+import pomdp.utilities.concurrent.TaskExecutor;
 import pomdp.utilities.datastructures.LinkedList;
+import pomdp.utilities.factored.FactoredAlphaVector;
 import pomdp.utilities.factored.FactoredBeliefState;
 import pomdp.valuefunction.LinearValueFunctionApproximation;
 
@@ -57,10 +63,6 @@ public abstract class ValueIteration extends PolicyStrategy{
 	protected int m_cValueFunctionChanges;
 	protected boolean m_bTerminate;
 	
-	protected long m_cTimeInBackup;
-	protected long m_cTimeInHV;
-	protected long m_cTimeInV;
-	protected long m_cAlphaVectorNodes; 
 	
 	protected static int g_cTrials = 300;
 	protected static int g_cStepsPerTrial = 30;
@@ -69,6 +71,12 @@ public abstract class ValueIteration extends PolicyStrategy{
 	
 	protected RandomGenerator m_rndGenerator;	
 	
+	private BatchedBackup m_bbBackup;
+	private boolean m_bBatchedBackupCreated;
+	
+	private IterationEvent m_eIteration;
+	private long m_cBackupsAtIterationStart;
+	
 	public ValueIteration( POMDP pomdp ){
 		m_pPOMDP = pomdp;
 		m_cStates = m_pPOMDP.getStateCount();
@@ -83,13 +91,12 @@ public abstract class ValueIteration extends PolicyStrategy{
 		m_dFilteredADR = 0.0;
 		m_cDotProducts = 0;
 		
-		m_cTimeInBackup = 0;
-		m_cTimeInHV = 0;
-		m_cTimeInV = 0;
-		m_cAlphaVectorNodes = 0;
 		
 		m_bTerminate = false;
 		
+		m_bbBackup = null;
+		m_bBatchedBackupCreated = false;
+		
 		m_rndGenerator = new RandomGenerator( "ValueIteration" );
 		
 		m_vValueFunction = new LinearValueFunctionApproximation( m_dEpsilon, true );
@@ -217,6 +224,7 @@ public abstract class ValueIteration extends PolicyStrategy{
 						}
 					}
 				}
+				LinearValueFunctionApproximation.addScanned( vVectors.size() );
 			}
 			else{
 				dMaxValue = 0.0;
@@ -265,9 +273,10 @@ public abstract class ValueIteration extends PolicyStrategy{
 	
 	protected AlphaVector backup( BeliefState bs, LinearValueFunctionApproximation vValueFunction ){
 		AlphaVector avResult = null;
-		long lTimeBefore = 0, lTimeAfter = 0;
-		if( ExecutionProperties.getReportOperationTime() )
-			lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
+		BackupEvent eBackup = new BackupEvent();
+		eBackup.begin();
+		long lTimeBefore = Metrics.startTimer();
+		long cScannedBefore = LinearValueFunctionApproximation.getScannedCount();
 
 		if( m_pPOMDP.useClassicBackup() )
 			avResult = backupGBased( bs, vValueFunction );
@@ -275,22 +284,65 @@ public abstract class ValueIteration extends PolicyStrategy{
 			avResult = backupTauBased( bs, vValueFunction, ExecutionProperties.useMultiThread() );
 		
 		m_cBackups++;
-		if( ExecutionProperties.getReportOperationTime() )
-		{
-			lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-			m_cTimeInBackup += ( lTimeAfter - lTimeBefore ) / 1000000;
-			m_cAlphaVectorNodes += avResult.size();
-			/*
-			if( m_cBackups % 100 == 0 ){
-				Logger.getInstance().log( "ValueIteration", 0, "backup", "After " + m_cBackups + " backups, avg time for backup " + m_cTimeInBackup / m_cBackups );
-				//Logger.getInstance().log( "ValueIteration", 0, "backup", "Total backup time: " + m_cTimeInBackup + ", " + "last measurement " + lTimeAfter );
-				Logger.getInstance().log( "ValueIteration", 0, "backup", "Average alpha vector size " + m_cAlphaVectorNodes / m_cBackups );
-			}
-			*/
-		}
+		Metrics.BACKUP_TIME.recordSince( lTimeBefore );
+		eBackup.end( bs.getId(), avResult.getAction(), (int)( LinearValueFunctionApproximation.getScannedCount() - cScannedBefore ) );
 		return avResult;
 	}
 	
+	/**
+	 * Backs up a set of belief states against the same value function, using the batched matrix backup when it is available
+	 * and a backup per belief state otherwise.
+	 * @return the new vectors, in the order of the belief states
+	 */
+	public Vector<AlphaVector> backupAll( Collection<BeliefState> colBeliefStates, LinearValueFunctionApproximation vValueFunction ){
+		Vector<BeliefState> vBeliefStates = new Vector<BeliefState>( colBeliefStates );
+		Vector<AlphaVector> vBackups = new Vector<AlphaVector>( vBeliefStates.size() );
+		BatchedBackup bbBackup = getBatchedBackup( vValueFunction );
+		int iBeliefState = 0;
+		
+		if( bbBackup == null ){
+			for( BeliefState bs : vBeliefStates )
+				vBackups.add( backup( bs, vValueFunction ) );
+			return vBackups;
+		}
+		
+		BatchedBackupEvent eBackup = new BatchedBackupEvent();
+		eBackup.begin();
+		long lTimeBefore = Metrics.startTimer();
+		AlphaVector[] aBackups = bbBackup.backupAll( vBeliefStates );
+		Metrics.BATCHED_BACKUP_TIME.recordSince( lTimeBefore );
+		//the matrix backup evaluates every projection row for every belief, action and observation
+		eBackup.end( vBeliefStates.size(), vBeliefStates.size() * m_cActions * m_cObservations * bbBackup.getRowCount() );
+		for( iBeliefState = 0 ; iBeliefState < aBackups.length ; iBeliefState++ ){
+			BeliefState bs = vBeliefStates.get( iBeliefState );
+			aBackups[iBeliefState].setWitness( bs );
+			bs.addBackup();
+			vBackups.add( aBackups[iBeliefState] );
+			m_cBackups++;
+		}
+		return vBackups;
+	}
+	
+	/*
+	 * The batched backup engine synchronized with the given value function, or null if it cannot be used.
+	 */
+	private BatchedBackup getBatchedBackup( LinearValueFunctionApproximation vValueFunction ){
+		if( !m_bBatchedBackupCreated ){
+			m_bbBackup = BatchedBackup.create( m_pPOMDP );
+			m_bBatchedBackupCreated = true;
+		}
+		if( m_bbBackup == null || !ExecutionProperties.useBatchedBackup() )
+			return null;
+		if( !m_bbBackup.prepare( vValueFunction ) ){
+			Logger.getInstance().log( "ValueIteration", 0, "getBatchedBackup", "Projections exceed the memory limit, using per belief backups" );
+			m_bbBackup = null;
+			return null;
+		}
+		if( m_bbBackup.getRowCount() == 0 )
+			return null;
+		return m_bbBackup;
+	}
+	
 	protected AlphaVector backupTauBased( BeliefState bs, LinearValueFunctionApproximation vValueFunction, boolean bMultiThread ){
 		AlphaVector avMax = null;
 		double dValue = 0.0, dMaxValue = Double.NEGATIVE_INFINITY;
@@ -305,13 +357,14 @@ public abstract class ValueIteration extends PolicyStrategy{
 			
 			for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
 				aFinders[iAction] = new FindMaxAlphas( m_pPOMDP, iAction, bs, vValueFunction );
-				ThreadPool.getInstance().addTask( aFinders[iAction] );
+				TaskExecutor.getInstance().addTask( aFinders[iAction] );
 				//aThreads[iAction] = new Thread( aFinders[iAction] );
 				//aThreads[iAction].start();
 			}
 			
 			for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
-				ThreadPool.getInstance().waitForTask( aFinders[iAction] );
+				TaskExecutor.getInstance().waitForTask( aFinders[iAction] );
+				LinearValueFunctionApproximation.addScanned( aFinders[iAction].getScannedCount() );
 				/*
 				try {
 					aThreads[iAction].join();
@@ -383,7 +436,7 @@ public abstract class ValueIteration extends PolicyStrategy{
 				aComputeGs[iObservation] = new ComputeLowLevelG( avAlpha, iAction, iObservation );
 				//aThreads[iObservation] = new Thread( aComputeGs[iObservation] );
 				//aThreads[iObservation].start();
-				ThreadPool.getInstance().addTask( aComputeGs[iObservation] );
+				TaskExecutor.getInstance().addTask( aComputeGs[iObservation] );
 			}
 			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
 				/*
@@ -393,7 +446,7 @@ public abstract class ValueIteration extends PolicyStrategy{
 					e.printStackTrace();
 				}
 				*/
-				ThreadPool.getInstance().waitForTask( aComputeGs[iObservation] );
+				TaskExecutor.getInstance().waitForTask( aComputeGs[iObservation] );
 			}
 		}
 		
@@ -480,10 +533,11 @@ public abstract class ValueIteration extends PolicyStrategy{
 			ComputeG[] aTasks = new ComputeG[m_cActions];
 			for( int iAction : m_pPOMDP.getRelevantActions( bs ) ){
 				aTasks[iAction] = new ComputeG( bs, vValueFunction, iAction, m_cObservations );
-				ThreadPool.getInstance().addTask( aTasks[iAction] );
+				TaskExecutor.getInstance().addTask( aTasks[iAction] );
 			}
 			for( int iAction : m_pPOMDP.getRelevantActions( bs ) ){
-				ThreadPool.getInstance().waitForTask( aTasks[iAction] );
+				TaskExecutor.getInstance().waitForTask( aTasks[iAction] );
+				LinearValueFunctionApproximation.addScanned( aTasks[iAction].getScannedCount() );
 				avCurrent = aTasks[iAction].getG();
 				dValue = avCurrent.dotProduct( bs );
 	
@@ -804,8 +858,6 @@ public abstract class ValueIteration extends PolicyStrategy{
 	
 	protected void initValueFunctionUsingQMDP( LinearValueFunctionApproximation vValueFunction ){
 		System.out.println( "Init value function using Qmdp" );
-		double dMinValue = getMinReward();
-		double dOffset = dMinValue / ( 1 - m_dGamma );
 		MDPValueFunction vfMDP = m_pPOMDP.getMDPValueFunction();
 		vfMDP.valueIteration( 1000, 0.000001 );
 		vValueFunction.clear();
@@ -823,6 +875,8 @@ public abstract class ValueIteration extends PolicyStrategy{
 		int iState = 0;
 		if( avFirst == avSecond )
 			return true;
+		if( ( avFirst instanceof FactoredAlphaVector ) && ( avSecond instanceof FactoredAlphaVector ) )
+			return ((FactoredAlphaVector)avSecond).dominates( (FactoredAlphaVector)avFirst, dEpsilon );
 		for( iState = 0 ; iState < m_cStates ; iState++ ){
 			if( avFirst.valueAt( iState ) > avSecond.valueAt( iState ) + dEpsilon ){
 				return false;
@@ -909,7 +963,7 @@ public abstract class ValueIteration extends PolicyStrategy{
 				" GComputations: " + AlphaVector.getGComputationsCount() +
 				" ComputedBS: " + m_pPOMDP.getBeliefStateFactory().getBeliefStateCount() +
 				" RealBeliefUpdates: " + m_pPOMDP.getBeliefStateFactory().getBeliefUpdatesCount() +
-				" BeliefUpdates: " + BeliefState.g_cBeliefStateUpdates +
+				" BeliefUpdates: " + BeliefState.getBeliefStateUpdatesCount() +
 				" Dot products: " + AlphaVector.dotProductCount();
 	}
 	
@@ -934,6 +988,36 @@ public abstract class ValueIteration extends PolicyStrategy{
 	public String getName(){
 		return "Value Iteration";
 	}
+	
+	/**
+	 * Marks the beginning of an iteration for the iteration JFR event.
+	 */
+	protected void beginIteration(){
+		m_eIteration = new IterationEvent();
+		m_eIteration.begin();
+		m_cBackupsAtIterationStart = m_cBackups;
+	}
+	
+	/**
+	 * Reports the state of the algorithm after an iteration, as a JFR event and as metrics gauges prefixed by the name of the algorithm.
+	 * @param cBeliefPoints - |B|, the number of belief points the algorithm maintains
+	 * @param dMaxDelta - the maximal change of a value in the iteration, NaN if not computed
+	 * @param dBoundGap - the gap between the upper and lower bounds at the initial belief state, NaN if not maintained
+	 */
+	protected void endIteration( int iIteration, int cBeliefPoints, double dMaxDelta, double dBoundGap ){
+		if( m_eIteration != null ){
+			m_eIteration.end( getName(), iIteration, m_vValueFunction.size(), cBeliefPoints, m_cBackups - m_cBackupsAtIterationStart, dMaxDelta, dBoundGap );
+			m_eIteration = null;
+		}
+		if( !Metrics.isEnabled() )
+			return;
+		String sPrefix = getName() + ".";
+		Metrics.getGauge( sPrefix + "vectors" ).set( m_vValueFunction.size() );
+		Metrics.getGauge( sPrefix + "beliefs" ).set( cBeliefPoints );
+		Metrics.getGauge( sPrefix + "backups" ).set( m_cBackups );
+		Metrics.getGauge( sPrefix + "maxDelta" ).set( dMaxDelta );
+		Metrics.getGauge( sPrefix + "boundGap" ).set( dBoundGap );
+	}
 
 	public double computeBellmanError( BeliefState bsCurrent ){
 		return computeBellmanError( bsCurrent, m_vValueFunction );
@@ -160,7 +160,9 @@ public class ForwardSearchValueIteration extends ValueIteration {
 			m_lLatestADRCheck = lCPUTimeBefore;
 			m_cTimeInADR = 0;
 			m_lIterationStartTime = lCPUTimeBefore;
+			beginIteration();
 			dMaxDelta = improveValueFunction();
+			endIteration( iIteration, m_pPOMDP.getBeliefStateFactory().getBeliefStateCount(), dMaxDelta, Double.NaN );
 			lCPUTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
 			lCurrentTime = System.currentTimeMillis();
 			m_cElapsedExecutionTime += ( lCurrentTime - lStartTime - m_cTimeInADR );
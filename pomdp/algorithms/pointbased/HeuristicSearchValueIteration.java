@@ -1,6 +1,7 @@
 package pomdp.algorithms.pointbased;
 
-import java.util.Vector;
+import java.util.HashSet;
+import java.util.Set;
 
 import pomdp.algorithms.ValueIteration;
 import pomdp.environments.POMDP;
@@ -11,6 +12,8 @@ import pomdp.utilities.JProf;
 import pomdp.utilities.Logger;
 import pomdp.utilities.MDPValueFunction;
 import pomdp.utilities.Pair;
+import pomdp.utilities.metrics.LatencyHistogram;
+import pomdp.utilities.metrics.Metrics;
 import pomdp.valuefunction.JigSawValueFunction;
 
 public class HeuristicSearchValueIteration extends ValueIteration {
@@ -21,6 +24,20 @@ public class HeuristicSearchValueIteration extends ValueIteration {
 	protected double m_dMaxWidthForIteration;
 	private static double m_dExplorationFactor;
 	
+	private static final int MAX_DEPTH = 200;
+	private static final LatencyHistogram UPPER_BOUND_UPDATE_TIME = Metrics.getHistogram( "upperBound.update.time" );
+	//successors of the last belief state for which the exploration action was computed, with their upper bounds
+	private BeliefState m_bsCachedSuccessorsOf;
+	private BeliefState[][] m_abCachedSuccessors;
+	private double[][] m_adCachedObservationProbabilities;
+	private double[][] m_adCachedUpperBounds;
+	//explicit stack of an exploration trial, indexed by depth
+	private BeliefState[] m_abTrialBeliefs;
+	private double[] m_adTrialDiscounts;
+	private boolean[] m_abTrialBranched;
+	private int[] m_aiTrialActions;
+	private int m_iCachedAction;
+	
 	public int m_cUselessBackups = 0, m_cBackupsThatDontChangeThePolicy = 0;
 	
 	public HeuristicSearchValueIteration( POMDP pomdp, double dExplorationFactor ){
@@ -36,24 +53,25 @@ public class HeuristicSearchValueIteration extends ValueIteration {
 		m_cVisitedBeliefStates = 0;
 		m_dMaxWidthForIteration = 0.0;
 		m_dExplorationFactor = dExplorationFactor;
+		m_bsCachedSuccessorsOf = null;
+		m_abCachedSuccessors = new BeliefState[m_cActions][m_cObservations];
+		m_adCachedObservationProbabilities = new double[m_cActions][m_cObservations];
+		m_adCachedUpperBounds = new double[m_cActions][m_cObservations];
+		m_abTrialBeliefs = new BeliefState[MAX_DEPTH + 2];
+		m_adTrialDiscounts = new double[MAX_DEPTH + 2];
+		m_abTrialBranched = new boolean[MAX_DEPTH + 2];
+		m_aiTrialActions = new int[MAX_DEPTH + 2];
 	}
 	public HeuristicSearchValueIteration( POMDP pomdp ){
 		this( pomdp, 0.0 );
 	}
 	
 	protected void applyH( BeliefState bs ){
-		long lTimeBefore = 0, lTimeAfter = 0;
-		
-		if( ExecutionProperties.getReportOperationTime() )
-			lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
+		long lTimeBefore = Metrics.startTimer();
 	
 		m_vfUpperBound.updateValue( bs );
 		
-		if( ExecutionProperties.getReportOperationTime() ){
-			lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-			
-			m_cTimeInHV += ( lTimeAfter - lTimeBefore ) / 1000000;
-		}
+		UPPER_BOUND_UPDATE_TIME.recordSince( lTimeBefore );
 	}
 
 	public int getAction( BeliefState bsCurrent ){
@@ -98,7 +116,7 @@ public class HeuristicSearchValueIteration extends ValueIteration {
 		Runtime rtRuntime = Runtime.getRuntime();
 		boolean bDone = false;
 		Pair<Double, Double> pComputedADRs = new Pair<Double, Double>();
-		Vector<BeliefState> vObservedBeliefStates = new Vector<BeliefState>();
+		Set<BeliefState> vObservedBeliefStates = new HashSet<BeliefState>();
 		int cUpperBoundPoints = 0, cNoChange = 0;
 		String sMsg = "";
 		
@@ -116,6 +134,7 @@ public class HeuristicSearchValueIteration extends ValueIteration {
 			lCPUTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
 			
 			m_dMaxWidthForIteration = 0.0;
+			beginIteration();
 			iMaxDepth = explore( bsInitial, dEpsilon, 0, 1.0, vObservedBeliefStates );
 			if( ( m_vfUpperBound.getUpperBoundPointCount() > 1000 ) && ( m_vfUpperBound.getUpperBoundPointCount() > cUpperBoundPoints * 1.1 ) ){
 				m_vfUpperBound.pruneUpperBound();
@@ -137,6 +156,7 @@ public class HeuristicSearchValueIteration extends ValueIteration {
 			
 			m_cVisitedBeliefStates += iMaxDepth;
 			dInitialWidth = width( bsInitial );			
+			endIteration( iIteration, vObservedBeliefStates.size(), Double.NaN, dInitialWidth );
 			
 			lCurrentTime = System.currentTimeMillis();
 			lCPUTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
@@ -220,20 +240,21 @@ public class HeuristicSearchValueIteration extends ValueIteration {
 				" Dot products = " + AlphaVector.dotProductCount();
 		Logger.getInstance().log( "HSVI", 0, "VI", sMsg );
 		
-		if( ExecutionProperties.getReportOperationTime() )
-			sMsg = "Avg time: backup " + ( m_cTimeInBackup / ( m_cBackups * 1.0 ) ) + 
+		if( Metrics.isEnabled() ){
+			sMsg = "Avg time: backup " + Metrics.BACKUP_TIME.getMean() / 1000000.0 + 
 					" G " + AlphaVector.getAvgGTime() +
 					" Tau " + m_pPOMDP.getBeliefStateFactory().getAvgTauTime() + 
 					" DP " + AlphaVector.getAvgDotProductTime() +
-					" V^(b) " + ( m_cTimeInV / ( m_cNewPointComputations * 1.0 ) / 1000000 ) + 
-					" HV(b) " + ( m_cTimeInHV / ( m_cApplyHComputations * 1.0 ) );
-		Logger.getInstance().log( "HSVI", 0, "VI", sMsg );
+					" HV(b) " + UPPER_BOUND_UPDATE_TIME.getMean() / 1000000.0;
+			Logger.getInstance().log( "HSVI", 0, "VI", sMsg );
+		}
 	}
 
 	double dSumImprovements = 0.0;
 	int cImprovements = 0;
 	
 	protected void updateBounds( BeliefState bsCurrent ){		
+		m_bsCachedSuccessorsOf = null;
 		AlphaVector avNext = backup( bsCurrent );
 		AlphaVector avCurrent = m_vValueFunction.getMaxAlpha( bsCurrent );
 		double dCurrentValue = valueAt( bsCurrent );
@@ -266,63 +287,107 @@ public class HeuristicSearchValueIteration extends ValueIteration {
 		return bsCurrent.nextBeliefState( iAction, iObservation );		
 	}
 	
-	protected int explore( BeliefState bsCurrent, double dEpsilon, int iTime, double dDiscount, Vector<BeliefState> vObservedBeliefStates ){
-		double dWidth = width( bsCurrent );
-		int iAction = 0, iObservation = 0;
+	/**
+	 * Runs a single HSVI trial from bsCurrent. The trial descends along the exploration action and observation until the width
+	 * is small enough or MAX_DEPTH is reached, and then updates the bounds of the visited beliefs in reverse order.
+	 * Uses an explicit stack instead of recursion.
+	 * @return the maximal depth reached
+	 */
+	protected int explore( BeliefState bsCurrent, double dEpsilon, int iTime, double dDiscount, Set<BeliefState> vObservedBeliefStates ){
+		int iDepth = 0, iMaxDepth = iTime, iAction = 0, iObservation = 0;
+		double dWidth = 0.0;
 		BeliefState bsNext = null;
-		int iMaxDepth = 0;
-
-		if( m_bTerminate )
-			return iTime;
-		
-		if( !vObservedBeliefStates.contains( bsCurrent ) )
-			vObservedBeliefStates.add( bsCurrent );
+		boolean bDescend = true;
 		
-		if( dWidth > m_dMaxWidthForIteration )
-			m_dMaxWidthForIteration = dWidth;
+		m_abTrialBeliefs[0] = bsCurrent;
+		m_adTrialDiscounts[0] = dDiscount;
+		m_abTrialBranched[0] = false;
+		m_aiTrialActions[0] = -1;
 		
-		if( iTime > 200 || dWidth < ( dEpsilon / dDiscount ) )
-			return iTime;
+		while( iDepth >= 0 ){
+			bsCurrent = m_abTrialBeliefs[iDepth];
+			dDiscount = m_adTrialDiscounts[iDepth];
+			if( bDescend ){
+				vObservedBeliefStates.add( bsCurrent );
+				dWidth = width( bsCurrent );
+				if( dWidth > m_dMaxWidthForIteration )
+					m_dMaxWidthForIteration = dWidth;
+				if( m_bTerminate || ( iTime + iDepth > MAX_DEPTH ) || ( dWidth < ( dEpsilon / dDiscount ) ) ){
+					//leaves are not updated
+					iMaxDepth = Math.max( iMaxDepth, iTime + iDepth );
+					iDepth--;
+					bDescend = false;
+					continue;
+				}
+				bsNext = getNextBeliefState( bsCurrent, dEpsilon, dDiscount * m_dGamma );
+				m_aiTrialActions[iDepth] = ( bsCurrent == m_bsCachedSuccessorsOf ) ? m_iCachedAction : -1;
+				if( ( bsNext != null ) && ( bsNext != bsCurrent ) ){
+					iDepth = push( iDepth, bsNext, dDiscount * m_dGamma );
+					continue;
+				}
+				iMaxDepth = Math.max( iMaxDepth, iTime + iDepth );
+			}
 			
-		bsNext = getNextBeliefState( bsCurrent, dEpsilon, dDiscount * m_dGamma );
-
-		if( ( bsNext != null ) && ( bsNext != bsCurrent ) ){
-			iMaxDepth = explore( bsNext, dEpsilon, iTime + 1, dDiscount * m_dGamma, vObservedBeliefStates );
-		}
-		else{
-			iMaxDepth = iTime;
-		}
-		
-		updateBounds( bsCurrent );	
-		
-		if( m_dExplorationFactor > 0.0 ){
-			int iActionAfterUpdate = getExplorationAction( bsCurrent );
-			if( iActionAfterUpdate != iAction ){
-				if( m_rndGenerator.nextDouble() < m_dExplorationFactor ){
-					iObservation = getExplorationObservation( bsCurrent, iActionAfterUpdate, dEpsilon, dDiscount );
-					bsNext = bsCurrent.nextBeliefState( iAction, iObservation );
-					if( bsNext != null ){
-						iMaxDepth = explore( bsNext, dEpsilon, iTime + 1, dDiscount * m_dGamma, vObservedBeliefStates );
-						updateBounds( bsCurrent );	
+			updateBounds( bsCurrent );
+			bDescend = false;
+			
+			if( ( m_dExplorationFactor > 0.0 ) && !m_abTrialBranched[iDepth] && !m_bTerminate ){
+				//the exploration action changed after the update - explore one more branch below this belief, which is updated again when the branch returns
+				m_abTrialBranched[iDepth] = true;
+				iAction = getExplorationAction( bsCurrent );
+				if( ( iAction != m_aiTrialActions[iDepth] ) && ( m_rndGenerator.nextDouble() < m_dExplorationFactor ) ){
+					iObservation = getExplorationObservation( bsCurrent, iAction, dEpsilon, dDiscount );
+					if( iObservation != -1 ){
+						bsNext = bsCurrent.nextBeliefState( iAction, iObservation );
+						if( bsNext != null ){
+							iDepth = push( iDepth, bsNext, dDiscount * m_dGamma );
+							bDescend = true;
+							continue;
+						}
 					}
-				}					
+				}
 			}
+			iDepth--;
 		}
-					
 		return iMaxDepth;
 	}
+	
+	private int push( int iDepth, BeliefState bsNext, double dDiscount ){
+		iDepth++;
+		m_abTrialBeliefs[iDepth] = bsNext;
+		m_adTrialDiscounts[iDepth] = dDiscount;
+		m_abTrialBranched[iDepth] = false;
+		m_aiTrialActions[iDepth] = -1;
+		return iDepth;
+	}
 
+	/**
+	 * Chooses the observation with the maximal weighted excess of its successor. When the exploration action was just computed 
+	 * for bsCurrent the successors and their upper bounds are taken from the cache filled by getExplorationAction.
+	 */
 	protected int getExplorationObservation( BeliefState bsCurrent, int iAction, 
 			double dEpsilon, double dDiscount ){
 		int iObservation = 0, iMaxObservation = -1;
 		double dProb = 0.0, dExcess = 0.0, dValue = 0.0, dMaxValue = 0.0;
 		BeliefState bsNext = null;
+		boolean bCached = ( bsCurrent == m_bsCachedSuccessorsOf );
 		
 		for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
-			dProb = bsCurrent.probabilityOGivenA( iAction, iObservation );
+			if( bCached ){
+				dProb = m_adCachedObservationProbabilities[iAction][iObservation];
+				if( dProb > 0 ){
+					bsNext = m_abCachedSuccessors[iAction][iObservation];
+					dExcess = m_adCachedUpperBounds[iAction][iObservation] - valueAt( bsNext ) - ( dEpsilon / dDiscount );
+				}
+			}
+			else{
+				dProb = bsCurrent.probabilityOGivenA( iAction, iObservation );
+				if( dProb > 0 ){
+					bsNext = bsCurrent.nextBeliefState( iAction, iObservation );
+					dExcess = excess( bsNext, dEpsilon, dDiscount );
+				}
+			}
 			if( dProb > 0 ){
-				bsNext = bsCurrent.nextBeliefState( iAction, iObservation );
-				dExcess = excess( bsNext, dEpsilon, dDiscount );
 				dValue = dProb * dExcess;  
 				if( dValue > dMaxValue ){
 					dMaxValue = dValue;
@@ -359,7 +424,40 @@ public class HeuristicSearchValueIteration extends ValueIteration {
 		}
 		return iBestAction;
 		*/
-		return m_vfUpperBound.getAction( bsCurrent );
+		return getUpperBoundAction( bsCurrent );
+	}
+	
+	/*
+	 * Same as m_vfUpperBound.getAction, but keeps the successors and their upper bounds for getExplorationObservation.
+	 */
+	private int getUpperBoundAction( BeliefState bsCurrent ){
+		int iAction = 0, iObservation = 0, iMaxAction = -1;
+		double dMaxActionValue = Double.NEGATIVE_INFINITY, dPr = 0.0, dValueSum = 0.0, dValue = 0.0;
+		BeliefState bsSuccessor = null;
+		
+		m_bsCachedSuccessorsOf = null;
+		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+			dValueSum = 0.0;
+			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
+				dPr = bsCurrent.probabilityOGivenA( iAction, iObservation );
+				m_adCachedObservationProbabilities[iAction][iObservation] = dPr;
+				m_abCachedSuccessors[iAction][iObservation] = null;
+				if( dPr > 0.0 ){
+					bsSuccessor = bsCurrent.nextBeliefState( iAction, iObservation );
+					dValue = m_vfUpperBound.valueAt( bsSuccessor );
+					m_abCachedSuccessors[iAction][iObservation] = bsSuccessor;
+					m_adCachedUpperBounds[iAction][iObservation] = dValue;
+					dValueSum += dPr * dValue;
+				}
+			}
+			if( dValueSum > dMaxActionValue ){
+				iMaxAction = iAction;
+				dMaxActionValue = dValueSum;
+			}
+		}
+		m_bsCachedSuccessorsOf = bsCurrent;
+		m_iCachedAction = iMaxAction;
+		return iMaxAction;
 	}
 	
 	public class ValueFunctionEntry{
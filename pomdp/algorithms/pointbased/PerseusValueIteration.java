@@ -18,7 +18,7 @@ import pomdp.valuefunction.LinearValueFunctionApproximation;
 
 public class PerseusValueIteration extends ValueIteration{
 
-	protected Vector m_vIterationBeliefPoints;
+	protected Vector<BeliefState> m_vIterationBeliefPoints;
 	protected Vector<BeliefState> m_vBeliefPoints;
 
 	
@@ -51,8 +51,10 @@ public class PerseusValueIteration extends ValueIteration{
 			lStartTime = System.currentTimeMillis();
 			lCPUTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
 			cVnChanges = m_vValueFunction.getChangesCount();
+			beginIteration();
 			dMaxDelta = singleValueFunctionIteration( iIteration, dEpsilon, m_pPOMDP );
 			bDone = isDone( dMaxDelta, dEpsilon );
+			endIteration( iIteration, vBeliefPoints.size(), dMaxDelta, Double.NaN );
 			lCPUTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
 			lCurrentTime = System.currentTimeMillis();
 			m_cElapsedExecutionTime += ( lCurrentTime - lStartTime );
@@ -257,15 +259,16 @@ public class PerseusValueIteration extends ValueIteration{
 	
 	protected void prunePoints( AlphaVector avNext ){
 		BeliefState bsCurrent = null;
-		Iterator itPoints = m_vIterationBeliefPoints.iterator();
+		Iterator<BeliefState> itPoints = m_vIterationBeliefPoints.iterator();
 		double dNewValue = 0.0, dComputedValue = 0.0;
-		int cPruned = 0;
+		double[] adNewValues = avNext.dotProducts( m_vIterationBeliefPoints );
+		int cPruned = 0, iPoint = 0;
 		
 		//System.out.println( "Begin pruning" );
 		
 		while( itPoints.hasNext() ){
-			bsCurrent = (BeliefState)itPoints.next();
-			dNewValue = avNext.dotProduct( bsCurrent );
+			bsCurrent = itPoints.next();
+			dNewValue = adNewValues[iPoint++];
 			dComputedValue = bsCurrent.getComputedValue();
 			if( dNewValue > dComputedValue ){
 				itPoints.remove();
@@ -287,7 +290,7 @@ public class PerseusValueIteration extends ValueIteration{
 	}
 	
 	protected void initIterationPoints() {
-		m_vIterationBeliefPoints = new Vector( m_vBeliefPoints );
+		m_vIterationBeliefPoints = new Vector<BeliefState>( m_vBeliefPoints );
 		BeliefState bsCurrent = null;
 		Iterator itPoints = m_vBeliefPoints.iterator();
 		double dValue = 0.0;
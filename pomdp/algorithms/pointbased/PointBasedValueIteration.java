@@ -14,6 +14,7 @@ import pomdp.utilities.Pair;
 import pomdp.utilities.concurrent.Backup;
 import pomdp.utilities.concurrent.ComputeFarthestSuccessors;
 import pomdp.utilities.concurrent.ThreadPool;
+import pomdp.utilities.metrics.ExpansionEvent;
 import pomdp.valuefunction.LinearValueFunctionApproximation;
 
 public class PointBasedValueIteration extends ValueIteration {
@@ -41,6 +42,8 @@ public class PointBasedValueIteration extends ValueIteration {
 	}
 
 	protected Vector<BeliefState> expand( Vector<BeliefState> vBeliefPoints ){
+		ExpansionEvent eExpansion = new ExpansionEvent();
+		eExpansion.begin();
 		Vector vExpanded = new Vector( vBeliefPoints );
 		Iterator it = vBeliefPoints.iterator();
 		BeliefState bsCurrent = null, bsNext = null;
@@ -60,11 +63,14 @@ public class PointBasedValueIteration extends ValueIteration {
 		}
 		
 		m_pPOMDP.getBeliefStateFactory().cacheBeliefStates( bPrevious );
+		eExpansion.end( vBeliefPoints.size(), vExpanded.size() );
 		
 		return vExpanded;
 	}
 	
 	protected Vector<BeliefState> expandMultiThread( Vector<BeliefState> vBeliefPoints ){
+		ExpansionEvent eExpansion = new ExpansionEvent();
+		eExpansion.begin();
 		Vector<BeliefState> vExpanded = new Vector<BeliefState>( vBeliefPoints );
 		Vector<BeliefState> vSuccessors = null;
 		int iThread = 0, cThreads = ExecutionProperties.getHighLevelThreadCount();
@@ -102,6 +108,7 @@ public class PointBasedValueIteration extends ValueIteration {
 		}
 			
 		m_pPOMDP.getBeliefStateFactory().cacheBeliefStates( bPrevious );
+		eExpansion.end( vBeliefPoints.size(), vExpanded.size() );
 		
 		return vExpanded;
 	}
@@ -157,10 +164,12 @@ public class PointBasedValueIteration extends ValueIteration {
 				( iInternalIteration < cInternalIterations ) && ( dDelta > dMinDelta ) && !bDoneInternal ; iInternalIteration++ ){
 				
 				cValueFunctionChanges = m_vValueFunction.getChangesCount();
+				beginIteration();
 				if( ExecutionProperties.useHighLevelMultiThread() )
 					dDelta = improveValueFunctionMultiThreaded( vBeliefPoints );
 				else
 					dDelta = improveValueFunction( vBeliefPoints );
+				endIteration( iIteration, vBeliefPoints.size(), dDelta, Double.NaN );
 				
 				lCurrentTime = System.currentTimeMillis();
 				lCPUTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
@@ -225,10 +234,17 @@ public class PointBasedValueIteration extends ValueIteration {
 		if( m_itCurrentIterationPoints == null )
 			m_itCurrentIterationPoints = vBeliefPoints.iterator();
 		dMaxDelta = 0.0;
-		while( m_itCurrentIterationPoints.hasNext() ){
-			bsCurrent= (BeliefState) m_itCurrentIterationPoints.next();
+		
+		//all the points are backed up against the same value function, so their backups can be computed together
+		Vector<BeliefState> vIterationPoints = new Vector<BeliefState>();
+		while( m_itCurrentIterationPoints.hasNext() )
+			vIterationPoints.add( (BeliefState) m_itCurrentIterationPoints.next() );
+		Vector<AlphaVector> vBackups = backupAll( vIterationPoints, m_vValueFunction );
+		
+		for( iBeliefState = 0 ; iBeliefState < vIterationPoints.size() ; iBeliefState++ ){
+			bsCurrent = vIterationPoints.get( iBeliefState );
 			avCurrentMax = m_vValueFunction.getMaxAlpha( bsCurrent );
-			avBackup = backup( bsCurrent );
+			avBackup = vBackups.get( iBeliefState );
 			dBackupValue = avBackup.dotProduct( bsCurrent );
 			dValue = avCurrentMax.dotProduct( bsCurrent );
 			dDelta = dBackupValue - dValue;
@@ -261,8 +277,6 @@ public class PointBasedValueIteration extends ValueIteration {
 			if( avNext != null )
 				//vNextValueFunction.add( avNext, true );
 				vNextValueFunction.addPrunePointwiseDominated( avNext );
-			
-			iBeliefState++;
 		}
 		if( m_bSingleValueFunction ){
 			Iterator it = vNextValueFunction.iterator();
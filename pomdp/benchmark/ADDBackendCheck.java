@@ -0,0 +1,205 @@
+package pomdp.benchmark;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+
+import pomdp.environments.FactoredPOMDP;
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.Logger;
+import pomdp.utilities.RandomGenerator;
+import pomdp.utilities.factored.AlgebraicDecisionDiagram;
+
+/**
+ * Checks an ADD implementation against CompactAlgebraicDecisionDiagram. The same ADD fixture is built with both, and every operation
+ * of the factored G computation and of the belief update (see ADDBenchmarks) is applied to the same inputs and the results are compared
+ * at every assignment (or at random assignments when there are too many).
+ * CompactAlgebraicDecisionDiagram and SharedAlgebraicDecisionDiagram round their leaves to 4 significant digits, so values are equal
+ * when they differ by less than TOLERANCE relative to their magnitude.
+ * Usage: ADDBackendCheck [backend] [fixture,...] - the backend defaults to affine and the fixtures to the ADD fixtures.
+ */
+public class ADDBackendCheck {
+	public static final double TOLERANCE = 0.002;
+	private static final int MAX_ASSIGNMENTS = 4096;
+
+	private Fixture m_fCompact;
+	private Fixture m_fChecked;
+	private FactoredPOMDP m_pCompact;
+	private FactoredPOMDP m_pChecked;
+	private RandomGenerator m_rndGenerator;
+	private double m_dMaxError;
+	private int m_cFailures;
+
+	public ADDBackendCheck( String sFixture, String sBackend ) throws Exception{
+		m_fCompact = Fixture.create( sFixture + "@compact" );
+		m_fChecked = Fixture.create( sFixture + "@" + sBackend );
+		m_pCompact = m_fCompact.getFactoredPOMDP();
+		m_pChecked = m_fChecked.getFactoredPOMDP();
+		m_rndGenerator = new RandomGenerator( "ADDBackendCheck", 0 );
+		m_dMaxError = 0.0;
+		m_cFailures = 0;
+	}
+
+	private void compare( String sOperation, double dExpected, double dValue ){
+		double dError = Math.abs( dExpected - dValue ) / Math.max( 1.0, Math.abs( dExpected ) );
+		if( dError > m_dMaxError )
+			m_dMaxError = dError;
+		if( dError > TOLERANCE ){
+			m_cFailures++;
+			Logger.getInstance().logError( "ADDBackendCheck", "compare", m_fChecked.getName() + " " + sOperation + ": " + dValue + ", expected " + dExpected );
+		}
+	}
+
+	private void compare( String sOperation, AlgebraicDecisionDiagram addExpected, AlgebraicDecisionDiagram add, int cVariables ){
+		boolean[] abAssignment = new boolean[cVariables];
+		boolean bEnumerate = cVariables < 31 && ( 1 << cVariables ) <= MAX_ASSIGNMENTS;
+		int cAssignments = bEnumerate ? 1 << cVariables : MAX_ASSIGNMENTS, iAssignment = 0, iVariable = 0, cFailures = m_cFailures;
+		for( iAssignment = 0 ; iAssignment < cAssignments ; iAssignment++ ){
+			for( iVariable = 0 ; iVariable < cVariables ; iVariable++ ){
+				if( bEnumerate )
+					abAssignment[iVariable] = ( ( iAssignment >> iVariable ) & 1 ) == 1;
+				else
+					abAssignment[iVariable] = m_rndGenerator.nextInt( 2 ) == 1;
+			}
+			compare( sOperation, addExpected.valueAt( abAssignment ), add.valueAt( abAssignment ) );
+			//one failure per operation
+			if( m_cFailures > cFailures )
+				return;
+		}
+	}
+
+	private AlgebraicDecisionDiagram sumRewards( FactoredPOMDP pomdp ){
+		AlgebraicDecisionDiagram addValues = pomdp.getReward( 0 ).copy(), addSum = null;
+		for( int iAction = 1 ; iAction < pomdp.getActionCount() ; iAction++ ){
+			addSum = addValues.sum( pomdp.getReward( iAction ) );
+			addValues.release();
+			addValues = addSum;
+		}
+		return addValues;
+	}
+
+	//the ADD written by getDOM and read back by parseXML into a new ADD of the same model
+	private AlgebraicDecisionDiagram copyThroughXML( FactoredPOMDP pomdp, AlgebraicDecisionDiagram add ) throws Exception{
+		Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		AlgebraicDecisionDiagram addCopy = pomdp.newAlgebraicDecisionDiagram( pomdp.getStateVariablesCount(), true );
+		addCopy.parseXML( add.getDOM( doc ) );
+		return addCopy;
+	}
+
+	public void checkG( double dEpsilon ) throws Exception{
+		int cVariables = m_pCompact.getStateVariablesCount(), iAction = 0, iObservation = 0, iVariable = 0;
+		double[] adVariableProbabilities = new double[cVariables];
+		String sAO = null;
+		AlgebraicDecisionDiagram addCompactValues = null, addValues = null, addCompactProduct = null, addProduct = null, addCompactG = null, addG = null;
+
+		for( iVariable = 0 ; iVariable < cVariables ; iVariable++ )
+			adVariableProbabilities[iVariable] = m_rndGenerator.nextDouble();
+		m_fCompact.selectBackend();
+		addCompactValues = sumRewards( m_pCompact );
+		m_fChecked.selectBackend();
+		addValues = sumRewards( m_pChecked );
+		compare( "rewards", addCompactValues, addValues, cVariables );
+		compare( "value sum", addCompactValues.getValueSum(), addValues.getValueSum() );
+		compare( "max value", addCompactValues.getMaxValue(), addValues.getMaxValue() );
+		compare( "min value", addCompactValues.getMinValue(), addValues.getMinValue() );
+		compare( "xml", addCompactValues, copyThroughXML( m_pChecked, addValues ), cVariables );
+		addCompactValues.product( 0.37 );
+		addValues.product( 0.37 );
+		compare( "scalar product", addCompactValues, addValues, cVariables );
+
+		for( iAction = 0 ; iAction < m_pCompact.getActionCount() ; iAction++ ){
+			for( iObservation = 0 ; iObservation < m_pCompact.getObservationCount() ; iObservation++ ){
+				sAO = "(" + iAction + "," + iObservation + ")";
+				m_fCompact.selectBackend();
+				addCompactProduct = m_pCompact.relevantActionDiagramProduct( addCompactValues, iAction, iObservation, false );
+				addCompactG = m_pCompact.existentialAbstraction( addCompactProduct, true, false, iAction, true );
+				m_fChecked.selectBackend();
+				addProduct = m_pChecked.relevantActionDiagramProduct( addValues, iAction, iObservation, false );
+				addG = m_pChecked.existentialAbstraction( addProduct, true, false, iAction, true );
+				compare( "product" + sAO, addCompactProduct, addProduct, 2 * cVariables );
+				compare( "filtered value sum" + sAO, addCompactProduct.getValueSum(), addProduct.getValueSum() );
+				compare( "existential abstraction" + sAO, addCompactG, addG, cVariables );
+				addCompactG.reduceToMin( dEpsilon );
+				addG.reduceToMin( dEpsilon );
+				compare( "reduceToMin" + sAO, addCompactG, addG, cVariables );
+				compare( "inner product" + sAO, addCompactG.innerProduct( addCompactValues ), addG.innerProduct( addValues ) );
+				compare( "marginal inner product" + sAO, addCompactG.innerProduct( adVariableProbabilities ), addG.innerProduct( adVariableProbabilities ) );
+				if( addG.compile() != null )
+					compare( "compiled inner product" + sAO, addCompactG.innerProduct( adVariableProbabilities ), addG.compile().innerProduct( adVariableProbabilities ) );
+				compare( "maximum" + sAO, addCompactG.maximum( addCompactValues ), addG.maximum( addValues ), cVariables );
+				compare( "max" + sAO, addCompactG.max( addCompactValues ), addG.max( addValues ), cVariables );
+				if( addCompactG.dominates( addCompactValues ) != addG.dominates( addValues ) ){
+					m_cFailures++;
+					Logger.getInstance().logError( "ADDBackendCheck", "checkG", m_fChecked.getName() + " dominates" + sAO + " differs" );
+				}
+				addCompactProduct.release();
+				addProduct.release();
+				addCompactG.release();
+				addG.release();
+			}
+		}
+		addCompactValues.release();
+		addValues.release();
+	}
+
+	/**
+	 * Follows the most likely observation (by the compact ADDs) of random actions from the initial belief.
+	 */
+	public void checkBeliefUpdates( int cSteps ){
+		BeliefState bsCompact = null, bsChecked = null;
+		int iStep = 0, iAction = 0, iObservation = 0, iState = 0, iMaxObservation = 0;
+		double dProb = 0.0, dMaxProb = 0.0;
+
+		m_fCompact.selectBackend();
+		bsCompact = m_pCompact.getBeliefStateFactory().getInitialBeliefState();
+		m_fChecked.selectBackend();
+		bsChecked = m_pChecked.getBeliefStateFactory().getInitialBeliefState();
+		for( iStep = 0 ; iStep < cSteps && bsCompact != null && bsChecked != null ; iStep++ ){
+			iAction = m_rndGenerator.nextInt( m_pCompact.getActionCount() );
+			dMaxProb = -1.0;
+			for( iObservation = 0 ; iObservation < m_pCompact.getObservationCount() ; iObservation++ ){
+				m_fCompact.selectBackend();
+				dProb = bsCompact.probabilityOGivenA( iAction, iObservation );
+				m_fChecked.selectBackend();
+				compare( "pr(o|a) step " + iStep + " (" + iAction + "," + iObservation + ")", dProb, bsChecked.probabilityOGivenA( iAction, iObservation ) );
+				if( dProb > dMaxProb ){
+					dMaxProb = dProb;
+					iMaxObservation = iObservation;
+				}
+			}
+			m_fCompact.selectBackend();
+			bsCompact = bsCompact.nextBeliefState( iAction, iMaxObservation );
+			m_fChecked.selectBackend();
+			bsChecked = bsChecked.nextBeliefState( iAction, iMaxObservation );
+			for( iState = 0 ; iState < Math.min( MAX_ASSIGNMENTS, m_pCompact.getStateCount() ) ; iState++ )
+				compare( "belief step " + iStep + " b(" + iState + ")", bsCompact.valueAt( iState ), bsChecked.valueAt( iState ) );
+		}
+	}
+
+	public double getMaxError(){
+		return m_dMaxError;
+	}
+
+	public int getFailureCount(){
+		return m_cFailures;
+	}
+
+	public static void main( String[] args ) throws Exception{
+		String sBackend = "affine";
+		String[] asFixtures = { "RockSampleADD", "NetworkADD", "LogisticsADD" };
+		int cFailures = 0;
+		if( args.length > 0 )
+			sBackend = args[0];
+		if( args.length > 1 )
+			asFixtures = args[1].split( "," );
+		for( String sFixture : asFixtures ){
+			ADDBackendCheck check = new ADDBackendCheck( sFixture, sBackend );
+			check.checkG( 0.05 );
+			check.checkBeliefUpdates( 8 );
+			Logger.getInstance().log( "ADDBackendCheck", 0, "main", sFixture + "@" + sBackend + ": max relative error " + check.getMaxError() +
+					", " + check.getFailureCount() + " failures" );
+			cFailures += check.getFailureCount();
+		}
+		System.exit( cFailures == 0 ? 0 : 1 );
+	}
+}
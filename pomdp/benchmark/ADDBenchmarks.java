@@ -0,0 +1,125 @@
+package pomdp.benchmark;
+
+import java.util.Vector;
+
+import pomdp.environments.FactoredPOMDP;
+import pomdp.utilities.factored.AlgebraicDecisionDiagram;
+
+/**
+ * Benchmarks of the ADD operations of a factored G computation over an ADD fixture, following FactoredAlphaVector.computeG
+ * over the relevant variables - the product of a value ADD with the relevant action diagrams, the sum of two ADDs,
+ * and the existential abstraction of the relevant post action variables from the product.
+ * The value ADD is the sum of the reward ADDs of all the actions. The ADDs are of the implementation of the fixture (see Fixture).
+ */
+public class ADDBenchmarks {
+
+	public static Vector<Benchmark> create( Fixture fFixture ){
+		Vector<Benchmark> vBenchmarks = new Vector<Benchmark>();
+		vBenchmarks.add( new Product( fFixture ) );
+		vBenchmarks.add( new Sum( fFixture ) );
+		vBenchmarks.add( new ExistentialAbstraction( fFixture ) );
+		return vBenchmarks;
+	}
+
+	private static abstract class ADDBenchmark extends Benchmark{
+		protected FactoredPOMDP m_pPOMDP;
+		protected AlgebraicDecisionDiagram m_addValues;
+		protected int m_iNext;
+
+		public ADDBenchmark( String sName, Fixture fFixture ){
+			super( sName, fFixture );
+		}
+		public void setUp(){
+			AlgebraicDecisionDiagram addSum = null;
+			m_pPOMDP = getFixture().getFactoredPOMDP();
+			m_addValues = m_pPOMDP.getReward( 0 ).copy();
+			for( int iAction = 1 ; iAction < m_pPOMDP.getActionCount() ; iAction++ ){
+				addSum = m_addValues.sum( m_pPOMDP.getReward( iAction ) );
+				m_addValues.release();
+				m_addValues = addSum;
+			}
+			m_iNext = 0;
+		}
+		public void tearDown(){
+			m_addValues.release();
+		}
+		protected int nextAction(){
+			return ( m_iNext / m_pPOMDP.getObservationCount() ) % m_pPOMDP.getActionCount();
+		}
+		protected int nextObservation(){
+			return m_iNext % m_pPOMDP.getObservationCount();
+		}
+	}
+
+	//the value ADD is translated once per action into the relevant post action variables, so only the product is timed
+	private static class Product extends ADDBenchmark{
+		private AlgebraicDecisionDiagram[] m_aTranslated;
+
+		public Product( Fixture fFixture ){
+			super( "addProduct", fFixture );
+		}
+		public void setUp(){
+			super.setUp();
+			m_aTranslated = new AlgebraicDecisionDiagram[m_pPOMDP.getActionCount()];
+			for( int iAction = 0 ; iAction < m_aTranslated.length ; iAction++ ){
+				m_aTranslated[iAction] = m_addValues.copy();
+				m_aTranslated[iAction].translateVariables( m_pPOMDP.getRelevantPostActionVariableExpander( iAction ) );
+			}
+		}
+		public void tearDown(){
+			super.tearDown();
+			for( AlgebraicDecisionDiagram addTranslated : m_aTranslated )
+				addTranslated.release();
+		}
+		public double run(){
+			int iAction = nextAction(), iObservation = nextObservation();
+			AlgebraicDecisionDiagram addProduct = m_aTranslated[iAction].product( m_pPOMDP.getRelevantActionDiagram( iAction, iObservation ) );
+			m_iNext++;
+			long cVertexes = addProduct.getVertexCount();
+			addProduct.release();
+			return cVertexes;
+		}
+	}
+
+	private static class Sum extends ADDBenchmark{
+		public Sum( Fixture fFixture ){
+			super( "addSum", fFixture );
+		}
+		public double run(){
+			AlgebraicDecisionDiagram addSum = m_addValues.sum( m_pPOMDP.getReward( m_iNext++ % m_pPOMDP.getActionCount() ) );
+			long cVertexes = addSum.getVertexCount();
+			addSum.release();
+			return cVertexes;
+		}
+	}
+
+	private static class ExistentialAbstraction extends ADDBenchmark{
+		private AlgebraicDecisionDiagram[][] m_aProducts;
+
+		public ExistentialAbstraction( Fixture fFixture ){
+			super( "addExistentialAbstraction", fFixture );
+		}
+		public void setUp(){
+			super.setUp();
+			int iAction = 0, iObservation = 0;
+			m_aProducts = new AlgebraicDecisionDiagram[m_pPOMDP.getActionCount()][m_pPOMDP.getObservationCount()];
+			for( iAction = 0 ; iAction < m_pPOMDP.getActionCount() ; iAction++ )
+				for( iObservation = 0 ; iObservation < m_pPOMDP.getObservationCount() ; iObservation++ )
+					m_aProducts[iAction][iObservation] = m_pPOMDP.relevantActionDiagramProduct( m_addValues, iAction, iObservation, false );
+		}
+		public void tearDown(){
+			super.tearDown();
+			for( AlgebraicDecisionDiagram[] aProducts : m_aProducts )
+				for( AlgebraicDecisionDiagram addProduct : aProducts )
+					addProduct.release();
+		}
+		public double run(){
+			int iAction = nextAction();
+			AlgebraicDecisionDiagram addAbstracted = m_pPOMDP.existentialAbstraction( m_aProducts[iAction][nextObservation()], true, false, iAction, true );
+			m_iNext++;
+			long cVertexes = addAbstracted.getVertexCount();
+			addAbstracted.release();
+			return cVertexes;
+		}
+	}
+}
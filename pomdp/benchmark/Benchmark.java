@@ -0,0 +1,38 @@
+package pomdp.benchmark;
+
+/**
+ * A single benchmarked operation over a fixture.
+ * Only run is timed. setUp is called once before the warmup, setUpIteration before every warmup and measurement iteration,
+ * so state that the operation consumes (e.g. a value function that grows) can be restored between iterations.
+ */
+public abstract class Benchmark {
+	private String m_sName;
+	private Fixture m_fFixture;
+
+	public Benchmark( String sName, Fixture fFixture ){
+		m_sName = sName;
+		m_fFixture = fFixture;
+	}
+
+	public String getName(){
+		return m_sName;
+	}
+
+	public Fixture getFixture(){
+		return m_fFixture;
+	}
+
+	public void setUp() throws Exception{
+	}
+
+	public void setUpIteration() throws Exception{
+	}
+
+	public void tearDown(){
+	}
+
+	/**
+	 * Executes the operation once. The returned value is accumulated by the runner so that the work cannot be optimized away.
+	 */
+	public abstract double run() throws Exception;
+}
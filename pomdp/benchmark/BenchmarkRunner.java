@@ -0,0 +1,299 @@
+package pomdp.benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Vector;
+import java.util.regex.Pattern;
+
+import pomdp.utilities.Logger;
+
+/**
+ * Runs the solver and ADD benchmarks over a set of fixtures and writes the results as JSON.
+ * Each benchmark runs warmup iterations and then measurement iterations of a fixed duration, and the score is the
+ * average time of an operation (us/op) over the measurement iterations, with a 99.9% confidence interval.
+ * The JSON follows the JMH result format, one entry per benchmark and fixture (the fixture is the "fixture" parameter),
+ * so existing JMH tooling can be used to compare runs. Unlike JMH all benchmarks run in the same JVM - run separate
+ * processes (e.g. one per fixture) when JIT profile pollution between benchmarks matters.
+ * With -add every ADD fixture is run once per listed ADD implementation (compact, shared, affine - see Fixture), so the
+ * implementations are compared side by side in the same results.
+ * Usage: BenchmarkRunner [-f fixture,...] [-add backend,...] [-b regex] [-wi warmup iterations] [-i iterations] [-t ms per iteration] [-o output file]
+ */
+public class BenchmarkRunner {
+	private static final double[] T_QUANTILES = { 636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+		4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792, 3.768, 3.745, 3.725,
+		3.707, 3.690, 3.674, 3.659, 3.646 };
+	private static final double T_QUANTILE_LIMIT = 3.291;
+
+	private int m_cWarmupIterations;
+	private int m_cMeasurementIterations;
+	private long m_lIterationTime;
+	private Pattern m_pFilter;
+	private double m_dSink;
+
+	public BenchmarkRunner( int cWarmupIterations, int cMeasurementIterations, long lIterationTime, String sFilter ){
+		m_cWarmupIterations = cWarmupIterations;
+		m_cMeasurementIterations = cMeasurementIterations;
+		m_lIterationTime = lIterationTime;
+		m_pFilter = null;
+		if( sFilter != null )
+			m_pFilter = Pattern.compile( sFilter );
+		m_dSink = 0.0;
+	}
+
+	/**
+	 * The scores of a benchmark over a fixture, in us/op.
+	 */
+	public static class Result{
+		private String m_sBenchmark;
+		private String m_sFixture;
+		private double[] m_adScores;
+
+		public Result( String sBenchmark, String sFixture, double[] adScores ){
+			m_sBenchmark = sBenchmark;
+			m_sFixture = sFixture;
+			m_adScores = adScores;
+		}
+		public String getBenchmark(){
+			return m_sBenchmark;
+		}
+		public String getFixture(){
+			return m_sFixture;
+		}
+		public double getScore(){
+			double dSum = 0.0;
+			for( double dScore : m_adScores )
+				dSum += dScore;
+			return dSum / m_adScores.length;
+		}
+		/**
+		 * Half the width of the 99.9% confidence interval of the score (Student's t).
+		 */
+		public double getScoreError(){
+			int cScores = m_adScores.length;
+			double dMean = getScore(), dSquares = 0.0;
+			if( cScores < 2 )
+				return Double.NaN;
+			for( double dScore : m_adScores )
+				dSquares += ( dScore - dMean ) * ( dScore - dMean );
+			double dT = T_QUANTILE_LIMIT;
+			if( cScores - 1 <= T_QUANTILES.length )
+				dT = T_QUANTILES[cScores - 2];
+			return dT * Math.sqrt( dSquares / ( cScores - 1 ) ) / Math.sqrt( cScores );
+		}
+		public double[] getScores(){
+			return m_adScores;
+		}
+	}
+
+	public Vector<Result> run( String[] asFixtures ){
+		Vector<Result> vResults = new Vector<Result>();
+		Fixture fFixture = null;
+		Vector<Benchmark> vBenchmarks = null;
+
+		for( String sFixture : asFixtures ){
+			try{
+				fFixture = Fixture.create( sFixture );
+			}
+			catch( Exception e ){
+				Logger.getInstance().logError( "BenchmarkRunner", "run", "Could not create fixture " + sFixture + ": " + e );
+				continue;
+			}
+			fFixture.selectBackend();
+			if( fFixture.isADDFixture() )
+				vBenchmarks = ADDBenchmarks.create( fFixture );
+			else
+				vBenchmarks = SolverBenchmarks.create( fFixture );
+			for( Benchmark b : vBenchmarks ){
+				if( m_pFilter != null && !m_pFilter.matcher( b.getName() ).find() )
+					continue;
+				try{
+					vResults.add( run( b ) );
+				}
+				catch( Exception e ){
+					Logger.getInstance().logError( "BenchmarkRunner", "run", b.getName() + " on " + sFixture + " failed: " + e );
+					e.printStackTrace();
+				}
+			}
+		}
+		//only so that the results of the operations are used
+		Logger.getInstance().log( "BenchmarkRunner", 2, "run", "sink " + m_dSink );
+		return vResults;
+	}
+
+	public Result run( Benchmark b ) throws Exception{
+		String sName = b.getName() + "(" + b.getFixture().getName() + ")";
+		Result rResult = null;
+
+		System.gc();
+		b.getFixture().selectBackend();
+		b.setUp();
+		try{
+			measure( b, m_cWarmupIterations, sName + " warmup" );
+			rResult = new Result( b.getName(), b.getFixture().getName(), measure( b, m_cMeasurementIterations, sName ) );
+		}
+		finally{
+			b.tearDown();
+		}
+		Logger.getInstance().log( "BenchmarkRunner", 0, "run", sName + ": " + format( rResult.getScore() ) + " +- " +
+				format( rResult.getScoreError() ) + " us/op" );
+		return rResult;
+	}
+
+	/*
+	 * Operations are executed in batches that grow until a batch takes at least 1% of the iteration, so that reading the
+	 * clock does not dominate short operations.
+	 */
+	private double[] measure( Benchmark b, int cIterations, String sName ) throws Exception{
+		double[] adScores = new double[cIterations];
+		long lIterationTime = m_lIterationTime * 1000000, lStart = 0, lBatchStart = 0, lNow = 0;
+		long cOperations = 0, cBatch = 0, iOperation = 0;
+		double dSink = 0.0;
+
+		for( int iIteration = 0 ; iIteration < cIterations ; iIteration++ ){
+			b.setUpIteration();
+			cOperations = 0;
+			cBatch = 1;
+			lStart = System.nanoTime();
+			lNow = lStart;
+			while( lNow - lStart < lIterationTime ){
+				lBatchStart = lNow;
+				for( iOperation = 0 ; iOperation < cBatch ; iOperation++ )
+					dSink += b.run();
+				cOperations += cBatch;
+				lNow = System.nanoTime();
+				if( lNow - lBatchStart < lIterationTime / 100 )
+					cBatch *= 2;
+			}
+			adScores[iIteration] = ( lNow - lStart ) / 1000.0 / cOperations;
+			Logger.getInstance().log( "BenchmarkRunner", 1, "measure", sName + " iteration " + iIteration + ": " +
+					format( adScores[iIteration] ) + " us/op, " + cOperations + " operations" );
+		}
+		m_dSink += dSink;
+		return adScores;
+	}
+
+	private static String format( double dValue ){
+		return String.format( Locale.US, "%.3f", dValue );
+	}
+
+	/**
+	 * Writes the results in the JMH JSON result format.
+	 */
+	public void writeJSON( Vector<Result> vResults, String sFileName ) throws IOException{
+		StringBuilder sb = new StringBuilder();
+		int iResult = 0, iScore = 0;
+		sb.append( "[\n" );
+		for( iResult = 0 ; iResult < vResults.size() ; iResult++ ){
+			Result r = vResults.get( iResult );
+			double dError = r.getScoreError();
+			sb.append( "    {\n" );
+			sb.append( "        \"benchmark\" : " ).append( quote( "pomdp.benchmark." + r.getBenchmark() ) ).append( ",\n" );
+			sb.append( "        \"mode\" : \"avgt\",\n" );
+			sb.append( "        \"threads\" : 1,\n" );
+			sb.append( "        \"forks\" : 0,\n" );
+			sb.append( "        \"warmupIterations\" : " ).append( m_cWarmupIterations ).append( ",\n" );
+			sb.append( "        \"warmupTime\" : \"" ).append( m_lIterationTime ).append( " ms\",\n" );
+			sb.append( "        \"measurementIterations\" : " ).append( m_cMeasurementIterations ).append( ",\n" );
+			sb.append( "        \"measurementTime\" : \"" ).append( m_lIterationTime ).append( " ms\",\n" );
+			sb.append( "        \"params\" : {\n" );
+			sb.append( "            \"fixture\" : " ).append( quote( r.getFixture() ) ).append( "\n" );
+			sb.append( "        },\n" );
+			sb.append( "        \"primaryMetric\" : {\n" );
+			sb.append( "            \"score\" : " ).append( number( r.getScore() ) ).append( ",\n" );
+			sb.append( "            \"scoreError\" : " ).append( number( dError ) ).append( ",\n" );
+			sb.append( "            \"scoreConfidence\" : [ " ).append( number( r.getScore() - dError ) ).append( ", " )
+				.append( number( r.getScore() + dError ) ).append( " ],\n" );
+			sb.append( "            \"scoreUnit\" : \"us/op\",\n" );
+			sb.append( "            \"rawData\" : [ [ " );
+			for( iScore = 0 ; iScore < r.getScores().length ; iScore++ ){
+				if( iScore > 0 )
+					sb.append( ", " );
+				sb.append( number( r.getScores()[iScore] ) );
+			}
+			sb.append( " ] ]\n" );
+			sb.append( "        },\n" );
+			sb.append( "        \"secondaryMetrics\" : {\n" );
+			sb.append( "        }\n" );
+			sb.append( "    }" );
+			if( iResult < vResults.size() - 1 )
+				sb.append( "," );
+			sb.append( "\n" );
+		}
+		sb.append( "]\n" );
+
+		FileWriter fw = new FileWriter( sFileName );
+		try{
+			fw.write( sb.toString() );
+		}
+		finally{
+			fw.close();
+		}
+	}
+
+	private static String number( double dValue ){
+		if( Double.isNaN( dValue ) || Double.isInfinite( dValue ) )
+			return "\"NaN\"";
+		return Double.toString( dValue );
+	}
+
+	private static String quote( String s ){
+		return "\"" + s.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ) + "\"";
+	}
+
+	/**
+	 * Replaces every ADD fixture without an ADD backend by one fixture per backend, e.g. LogisticsADD by LogisticsADD@compact and LogisticsADD@affine.
+	 */
+	public static String[] expandBackends( String[] asFixtures, String[] asBackends ){
+		Vector<String> vFixtures = new Vector<String>();
+		for( String sFixture : asFixtures ){
+			if( sFixture.endsWith( "ADD" ) ){
+				for( String sBackend : asBackends )
+					vFixtures.add( sFixture + "@" + sBackend );
+			}
+			else{
+				vFixtures.add( sFixture );
+			}
+		}
+		return vFixtures.toArray( new String[vFixtures.size()] );
+	}
+
+	public static void main( String[] args ){
+		String[] asFixtures = Fixture.DEFAULT_FIXTURES, asBackends = null;
+		String sFilter = null, sOutputFile = "benchmark-results.json";
+		int cWarmupIterations = 3, cMeasurementIterations = 5;
+		long lIterationTime = 1000;
+		int iArg = 0;
+
+		for( iArg = 0 ; iArg + 1 < args.length ; iArg += 2 ){
+			if( args[iArg].equals( "-f" ) )
+				asFixtures = args[iArg + 1].split( "," );
+			else if( args[iArg].equals( "-add" ) )
+				asBackends = args[iArg + 1].split( "," );
+			else if( args[iArg].equals( "-b" ) )
+				sFilter = args[iArg + 1];
+			else if( args[iArg].equals( "-wi" ) )
+				cWarmupIterations = Integer.parseInt( args[iArg + 1] );
+			else if( args[iArg].equals( "-i" ) )
+				cMeasurementIterations = Integer.parseInt( args[iArg + 1] );
+			else if( args[iArg].equals( "-t" ) )
+				lIterationTime = Long.parseLong( args[iArg + 1] );
+			else if( args[iArg].equals( "-o" ) )
+				sOutputFile = args[iArg + 1];
+			else
+				System.err.println( "Unknown option " + args[iArg] );
+		}
+
+		if( asBackends != null )
+			asFixtures = expandBackends( asFixtures, asBackends );
+		BenchmarkRunner brRunner = new BenchmarkRunner( cWarmupIterations, cMeasurementIterations, lIterationTime, sFilter );
+		Vector<Result> vResults = brRunner.run( asFixtures );
+		try{
+			brRunner.writeJSON( vResults, sOutputFile );
+			Logger.getInstance().log( "BenchmarkRunner", 0, "main", "Wrote " + vResults.size() + " results to " + sOutputFile );
+		}
+		catch( IOException e ){
+			Logger.getInstance().logError( "BenchmarkRunner", "main", "Could not write " + sOutputFile + ": " + e );
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package pomdp.benchmark;
+
+import java.util.Vector;
+
+import pomdp.CreateBeliefSpaces;
+import pomdp.environments.FactoredPOMDP;
+import pomdp.environments.Logistics;
+import pomdp.environments.ModifiedRockSample;
+import pomdp.environments.NetworkManagement;
+import pomdp.environments.POMDP;
+import pomdp.environments.FactoredPOMDP.BeliefType;
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.ExecutionProperties;
+import pomdp.utilities.Logger;
+import pomdp.utilities.RandomGenerator;
+import pomdp.valuefunction.LinearValueFunctionApproximation;
+
+/**
+ * A model and the solver state that the benchmarks operate on.
+ * Flat fixtures hold belief points collected by random walks and a value function trained by a few Perseus iterations.
+ * ADD fixtures hold a factored model with ADDs over the relevant variables of each action, and are used by the ADD benchmarks only.
+ * Fixtures are built with a fixed random stream, so the same name always gives the same fixture.
+ * Names:
+ *   RockSample, Network, Logistics - the bundled generators with flat beliefs
+ *   RockSampleADD, NetworkADD, LogisticsADD - the same generators with ADDs
+ *   Synthetic-|S|-|A|-|O|-#successors - a SyntheticPOMDP
+ * An ADD fixture name may end with @compact, @shared or @affine to build its ADDs with that implementation
+ * (CompactAlgebraicDecisionDiagram, SharedAlgebraicDecisionDiagram or AffineADD) instead of the one set in ExecutionProperties.
+ */
+public class Fixture {
+	public static final String[] DEFAULT_FIXTURES = { "RockSample", "Network", "Logistics", "Synthetic-100-5-5-8", "Synthetic-1000-8-8-10",
+		"RockSampleADD", "NetworkADD", "LogisticsADD" };
+	public static final String[] ADD_BACKENDS = { "compact", "shared", "affine" };
+
+	private static final long SEED = 4242;
+	private static final int BELIEF_POINTS = 200;
+	private static final int TRAINING_ITERATIONS = 40;
+
+	private String m_sName;
+	private String m_sBackend;
+	private POMDP m_pPOMDP;
+	private Vector<BeliefState> m_vBeliefPoints;
+	private LinearValueFunctionApproximation m_vValueFunction;
+
+	private Fixture( String sName, String sBackend, POMDP pomdp ){
+		m_sName = sName;
+		m_sBackend = sBackend;
+		m_pPOMDP = pomdp;
+		m_vBeliefPoints = null;
+		m_vValueFunction = null;
+	}
+
+	public static Fixture create( String sName ) throws Exception{
+		Fixture fFixture = null;
+		String sModel = sName, sBackend = null;
+		int iBackend = sName.indexOf( '@' );
+		if( iBackend >= 0 ){
+			sModel = sName.substring( 0, iBackend );
+			sBackend = sName.substring( iBackend + 1 );
+			if( !isADDBackend( sBackend ) )
+				throw new IllegalArgumentException( "Unknown ADD backend " + sBackend + " in fixture " + sName );
+			selectBackend( sBackend );
+		}
+		RandomGenerator.bindThreadStream( SEED );
+		try{
+			fFixture = new Fixture( sName, sBackend, createPOMDP( sModel ) );
+			if( sBackend != null && !fFixture.isADDFixture() )
+				throw new IllegalArgumentException( "Only ADD fixtures have an ADD backend, got " + sName );
+			if( !fFixture.isADDFixture() )
+				fFixture.train();
+		}
+		finally{
+			RandomGenerator.unbindThreadStream();
+		}
+		return fFixture;
+	}
+
+	public static boolean isADDBackend( String sBackend ){
+		for( String sKnown : ADD_BACKENDS )
+			if( sKnown.equals( sBackend ) )
+				return true;
+		return false;
+	}
+
+	private static void selectBackend( String sBackend ){
+		ExecutionProperties.setUseSharedADDs( !sBackend.equals( "compact" ) );
+		ExecutionProperties.setUseAffineADDs( sBackend.equals( "affine" ) );
+	}
+
+	/**
+	 * Sets the ADD implementation of the fixture in ExecutionProperties. Factored models create some of their ADDs
+	 * (e.g. belief states) when they are used, so this is called before every use of a fixture with an ADD backend.
+	 */
+	public void selectBackend(){
+		if( m_sBackend != null )
+			selectBackend( m_sBackend );
+	}
+
+	/**
+	 * The ADD implementation in the name of the fixture, or null when the fixture uses the one set in ExecutionProperties.
+	 */
+	public String getBackend(){
+		return m_sBackend;
+	}
+
+	private static POMDP createPOMDP( String sName ){
+		if( sName.equals( "RockSample" ) )
+			return new ModifiedRockSample( 5, 5, 3, BeliefType.Flat );
+		if( sName.equals( "Network" ) )
+			return new NetworkManagement( 6, BeliefType.Flat );
+		if( sName.equals( "Logistics" ) )
+			return new Logistics( 3, 1, 2, BeliefType.Flat );
+		if( sName.equals( "RockSampleADD" ) )
+			return new ModifiedRockSample( 5, 5, 3, BeliefType.Factored );
+		if( sName.equals( "NetworkADD" ) )
+			return new NetworkManagement( 6, BeliefType.Factored );
+		if( sName.equals( "LogisticsADD" ) )
+			return new Logistics( 3, 1, 2, BeliefType.Factored );
+		if( sName.startsWith( "Synthetic-" ) ){
+			String[] asSizes = sName.split( "-" );
+			if( asSizes.length == 5 )
+				return new SyntheticPOMDP( Integer.parseInt( asSizes[1] ), Integer.parseInt( asSizes[2] ),
+						Integer.parseInt( asSizes[3] ), Integer.parseInt( asSizes[4] ) );
+		}
+		throw new IllegalArgumentException( "Unknown fixture " + sName );
+	}
+
+	private void train(){
+		m_vBeliefPoints = CreateBeliefSpaces.createRandomSpace( m_pPOMDP, (int)SEED, BELIEF_POINTS );
+		SingleStepPerseus pv = new SingleStepPerseus( m_pPOMDP, m_vBeliefPoints );
+		pv.initRandomGenerator( SEED );
+		for( int iIteration = 0 ; iIteration < TRAINING_ITERATIONS ; iIteration++ )
+			pv.iterate();
+		m_vValueFunction = pv.getValueFunction();
+		Logger.getInstance().log( "Fixture", 0, "train", m_sName + ": |S| = " + m_pPOMDP.getStateCount() + " |B| = " + m_vBeliefPoints.size() +
+				" |V| = " + m_vValueFunction.size() );
+	}
+
+	public String getName(){
+		return m_sName;
+	}
+
+	public POMDP getPOMDP(){
+		return m_pPOMDP;
+	}
+
+	/**
+	 * ADD fixtures have a factored model and no belief points or value function.
+	 */
+	public boolean isADDFixture(){
+		return m_pPOMDP.isFactored();
+	}
+
+	public FactoredPOMDP getFactoredPOMDP(){
+		return (FactoredPOMDP)m_pPOMDP;
+	}
+
+	public Vector<BeliefState> getBeliefPoints(){
+		return m_vBeliefPoints;
+	}
+
+	/**
+	 * The trained value function. Benchmarks that modify the value function must work on a copy.
+	 */
+	public LinearValueFunctionApproximation getValueFunction(){
+		return m_vValueFunction;
+	}
+}
@@ -0,0 +1,26 @@
+package pomdp.benchmark;
+
+import java.util.Vector;
+
+import pomdp.algorithms.pointbased.PerseusValueIteration;
+import pomdp.environments.POMDP;
+import pomdp.utilities.BeliefState;
+
+/**
+ * Perseus over a fixed set of belief points, executing one value function iteration at a time.
+ */
+public class SingleStepPerseus extends PerseusValueIteration {
+
+	public SingleStepPerseus( POMDP pomdp, Vector<BeliefState> vBeliefPoints ){
+		super( pomdp );
+		init( vBeliefPoints );
+	}
+
+	/**
+	 * Executes a single Perseus iteration over the belief points.
+	 * @return the maximal improvement of the value of a belief point
+	 */
+	public double iterate(){
+		return singleValueFunctionIteration( 0, m_dEpsilon, m_pPOMDP );
+	}
+}
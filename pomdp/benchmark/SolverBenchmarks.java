@@ -0,0 +1,232 @@
+package pomdp.benchmark;
+
+import java.util.Collections;
+import java.util.Vector;
+
+import pomdp.utilities.AlphaVector;
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.BeliefStateFactory;
+import pomdp.valuefunction.LinearValueFunctionApproximation;
+
+/**
+ * Benchmarks of the point based solver hot paths over a flat fixture.
+ * Operations that have an argument cycle over the belief points, vectors, actions and observations of the fixture,
+ * so that a measurement is not a repetition of a single (cached) input.
+ */
+public class SolverBenchmarks {
+
+	public static Vector<Benchmark> create( Fixture fFixture ){
+		Vector<Benchmark> vBenchmarks = new Vector<Benchmark>();
+		vBenchmarks.add( new DotProduct( fFixture ) );
+		vBenchmarks.add( new NextBeliefState( fFixture ) );
+		vBenchmarks.add( new CalcNormalizingFactor( fFixture ) );
+		vBenchmarks.add( new ComputeG( fFixture ) );
+		vBenchmarks.add( new GetMaxAlpha( fFixture ) );
+		vBenchmarks.add( new Backup( fFixture ) );
+		vBenchmarks.add( new AddPrunePointwiseDominated( fFixture ) );
+		vBenchmarks.add( new PerseusIteration( fFixture ) );
+		return vBenchmarks;
+	}
+
+	private static BeliefState[] beliefs( Fixture fFixture ){
+		return fFixture.getBeliefPoints().toArray( new BeliefState[0] );
+	}
+
+	private static AlphaVector[] vectors( LinearValueFunctionApproximation vValueFunction ){
+		return vValueFunction.getVectors().toArray( new AlphaVector[0] );
+	}
+
+	private static class DotProduct extends Benchmark{
+		private BeliefState[] m_aBeliefs;
+		private AlphaVector[] m_aVectors;
+		private int m_iNext;
+
+		public DotProduct( Fixture fFixture ){
+			super( "dotProduct", fFixture );
+		}
+		public void setUp(){
+			m_aBeliefs = beliefs( getFixture() );
+			m_aVectors = vectors( getFixture().getValueFunction() );
+			m_iNext = 0;
+		}
+		public double run(){
+			m_iNext++;
+			return m_aVectors[m_iNext % m_aVectors.length].dotProduct( m_aBeliefs[( m_iNext / m_aVectors.length ) % m_aBeliefs.length] );
+		}
+	}
+
+	/*
+	 * The (belief, action, observation) triplets with a non zero observation probability.
+	 */
+	private static abstract class BeliefUpdateBenchmark extends Benchmark{
+		protected BeliefStateFactory m_bsFactory;
+		protected BeliefState[] m_aBeliefs;
+		protected int[] m_aiActions;
+		protected int[] m_aiObservations;
+		protected int m_iNext;
+
+		public BeliefUpdateBenchmark( String sName, Fixture fFixture ){
+			super( sName, fFixture );
+		}
+		public void setUp(){
+			Vector<BeliefState> vBeliefs = new Vector<BeliefState>();
+			Vector<Integer> vActions = new Vector<Integer>(), vObservations = new Vector<Integer>();
+			int cActions = getFixture().getPOMDP().getActionCount(), cObservations = getFixture().getPOMDP().getObservationCount();
+			int iAction = 0, iObservation = 0, iUpdate = 0;
+
+			m_bsFactory = getFixture().getPOMDP().getBeliefStateFactory();
+			for( BeliefState bs : getFixture().getBeliefPoints() ){
+				for( iAction = 0 ; iAction < cActions ; iAction++ ){
+					for( iObservation = 0 ; iObservation < cObservations ; iObservation++ ){
+						if( m_bsFactory.calcNormalizingFactor( bs, iAction, iObservation ) > 0.0 ){
+							vBeliefs.add( bs );
+							vActions.add( iAction );
+							vObservations.add( iObservation );
+						}
+					}
+				}
+			}
+			m_aBeliefs = vBeliefs.toArray( new BeliefState[0] );
+			m_aiActions = new int[m_aBeliefs.length];
+			m_aiObservations = new int[m_aBeliefs.length];
+			for( iUpdate = 0 ; iUpdate < m_aBeliefs.length ; iUpdate++ ){
+				m_aiActions[iUpdate] = vActions.get( iUpdate );
+				m_aiObservations[iUpdate] = vObservations.get( iUpdate );
+			}
+			m_iNext = 0;
+		}
+	}
+
+	//through the factory, bypassing the successor cache of the belief state
+	private static class NextBeliefState extends BeliefUpdateBenchmark{
+		public NextBeliefState( Fixture fFixture ){
+			super( "nextBeliefState", fFixture );
+		}
+		public double run(){
+			int iUpdate = m_iNext++ % m_aBeliefs.length;
+			BeliefState bsNext = m_bsFactory.nextBeliefState( m_aBeliefs[iUpdate], m_aiActions[iUpdate], m_aiObservations[iUpdate] );
+			if( bsNext == null )
+				return 0.0;
+			return bsNext.getNonZeroEntriesCount();
+		}
+	}
+
+	private static class CalcNormalizingFactor extends BeliefUpdateBenchmark{
+		public CalcNormalizingFactor( Fixture fFixture ){
+			super( "calcNormalizingFactor", fFixture );
+		}
+		public double run(){
+			int iUpdate = m_iNext++ % m_aBeliefs.length;
+			return m_bsFactory.calcNormalizingFactor( m_aBeliefs[iUpdate], m_aiActions[iUpdate], m_aiObservations[iUpdate] );
+		}
+	}
+
+	//with the G projection cache disabled, so every call computes the projection
+	private static class ComputeG extends Benchmark{
+		private AlphaVector[] m_aVectors;
+		private int m_cActions, m_cObservations;
+		private int m_iNext;
+		private boolean m_bAllowCaching;
+
+		public ComputeG( Fixture fFixture ){
+			super( "computeG", fFixture );
+		}
+		public void setUp(){
+			m_aVectors = vectors( getFixture().getValueFunction() );
+			m_cActions = getFixture().getPOMDP().getActionCount();
+			m_cObservations = getFixture().getPOMDP().getObservationCount();
+			m_iNext = 0;
+			m_bAllowCaching = AlphaVector.allowCaching();
+			AlphaVector.setAllowCaching( false );
+		}
+		public void tearDown(){
+			AlphaVector.setAllowCaching( m_bAllowCaching );
+		}
+		public double run(){
+			int iNext = m_iNext++;
+			AlphaVector av = m_aVectors[iNext % m_aVectors.length];
+			iNext /= m_aVectors.length;
+			return av.G( iNext % m_cActions, ( iNext / m_cActions ) % m_cObservations ).getMaxValue();
+		}
+	}
+
+	//without the max alpha caching of the belief states, so every call evaluates the value function
+	private static class GetMaxAlpha extends Benchmark{
+		private LinearValueFunctionApproximation m_vValueFunction;
+		private BeliefState[] m_aBeliefs;
+		private int m_iNext;
+
+		public GetMaxAlpha( Fixture fFixture ){
+			super( "getMaxAlpha", fFixture );
+		}
+		public void setUp(){
+			m_vValueFunction = new LinearValueFunctionApproximation( getFixture().getValueFunction() );
+			m_vValueFunction.setCaching( false );
+			m_aBeliefs = beliefs( getFixture() );
+			m_iNext = 0;
+		}
+		public double run(){
+			return m_vValueFunction.getMaxAlpha( m_aBeliefs[m_iNext++ % m_aBeliefs.length] ).getMaxValue();
+		}
+	}
+
+	private static class Backup extends Benchmark{
+		private SingleStepPerseus m_pvSolver;
+		private BeliefState[] m_aBeliefs;
+		private int m_iNext;
+
+		public Backup( Fixture fFixture ){
+			super( "backup", fFixture );
+		}
+		public void setUp(){
+			m_pvSolver = new SingleStepPerseus( getFixture().getPOMDP(), getFixture().getBeliefPoints() );
+			m_pvSolver.setValueFunction( getFixture().getValueFunction() );
+			m_aBeliefs = beliefs( getFixture() );
+			m_iNext = 0;
+		}
+		public double run(){
+			return m_pvSolver.backupAll( Collections.singletonList( m_aBeliefs[m_iNext++ % m_aBeliefs.length] ),
+					getFixture().getValueFunction() ).firstElement().getMaxValue();
+		}
+	}
+
+	//adds the backups of the belief points to a copy of the value function, restored every iteration
+	private static class AddPrunePointwiseDominated extends Benchmark{
+		private LinearValueFunctionApproximation m_vValueFunction;
+		private AlphaVector[] m_aCandidates;
+		private int m_iNext;
+
+		public AddPrunePointwiseDominated( Fixture fFixture ){
+			super( "addPrunePointwiseDominated", fFixture );
+		}
+		public void setUp(){
+			SingleStepPerseus pvSolver = new SingleStepPerseus( getFixture().getPOMDP(), getFixture().getBeliefPoints() );
+			m_aCandidates = pvSolver.backupAll( getFixture().getBeliefPoints(), getFixture().getValueFunction() ).toArray( new AlphaVector[0] );
+		}
+		public void setUpIteration(){
+			m_vValueFunction = new LinearValueFunctionApproximation( getFixture().getValueFunction() );
+			m_iNext = 0;
+		}
+		public double run(){
+			if( m_vValueFunction.addPrunePointwiseDominated( m_aCandidates[m_iNext++ % m_aCandidates.length] ) )
+				return 1.0;
+			return 0.0;
+		}
+	}
+
+	//a single iteration starting from (a copy of) the trained value function
+	private static class PerseusIteration extends Benchmark{
+		private SingleStepPerseus m_pvSolver;
+
+		public PerseusIteration( Fixture fFixture ){
+			super( "perseusIteration", fFixture );
+		}
+		public void setUp(){
+			m_pvSolver = new SingleStepPerseus( getFixture().getPOMDP(), getFixture().getBeliefPoints() );
+		}
+		public double run(){
+			m_pvSolver.setValueFunction( new LinearValueFunctionApproximation( getFixture().getValueFunction() ) );
+			return m_pvSolver.iterate();
+		}
+	}
+}
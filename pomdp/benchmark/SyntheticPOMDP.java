@@ -0,0 +1,93 @@
+package pomdp.benchmark;
+
+import java.util.Random;
+
+import pomdp.environments.POMDP;
+
+/**
+ * A random flat POMDP with a fixed branching factor, used as a benchmark fixture where the size of the model
+ * should be controlled directly. Every state-action pair has cSuccessors random successors, every end state
+ * has one likely observation (probability dObservationAccuracy) and the rest of the mass spread over the other observations.
+ * The same seed always creates the same model.
+ */
+public class SyntheticPOMDP extends POMDP {
+	private static final long serialVersionUID = 1L;
+
+	public SyntheticPOMDP( int cStates, int cActions, int cObservations, int cSuccessors, double dObservationAccuracy, long iSeed ){
+		super();
+		Random rnd = new Random( iSeed );
+		int iStartState = 0, iAction = 0, iEndState = 0, iObservation = 0, iSuccessor = 0;
+		int[] aiSuccessors = null;
+		double[] adWeights = null;
+		double dSum = 0.0, dReward = 0.0, dNoise = 0.0;
+
+		m_sName = "Synthetic" + cStates + "_" + cActions + "_" + cObservations;
+		cSuccessors = Math.min( cSuccessors, cStates );
+
+		for( iStartState = 0 ; iStartState < cStates ; iStartState++ )
+			addState( "s" + iStartState );
+		for( iAction = 0 ; iAction < cActions ; iAction++ )
+			addAction( "a" + iAction );
+		for( iObservation = 0 ; iObservation < cObservations ; iObservation++ )
+			addObservation( "o" + iObservation );
+		setDiscountFactor( 0.95 );
+		setRewardType( RewardType.StateAction );
+		initDynamicsFunctions();
+
+		aiSuccessors = new int[cSuccessors];
+		adWeights = new double[cSuccessors];
+		for( iStartState = 0 ; iStartState < cStates ; iStartState++ ){
+			for( iAction = 0 ; iAction < cActions ; iAction++ ){
+				chooseSuccessors( rnd, cStates, aiSuccessors );
+				dSum = 0.0;
+				for( iSuccessor = 0 ; iSuccessor < cSuccessors ; iSuccessor++ ){
+					adWeights[iSuccessor] = rnd.nextDouble() + 0.01;
+					dSum += adWeights[iSuccessor];
+				}
+				for( iSuccessor = 0 ; iSuccessor < cSuccessors ; iSuccessor++ )
+					setTransition( iStartState, iAction, aiSuccessors[iSuccessor], adWeights[iSuccessor] / dSum );
+				dReward = rnd.nextDouble() * 2.0 - 1.0;
+				setReward( iStartState, iAction, dReward );
+				setMinimalReward( iAction, dReward );
+			}
+		}
+
+		dNoise = 0.0;
+		if( cObservations > 1 )
+			dNoise = ( 1.0 - dObservationAccuracy ) / ( cObservations - 1 );
+		for( iAction = 0 ; iAction < cActions ; iAction++ ){
+			for( iEndState = 0 ; iEndState < cStates ; iEndState++ ){
+				int iLikely = rnd.nextInt( cObservations );
+				for( iObservation = 0 ; iObservation < cObservations ; iObservation++ ){
+					if( iObservation == iLikely )
+						setObservation( iAction, iEndState, iObservation, cObservations > 1 ? dObservationAccuracy : 1.0 );
+					else
+						setObservation( iAction, iEndState, iObservation, dNoise );
+				}
+			}
+		}
+
+		for( iStartState = 0 ; iStartState < cStates ; iStartState++ )
+			setStartStateProb( iStartState, 1.0 / cStates );
+
+		initBeliefStateFactory();
+	}
+
+	public SyntheticPOMDP( int cStates, int cActions, int cObservations, int cSuccessors ){
+		this( cStates, cActions, cObservations, cSuccessors, 0.7, cStates * 31L + cActions * 7L + cObservations );
+	}
+
+	//distinct random end states, drawn by rejection - the successor counts are small compared to the state count
+	private static void chooseSuccessors( Random rnd, int cStates, int[] aiSuccessors ){
+		int iSuccessor = 0, iOther = 0, iState = 0;
+		boolean bDuplicate = false;
+		while( iSuccessor < aiSuccessors.length ){
+			iState = rnd.nextInt( cStates );
+			bDuplicate = false;
+			for( iOther = 0 ; iOther < iSuccessor && !bDuplicate ; iOther++ )
+				bDuplicate = aiSuccessors[iOther] == iState;
+			if( !bDuplicate )
+				aiSuccessors[iSuccessor++] = iState;
+		}
+	}
+}
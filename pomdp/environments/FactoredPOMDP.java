@@ -31,16 +31,20 @@ import pomdp.utilities.BeliefStateFactory;
 import pomdp.utilities.ExecutionProperties;
 import pomdp.utilities.JProf;
 import pomdp.utilities.Logger;
+import pomdp.utilities.MDPValueFunction;
 import pomdp.utilities.TabularAlphaVector;
+import pomdp.utilities.factored.ADDNodeManager;
 import pomdp.utilities.factored.AffineADD;
 import pomdp.utilities.factored.AlgebraicDecisionDiagram;
 import pomdp.utilities.factored.CompactAlgebraicDecisionDiagram;
 import pomdp.utilities.factored.FactoredAlphaVector;
 import pomdp.utilities.factored.FactoredBeliefState;
 import pomdp.utilities.factored.FactoredBeliefStateFactory;
+import pomdp.utilities.factored.FactoredMDPValueFunction;
 import pomdp.utilities.factored.IndepandantBeliefState;
 import pomdp.utilities.factored.IndependenBeliefStateFactory;
 import pomdp.utilities.factored.LogisticsBeliefState;
+import pomdp.utilities.factored.SharedAlgebraicDecisionDiagram;
 import pomdp.utilities.factored.AlgebraicDecisionDiagram.VariableTranslator;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
@@ -155,6 +159,8 @@ public abstract class FactoredPOMDP extends POMDP{
 		
 		long lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
 		Logger.getInstance().log( "FactoredPOMDP", 0, "initADDs", "Finished intializing. Time - " + ( lTimeAfter - lTimeBefore ) / 1000000000.0 );
+		if( ExecutionProperties.useAffineADDs() )
+			Logger.getInstance().log( "FactoredPOMDP", 0, "initADDs", "Affine ADDs are experimental - solver values differ from the compact and shared ADDs" );
 	}
 
 	protected void learnIndependentCompoenentDiagrams() {
@@ -282,6 +288,17 @@ public abstract class FactoredPOMDP extends POMDP{
 		return c;
 	}
 	
+	/**
+	 * Factored models solve the MDP over their ADDs, so the values of the states are never tabulated.
+	 */
+	public MDPValueFunction getMDPValueFunction(){
+		if( !isFactored() )
+			return super.getMDPValueFunction();
+		if( !( m_vfMDP instanceof FactoredMDPValueFunction ) )
+			m_vfMDP = new FactoredMDPValueFunction( this, 0.0 );
+		return m_vfMDP;
+	}
+	
 	public boolean useSpecialADDForG(){
 		return m_bUseSpecialADDForG;
 	}
@@ -366,8 +383,12 @@ public abstract class FactoredPOMDP extends POMDP{
 	}
 	
 	public AlgebraicDecisionDiagram newAlgebraicDecisionDiagram( int cStateVariables, boolean bAlphaVectorOrBeliefState ) {
-		//AffineADD.InitAADDContext( getStateVariablesCount() * 2 );
-		//return new AffineADD( cStateVariables ); 
+		if( ExecutionProperties.useAffineADDs() ){
+			AffineADD.InitAADDContext( getStateVariablesCount() * 2 );
+			return new AffineADD( cStateVariables );
+		}
+		if( ExecutionProperties.useSharedADDs() )
+			return new SharedAlgebraicDecisionDiagram( cStateVariables );
 		return new CompactAlgebraicDecisionDiagram( cStateVariables, bAlphaVectorOrBeliefState ); 
 		//return new VertexBasedAlgebraicDecisionDiagram( cStateVariables );
 	}
@@ -768,6 +789,8 @@ public abstract class FactoredPOMDP extends POMDP{
 			createCompleteActionDiagrams( iAction );
 		CompactAlgebraicDecisionDiagram.resetFactories();
 		System.gc();
+		if( ExecutionProperties.useSharedADDs() )
+			ADDNodeManager.getInstance().collectGarbage();
 		Logger.getInstance().logFull( "FactoredPOMDP", 0, "createCompleteActionDiagrams", " done learning all complete action diagrams" );
 	}
 	
@@ -779,6 +802,8 @@ public abstract class FactoredPOMDP extends POMDP{
 			createPartialActionDiagrams( iAction );
 		CompactAlgebraicDecisionDiagram.resetFactories();
 		System.gc();
+		if( ExecutionProperties.useSharedADDs() )
+			ADDNodeManager.getInstance().collectGarbage();
 		Logger.getInstance().logFull( "FactoredPOMDP", 0, "createPartialActionDiagrams", " done learning all partial action diagrams" );
 	}
 	
@@ -1330,8 +1355,14 @@ public abstract class FactoredPOMDP extends POMDP{
 	}
 	
 	public AlgebraicDecisionDiagram relevantActionDiagramProduct( AlgebraicDecisionDiagram add, int iAction, int iObservation, boolean bPreAction ){
+		return relevantActionDiagramProduct( add, iAction, getRelevantActionDiagram( iAction, iObservation ), bPreAction );
+	}
+	
+	/**
+	 * The product with a diagram over the relevant variables of the action, such as a sum of its relevant action diagrams.
+	 */
+	public AlgebraicDecisionDiagram relevantActionDiagramProduct( AlgebraicDecisionDiagram add, int iAction, AlgebraicDecisionDiagram addRelevant, boolean bPreAction ){
 		AlgebraicDecisionDiagram.AbstractionFilter aFilter = null;
-		AlgebraicDecisionDiagram addRelevant = getRelevantActionDiagram( iAction, iObservation );
 		int[] aiVariables = getRelevantVariables( iAction );
 		
 		//System.out.println( add.getTreeString() );
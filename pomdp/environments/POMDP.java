@@ -27,11 +27,14 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.LongAdder;
 import pomdp.algorithms.PolicyStrategy;
 import pomdp.utilities.AlphaVector;
 import pomdp.utilities.BeliefState;
 import pomdp.utilities.BeliefStateComparator;
 import pomdp.utilities.BeliefStateFactory;
+import pomdp.utilities.BinaryPOMDPLoader;
+import pomdp.utilities.CompiledModel;
 import pomdp.utilities.EndOfFileException;
 import pomdp.utilities.ExecutionProperties;
 import pomdp.utilities.InvalidModelFileFormatException;
@@ -39,17 +42,20 @@ import pomdp.utilities.JProf;
 import pomdp.utilities.LineReader;
 import pomdp.utilities.Logger;
 import pomdp.utilities.MDPValueFunction;
+import pomdp.utilities.ModelSampler;
 import pomdp.utilities.POMDPLoader;
 import pomdp.utilities.Pair;
 import pomdp.utilities.RandomGenerator;
+import pomdp.utilities.RunningStatistics;
 import pomdp.utilities.SparseTabularFunction;
 import pomdp.utilities.TabularAlphaVector;
-import pomdp.utilities.concurrent.ComputeDiscountedReward;
+import pomdp.utilities.concurrent.PolicyEvaluation;
 import pomdp.utilities.concurrent.ThreadPool;
 import pomdp.utilities.datastructures.Function;
 import pomdp.utilities.datastructures.MapFunction;
 import pomdp.utilities.datastructures.TabularFunction;
 import pomdp.utilities.factored.LogisticsBeliefStateFactory;
+import pomdp.utilities.metrics.ADREvaluationEvent;
 import pomdp.valuefunction.LinearValueFunctionApproximation;
 
 public class POMDP implements Serializable{
@@ -77,6 +83,55 @@ public class POMDP implements Serializable{
 	protected final static double MAX_INF = Double.POSITIVE_INFINITY;
 	protected final static double MIN_INF = Double.NEGATIVE_INFINITY;
 	protected RandomGenerator m_rndGenerator;
+	/**
+	 * Returns the CSR compiled copy of the transition and observation functions, building it on first use.
+	 * Returns null when compilation is disabled or when the model uses factored beliefs, in which case
+	 * callers should fall back to tr, O and getNonZeroTransitions.
+	 */
+	public CompiledModel getCompiledModel(){
+		if( !ExecutionProperties.useCompiledModel() || isFactored() )
+			return null;
+		CompiledModel cm = m_cmCompiled;
+		if( cm == null ){
+			synchronized( this ){
+				cm = m_cmCompiled;
+				if( cm == null ){
+					cm = new CompiledModel( this );
+					m_cmCompiled = cm;
+				}
+			}
+		}
+		return cm;
+	}
+	
+	/**
+	 * Discards the compiled model. Subclasses that change their dynamics after loading must call this.
+	 */
+	public void resetCompiledModel(){
+		m_cmCompiled = null;
+		m_msSampler = null;
+	}
+	
+	/**
+	 * Returns the alias table sampler over the compiled model, or null if there is no compiled model.
+	 */
+	public ModelSampler getModelSampler(){
+		ModelSampler ms = m_msSampler;
+		if( ms == null ){
+			CompiledModel cm = getCompiledModel();
+			if( cm == null )
+				return null;
+			synchronized( this ){
+				ms = m_msSampler;
+				if( ms == null ){
+					ms = new ModelSampler( this, cm );
+					m_msSampler = ms;
+				}
+			}
+		}
+		return ms;
+	}
+
 	protected long m_iRandomSeed;
 	protected boolean m_bGBasedBackup;
 	protected String m_sName;
@@ -85,6 +140,8 @@ public class POMDP implements Serializable{
 	protected Map<Integer,Double>[][] m_amBackwardTransitions;
 	protected BeliefStateFactory m_bsFactory;
 	protected MDPValueFunction m_vfMDP;
+	protected transient volatile CompiledModel m_cmCompiled;
+	protected transient volatile ModelSampler m_msSampler;
 	protected double m_dMinReward;
 	
 	public enum RewardType{
@@ -122,13 +179,20 @@ public class POMDP implements Serializable{
 		m_amBackwardTransitions = null;
 		m_bsFactory = null;
 		m_vfMDP = null;
+		m_cmCompiled = null;
 		m_dMinReward = 0.0;//Double.POSITIVE_INFINITY;
 	}
 	
 	public void load( String sFileName ) throws IOException, InvalidModelFileFormatException{
 		m_sName = sFileName.substring( sFileName.lastIndexOf( "/" ) + 1, sFileName.lastIndexOf( "." ) );
-		POMDPLoader p = new POMDPLoader( this );
-		p.load( sFileName );
+		if( sFileName.endsWith( BinaryPOMDPLoader.FILE_EXTENSION ) ){
+			BinaryPOMDPLoader p = new BinaryPOMDPLoader( this );
+			p.load( sFileName );
+		}
+		else{
+			POMDPLoader p = new POMDPLoader( this );
+			p.load( sFileName );
+		}
 		if( m_rtReward == RewardType.StateActionState )
 			initStoredRewards();
 		
@@ -317,9 +381,11 @@ public class POMDP implements Serializable{
 	public void setTransition( int iStartState, int iAction, int iEndState, double dTr ){
 		m_fTransition.setValue( iStartState, iAction, iEndState, dTr );
 		addBackwardTransition( iStartState, iAction, iEndState, dTr );
+		resetCompiledModel();
 	}
 	public void setObservation( int iAction, int iEndState, int iObservation, double dValue ){
 		m_fObservation.setAllValues( iAction, iEndState, iObservation, dValue );
+		resetCompiledModel();
 	}
 	public void setDiscountFactor( double dGamma ){
 		m_dGamma = dGamma;
@@ -368,6 +434,12 @@ public class POMDP implements Serializable{
 		int iNextState = -1;
 		double dProb = m_rndGenerator.nextDouble();
 		double dTr = 0.0;
+		ModelSampler ms = getModelSampler();
+		if( ms != null ){
+			iNextState = ms.sampleSuccessor( iState, iAction, dProb );
+			if( iNextState != -1 )
+				return iNextState;
+		}
 		Iterator<Entry<Integer,Double>> itNonZero = getNonZeroTransitions( iState, iAction );
 		Entry<Integer,Double> e = null;
 		while( dProb > 0 ){
@@ -383,6 +455,12 @@ public class POMDP implements Serializable{
 	public int observe( int iAction, int iState ){
 		int iObservation = -1;
 		double dProb = m_rndGenerator.nextDouble(), dO = 0.0;
+		ModelSampler ms = getModelSampler();
+		if( ms != null ){
+			iObservation = ms.sampleObservation( iAction, iState, dProb );
+			if( iObservation != -1 )
+				return iObservation;
+		}
 		Iterator<Entry<Integer,Double>> itNonZeroObservations = m_fObservation.getNonZeroEntries( iAction, iState );
 		Entry<Integer,Double> e = null;
 		while( dProb > 0 ){
@@ -414,75 +492,39 @@ public class POMDP implements Serializable{
 		//return computeAverageDiscountedRewardParticleFilteringImportanceSampling( cTests, cMaxStepsToGoal, policy, true, ExecutionProperties.useHighLevelMultiThread() || ExecutionProperties.useMultiThread() );
 	}
 	
+	/**
+	 * Estimates the ADR of the policy by simulation. Trial i uses the i'th random stream of the model seed (setRandomSeed),
+	 * so the estimate is reproducible and does not depend on the number of threads.
+	 * Stops before cTests trials once the 2 standard errors confidence interval is within 1% of the ADR.
+	 */
 	public double computeAverageDiscountedReward( int cTests, int cMaxStepsToGoal, PolicyStrategy policy, boolean bOutputMessages, boolean bUseMultiThread ){
+		ADREvaluationEvent eEvaluation = new ADREvaluationEvent();
+		eEvaluation.begin();
 		countStatistics( false );
 		
-		m_cSteps = 0;
+		m_cSteps.reset();
 		
-		double dSumDiscountedRewards = 0.0, dDiscountedReward = 0.0, dSumSquares = 0.0;
-		int iTest = 0, iThread = 0, iAction = 0;
-		long cCurrentMilliseconds = 0, iStartTime = System.currentTimeMillis(), iEndTime = 0;
+		int iAction = 0;
 		long lTotalCPU = 0, lStartCPU = JProf.getCurrentThreadCpuTimeSafe(), lEndCPU = 0;
-		RandomGenerator rndGenerator = m_rndGenerator;
-		//m_rndGenerator = new RandomGenerator( "ADR", m_iRandomSeed );
-		double dCurrentSum = 0.0;
-		int[] aiActionCount = new int[m_cActions];	
-		double dStdev = 10000.0, dStandardError = 10.0, dADR = 0.0;
+		long iStartTime = System.currentTimeMillis(), iEndTime = 0;
 		
 		boolean bCacheBeliefStates = getBeliefStateFactory().cacheBeliefStates( false );
 		
-		
-		int cThreads = Runtime.getRuntime().availableProcessors();
-		ComputeDiscountedReward[] aTrials = new ComputeDiscountedReward[cThreads];
-		if( bUseMultiThread ){
-			LinearValueFunctionApproximation vValueFunction = policy.getValueFunction();
-			for( iThread = 0 ; iThread < cThreads ; iThread++ ){
-				aTrials[iThread] = new ComputeDiscountedReward( this, cMaxStepsToGoal, vValueFunction, cTests / cThreads );
-				ThreadPool.getInstance().addTask( aTrials[iThread] );
-			}
-		}
-		if( bUseMultiThread ){
-			for( iThread = 0 ; iThread < cThreads ; iThread++ ){
-				ThreadPool.getInstance().waitForTask( aTrials[iThread] );
-				dDiscountedReward = aTrials[iThread].getDiscountedReward();
-				dCurrentSum += dDiscountedReward;
-				dSumDiscountedRewards += dDiscountedReward;
-			}
-		}
-		else{
-			for( iTest = 0 ; ( iTest < cTests ) && ( dStandardError > 0.01 * dADR  )  ; iTest++ ){
-				dDiscountedReward = computeDiscountedReward( cMaxStepsToGoal, policy, aiActionCount );
-				dCurrentSum += dDiscountedReward;
-				dSumSquares += ( dDiscountedReward * dDiscountedReward );
-				dSumDiscountedRewards += dDiscountedReward;
-					
-				//if( bOutputMessages && ( iTest % 100 == 0 ) ){
-				//	System.out.print( ( iTest / 100 ) % 10 );
-				//}
-				if(bOutputMessages && ( iTest % 10 == 0 )){
-					System.out.println(iTest + ": " + dDiscountedReward + " : " + dSumDiscountedRewards / iTest);
-				}
-				
-				if( iTest >= 50 && iTest % 10 == 0 ){
-					dADR = dSumDiscountedRewards / iTest;
-					dStdev = Math.sqrt( ( dSumSquares - ( iTest + 1 ) * dADR * dADR ) / iTest );
-					if( !Double.isNaN( dStdev ) )
-						dStandardError = 2.0 * dStdev / Math.sqrt( iTest + 1 );
-				}
-			}
-		}
+		PolicyEvaluation peEvaluation = new PolicyEvaluation( this, policy, cMaxStepsToGoal, m_iRandomSeed );
+		if( bUseMultiThread )
+			peEvaluation.setThreadCount( Runtime.getRuntime().availableProcessors() );
+		peEvaluation.setOutputMessages( bOutputMessages );
+		RunningStatistics rsRewards = peEvaluation.evaluate( cTests );
+		int[] aiActionCount = peEvaluation.getActionCounts();
 		
 		if( bOutputMessages ){
 			iEndTime = System.currentTimeMillis();
 			lEndCPU = JProf.getCurrentThreadCpuTimeSafe();
-			cCurrentMilliseconds = ( iEndTime - iStartTime ) / 1000;
 			lTotalCPU = ( lEndCPU - lStartCPU ) / 1000000000;
-			dADR = dSumDiscountedRewards / cTests;
-			dStdev = Math.sqrt( ( dSumSquares - ( iTest + 1 ) * dADR * dADR ) / cTests );
-			dStandardError = 2.0 * dStdev / Math.sqrt( cTests );
 			System.out.println();
-			Logger.getInstance().log( "POMDP", 0, "computeAverageDiscountedReward", "After " + cTests + " tests. ADR " + round( dADR, 3 ) +
-					", stdev " + round( dStdev, 5 ) + " SE " + round( dStandardError, 5 ) + " time " + lTotalCPU );
+			Logger.getInstance().log( "POMDP", 0, "computeAverageDiscountedReward", "After " + rsRewards.getCount() + " tests. ADR " + round( rsRewards.getMean(), 3 ) +
+					", stdev " + round( rsRewards.getStdev(), 5 ) + " SE " + round( rsRewards.getStandardError(), 5 ) + 
+					" time " + ( iEndTime - iStartTime ) / 1000 + " CPU " + lTotalCPU );
 		}
 
 
@@ -494,17 +536,16 @@ public class POMDP implements Serializable{
 		
 		countStatistics( true );
 
-		m_rndGenerator = rndGenerator;
-		
 		getBeliefStateFactory().cacheBeliefStates( bCacheBeliefStates );
+		eEvaluation.end( rsRewards.getCount(), cMaxStepsToGoal, rsRewards.getMean(), rsRewards.getStandardError() );
 		
-		return dSumDiscountedRewards / cTests;
+		return rsRewards.getMean();
 	}
 	
 	public double computeAverageDiscountedRewardParticleFiltering( int cTests, int cMaxStepsToGoal, PolicyStrategy policy, boolean bOutputMessages, boolean bUseMultiThread ){
 		countStatistics( false );
 		
-		m_cSteps = 0;
+		m_cSteps.reset();
 		int cParticles = 10;
 		
 		double dSumDiscountedRewards = 0.0, dDiscountedReward = 0.0, dSumSquares = 0.0;
@@ -571,7 +612,7 @@ public class POMDP implements Serializable{
 	public double computeAverageDiscountedRewardParticleFilteringImportanceSampling( int cTests, int cMaxStepsToGoal, PolicyStrategy policy, boolean bOutputMessages, boolean bUseMultiThread ){
 		countStatistics( false );
 		
-		m_cSteps = 0;
+		m_cSteps.reset();
 		
 		int cParticles = 10;
 		double dSumDiscountedRewards = 0.0, dDiscountedReward = 0.0, dSumSquares = 0.0;
@@ -634,7 +675,7 @@ public class POMDP implements Serializable{
 	public double computeAverageDiscountedRewardImportanceSampling( int cTests, int cMaxStepsToGoal, PolicyStrategy policy, boolean bOutputMessages, boolean bUseMultiThread ){
 		countStatistics( false );
 		
-		m_cSteps = 0;
+		m_cSteps.reset();
 		
 		int iTest = 0;
 		long cCurrentMilliseconds = 0, iStartTime = System.currentTimeMillis(), iEndTime = 0;
@@ -808,7 +849,7 @@ public class POMDP implements Serializable{
 	 * @return
 	 */
 	
-	private int m_cSteps = 0;
+	private LongAdder m_cSteps = new LongAdder();
 	//private int x = 0;
 	public double computeDiscountedReward( int cMaxStepsToGoal, PolicyStrategy policy, Vector<BeliefState> vObservedBeliefPoints, boolean bExplore, int[] aiActionCount ){
 		//if( x++ % 2 == 0 )
@@ -832,7 +873,7 @@ public class POMDP implements Serializable{
 		
 		for( iStep = 0 ; ( iStep < cMaxStepsToGoal ) && !bDone ; iStep++ ){
 			
-			m_cSteps++;
+			m_cSteps.increment();
 			dCurrentStepDiscountedReward = 0.0;
 			dSumWeights = 0.0;
 			dSumNextWeights = 0.0;
@@ -909,7 +950,7 @@ public class POMDP implements Serializable{
 		
 		for( iStep = 0 ; ( iStep < cMaxStepsToGoal ) && !bDone ; iStep++ ){
 			
-			m_cSteps++;
+			m_cSteps.increment();
 			dCurrentStepDiscountedReward = 0.0;
 			dSumWeights = 0.0;
 			dSumTerminalBeliefs = 0.0;
@@ -1070,7 +1111,7 @@ public class POMDP implements Serializable{
 		
 		for( iStep = 0 ; ( iStep < cMaxStepsToGoal ) && !bDone ; iStep++ ){
 			
-			m_cSteps++;
+			m_cSteps.increment();
 			
 			if( bExplore ){
 				double dRand = m_rndGenerator.nextDouble();
@@ -1138,7 +1179,7 @@ public class POMDP implements Serializable{
 		
 		for( iStep = 0 ; ( iStep < cMaxStepsToGoal ) && !bDone ; iStep++ ){
 			
-			m_cSteps++;
+			m_cSteps.increment();
 			
 			if( bExplore ){
 				double dRand = m_rndGenerator.nextDouble();
@@ -1168,8 +1209,6 @@ public class POMDP implements Serializable{
 			if( iAction == -1 )
 				return Double.NEGATIVE_INFINITY;
 			
-			System.out.print(getActionName(iAction) + ",");
-			
 			if( aiActionCount != null )
 				aiActionCount[iAction]++;
 			
@@ -1217,9 +1256,6 @@ public class POMDP implements Serializable{
 			//bs1 = bs2;
 		}	
 		
-		System.out.println();
-
-		
 		return dDiscountedReward;// + m_dMinReward * ( 1 / ( 1 - dDiscountFactor ) );
 	}
 
@@ -1242,7 +1278,7 @@ public class POMDP implements Serializable{
 		*/
 		for( iStep = 0 ; ( iStep < cMaxStepsToGoal ) && !bDone ; iStep++ ){
 			
-			m_cSteps++;
+			m_cSteps.increment();
 			
 			iAction = policy.getAction( bsCurrentBelief );
 			if( iAction == -1 )
@@ -1307,7 +1343,7 @@ public class POMDP implements Serializable{
 
 		for( iStep = 0 ; ( iStep < cMaxStepsToGoal ) && !bDone ; iStep++ ){
 			
-			m_cSteps++;
+			m_cSteps.increment();
 			
 			iAction = policy.getAction( bsCurrentBelief );
 			if( iAction == -1 )
@@ -1473,7 +1509,7 @@ public class POMDP implements Serializable{
 		
 		for( iStep = 0 ; ( iStep < cMaxStepsToGoal ) && !bDone ; iStep++ ){
 			
-			m_cSteps++;
+			m_cSteps.increment();
 			
 			vBeliefTrajectories.add( new BeliefState[cUnfinishedParticles] );
 			vStateTrajectories.add( new int[cUnfinishedParticles] );
@@ -1698,6 +1734,12 @@ public class POMDP implements Serializable{
 		int iStartState = -1;
 		double dInitialProb = m_rndGenerator.nextDouble();
 		double dProb = dInitialProb;
+		ModelSampler ms = getModelSampler();
+		if( ms != null ){
+			iStartState = ms.sampleStartState( dInitialProb );
+			if( iStartState != -1 )
+				return iStartState;
+		}
 		while( dProb > 0 ){
 			iStartState++;
 			dProb -= probStartState( iStartState );
@@ -2095,6 +2137,43 @@ public class POMDP implements Serializable{
 		}
 	}
 	
+	/**
+	 * Replaces the dynamics with externally built functions, e.g. memory mapped ones.
+	 */
+	public void setDynamicsFunctions( Function fTransition, Function fObservation, Function fReward, Function fStartState ){
+		m_fTransition = fTransition;
+		m_fObservation = fObservation;
+		m_fReward = fReward;
+		m_fStartState = fStartState;
+		m_amBackwardTransitions = null;
+		m_adMinActionRewards = new double[m_cActions];
+		resetCompiledModel();
+	}
+	
+	public Function getTransitionFunction(){
+		return m_fTransition;
+	}
+	
+	public Function getObservationFunction(){
+		return m_fObservation;
+	}
+	
+	public Function getRewardFunction(){
+		return m_fReward;
+	}
+	
+	public Function getStartStateFunction(){
+		return m_fStartState;
+	}
+	
+	public double getMinimalReward(){
+		return m_dMinReward;
+	}
+	
+	public double getMinimalActionReward( int iAction ){
+		return m_adMinActionRewards[iAction];
+	}
+	
 	public RandomGenerator getRandomGenerator(){
 		return m_rndGenerator;
 	}
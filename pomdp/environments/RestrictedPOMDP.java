@@ -696,7 +696,7 @@ public class RestrictedPOMDP extends FactoredPOMDP {
 	public void translateVectorsToRealAndCombine( LinearValueFunctionApproximation vRestrictedValueFunction, LinearValueFunctionApproximation vRealValueFunction ) {
 		FactoredAlphaVector favNew = null, favExisting = null, favCombined = null;
 		Vector<AlphaVector> vCombined = new Vector<AlphaVector>();
-		Collection<AlphaVector> vOriginal = vRealValueFunction.getVectors();
+		Vector<AlphaVector> vOriginal = new Vector<AlphaVector>( vRealValueFunction.getVectors() );
 		VariableTranslator vt = new RestrictedToRealVariableTranslator();
 		FactoredAlphaVector fav0 = (FactoredAlphaVector) vRestrictedValueFunction.getMaxAlpha( getBeliefStateFactory().getInitialBeliefState() );
 		boolean bFound = false;
@@ -140,6 +140,7 @@ public class SlowlyChangingPOMDP extends POMDP {
 		FunctionChange fc = null;
 		Iterator itChanges = null;
 		double dChangeCompletePhase = 0.0;
+		boolean bChanged = false;
 		
 		if( m_bExploration ){
 			if( m_mChanges != null ){
@@ -155,7 +156,11 @@ public class SlowlyChangingPOMDP extends POMDP {
 				dChangeCompletePhase = fc.executeStep();
 				if( dChangeCompletePhase == 1.0 )
 					itChanges.remove();
+				bChanged = true;
 			}
+			//the compiled model and the samplers over it hold a copy of the old dynamics
+			if( bChanged )
+				resetCompiledModel();
 			m_cSteps++;
 			//System.out.println( "Step: " + m_cSteps );
 		}
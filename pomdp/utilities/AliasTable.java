@@ -0,0 +1,86 @@
+package pomdp.utilities;
+
+/**
+ * Walker's alias table over a discrete distribution (built with Vose's method), allowing O(1) sampling.
+ * The n outcomes are split into n equal columns; column i holds outcome i with probability m_adProbability[i]
+ * and its alias otherwise. A single uniform number selects both the column and the side.
+ */
+public class AliasTable {
+	private final int[] m_aiOutcomes;
+	private final int[] m_aiAliases;
+	private final double[] m_adProbability;
+	private final int m_cOutcomes;
+
+	/**
+	 * Builds the table over the entries iFirst..iEnd-1 of the given arrays. Weights need not sum to 1.
+	 */
+	public AliasTable( int[] aiOutcomes, double[] adWeights, int iFirst, int iEnd ){
+		int cOutcomes = iEnd - iFirst, i = 0, iSmall = 0, iLarge = 0, cSmall = 0, cLarge = 0;
+		double dSum = 0.0;
+		double[] adScaled = new double[cOutcomes];
+		int[] aiSmall = new int[cOutcomes], aiLarge = new int[cOutcomes];
+
+		m_cOutcomes = cOutcomes;
+		m_aiOutcomes = new int[cOutcomes];
+		m_aiAliases = new int[cOutcomes];
+		m_adProbability = new double[cOutcomes];
+
+		for( i = 0 ; i < cOutcomes ; i++ ){
+			m_aiOutcomes[i] = aiOutcomes[iFirst + i];
+			dSum += adWeights[iFirst + i];
+		}
+		for( i = 0 ; i < cOutcomes ; i++ ){
+			adScaled[i] = adWeights[iFirst + i] * cOutcomes / dSum;
+			if( adScaled[i] < 1.0 )
+				aiSmall[cSmall++] = i;
+			else
+				aiLarge[cLarge++] = i;
+		}
+		while( cSmall > 0 && cLarge > 0 ){
+			iSmall = aiSmall[--cSmall];
+			iLarge = aiLarge[--cLarge];
+			m_adProbability[iSmall] = adScaled[iSmall];
+			m_aiAliases[iSmall] = m_aiOutcomes[iLarge];
+			adScaled[iLarge] = ( adScaled[iLarge] + adScaled[iSmall] ) - 1.0;
+			if( adScaled[iLarge] < 1.0 )
+				aiSmall[cSmall++] = iLarge;
+			else
+				aiLarge[cLarge++] = iLarge;
+		}
+		//whatever remains is 1 up to rounding errors
+		while( cLarge > 0 ){
+			iLarge = aiLarge[--cLarge];
+			m_adProbability[iLarge] = 1.0;
+			m_aiAliases[iLarge] = m_aiOutcomes[iLarge];
+		}
+		while( cSmall > 0 ){
+			iSmall = aiSmall[--cSmall];
+			m_adProbability[iSmall] = 1.0;
+			m_aiAliases[iSmall] = m_aiOutcomes[iSmall];
+		}
+	}
+
+	/**
+	 * @param dUniform - a uniform number in [0,1)
+	 */
+	public int sample( double dUniform ){
+		double dColumn = dUniform * m_cOutcomes;
+		int iColumn = (int)dColumn;
+		if( iColumn >= m_cOutcomes )
+			iColumn = m_cOutcomes - 1;
+		if( dColumn - iColumn < m_adProbability[iColumn] )
+			return m_aiOutcomes[iColumn];
+		return m_aiAliases[iColumn];
+	}
+
+	public int size(){
+		return m_cOutcomes;
+	}
+
+	/**
+	 * Approximate memory taken by the table, in bytes.
+	 */
+	public long getMemorySize(){
+		return 64 + 16L * m_cOutcomes;
+	}
+}
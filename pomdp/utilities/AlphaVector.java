@@ -7,12 +7,15 @@
 package pomdp.utilities;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -21,6 +24,7 @@ import org.w3c.dom.NodeList;
 import pomdp.environments.FactoredPOMDP;
 import pomdp.environments.POMDP;
 import pomdp.utilities.factored.FactoredAlphaVector;
+import pomdp.utilities.metrics.Metrics;
 import pomdp.valuefunction.LinearValueFunctionApproximation;
 
 /**
@@ -38,7 +42,6 @@ public abstract class AlphaVector implements Serializable{
 	protected int m_iAction;
 	protected double m_dMaxValue;
 	protected double m_dAvgValue;
-	protected AlphaVector[][] m_aCachedG;
 	protected int m_iAge;
 	protected long m_iID;
 	protected double m_dOffset;
@@ -51,20 +54,14 @@ public abstract class AlphaVector implements Serializable{
 	protected long[] m_aiSumIds;
 	public boolean m_bMaintainWitness = true;
 	
-	protected static long s_cGComputations = 0;
-	protected static long s_cDotProducts = 0;
-	protected static long s_cCurrentDotProducts = 0;
-	protected static long s_cApproximateDotProduct = 0;
-	protected static long s_cAlphaVectors = 0;
+	protected static final AtomicLong s_cAlphaVectors = new AtomicLong( 0 );
 	
-	protected static long s_cTotalTimeInG = 0;
-	protected static long s_cCurrentTimeInG = 0;
-	protected static long s_cTotalTimeInDotProduct = 0;
-	protected static long s_cCurrentTimeInDotProduct = 0;
-	protected static long TIME_INTERVAL = 100;
+	//the dot product count and time when initCurrentDotProductCount was last called
+	private static long s_cDotProductsAtMark = 0;
+	private static long s_lDotProductTimeAtMark = 0;
 	
 	protected static boolean s_bAllowCaching = true;
-	private static boolean s_bCountDotProduct = ExecutionProperties.getReportOperationTime();
+	protected static boolean s_bCountDotProduct = false;
 
 	private boolean m_bDominated;
 
@@ -85,9 +82,8 @@ public abstract class AlphaVector implements Serializable{
 		m_cActions = m_pPOMDP.getActionCount();
 		m_cObservations = m_pPOMDP.getObservationCount();
 		m_iAction = iAction;
-		m_aCachedG = new AlphaVector[m_cActions][m_cObservations];
 		m_iAge = 0;
-		m_iID = s_cAlphaVectors++;
+		m_iID = s_cAlphaVectors.getAndIncrement();
 		m_dOffset = 0.0;
 		m_mDotProductCache = new TreeMap();
 		m_iValueFunctionInsertionTime = 0;
@@ -127,6 +123,13 @@ public abstract class AlphaVector implements Serializable{
 		m_dOffset += dDelta;
 	}
 	
+	/**
+	 * Returns the accumulated decay, which valueAt subtracts from the stored values.
+	 */
+	public double getOffset(){
+		return m_dOffset;
+	}
+	
 	/**
 	 * @author Guy Shani
 	 * 
@@ -146,6 +149,17 @@ public abstract class AlphaVector implements Serializable{
 	}
 	
 	
+	/**
+	 * The inner products with a set of belief states. Implementations may evaluate the vector once for all the beliefs.
+	 */
+	public double[] dotProducts( List<BeliefState> vBeliefs ){
+		double[] adValues = new double[vBeliefs.size()];
+		int iBelief = 0;
+		for( BeliefState bs : vBeliefs )
+			adValues[iBelief++] = dotProduct( bs );
+		return adValues;
+	}
+
 	/**
 	 * @author Guy Shani
 	 * 
@@ -158,19 +172,60 @@ public abstract class AlphaVector implements Serializable{
 		/* 
 		 * \sum_s b(s)alpha(s)
 		 */
-		int iState = 0;
-		double dValue = 0.0, dProb = 0.0, dSum = 0.0;
+		double dSum = 0.0;
 				
 		if( bs == null )
 			return 0.0;
 		
-		long lTimeBefore = 0, lTimeAfter = 0;
-		if( ExecutionProperties.getReportOperationTime() )
-			lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
+		long lTimeBefore = Metrics.startTimer();
 		
 		int cBeliefNonZeroEntries = bs.getNonZeroEntriesCount();
 		int cAlphaNonZeroEntries = getNonZeroEntriesCount();
-		Iterator it = bs.getNonZeroEntries().iterator();
+		
+		//the primitive views hold the raw values, so the offset forces the generic path
+		int[] aiBeliefIndexes = null, aiAlphaIndexes = null;
+		double[] adBeliefValues = null, adAlphaValues = null, adBeliefDense = null, adAlphaDense = null;
+		if( m_dOffset == 0.0 ){
+			aiBeliefIndexes = bs.getNonZeroIndexes();
+			adBeliefValues = bs.getNonZeroValues();
+			adBeliefDense = bs.getDenseValues();
+			aiAlphaIndexes = getNonZeroIndexes();
+			adAlphaValues = getNonZeroValues();
+			adAlphaDense = getDenseValues();
+		}
+		
+		if( aiBeliefIndexes != null && adAlphaDense != null && 
+				( aiAlphaIndexes == null || adBeliefDense == null || cBeliefNonZeroEntries <= cAlphaNonZeroEntries ) ){
+			dSum = dotProduct( aiBeliefIndexes, adBeliefValues, cBeliefNonZeroEntries, adAlphaDense );
+		}
+		else if( aiAlphaIndexes != null && adBeliefDense != null ){
+			dSum = dotProduct( aiAlphaIndexes, adAlphaValues, cAlphaNonZeroEntries, adBeliefDense );
+		}
+		else if( aiAlphaIndexes != null && aiBeliefIndexes != null ){
+			dSum = dotProduct( aiAlphaIndexes, adAlphaValues, cAlphaNonZeroEntries, aiBeliefIndexes, adBeliefValues, cBeliefNonZeroEntries );
+		}
+		else if( adAlphaDense != null && adBeliefDense != null ){
+			dSum = dotProduct( adAlphaDense, adBeliefDense, m_cStates );
+		}
+		else{
+			dSum = dotProductIterators( bs, cBeliefNonZeroEntries, cAlphaNonZeroEntries );
+		}
+
+		if( s_bCountDotProduct )
+			Metrics.DOT_PRODUCTS.increment();
+		Metrics.DOT_PRODUCT_TIME.recordSince( lTimeBefore );
+
+
+		return dSum;
+	}
+	
+	/*
+	 * The original Entry based computation, used when either side has no primitive view.
+	 */
+	private double dotProductIterators( BeliefState bs, int cBeliefNonZeroEntries, int cAlphaNonZeroEntries ){
+		int iState = 0;
+		double dValue = 0.0, dProb = 0.0, dSum = 0.0;
+		Iterator it = null;
 		Entry e = null;
 		
 		if( cBeliefNonZeroEntries < cAlphaNonZeroEntries ){
@@ -205,26 +260,68 @@ public abstract class AlphaVector implements Serializable{
 				dSum += dValue * dProb;
 			}
 		}
-
-		if( s_bCountDotProduct ){
-			s_cDotProducts++;
-			s_cCurrentDotProducts++;
-			if( ExecutionProperties.getReportOperationTime() ){
-				lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-				s_cCurrentTimeInDotProduct += ( lTimeAfter - lTimeBefore ) / 1000;
-				s_cTotalTimeInDotProduct += ( lTimeAfter - lTimeBefore ) / 1000;
-				/*
-				if( s_cCurrentDotProducts == ( TIME_INTERVAL * 100 ) ){
-					String sMsg = "After " + s_cDotProducts + " dot product - avg time = " + s_cCurrentTimeInDotProduct / ( TIME_INTERVAL * 100 );
-					s_cCurrentTimeInDotProduct = 0;
-					s_cCurrentDotProducts = 0;
-					Logger.getInstance().log( "AlphaVector", 0, "dotProduct", sMsg );
-				}
-				*/
+		return dSum;
+	}
+	
+	/**
+	 * Sparse-sparse inner product - a merge of two sorted index lists.
+	 * When one side is much shorter we binary search its indexes in the longer side instead.
+	 */
+	public static double dotProduct( int[] aiIndexes1, double[] adValues1, int cEntries1, int[] aiIndexes2, double[] adValues2, int cEntries2 ){
+		int i1 = 0, i2 = 0, iIndex1 = 0, iIndex2 = 0;
+		double dSum = 0.0;
+		
+		if( cEntries1 > cEntries2 )
+			return dotProduct( aiIndexes2, adValues2, cEntries2, aiIndexes1, adValues1, cEntries1 );
+		
+		if( cEntries1 * 8 < cEntries2 ){
+			for( i1 = 0 ; i1 < cEntries1 ; i1++ ){
+				i2 = Arrays.binarySearch( aiIndexes2, i2, cEntries2, aiIndexes1[i1] );
+				if( i2 >= 0 )
+					dSum += adValues1[i1] * adValues2[i2];
+				else
+					i2 = -i2 - 1;
+				if( i2 >= cEntries2 )
+					break;
 			}
+			return dSum;
+		}
+		
+		while( i1 < cEntries1 && i2 < cEntries2 ){
+			iIndex1 = aiIndexes1[i1];
+			iIndex2 = aiIndexes2[i2];
+			if( iIndex1 == iIndex2 ){
+				dSum += adValues1[i1] * adValues2[i2];
+				i1++;
+				i2++;
+			}
+			else if( iIndex1 < iIndex2 )
+				i1++;
+			else
+				i2++;
+		}
+		return dSum;
+	}
+	
+	/**
+	 * Sparse-dense inner product - gathers the dense values at the sparse indexes.
+	 */
+	public static double dotProduct( int[] aiIndexes, double[] adValues, int cEntries, double[] adDense ){
+		double dSum = 0.0;
+		for( int i = 0 ; i < cEntries ; i++ ){
+			dSum += adValues[i] * adDense[aiIndexes[i]];
+		}
+		return dSum;
+	}
+	
+	/**
+	 * Dense-dense inner product.
+	 */
+	public static double dotProduct( double[] adValues1, double[] adValues2, int cEntries ){
+		double dSum = 0.0;
+		for( int i = 0 ; i < cEntries ; i++ ){
+			dSum += adValues1[i] * adValues2[i];
 		}
-
-
 		return dSum;
 	}
 	
@@ -251,7 +348,7 @@ public abstract class AlphaVector implements Serializable{
 			return 0.0;
 		
 		if( s_bCountDotProduct )
-			s_cApproximateDotProduct++;
+			Metrics.APPROXIMATE_DOT_PRODUCTS.increment();
 		Iterator it = bs.getDominatingNonZeroEntries();
 		Entry e = null;
 		
@@ -343,10 +440,14 @@ public abstract class AlphaVector implements Serializable{
 	private static int g_cGs = 0;
 	private static int g_cTouchedVertexes = 0;
 	//g(s) = \sum_s' O(a,s',o) tr( s,a,s') \alpha(s')
-	protected synchronized AlphaVector computeG( int iAction, int iObservation ){
+	protected AlphaVector computeG( int iAction, int iObservation ){
 		int iStartState = 0, iEndState = 0, cNonZeroEntries = 0;
 		double dObservation = 0.0, dTr = 0.0, dValue = 0.0, dSum = 0.0;
 
+		CompiledModel cm = m_pPOMDP.getCompiledModel();
+		if( cm != null )
+			return computeG( cm, iAction, iObservation );
+		
 		AlphaVector avResult = newAlphaVector();
 		avResult.setAction( iAction );
 
@@ -383,6 +484,58 @@ public abstract class AlphaVector implements Serializable{
 		return avResult;
 	}
 	
+	/*
+	 * Same as above over the CSR rows - O(a,s',o)alpha(s') is computed once per end state,
+	 * and then each g_{a,o}(s) is a single pass over the row of s.
+	 */
+	protected AlphaVector computeG( CompiledModel cm, int iAction, int iObservation ){
+		int iStartState = 0, iEndState = 0, iEntry = 0;
+		double dValue = 0.0, dSum = 0.0;
+		int[] aiRows = cm.getTransitionRows( iAction );
+		int[] aiColumns = cm.getTransitionColumns( iAction );
+		double[] adValues = cm.getTransitionValues( iAction );
+		double[] adObservedValues = new double[m_cStates];
+
+		AlphaVector avResult = newAlphaVector();
+		avResult.setAction( iAction );
+		
+		g_cGs++;
+		
+		int[] aiNonZeroIndexes = null;
+		double[] adNonZeroValues = null;
+		if( m_dOffset == 0.0 ){
+			aiNonZeroIndexes = getNonZeroIndexes();
+			adNonZeroValues = getNonZeroValues();
+		}
+		
+		if( aiNonZeroIndexes != null ){
+			int cNonZeroEntries = getNonZeroEntriesCount();
+			for( iEntry = 0 ; iEntry < cNonZeroEntries ; iEntry++ ){
+				iEndState = aiNonZeroIndexes[iEntry];
+				adObservedValues[iEndState] = cm.O( iAction, iEndState, iObservation ) * adNonZeroValues[iEntry];
+			}
+		}
+		else{
+			for( iEndState = 0 ; iEndState < m_cStates ; iEndState++ ){
+				dValue = valueAt( iEndState );
+				if( dValue != 0 )
+					adObservedValues[iEndState] = cm.O( iAction, iEndState, iObservation ) * dValue;
+			}
+		}
+		
+		for( iStartState = 0 ; iStartState < m_cStates ; iStartState++ ){
+			dSum = 0.0;
+			for( iEntry = aiRows[iStartState] ; iEntry < aiRows[iStartState + 1] ; iEntry++ ){
+				dSum += adValues[iEntry] * adObservedValues[aiColumns[iEntry]];
+			}
+			g_cTouchedVertexes += aiRows[iStartState + 1] - aiRows[iStartState];
+			if( dSum != 0 )
+				avResult.setValue( iStartState, dSum );
+		}
+		avResult.finalizeValues();
+		return avResult;
+	}
+	
 	/* 
 	 * g_{a,o}(s) = \sum_s' O(a,s',o)tr(s,a,s')alpha(s')
 	 */
@@ -391,37 +544,25 @@ public abstract class AlphaVector implements Serializable{
 	 * 
 	 * Computes the a new alpha vector by the G(a,o) operation of the point-based backup (following the Perseus convention).
 	 * g(s) = \sum_s' O(a,s',o) tr( s,a,s') \alpha(s')
-	 * Caching results to avoid recomputation. Caching may cause memory problems in larger POMDPs. 
+	 * Results are cached in the shared GProjectionCache, which is bounded by ExecutionProperties.getGCacheMemoryLimit(). 
 	 * @param n - a valid action index.
 	 * @param iObservation - a valid observation index.
 	 */
 	public AlphaVector G( int iAction, int iObservation ){
-		if( s_bAllowCaching && ( m_aCachedG[iAction][iObservation] != null ) )
-			return m_aCachedG[iAction][iObservation];
+		if( s_bAllowCaching ){
+			AlphaVector avCached = GProjectionCache.getInstance().get( this, iAction, iObservation );
+			if( avCached != null )
+				return avCached;
+		}
 		
-		long lTimeBefore = 0, lTimeAfter = 0;
-		if( ExecutionProperties.getReportOperationTime() )
-			lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
+		long lTimeBefore = Metrics.startTimer();
 	
 		AlphaVector avResult = computeG( iAction, iObservation );
 		if( s_bAllowCaching )
-			m_aCachedG[iAction][iObservation] = avResult;
+			avResult = GProjectionCache.getInstance().put( this, iAction, iObservation, avResult );
 		
-		
-		s_cGComputations++;
-		
-		if( ExecutionProperties.getReportOperationTime() ){
-			lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-			
-			s_cCurrentTimeInG += ( lTimeAfter - lTimeBefore ) / 1000000;
-			s_cTotalTimeInG += ( lTimeAfter - lTimeBefore ) / 1000000;
-			/*
-			if( s_cGComputations % TIME_INTERVAL  == 0 ){
-				Logger.getInstance().log( "AlphaVector", 0, "G", "avg time for computing G " + s_cCurrentTimeInG / ( TIME_INTERVAL ) );
-				s_cCurrentTimeInG = 0;
-			}
-			*/			
-		}
+		Metrics.G_COMPUTATIONS.increment();
+		Metrics.G_TIME.recordSince( lTimeBefore );
 		return avResult;
 	}
 	
@@ -539,7 +680,7 @@ public abstract class AlphaVector implements Serializable{
 	 * 
 	 */
 	public static long dotProductCount(){
-		return s_cDotProducts;
+		return Metrics.DOT_PRODUCTS.get();
 	}
 
 	/**
@@ -549,7 +690,7 @@ public abstract class AlphaVector implements Serializable{
 	 * 
 	 */
 	public static long dotApproximateProductCount(){
-		return s_cApproximateDotProduct;
+		return Metrics.APPROXIMATE_DOT_PRODUCTS.get();
 	}
 
 	/**
@@ -559,8 +700,8 @@ public abstract class AlphaVector implements Serializable{
 	 * 
 	 */
 	public static void clearDotProductCount(){
-		s_cDotProducts = 0;
-		s_cApproximateDotProduct = 0;
+		Metrics.DOT_PRODUCTS.reset();
+		Metrics.APPROXIMATE_DOT_PRODUCTS.reset();
 	}
 
 	/**
@@ -835,6 +976,31 @@ public abstract class AlphaVector implements Serializable{
 	
 	public abstract int getNonZeroEntriesCount();
 	
+	/**
+	 * Primitive view of the non-zero entries - the state indexes in increasing order.
+	 * Only the first getNonZeroEntriesCount() positions are valid. Values do not include the decay offset.
+	 * @return the indexes, or null if the vector does not support a primitive view
+	 */
+	public int[] getNonZeroIndexes(){
+		return null;
+	}
+	
+	/**
+	 * Primitive view of the non-zero entries - the values, aligned with getNonZeroIndexes().
+	 * @return the values, or null if the vector does not support a primitive view
+	 */
+	public double[] getNonZeroValues(){
+		return null;
+	}
+	
+	/**
+	 * Dense view of the vector, indexed by state. Values do not include the decay offset.
+	 * @return the values of all states, or null if the vector is stored sparsely
+	 */
+	public double[] getDenseValues(){
+		return null;
+	}
+	
 	
 	public void setSumIds( long id1, long id2 ){
 		m_aiSumIds[0] = id1;
@@ -845,13 +1011,19 @@ public abstract class AlphaVector implements Serializable{
 		return m_aiSumIds;
 	}
 	public static long getGComputationsCount() {
-		return s_cGComputations;
+		return Metrics.G_COMPUTATIONS.get();
 	}
+	/**
+	 * Average time (ms) of a G computation, recorded only while metrics are on.
+	 */
 	public static double getAvgGTime(){
-		return ( ( s_cTotalTimeInG * 1.0 ) / s_cGComputations );
+		return Metrics.G_TIME.getMean() / 1000000.0;
 	}
+	/**
+	 * Average time (us) of a dot product, recorded only while metrics are on.
+	 */
 	public static double getAvgDotProductTime(){
-		return ( ( s_cTotalTimeInDotProduct * 1.0 ) / s_cDotProducts );
+		return Metrics.DOT_PRODUCT_TIME.getMean() / 1000.0;
 	}
 	
 	public AlphaVector addReward( int iAction ){
@@ -891,10 +1063,12 @@ public abstract class AlphaVector implements Serializable{
 	public int countEntries(){
 		int iAction = 0, iObservation = 0;
 		int cEntries = 0;
+		AlphaVector avG = null;
 		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
 			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
-				if( m_aCachedG[iAction][iObservation] != null )
-					cEntries += m_aCachedG[iAction][iObservation].countEntries();
+				avG = GProjectionCache.getInstance().peek( this, iAction, iObservation );
+				if( avG != null )
+					cEntries += avG.countEntries();
 			}
 		}
 		cEntries += countLocalEntries();
@@ -903,17 +1077,14 @@ public abstract class AlphaVector implements Serializable{
 	public abstract long countLocalEntries();
 	
 	public void release(){
-		int iAction = 0, iObservation = 0;
-		if( m_aCachedG != null ){
-			for( iAction = 0 ; iAction < m_aCachedG.length ; iAction++ ){
-				if( m_aCachedG[iAction] != null ){
-					for( iObservation = 0 ; iObservation< m_cObservations ; iObservation++ ){
-						if( m_aCachedG[iAction][iObservation] != null )
-							m_aCachedG[iAction][iObservation].release();
-					}
-				}
-			}
-		}
+		GProjectionCache.getInstance().remove( this, m_cActions, m_cObservations, true );
+	}
+	
+	/**
+	 * Drops the cached G projections of this vector, without releasing them. Called when the vector is pruned.
+	 */
+	public void dropCachedG(){
+		GProjectionCache.getInstance().remove( this, m_cActions, m_cObservations, false );
 	}
 	
 	public void initHitCount(){
@@ -957,11 +1128,15 @@ public abstract class AlphaVector implements Serializable{
 	public abstract void setSize( int cStates );
 	
 	public static void initCurrentDotProductCount(){
-		s_cCurrentDotProducts = 0;
-		s_cCurrentTimeInDotProduct = 0;
+		s_cDotProductsAtMark = Metrics.DOT_PRODUCT_TIME.getCount();
+		s_lDotProductTimeAtMark = Metrics.DOT_PRODUCT_TIME.getTotal();
 	}
+	/**
+	 * Average time (us) of the dot products since the last call to initCurrentDotProductCount.
+	 */
 	public static double getCurrentDotProductAvgTime(){
-		return s_cCurrentTimeInDotProduct / (double)s_cCurrentDotProducts;
+		return ( Metrics.DOT_PRODUCT_TIME.getTotal() - s_lDotProductTimeAtMark ) / 1000.0 /
+				( Metrics.DOT_PRODUCT_TIME.getCount() - s_cDotProductsAtMark );
 	}
 
 	public String getXML(){
@@ -28,6 +28,7 @@ import org.w3c.dom.NodeList;
 import pomdp.environments.POMDP;
 import pomdp.utilities.datastructures.PriorityQueueElement;
 import pomdp.utilities.datastructures.StaticMap;
+import pomdp.utilities.metrics.Metrics;
 import sun.awt.geom.Crossings.NonZero;
 
 /**
@@ -54,7 +55,6 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	protected boolean m_bDeterministic;
 	protected int m_iDeterministicIndex;
 	protected boolean m_bCacheBelifStates;
-	public static int g_cBeliefStateUpdates = 0;
 	protected double m_dComputedValue;
 	protected double m_dLastMaxValue;
 	protected int m_iLastMaxValueTime;
@@ -190,6 +190,31 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	
 	public abstract int getNonZeroEntriesCount();
 	
+	/**
+	 * Primitive view of the non-zero entries - the state indexes in increasing order.
+	 * Only the first getNonZeroEntriesCount() positions are valid. The array must not be modified.
+	 * @return the indexes, or null if the belief state does not support a primitive view
+	 */
+	public int[] getNonZeroIndexes(){
+		return null;
+	}
+	
+	/**
+	 * Primitive view of the non-zero entries - the probabilities, aligned with getNonZeroIndexes().
+	 * @return the probabilities, or null if the belief state does not support a primitive view
+	 */
+	public double[] getNonZeroValues(){
+		return null;
+	}
+	
+	/**
+	 * Dense view of the belief state, indexed by state. The array must not be modified.
+	 * @return the probabilities of all states, or null if the belief state is stored sparsely
+	 */
+	public double[] getDenseValues(){
+		return null;
+	}
+	
 	public synchronized void addSuccessor( int iAction, int iObservation, BeliefState bsSuccessor ){
 		if( m_amSuccessors == null )
 			return;
@@ -205,16 +230,20 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 		BeliefState bsNext = null;
 		m_cVisits++;
 		if( m_bCountBeliefUpdates )
-			g_cBeliefStateUpdates++;
+			Metrics.BELIEF_UPDATES.increment();
 		if( m_bCacheBelifStates && getBeliefStateFactory().isCachingBeliefStates() ){
 			Integer iKey = new Integer( iObservation );
 			Pair pEntry = (Pair)m_amSuccessors[iAction].get( iKey );
 			if( pEntry == null ){
+				if( Metrics.isEnabled() )
+					Metrics.SUCCESSOR_CACHE_MISSES.increment();
 				bsNext = getBeliefStateFactory().nextBeliefState( this, iAction, iObservation );
 				if( ( bsNext != null ) && ( getBeliefStateFactory().isCachingBeliefStates() ) )
 					addSuccessor( iAction, iObservation, bsNext );
 			}
 			else{
+				if( Metrics.isEnabled() )
+					Metrics.SUCCESSOR_CACHE_HITS.increment();
 				bsNext = (BeliefState) pEntry.m_first;
 			}
 		}
@@ -641,7 +670,14 @@ public abstract class BeliefState extends PriorityQueueElement implements Serial
 	}
 	
 	public static void clearBeliefStatsUpdate(){
-		g_cBeliefStateUpdates = 0;
+		Metrics.BELIEF_UPDATES.reset();
+	}
+	
+	/**
+	 * The number of successor requests (nextBeliefState calls, cached or not) since the last clear.
+	 */
+	public static long getBeliefStateUpdatesCount(){
+		return Metrics.BELIEF_UPDATES.get();
 	}
 
 	public void addNeighbor( BeliefState bsNeighbor ){
@@ -8,7 +8,6 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.Vector;
 import java.util.Map.Entry;
 
@@ -29,12 +28,13 @@ import org.xml.sax.SAXException;
 import pomdp.environments.POMDP;
 import pomdp.utilities.distance.DistanceMetric;
 import pomdp.utilities.distance.L1Distance;
+import pomdp.utilities.metrics.Metrics;
 
 public class BeliefStateFactory{
 
 	protected POMDP m_pPOMDP;
 	public int m_cBeliefUpdates = 0;
-	protected TreeMap<BeliefState,BeliefState> m_hmCachedBeliefStates;
+	protected BeliefStateTable m_hmCachedBeliefStates;
 	protected int m_cDiscretizationLevels;
 	protected int m_cBeliefPoints;
 	protected boolean m_bCacheBelifStates;
@@ -48,7 +48,6 @@ public class BeliefStateFactory{
 	
 	protected boolean m_bCacheDeterministicBeliefStates = false;
 	
-	public int m_cTimeInTau;
 	public long m_cBeliefStateSize;
 
 	public BeliefStateFactory( POMDP pomdp, int cDiscretizationLevels ){
@@ -62,14 +61,13 @@ public class BeliefStateFactory{
 	}
 	
 	private void init(){
-		m_hmCachedBeliefStates = new TreeMap<BeliefState,BeliefState>(  getBeliefStateComparator( m_dEpsilon )  );
+		m_hmCachedBeliefStates = new BeliefStateTable( m_dEpsilon, getBeliefStateComparator( m_dEpsilon ) );
 		m_cBeliefPoints = 0;
 		m_bCacheBelifStates = true;
-		BeliefState.g_cBeliefStateUpdates = 0;
+		BeliefState.clearBeliefStatsUpdate();
 		m_bsInitialState = null;
 		m_bCountBeliefUpdates = true;
 		m_bsUniformState = null;
-		m_cTimeInTau = 0;
 		m_abDeterministic = null;
 		m_cBeliefStateSize = 0;
 
@@ -134,6 +132,10 @@ public class BeliefStateFactory{
 		Iterator<Entry<Integer,Double>> itNonZeroTransitions = null;
 		Iterator<Entry<Integer,Double>> itNonZeroBeliefs = bs.getNonZeroEntries().iterator();
 		Map.Entry<Integer,Double> eTransition = null, eBelief = null;
+		CompiledModel cm = m_pPOMDP.getCompiledModel();
+		
+		if( cm != null )
+			return calcNormalizingFactor( cm, bs, iAction, iObservation );
 		
 		//for( iStartState = 0 ; iStartState < m_cStates ; iStartState++ ){
 		while( itNonZeroBeliefs.hasNext() ){
@@ -170,7 +172,111 @@ public class BeliefStateFactory{
 		return dProb;
 	}
 	
-	private static long g_cNext = 0, g_cTime = 0;
+	protected double calcNormalizingFactor( CompiledModel cm, BeliefState bs, int iAction, int iObservation ){
+		int[] aiRows = cm.getTransitionRows( iAction );
+		int[] aiColumns = cm.getTransitionColumns( iAction );
+		double[] adValues = cm.getTransitionValues( iAction );
+		double dProb = 0.0, dSum = 0.0;
+		int iStartState = 0, iEntry = 0, iBelief = 0;
+		int[] aiBeliefIndexes = bs.getNonZeroIndexes();
+		double[] adBeliefValues = bs.getNonZeroValues();
+		
+		if( aiBeliefIndexes != null ){
+			int cNonZeroBeliefs = bs.getNonZeroEntriesCount();
+			for( iBelief = 0 ; iBelief < cNonZeroBeliefs ; iBelief++ ){
+				iStartState = aiBeliefIndexes[iBelief];
+				dSum = 0.0;
+				for( iEntry = aiRows[iStartState] ; iEntry < aiRows[iStartState + 1] ; iEntry++ ){
+					dSum += adValues[iEntry] * cm.O( iAction, aiColumns[iEntry], iObservation );
+				}
+				dProb += dSum * adBeliefValues[iBelief];
+			}
+			return dProb;
+		}
+		
+		for( Entry<Integer,Double> eBelief : bs.getNonZeroEntries() ){
+			iStartState = eBelief.getKey();
+			dSum = 0.0;
+			for( iEntry = aiRows[iStartState] ; iEntry < aiRows[iStartState + 1] ; iEntry++ ){
+				dSum += adValues[iEntry] * cm.O( iAction, aiColumns[iEntry], iObservation );
+			}
+			dProb += dSum * eBelief.getValue();
+		}
+		return dProb;
+	}
+	
+	/*
+	 * Accumulates the unnormalized b_a,o into adNext using the CSR rows and returns pr(o|a,b).
+	 * When the belief covers most of the states we pull over the backward rows of the states where O(a,s',o) > 0,
+	 * otherwise we push the belief mass along the forward rows.
+	 */
+	protected double nextBeliefValues( CompiledModel cm, BeliefState bs, int iAction, int iObservation, double[] adNext ){
+		int cStates = adNext.length, iStartState = 0, iEndState = 0, iEntry = 0, iBelief = 0;
+		double dNormalizingFactor = 0.0, dBelief = 0.0, dOb = 0.0, dSum = 0.0;
+		int cNonZeroBeliefs = bs.getNonZeroEntriesCount();
+		int[] aiBeliefIndexes = bs.getNonZeroIndexes();
+		double[] adBeliefValues = bs.getNonZeroValues();
+		double[] adBeliefDense = bs.getDenseValues();
+		
+		if( cNonZeroBeliefs > cStates / 2.0 ){
+			int[] aiRows = cm.getBackwardTransitionRows( iAction );
+			int[] aiColumns = cm.getBackwardTransitionColumns( iAction );
+			double[] adValues = cm.getBackwardTransitionValues( iAction );
+			for( iEndState = 0 ; iEndState < cStates ; iEndState++ ){
+				dOb = cm.O( iAction, iEndState, iObservation );
+				if( dOb > 0.0 ){
+					dSum = 0.0;
+					if( adBeliefDense != null ){
+						for( iEntry = aiRows[iEndState] ; iEntry < aiRows[iEndState + 1] ; iEntry++ ){
+							dSum += adValues[iEntry] * adBeliefDense[aiColumns[iEntry]];
+						}
+					}
+					else{
+						for( iEntry = aiRows[iEndState] ; iEntry < aiRows[iEndState + 1] ; iEntry++ ){
+							dSum += adValues[iEntry] * bs.valueAt( aiColumns[iEntry] );
+						}
+					}
+					adNext[iEndState] = dSum * dOb;
+					dNormalizingFactor += adNext[iEndState];
+				}
+			}
+		}
+		else if( aiBeliefIndexes != null ){
+			int[] aiRows = cm.getTransitionRows( iAction );
+			int[] aiColumns = cm.getTransitionColumns( iAction );
+			double[] adValues = cm.getTransitionValues( iAction );
+			for( iBelief = 0 ; iBelief < cNonZeroBeliefs ; iBelief++ ){
+				iStartState = aiBeliefIndexes[iBelief];
+				dBelief = adBeliefValues[iBelief];
+				for( iEntry = aiRows[iStartState] ; iEntry < aiRows[iStartState + 1] ; iEntry++ ){
+					iEndState = aiColumns[iEntry];
+					dOb = cm.O( iAction, iEndState, iObservation );
+					if( dOb > 0.0 ){
+						adNext[iEndState] += dBelief * adValues[iEntry] * dOb;
+						dNormalizingFactor += dBelief * adValues[iEntry] * dOb;
+					}
+				}
+			}
+		}
+		else{
+			int[] aiRows = cm.getTransitionRows( iAction );
+			int[] aiColumns = cm.getTransitionColumns( iAction );
+			double[] adValues = cm.getTransitionValues( iAction );
+			for( Entry<Integer, Double> eBelief : bs.getNonZeroEntries() ){
+				iStartState = eBelief.getKey();
+				dBelief = eBelief.getValue();
+				for( iEntry = aiRows[iStartState] ; iEntry < aiRows[iStartState + 1] ; iEntry++ ){
+					iEndState = aiColumns[iEntry];
+					dOb = cm.O( iAction, iEndState, iObservation );
+					if( dOb > 0.0 ){
+						adNext[iEndState] += dBelief * adValues[iEntry] * dOb;
+						dNormalizingFactor += dBelief * adValues[iEntry] * dOb;
+					}
+				}
+			}
+		}
+		return dNormalizingFactor;
+	}
 	
 	/**
 	 * Computes the next belief state given the current belief state, and action and an observation
@@ -190,16 +296,20 @@ public class BeliefStateFactory{
 			Iterator<Entry<Integer, Double>> itNonZeroTransitions = null;
 			Entry<Integer, Double> eTr = null;
 			
-			long lTimeBefore = 0, lTimeAfter = 0;
+			long lTimeBefore = Metrics.startTimer();
 			
-			if( ExecutionProperties.getReportOperationTime() )
-				lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
 			if( m_bCountBeliefUpdates )
 				m_cBeliefUpdates++;
 			
 			dNormalizingFactor = 0.0;
+			CompiledModel cm = m_pPOMDP.getCompiledModel();
+			double[] adNext = null;
 			
-			if( cNonZeroBeliefs.size() > m_pPOMDP.getStateCount() / 2.0 ){	//sparse beliefs			
+			if( cm != null ){
+				adNext = new double[cStates];
+				dNormalizingFactor = nextBeliefValues( cm, bs, iAction, iObservation, adNext );
+			}
+			else if( cNonZeroBeliefs.size() > m_pPOMDP.getStateCount() / 2.0 ){	//sparse beliefs			
 				for( iEndState = 0 ; iEndState < cStates ; iEndState++ ){
 					dNextValue = nextBeliefValue( bs, iAction, iEndState, iObservation );
 	 				bsNext.setValueAt( iEndState, dNextValue );
@@ -233,51 +343,43 @@ public class BeliefStateFactory{
 			
 			
 			
-			Iterator itNonZeroEntries = bsNext.getNonZeroEntries().iterator();
-			Map.Entry e = null;
-			while( itNonZeroEntries.hasNext() ){
-				e = (Entry) itNonZeroEntries.next();
-				iEndState = ((Number) e.getKey()).intValue();
-				dNextValue = ((Number) e.getValue()).doubleValue();
-				bsNext.setValueAt( iEndState, dNextValue / dNormalizingFactor );
-				dSum += dNextValue / dNormalizingFactor;
+			if( adNext != null ){
+				for( iEndState = 0 ; iEndState < cStates ; iEndState++ ){
+					if( adNext[iEndState] != 0.0 )
+						bsNext.setValueAt( iEndState, adNext[iEndState] / dNormalizingFactor );
+				}
 			}
-			
-			g_cNext++;
-			if( ExecutionProperties.getReportOperationTime() ){
-				lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-				g_cTime += ( lTimeAfter - lTimeBefore ) / 1000;
-				m_cBeliefStateSize += bsNext.size();
-				/*
-				if( g_cNext % 1000 == 0 ){
-					Logger.getInstance().log( "BeliefStateFactory", 0, "nextBeliefState" ,"After " + g_cNext + " next BS computations, avg time " + g_cTime / 1000 + ", avg belief state size " + m_cBeliefStateSize / 1000 );
-					g_cTime = 0;
-					m_cBeliefStateSize = 0;
+			else{
+				Iterator itNonZeroEntries = bsNext.getNonZeroEntries().iterator();
+				Map.Entry e = null;
+				while( itNonZeroEntries.hasNext() ){
+					e = (Entry) itNonZeroEntries.next();
+					iEndState = ((Number) e.getKey()).intValue();
+					dNextValue = ((Number) e.getValue()).doubleValue();
+					bsNext.setValueAt( iEndState, dNextValue / dNormalizingFactor );
+					dSum += dNextValue / dNormalizingFactor;
 				}
-				*/
 			}
 			
+			if( Metrics.isEnabled() )
+				m_cBeliefStateSize += bsNext.getNonZeroEntriesCount();
+			
 			if( m_bCacheBelifStates ){
-				BeliefState bsExisting = (BeliefState) m_hmCachedBeliefStates.get( bsNext );
-				if( bsExisting == null ){
+				BeliefState bsExisting = m_hmCachedBeliefStates.intern( bsNext );
+				if( bsExisting == bsNext ){
 					//Logger.getInstance().log( "BeliefStateFactory", 0, "nextBeliefState", 
 					//		"Tau( " + bs.getId() + ", " + iAction + ", " + iObservation + " ) = " + bsNext.toString() );
-					cacheBeliefState( bsNext );
 					m_cBeliefPoints++;
 				}
 				else{
 					bsNext = bsExisting;
-					if( bsNext == null )
-						System.out.println( "***" );
 				}
 						
 				if( bsNext != bs )
 					bsNext.addPredecessor( bs, dNormalizingFactor, iAction );
 			}
-			if( ExecutionProperties.getReportOperationTime() && m_bCountBeliefUpdates ){
-				lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-				m_cTimeInTau += ( lTimeAfter - lTimeBefore ) / 1000;
-			}
+			if( m_bCountBeliefUpdates )
+				Metrics.TAU_TIME.recordSince( lTimeBefore );
 
 			if( bsNext == null )
 				System.out.println( "****" );
@@ -297,8 +399,8 @@ public class BeliefStateFactory{
 		return null;
 	}
 
-	protected synchronized void cacheBeliefState( BeliefState bs ){
-		m_hmCachedBeliefStates.put( bs, bs );
+	protected void cacheBeliefState( BeliefState bs ){
+		m_hmCachedBeliefStates.intern( bs );
 	}
 	
 	public BeliefState getInitialBeliefState(){
@@ -393,9 +495,8 @@ public class BeliefStateFactory{
 		}
 		
 		//bsDiscretized.normalize(); - no need for normalization as this is not really a belief point - only used for storing
-		BeliefState bsExisting = (BeliefState)m_hmCachedBeliefStates.get( bsDiscretized );
-		if( bsExisting == null ){
-			cacheBeliefState( bsDiscretized );
+		BeliefState bsExisting = m_hmCachedBeliefStates.intern( bsDiscretized );
+		if( bsExisting == bsDiscretized ){
 			m_cBeliefPoints++;
 		}
 		else{
@@ -776,9 +877,8 @@ public class BeliefStateFactory{
 			System.out.println( "getBeliefState BUGBUG invalid sum(bs(s)) = " + dSumBeliefs );
 		
 		if( m_bCacheBelifStates ){
-			BeliefState bsExisting = (BeliefState) m_hmCachedBeliefStates.get( bs );
-			if( bsExisting == null ){
-				cacheBeliefState( bs );
+			BeliefState bsExisting = m_hmCachedBeliefStates.intern( bs );
+			if( bsExisting == bs ){
 				m_cBeliefPoints++;
 			}
 			else{
@@ -806,9 +906,8 @@ public class BeliefStateFactory{
 		}
 		
 		if( m_bCacheBelifStates ){
-			BeliefState bsExisting = (BeliefState) m_hmCachedBeliefStates.get( bs );
-			if( bsExisting == null ){
-				cacheBeliefState( bs );
+			BeliefState bsExisting = m_hmCachedBeliefStates.intern( bs );
+			if( bsExisting == bs ){
 				m_cBeliefPoints++;
 			}
 			else{
@@ -824,8 +923,11 @@ public class BeliefStateFactory{
 		return m_cBeliefUpdates;
 	}
 	
+	/**
+	 * Average time (us) of a belief update, recorded only while metrics are on.
+	 */
 	public double getAvgTauTime(){
-		return ( ( m_cTimeInTau * 1.0 ) / m_cBeliefUpdates ); 
+		return Metrics.TAU_TIME.getMean() / 1000.0; 
 	}
 	
 	public double getAvgBeliefStateSize(){
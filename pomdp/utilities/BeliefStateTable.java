@@ -0,0 +1,268 @@
+package pomdp.utilities;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Interning table for belief states, replacing the epsilon TreeMap in BeliefStateFactory.
+ * Belief states are hashed by snapping their probabilities to a grid of size epsilon and stored in an open addressing
+ * table (linear probing). The epsilon equality test is only executed when the quantized hashes match.
+ * Lookups are lock free. Inserts claim slots by CAS and may run concurrently - only resizing excludes them.
+ * Two beliefs that are epsilon-equal but fall on different sides of a grid line get different hashes, and are both kept.
+ * With the default epsilon this only happens for beliefs that differ by numerical noise exactly at a grid boundary.
+ */
+public class BeliefStateTable implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final double MAX_LOAD = 0.6;
+
+	protected double m_dEpsilon;
+	protected Comparator<BeliefState> m_cmpBeliefStates;
+	private volatile AtomicReferenceArray<Slot> m_aSlots;
+	private AtomicInteger m_cElements;
+	private transient ReentrantReadWriteLock m_rwlResize;
+
+	private static class Slot implements Serializable{
+		private static final long serialVersionUID = 1L;
+		final int m_iHash;
+		final BeliefState m_bsBelief;
+		Slot( int iHash, BeliefState bs ){
+			m_iHash = iHash;
+			m_bsBelief = bs;
+		}
+	}
+
+	/**
+	 * @param dEpsilon - grid size for the quantized hash and tolerance of the equality test
+	 * @param cmpBeliefStates - equality test for belief states that do not expose primitive arrays (may be null)
+	 */
+	public BeliefStateTable( double dEpsilon, Comparator<BeliefState> cmpBeliefStates ){
+		m_dEpsilon = dEpsilon;
+		m_cmpBeliefStates = cmpBeliefStates;
+		m_aSlots = new AtomicReferenceArray<Slot>( 1024 );
+		m_cElements = new AtomicInteger( 0 );
+		m_rwlResize = new ReentrantReadWriteLock();
+	}
+
+	private ReentrantReadWriteLock getResizeLock(){
+		if( m_rwlResize == null ){
+			synchronized( this ){
+				if( m_rwlResize == null )
+					m_rwlResize = new ReentrantReadWriteLock();
+			}
+		}
+		return m_rwlResize;
+	}
+
+	private static int mix( long l ){
+		l ^= ( l >>> 33 );
+		l *= 0xff51afd7ed558ccdL;
+		l ^= ( l >>> 33 );
+		l *= 0xc4ceb9fe1a85ec53L;
+		l ^= ( l >>> 33 );
+		return (int)l;
+	}
+
+	private int mix( int iState, double dValue ){
+		long lQuantized = Math.round( dValue / m_dEpsilon );
+		return mix( lQuantized * 0x9E3779B97F4A7C15L + iState );
+	}
+
+	/**
+	 * Quantized hash of the belief state. Entries below epsilon are ignored, matching the equality test.
+	 * The per entry hashes are summed so that the result does not depend on the iteration order.
+	 */
+	public int hash( BeliefState bs ){
+		int iHash = 0, iEntry = 0, cEntries = 0;
+		int[] aiIndexes = bs.getNonZeroIndexes();
+		double[] adValues = bs.getNonZeroValues();
+		if( aiIndexes != null ){
+			cEntries = bs.getNonZeroEntriesCount();
+			for( iEntry = 0 ; iEntry < cEntries ; iEntry++ ){
+				if( Math.abs( adValues[iEntry] ) > m_dEpsilon )
+					iHash += mix( aiIndexes[iEntry], adValues[iEntry] );
+			}
+		}
+		else{
+			for( Entry<Integer,Double> e : bs.getNonZeroEntries() ){
+				if( Math.abs( e.getValue() ) > m_dEpsilon )
+					iHash += mix( e.getKey(), e.getValue() );
+			}
+		}
+		return iHash;
+	}
+
+	/**
+	 * Epsilon equality, merging the primitive views when both belief states have them.
+	 */
+	public boolean equal( BeliefState bs1, BeliefState bs2 ){
+		if( bs1 == bs2 )
+			return true;
+		int[] aiIndexes1 = bs1.getNonZeroIndexes(), aiIndexes2 = bs2.getNonZeroIndexes();
+		if( aiIndexes1 == null || aiIndexes2 == null ){
+			if( m_cmpBeliefStates == null )
+				return bs1.equals( bs2 );
+			return m_cmpBeliefStates.compare( bs1, bs2 ) == 0;
+		}
+		double[] adValues1 = bs1.getNonZeroValues(), adValues2 = bs2.getNonZeroValues();
+		int cEntries1 = bs1.getNonZeroEntriesCount(), cEntries2 = bs2.getNonZeroEntriesCount();
+		int i1 = 0, i2 = 0;
+		while( i1 < cEntries1 || i2 < cEntries2 ){
+			if( i2 == cEntries2 || ( i1 < cEntries1 && aiIndexes1[i1] < aiIndexes2[i2] ) ){
+				if( Math.abs( adValues1[i1] ) > m_dEpsilon )
+					return false;
+				i1++;
+			}
+			else if( i1 == cEntries1 || aiIndexes2[i2] < aiIndexes1[i1] ){
+				if( Math.abs( adValues2[i2] ) > m_dEpsilon )
+					return false;
+				i2++;
+			}
+			else{
+				if( Math.abs( adValues1[i1] - adValues2[i2] ) > m_dEpsilon )
+					return false;
+				i1++;
+				i2++;
+			}
+		}
+		return true;
+	}
+
+	private BeliefState find( AtomicReferenceArray<Slot> aSlots, BeliefState bs, int iHash ){
+		int cSlots = aSlots.length(), iSlot = iHash & ( cSlots - 1 );
+		Slot s = aSlots.get( iSlot );
+		while( s != null ){
+			if( s.m_iHash == iHash && equal( s.m_bsBelief, bs ) )
+				return s.m_bsBelief;
+			iSlot = ( iSlot + 1 ) & ( cSlots - 1 );
+			s = aSlots.get( iSlot );
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the interned belief state that is epsilon-equal to bs, or null if there is none.
+	 */
+	public BeliefState get( BeliefState bs ){
+		return find( m_aSlots, bs, hash( bs ) );
+	}
+
+	/**
+	 * Returns the interned belief state that is epsilon-equal to bs, inserting bs if there is none.
+	 * Safe for concurrent callers - all of them receive the same instance.
+	 */
+	public BeliefState intern( BeliefState bs ){
+		int iHash = hash( bs );
+		BeliefState bsExisting = null;
+		ReentrantReadWriteLock rwl = getResizeLock();
+		rwl.readLock().lock();
+		try{
+			AtomicReferenceArray<Slot> aSlots = m_aSlots;
+			int cSlots = aSlots.length(), iSlot = iHash & ( cSlots - 1 );
+			Slot sNew = new Slot( iHash, bs ), s = null;
+			while( true ){
+				s = aSlots.get( iSlot );
+				if( s == null ){
+					if( aSlots.compareAndSet( iSlot, null, sNew ) )
+						break;
+					s = aSlots.get( iSlot );
+				}
+				if( s.m_iHash == iHash && equal( s.m_bsBelief, bs ) ){
+					bsExisting = s.m_bsBelief;
+					break;
+				}
+				iSlot = ( iSlot + 1 ) & ( cSlots - 1 );
+			}
+		}
+		finally{
+			rwl.readLock().unlock();
+		}
+		if( bsExisting != null )
+			return bsExisting;
+		if( m_cElements.incrementAndGet() > m_aSlots.length() * MAX_LOAD )
+			resize();
+		return bs;
+	}
+
+	/**
+	 * Map style insert kept for the factories - inserts bs if absent.
+	 * @return the previously interned epsilon-equal belief state, or null if bs was inserted
+	 */
+	public BeliefState put( BeliefState bs, BeliefState bsValue ){
+		BeliefState bsInterned = intern( bs );
+		if( bsInterned == bs )
+			return null;
+		return bsInterned;
+	}
+
+	private void resize(){
+		ReentrantReadWriteLock rwl = getResizeLock();
+		rwl.writeLock().lock();
+		try{
+			AtomicReferenceArray<Slot> aOld = m_aSlots;
+			if( m_cElements.get() <= aOld.length() * MAX_LOAD )
+				return;
+			int cSlots = aOld.length() * 2, iSlot = 0, iOld = 0;
+			AtomicReferenceArray<Slot> aNew = new AtomicReferenceArray<Slot>( cSlots );
+			Slot s = null;
+			for( iOld = 0 ; iOld < aOld.length() ; iOld++ ){
+				s = aOld.get( iOld );
+				if( s != null ){
+					iSlot = s.m_iHash & ( cSlots - 1 );
+					while( aNew.get( iSlot ) != null )
+						iSlot = ( iSlot + 1 ) & ( cSlots - 1 );
+					aNew.set( iSlot, s );
+				}
+			}
+			m_aSlots = aNew;
+		}
+		finally{
+			rwl.writeLock().unlock();
+		}
+	}
+
+	public int size(){
+		return m_cElements.get();
+	}
+
+	public void clear(){
+		ReentrantReadWriteLock rwl = getResizeLock();
+		rwl.writeLock().lock();
+		try{
+			m_aSlots = new AtomicReferenceArray<Slot>( 1024 );
+			m_cElements.set( 0 );
+		}
+		finally{
+			rwl.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * A snapshot of the interned belief states.
+	 */
+	public Collection<BeliefState> keySet(){
+		AtomicReferenceArray<Slot> aSlots = m_aSlots;
+		ArrayList<BeliefState> vBeliefStates = new ArrayList<BeliefState>( m_cElements.get() );
+		Slot s = null;
+		for( int iSlot = 0 ; iSlot < aSlots.length() ; iSlot++ ){
+			s = aSlots.get( iSlot );
+			if( s != null )
+				vBeliefStates.add( s.m_bsBelief );
+		}
+		return vBeliefStates;
+	}
+
+	public Collection<BeliefState> values(){
+		return keySet();
+	}
+
+	public Iterator<BeliefState> iterator(){
+		return keySet().iterator();
+	}
+}
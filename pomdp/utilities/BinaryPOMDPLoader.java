@@ -0,0 +1,182 @@
+package pomdp.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import pomdp.environments.POMDP;
+import pomdp.environments.POMDP.RewardType;
+
+/**
+ * Loads and writes flat POMDPs in a compact binary format, which is memory mapped on loading instead of parsed.
+ * Layout (big endian, as written by DataOutputStream):
+ * magic, version, |S|, |A|, |O| (int), discount (double), reward type (int), minimal reward (double), minimal reward per action (double[|A|]),
+ * state, action and observation names (int byte count + UTF-8 bytes each), terminal states (int count, -1 if undefined, then int[]),
+ * observation relevant states (int count, int[]), and then the transition, observation, reward and start state functions
+ * in the MappedSparseFunction format.
+ * Use main to convert a .POMDP file.
+ */
+public class BinaryPOMDPLoader {
+	public static final String FILE_EXTENSION = ".bpomdp";
+	private static final int MAGIC = 0x504F4D42;
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private POMDP m_pPOMDP;
+
+	public BinaryPOMDPLoader( POMDP pomdp ){
+		m_pPOMDP = pomdp;
+	}
+
+	public void load( String sFileName ) throws IOException, InvalidModelFileFormatException{
+		System.out.println( "Started mapping model " + sFileName );
+		MappedFile mf = new MappedFile( sFileName );
+		long lPosition = 0;
+		int cStates = 0, cActions = 0, cObservations = 0, iState = 0, iAction = 0, iObservation = 0, cTerminalStates = 0, cObservationStates = 0;
+
+		if( mf.size() < 8 || mf.getInt( 0 ) != MAGIC )
+			throw new InvalidModelFileFormatException( "Not a binary POMDP file" );
+		if( mf.getInt( 4 ) != VERSION )
+			throw new InvalidModelFileFormatException( "Unsupported binary POMDP version " + mf.getInt( 4 ) );
+		lPosition = 8;
+		cStates = mf.getInt( lPosition );
+		cActions = mf.getInt( lPosition + 4 );
+		cObservations = mf.getInt( lPosition + 8 );
+		lPosition += 12;
+		m_pPOMDP.setDiscountFactor( mf.getDouble( lPosition ) );
+		m_pPOMDP.setRewardType( RewardType.values()[mf.getInt( lPosition + 8 )] );
+		double dMinReward = mf.getDouble( lPosition + 12 );
+		lPosition += 20;
+		double[] adMinActionRewards = new double[cActions];
+		for( iAction = 0 ; iAction < cActions ; iAction++ ){
+			adMinActionRewards[iAction] = mf.getDouble( lPosition );
+			lPosition += 8;
+		}
+
+		for( iState = 0 ; iState < cStates ; iState++ ){
+			m_pPOMDP.addState( mf.getString( lPosition ) );
+			lPosition += mf.getStringSize( lPosition );
+		}
+		for( iAction = 0 ; iAction < cActions ; iAction++ ){
+			m_pPOMDP.addAction( mf.getString( lPosition ) );
+			lPosition += mf.getStringSize( lPosition );
+		}
+		for( iObservation = 0 ; iObservation < cObservations ; iObservation++ ){
+			m_pPOMDP.addObservation( mf.getString( lPosition ) );
+			lPosition += mf.getStringSize( lPosition );
+		}
+		System.out.print( "|S| = " + cStates + " |A| = " + cActions + " |O| = " + cObservations );
+
+		cTerminalStates = mf.getInt( lPosition );
+		lPosition += 4;
+		for( iState = 0 ; iState < cTerminalStates ; iState++ ){
+			m_pPOMDP.addTerminalState( mf.getInt( lPosition ) );
+			lPosition += 4;
+		}
+		cObservationStates = mf.getInt( lPosition );
+		lPosition += 4;
+		for( iState = 0 ; iState < cObservationStates ; iState++ ){
+			m_pPOMDP.addObservationSensitiveState( mf.getInt( lPosition ) );
+			lPosition += 4;
+		}
+
+		MappedSparseFunction fTransition = MappedSparseFunction.read( mf, lPosition );
+		MappedSparseFunction fObservation = MappedSparseFunction.read( mf, fTransition.getEndPosition() );
+		MappedSparseFunction fReward = MappedSparseFunction.read( mf, fObservation.getEndPosition() );
+		MappedSparseFunction fStartState = MappedSparseFunction.read( mf, fReward.getEndPosition() );
+		if( fStartState.getEndPosition() != mf.size() )
+			throw new InvalidModelFileFormatException( "Corrupted binary POMDP file - expected " + fStartState.getEndPosition() + " bytes, found " + mf.size() );
+		m_pPOMDP.setDynamicsFunctions( fTransition, fObservation, fReward, fStartState );
+		for( iAction = 0 ; iAction < cActions ; iAction++ )
+			m_pPOMDP.setMinimalReward( iAction, adMinActionRewards[iAction] );
+		m_pPOMDP.setMinimalReward( -1, dMinReward );
+
+		System.out.println( " Done mapping model" );
+	}
+
+	/**
+	 * Writes a loaded flat POMDP in the binary format.
+	 */
+	public static void save( POMDP pomdp, String sFileName ) throws IOException{
+		int cStates = pomdp.getStateCount(), cActions = pomdp.getActionCount(), cObservations = pomdp.getObservationCount();
+		int iState = 0, iAction = 0, iObservation = 0, cTerminalStates = 0;
+		DataOutputStream dos = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( sFileName ), 1 << 16 ) );
+		try{
+			dos.writeInt( MAGIC );
+			dos.writeInt( VERSION );
+			dos.writeInt( cStates );
+			dos.writeInt( cActions );
+			dos.writeInt( cObservations );
+			dos.writeDouble( pomdp.getDiscountFactor() );
+			dos.writeInt( pomdp.getRewardType().ordinal() );
+			dos.writeDouble( pomdp.getMinimalReward() );
+			for( iAction = 0 ; iAction < cActions ; iAction++ )
+				dos.writeDouble( pomdp.getMinimalActionReward( iAction ) );
+
+			for( iState = 0 ; iState < cStates ; iState++ )
+				writeString( dos, pomdp.getStateName( iState ) );
+			for( iAction = 0 ; iAction < cActions ; iAction++ )
+				writeString( dos, pomdp.getActionName( iAction ) );
+			for( iObservation = 0 ; iObservation < cObservations ; iObservation++ )
+				writeString( dos, pomdp.getObservationName( iObservation ) );
+
+			if( pomdp.terminalStatesDefined() ){
+				for( iState = 0 ; iState < cStates ; iState++ )
+					if( pomdp.isTerminalState( iState ) )
+						cTerminalStates++;
+				dos.writeInt( cTerminalStates );
+				for( iState = 0 ; iState < cStates ; iState++ )
+					if( pomdp.isTerminalState( iState ) )
+						dos.writeInt( iState );
+			}
+			else{
+				dos.writeInt( -1 );
+			}
+			dos.writeInt( pomdp.getObservationRelevantStates().size() );
+			for( int iObservationState : pomdp.getObservationRelevantStates() )
+				dos.writeInt( iObservationState );
+
+			MappedSparseFunction.write( pomdp.getTransitionFunction(), dos );
+			MappedSparseFunction.write( pomdp.getObservationFunction(), dos );
+			MappedSparseFunction.write( pomdp.getRewardFunction(), dos );
+			MappedSparseFunction.write( pomdp.getStartStateFunction(), dos );
+		}
+		finally{
+			dos.close();
+		}
+	}
+
+	private static void writeString( DataOutputStream dos, String s ) throws IOException{
+		byte[] abString = s.getBytes( UTF8 );
+		dos.writeInt( abString.length );
+		dos.write( abString );
+	}
+
+	/**
+	 * Converts a model to the binary format: BinaryPOMDPLoader <input .POMDP file> [output file]
+	 */
+	public static void main( String[] args ){
+		if( args.length < 1 ){
+			System.out.println( "Usage: BinaryPOMDPLoader <model file> [output file]" );
+			return;
+		}
+		String sInput = args[0], sOutput = null;
+		if( args.length > 1 )
+			sOutput = args[1];
+		else
+			sOutput = sInput.substring( 0, sInput.lastIndexOf( "." ) ) + FILE_EXTENSION;
+		try{
+			POMDP pomdp = new POMDP();
+			pomdp.load( sInput );
+			long lStart = System.currentTimeMillis();
+			save( pomdp, sOutput );
+			System.out.println( "Wrote " + sOutput + " in " + ( System.currentTimeMillis() - lStart ) + " ms" );
+		}
+		catch( Exception e ){
+			System.out.println( "Conversion failed: " + e );
+			e.printStackTrace();
+		}
+	}
+}
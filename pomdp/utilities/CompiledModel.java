@@ -0,0 +1,303 @@
+package pomdp.utilities;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+import pomdp.environments.POMDP;
+
+/**
+ * An immutable, compressed sparse row (CSR) copy of the dynamics of a POMDP.
+ * For every action we hold three matrices - the forward transitions T(s,a,.), the backward transitions T(.,a,s')
+ * and the observations O(a,s',.). Each matrix is kept as a row pointer array, a column array and a value array,
+ * so that row r of action a is stored in the positions rowPtr[a][r] .. rowPtr[a][r+1]-1 of col[a] and val[a].
+ * Columns inside a row are sorted, allowing binary search lookups.
+ * The model is built once through the public POMDP interface, so it works for flat and factored models alike,
+ * and allows inner loops (belief updates, G computations, MDP backups) to run over primitive arrays.
+ */
+public class CompiledModel implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	protected int m_cStates;
+	protected int m_cActions;
+	protected int m_cObservations;
+
+	protected int[][] m_aiTransitionRows;
+	protected int[][] m_aiTransitionColumns;
+	protected double[][] m_adTransitionValues;
+
+	protected int[][] m_aiBackwardRows;
+	protected int[][] m_aiBackwardColumns;
+	protected double[][] m_adBackwardValues;
+
+	protected int[][] m_aiObservationRows;
+	protected int[][] m_aiObservationColumns;
+	protected double[][] m_adObservationValues;
+
+	public CompiledModel( POMDP pomdp ){
+		int iAction = 0;
+		long lTimeBefore = JProf.getCurrentThreadCpuTimeSafe(), lTimeAfter = 0;
+
+		m_cStates = pomdp.getStateCount();
+		m_cActions = pomdp.getActionCount();
+		m_cObservations = pomdp.getObservationCount();
+
+		m_aiTransitionRows = new int[m_cActions][];
+		m_aiTransitionColumns = new int[m_cActions][];
+		m_adTransitionValues = new double[m_cActions][];
+		m_aiBackwardRows = new int[m_cActions][];
+		m_aiBackwardColumns = new int[m_cActions][];
+		m_adBackwardValues = new double[m_cActions][];
+		m_aiObservationRows = new int[m_cActions][];
+		m_aiObservationColumns = new int[m_cActions][];
+		m_adObservationValues = new double[m_cActions][];
+
+		double[] adScratch = new double[m_cStates];
+
+		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+			compileTransitions( pomdp, iAction, adScratch );
+			compileBackwardTransitions( iAction );
+			compileObservations( pomdp, iAction );
+		}
+
+		lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
+		Logger.getInstance().log( "CompiledModel", 0, "CompiledModel", "Compiled " + pomdp.getName() +
+				", |T| = " + countTransitionEntries() + ", |O| = " + countObservationEntries() +
+				", time " + ( lTimeAfter - lTimeBefore ) / 1000000 );
+	}
+
+	private void compileTransitions( POMDP pomdp, int iAction, double[] adScratch ){
+		int iStartState = 0, iEndState = 0, cEntries = 0, iRowStart = 0;
+		double dTr = 0.0;
+		int[] aiRows = new int[m_cStates + 1];
+		int[] aiColumns = new int[m_cStates];
+		double[] adValues = new double[m_cStates];
+		Iterator<Entry<Integer,Double>> itNonZero = null;
+		Entry<Integer,Double> e = null;
+
+		for( iStartState = 0 ; iStartState < m_cStates ; iStartState++ ){
+			aiRows[iStartState] = cEntries;
+			iRowStart = cEntries;
+			itNonZero = pomdp.getNonZeroTransitions( iStartState, iAction );
+			while( itNonZero.hasNext() ){
+				e = itNonZero.next();
+				iEndState = e.getKey();
+				dTr = e.getValue();
+				if( dTr != 0.0 ){
+					if( cEntries == aiColumns.length ){
+						aiColumns = Arrays.copyOf( aiColumns, cEntries * 2 );
+						adValues = Arrays.copyOf( adValues, cEntries * 2 );
+					}
+					aiColumns[cEntries] = iEndState;
+					adValues[cEntries] = dTr;
+					cEntries++;
+				}
+			}
+			sortRow( aiColumns, adValues, iRowStart, cEntries, adScratch );
+		}
+		aiRows[m_cStates] = cEntries;
+
+		m_aiTransitionRows[iAction] = aiRows;
+		m_aiTransitionColumns[iAction] = Arrays.copyOf( aiColumns, cEntries );
+		m_adTransitionValues[iAction] = Arrays.copyOf( adValues, cEntries );
+	}
+
+	/*
+	 * Transposes the forward matrix. Start states are scanned in increasing order, so every backward row comes out sorted.
+	 */
+	private void compileBackwardTransitions( int iAction ){
+		int[] aiForwardRows = m_aiTransitionRows[iAction];
+		int[] aiForwardColumns = m_aiTransitionColumns[iAction];
+		double[] adForwardValues = m_adTransitionValues[iAction];
+		int cEntries = aiForwardColumns.length;
+		int[] aiRows = new int[m_cStates + 1];
+		int[] aiColumns = new int[cEntries];
+		double[] adValues = new double[cEntries];
+		int[] aiNext = null;
+		int iStartState = 0, iEndState = 0, iEntry = 0, iPosition = 0;
+
+		for( iEntry = 0 ; iEntry < cEntries ; iEntry++ )
+			aiRows[aiForwardColumns[iEntry] + 1]++;
+		for( iEndState = 0 ; iEndState < m_cStates ; iEndState++ )
+			aiRows[iEndState + 1] += aiRows[iEndState];
+
+		aiNext = Arrays.copyOf( aiRows, m_cStates );
+		for( iStartState = 0 ; iStartState < m_cStates ; iStartState++ ){
+			for( iEntry = aiForwardRows[iStartState] ; iEntry < aiForwardRows[iStartState + 1] ; iEntry++ ){
+				iEndState = aiForwardColumns[iEntry];
+				iPosition = aiNext[iEndState]++;
+				aiColumns[iPosition] = iStartState;
+				adValues[iPosition] = adForwardValues[iEntry];
+			}
+		}
+
+		m_aiBackwardRows[iAction] = aiRows;
+		m_aiBackwardColumns[iAction] = aiColumns;
+		m_adBackwardValues[iAction] = adValues;
+	}
+
+	/*
+	 * Observations are read through O(a,s',o) rather than getNonZeroObservations, because factored models only override the former.
+	 */
+	private void compileObservations( POMDP pomdp, int iAction ){
+		int iEndState = 0, iObservation = 0, cEntries = 0;
+		double dO = 0.0;
+		int[] aiRows = new int[m_cStates + 1];
+		int[] aiColumns = new int[m_cStates];
+		double[] adValues = new double[m_cStates];
+
+		for( iEndState = 0 ; iEndState < m_cStates ; iEndState++ ){
+			aiRows[iEndState] = cEntries;
+			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
+				dO = pomdp.O( iAction, iEndState, iObservation );
+				if( dO != 0.0 ){
+					if( cEntries == aiColumns.length ){
+						aiColumns = Arrays.copyOf( aiColumns, cEntries * 2 );
+						adValues = Arrays.copyOf( adValues, cEntries * 2 );
+					}
+					aiColumns[cEntries] = iObservation;
+					adValues[cEntries] = dO;
+					cEntries++;
+				}
+			}
+		}
+		aiRows[m_cStates] = cEntries;
+
+		m_aiObservationRows[iAction] = aiRows;
+		m_aiObservationColumns[iAction] = Arrays.copyOf( aiColumns, cEntries );
+		m_adObservationValues[iAction] = Arrays.copyOf( adValues, cEntries );
+	}
+
+	/*
+	 * Sorts the entries iStart..iEnd-1 by column. Short rows use insertion sort,
+	 * long rows sort the columns and gather the values back through a dense scratch array.
+	 */
+	private static void sortRow( int[] aiColumns, double[] adValues, int iStart, int iEnd, double[] adScratch ){
+		int i = 0, j = 0, iColumn = 0;
+		double dValue = 0.0;
+		boolean bSorted = true;
+
+		for( i = iStart + 1 ; i < iEnd && bSorted ; i++ ){
+			if( aiColumns[i - 1] > aiColumns[i] )
+				bSorted = false;
+		}
+		if( bSorted )
+			return;
+
+		if( iEnd - iStart < 32 ){
+			for( i = iStart + 1 ; i < iEnd ; i++ ){
+				iColumn = aiColumns[i];
+				dValue = adValues[i];
+				for( j = i - 1 ; j >= iStart && aiColumns[j] > iColumn ; j-- ){
+					aiColumns[j + 1] = aiColumns[j];
+					adValues[j + 1] = adValues[j];
+				}
+				aiColumns[j + 1] = iColumn;
+				adValues[j + 1] = dValue;
+			}
+		}
+		else{
+			for( i = iStart ; i < iEnd ; i++ )
+				adScratch[aiColumns[i]] = adValues[i];
+			Arrays.sort( aiColumns, iStart, iEnd );
+			for( i = iStart ; i < iEnd ; i++ ){
+				adValues[i] = adScratch[aiColumns[i]];
+				adScratch[aiColumns[i]] = 0.0;
+			}
+		}
+	}
+
+	private static double lookup( int[] aiRows, int[] aiColumns, double[] adValues, int iRow, int iColumn ){
+		int iLow = aiRows[iRow], iHigh = aiRows[iRow + 1] - 1, iMiddle = 0;
+		while( iLow <= iHigh ){
+			iMiddle = ( iLow + iHigh ) >>> 1;
+			if( aiColumns[iMiddle] < iColumn )
+				iLow = iMiddle + 1;
+			else if( aiColumns[iMiddle] > iColumn )
+				iHigh = iMiddle - 1;
+			else
+				return adValues[iMiddle];
+		}
+		return 0.0;
+	}
+
+	public double tr( int iStartState, int iAction, int iEndState ){
+		return lookup( m_aiTransitionRows[iAction], m_aiTransitionColumns[iAction], m_adTransitionValues[iAction], iStartState, iEndState );
+	}
+
+	public double O( int iAction, int iEndState, int iObservation ){
+		return lookup( m_aiObservationRows[iAction], m_aiObservationColumns[iAction], m_adObservationValues[iAction], iEndState, iObservation );
+	}
+
+	/**
+	 * Row pointers of T(.,a,.) - the successors of s are stored in positions [rows[s], rows[s+1]).
+	 */
+	public int[] getTransitionRows( int iAction ){
+		return m_aiTransitionRows[iAction];
+	}
+	public int[] getTransitionColumns( int iAction ){
+		return m_aiTransitionColumns[iAction];
+	}
+	public double[] getTransitionValues( int iAction ){
+		return m_adTransitionValues[iAction];
+	}
+
+	/**
+	 * Row pointers of the transposed T(.,a,.) - the predecessors of s' are stored in positions [rows[s'], rows[s'+1]).
+	 */
+	public int[] getBackwardTransitionRows( int iAction ){
+		return m_aiBackwardRows[iAction];
+	}
+	public int[] getBackwardTransitionColumns( int iAction ){
+		return m_aiBackwardColumns[iAction];
+	}
+	public double[] getBackwardTransitionValues( int iAction ){
+		return m_adBackwardValues[iAction];
+	}
+
+	/**
+	 * Row pointers of O(a,.,.) - the observations of s' are stored in positions [rows[s'], rows[s'+1]).
+	 */
+	public int[] getObservationRows( int iAction ){
+		return m_aiObservationRows[iAction];
+	}
+	public int[] getObservationColumns( int iAction ){
+		return m_aiObservationColumns[iAction];
+	}
+	public double[] getObservationValues( int iAction ){
+		return m_adObservationValues[iAction];
+	}
+
+	public int getNonZeroTransitionsCount( int iStartState, int iAction ){
+		return m_aiTransitionRows[iAction][iStartState + 1] - m_aiTransitionRows[iAction][iStartState];
+	}
+
+	public int getNonZeroBackwardTransitionsCount( int iAction, int iEndState ){
+		return m_aiBackwardRows[iAction][iEndState + 1] - m_aiBackwardRows[iAction][iEndState];
+	}
+
+	public long countTransitionEntries(){
+		long cEntries = 0;
+		for( int iAction = 0 ; iAction < m_cActions ; iAction++ )
+			cEntries += m_aiTransitionColumns[iAction].length;
+		return cEntries;
+	}
+
+	public long countObservationEntries(){
+		long cEntries = 0;
+		for( int iAction = 0 ; iAction < m_cActions ; iAction++ )
+			cEntries += m_aiObservationColumns[iAction].length;
+		return cEntries;
+	}
+
+	public int getStateCount(){
+		return m_cStates;
+	}
+	public int getActionCount(){
+		return m_cActions;
+	}
+	public int getObservationCount(){
+		return m_cObservations;
+	}
+}
@@ -13,6 +13,20 @@ public class ExecutionProperties {
 	private static int m_cThreads = 20;
 	private static boolean m_bUseRemoteHelpers = false;
 	private static boolean m_bEnableDistributedComputing = false;
+	private static boolean m_bUseCompiledModel = true;
+	private static boolean m_bUseBatchedBackup = true;
+	private static long m_cBatchedBackupMemoryLimit = 256L * 1024 * 1024;
+	private static long m_cGCacheMemoryLimit = Runtime.getRuntime().maxMemory() / 4;
+	private static long m_cAliasTableMemoryLimit = 64L * 1024 * 1024;
+	private static MDPSolver.SweepType m_stMDPSweepType = MDPSolver.SweepType.GaussSeidel;
+	private static int m_cSawtoothPointsPerSupport = 0;
+	private static boolean m_bUseParallelPruning = false;
+	private static boolean m_bUseMetrics = false;
+	private static long m_lMetricsReportInterval = 10000;
+	private static boolean m_bUseSharedADDs = true;
+	private static boolean m_bUseAffineADDs = false;
+	private static int m_cADDComputedTableSize = 1 << 18;
+	private static int m_cADDCollectionThreshold = 1 << 20;
 	
 	public static boolean getDebug(){
 		return m_bDebug;
@@ -36,6 +50,130 @@ public class ExecutionProperties {
 	public static boolean enableDistributedComputing() {
 		return m_bEnableDistributedComputing;
 	}
+	public static boolean useCompiledModel(){
+		return m_bUseCompiledModel;
+	}
+	public static void setUseCompiledModel( boolean bUseCompiledModel ){
+		m_bUseCompiledModel = bUseCompiledModel;
+	}
+	public static boolean useBatchedBackup(){
+		return m_bUseBatchedBackup;
+	}
+	public static void setUseBatchedBackup( boolean bUseBatchedBackup ){
+		m_bUseBatchedBackup = bUseBatchedBackup;
+	}
+	/**
+	 * Maximal size in bytes of the projection matrices of the batched backup.
+	 */
+	public static long getBatchedBackupMemoryLimit(){
+		return m_cBatchedBackupMemoryLimit;
+	}
+	public static void setBatchedBackupMemoryLimit( long cBytes ){
+		m_cBatchedBackupMemoryLimit = cBytes;
+	}
+	/**
+	 * Memory budget in bytes of the shared G projections cache (GProjectionCache).
+	 */
+	public static long getGCacheMemoryLimit(){
+		return m_cGCacheMemoryLimit;
+	}
+	public static void setGCacheMemoryLimit( long cBytes ){
+		m_cGCacheMemoryLimit = cBytes;
+		GProjectionCache.getInstance().setMemoryLimit( cBytes );
+	}
+	/**
+	 * Memory budget in bytes of the alias tables used for sampling in simulations (ModelSampler).
+	 */
+	public static long getAliasTableMemoryLimit(){
+		return m_cAliasTableMemoryLimit;
+	}
+	public static void setAliasTableMemoryLimit( long cBytes ){
+		m_cAliasTableMemoryLimit = cBytes;
+	}
+	/**
+	 * Sweep type of the MDP solver used for QMDP over compiled models.
+	 */
+	public static MDPSolver.SweepType getMDPSweepType(){
+		return m_stMDPSweepType;
+	}
+	public static void setMDPSweepType( MDPSolver.SweepType stType ){
+		m_stMDPSweepType = stType;
+	}
+	/**
+	 * Number of upper bound points kept per support pattern by the sawtooth upper bound (HSVI), 0 to keep all points.
+	 */
+	public static int getSawtoothPointsPerSupport(){
+		return m_cSawtoothPointsPerSupport;
+	}
+	public static void setSawtoothPointsPerSupport( int cPoints ){
+		m_cSawtoothPointsPerSupport = cPoints;
+	}
+	/**
+	 * Whether exact LP pruning (LPPruning) checks the vectors concurrently instead of running Lark's filter.
+	 */
+	public static boolean useParallelPruning(){
+		return m_bUseParallelPruning;
+	}
+	public static void setUseParallelPruning( boolean bUseParallelPruning ){
+		m_bUseParallelPruning = bUseParallelPruning;
+	}
+	/**
+	 * Whether the solvers record counters, latency histograms and gauges in the Metrics registry.
+	 */
+	public static boolean useMetrics(){
+		return m_bUseMetrics;
+	}
+	public static void setUseMetrics( boolean bUseMetrics ){
+		m_bUseMetrics = bUseMetrics;
+	}
+	/**
+	 * Interval (ms) between the metrics snapshots written by the metrics reporter.
+	 */
+	public static long getMetricsReportInterval(){
+		return m_lMetricsReportInterval;
+	}
+	public static void setMetricsReportInterval( long lInterval ){
+		m_lMetricsReportInterval = lInterval;
+	}
+	/**
+	 * Whether factored models build their ADDs over the shared ADDNodeManager instead of one CompactAlgebraicDecisionDiagram per ADD.
+	 */
+	public static boolean useSharedADDs(){
+		return m_bUseSharedADDs;
+	}
+	public static void setUseSharedADDs( boolean bUseSharedADDs ){
+		m_bUseSharedADDs = bUseSharedADDs;
+	}
+	/**
+	 * Whether factored models build their ADDs as affine ADDs (AffineADD) over a shared AADD context. Takes precedence over useSharedADDs.
+	 * Experimental - the ADD operations agree with the compact ADDs (see ADDBackendCheck), but solver values differ from the compact
+	 * and shared ADDs (see the README), so use it for the ADD benchmarks and not for solving.
+	 */
+	public static boolean useAffineADDs(){
+		return m_bUseAffineADDs;
+	}
+	public static void setUseAffineADDs( boolean bUseAffineADDs ){
+		m_bUseAffineADDs = bUseAffineADDs;
+	}
+	/**
+	 * Number of entries in the computed table of the ADD node manager (rounded down to a power of 2).
+	 */
+	public static int getADDComputedTableSize(){
+		return m_cADDComputedTableSize;
+	}
+	public static void setADDComputedTableSize( int cEntries ){
+		m_cADDComputedTableSize = cEntries;
+	}
+	/**
+	 * Number of ADD nodes above which the node manager collects the nodes that no live ADD reaches.
+	 * Affine ADDs use it as the bound on the cache entries of the AADD context.
+	 */
+	public static int getADDCollectionThreshold(){
+		return m_cADDCollectionThreshold;
+	}
+	public static void setADDCollectionThreshold( int cNodes ){
+		m_cADDCollectionThreshold = cNodes;
+	}
 	public static int getThreadCount(){
 		return m_cThreads;
 	}
@@ -0,0 +1,283 @@
+package pomdp.utilities;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import pomdp.utilities.metrics.Metrics;
+
+/**
+ * Shared cache of G(a,o) projections of alpha vectors, replacing the per vector G arrays that were kept forever.
+ * Entries are keyed by (vector id, a, o) and the cache is bounded by an estimate of the memory taken by the projections.
+ * When the budget is exceeded, entries are evicted in clock (second chance) order - an entry that was read since the hand
+ * last passed it is spared once.
+ * Reads do not lock. Evicted projections are not released, since callers may still hold them.
+ * Removed entries drop their projection at once, and are purged from the clock queue when they outnumber the live entries.
+ */
+public class GProjectionCache {
+	private static final int ENTRY_OVERHEAD = 128;
+	private static final int BYTES_PER_VALUE = 16;
+
+	private static volatile GProjectionCache g_gpcInstance = null;
+
+	private ConcurrentHashMap<Key, Entry> m_mEntries;
+	private ConcurrentLinkedQueue<Entry> m_qClock;
+	private AtomicLong m_cBytes;
+	private AtomicInteger m_cRemovedInClock;
+	private long m_cMaxBytes;
+	private ReentrantLock m_lEviction;
+	private LongAdder m_cHits;
+	private LongAdder m_cMisses;
+	private LongAdder m_cEvictions;
+
+	private static class Key{
+		private final long m_iVectorId;
+		private final int m_iAction;
+		private final int m_iObservation;
+		public Key( long iVectorId, int iAction, int iObservation ){
+			m_iVectorId = iVectorId;
+			m_iAction = iAction;
+			m_iObservation = iObservation;
+		}
+		public boolean equals( Object oOther ){
+			if( !( oOther instanceof Key ) )
+				return false;
+			Key kOther = (Key)oOther;
+			return m_iVectorId == kOther.m_iVectorId && m_iAction == kOther.m_iAction && m_iObservation == kOther.m_iObservation;
+		}
+		public int hashCode(){
+			long l = m_iVectorId * 0x9E3779B97F4A7C15L + m_iAction * 0xC2B2AE3D27D4EB4FL + m_iObservation;
+			return (int)( l ^ ( l >>> 32 ) );
+		}
+	}
+
+	private static class Entry{
+		private final Key m_kKey;
+		private volatile AlphaVector m_avG;
+		private final long m_cBytes;
+		private volatile boolean m_bReferenced;
+		private volatile boolean m_bRemoved;
+		public Entry( Key kKey, AlphaVector avG, long cBytes ){
+			m_kKey = kKey;
+			m_avG = avG;
+			m_cBytes = cBytes;
+			m_bReferenced = false;
+			m_bRemoved = false;
+		}
+	}
+
+	public GProjectionCache( long cMaxBytes ){
+		m_mEntries = new ConcurrentHashMap<Key, Entry>();
+		m_qClock = new ConcurrentLinkedQueue<Entry>();
+		m_cBytes = new AtomicLong( 0 );
+		m_cRemovedInClock = new AtomicInteger( 0 );
+		m_cMaxBytes = cMaxBytes;
+		m_lEviction = new ReentrantLock();
+		m_cHits = new LongAdder();
+		m_cMisses = new LongAdder();
+		m_cEvictions = new LongAdder();
+	}
+
+	public static GProjectionCache getInstance(){
+		if( g_gpcInstance == null ){
+			synchronized( GProjectionCache.class ){
+				if( g_gpcInstance == null ){
+					GProjectionCache gpc = new GProjectionCache( ExecutionProperties.getGCacheMemoryLimit() );
+					gpc.registerGauges();
+					g_gpcInstance = gpc;
+				}
+			}
+		}
+		return g_gpcInstance;
+	}
+
+	/**
+	 * @return the cached projection, or null if it is not in the cache
+	 */
+	public AlphaVector get( AlphaVector av, int iAction, int iObservation ){
+		Entry e = m_mEntries.get( new Key( av.getId(), iAction, iObservation ) );
+		AlphaVector avG = ( e == null ) ? null : e.m_avG;
+		if( avG == null ){
+			m_cMisses.increment();
+			return null;
+		}
+		e.m_bReferenced = true;
+		m_cHits.increment();
+		return avG;
+	}
+
+	/*
+	 * Lookup that does not affect the counters or the eviction order.
+	 */
+	AlphaVector peek( AlphaVector av, int iAction, int iObservation ){
+		Entry e = m_mEntries.get( new Key( av.getId(), iAction, iObservation ) );
+		if( e == null )
+			return null;
+		return e.m_avG;
+	}
+
+	/**
+	 * Caches the projection. If another thread already cached the same projection, the existing one is returned.
+	 */
+	public AlphaVector put( AlphaVector av, int iAction, int iObservation, AlphaVector avG ){
+		Key kKey = new Key( av.getId(), iAction, iObservation );
+		long cBytes = ENTRY_OVERHEAD + BYTES_PER_VALUE * avG.countLocalEntries();
+		if( cBytes > m_cMaxBytes )
+			return avG;
+		Entry eNew = new Entry( kKey, avG, cBytes );
+		Entry eExisting = m_mEntries.putIfAbsent( kKey, eNew );
+		if( eExisting != null ){
+			AlphaVector avExisting = eExisting.m_avG;
+			//the existing entry may have been removed since the lookup
+			return ( avExisting != null ) ? avExisting : avG;
+		}
+		m_qClock.offer( eNew );
+		if( m_cBytes.addAndGet( cBytes ) > m_cMaxBytes )
+			evict();
+		return avG;
+	}
+
+	/*
+	 * Runs the clock hand until the cache is back within the budget. Only one thread evicts at a time - others just go on.
+	 */
+	private void evict(){
+		if( !m_lEviction.tryLock() )
+			return;
+		try{
+			Entry e = null;
+			while( m_cBytes.get() > m_cMaxBytes && ( e = m_qClock.poll() ) != null ){
+				if( e.m_bRemoved ){
+					m_cRemovedInClock.decrementAndGet();
+					continue;
+				}
+				if( e.m_bReferenced ){
+					e.m_bReferenced = false;
+					m_qClock.offer( e );
+				}
+				else if( m_mEntries.remove( e.m_kKey, e ) ){
+					e.m_bRemoved = true;
+					e.m_avG = null;
+					m_cBytes.addAndGet( -e.m_cBytes );
+					m_cEvictions.increment();
+				}
+			}
+		}
+		finally{
+			m_lEviction.unlock();
+		}
+	}
+
+	/**
+	 * Drops all the projections of the vector, for example when it is pruned from the value function.
+	 * @param bRelease - whether to release the dropped projections
+	 */
+	public void remove( AlphaVector av, int cActions, int cObservations, boolean bRelease ){
+		int iAction = 0, iObservation = 0;
+		long iVectorId = av.getId();
+		Entry e = null;
+		if( m_mEntries.isEmpty() )
+			return;
+		for( iAction = 0 ; iAction < cActions ; iAction++ ){
+			for( iObservation = 0 ; iObservation < cObservations ; iObservation++ ){
+				e = m_mEntries.remove( new Key( iVectorId, iAction, iObservation ) );
+				if( e != null ){
+					e.m_bRemoved = true;
+					m_cBytes.addAndGet( -e.m_cBytes );
+					if( bRelease )
+						e.m_avG.release();
+					e.m_avG = null;
+					m_cRemovedInClock.incrementAndGet();
+				}
+			}
+		}
+		if( m_cRemovedInClock.get() > m_mEntries.size() )
+			purgeClock();
+	}
+
+	/*
+	 * Drops the removed entries from the clock queue. Only one thread purges at a time, sharing the lock of the clock hand.
+	 */
+	private void purgeClock(){
+		if( !m_lEviction.tryLock() )
+			return;
+		try{
+			Iterator<Entry> it = m_qClock.iterator();
+			while( it.hasNext() ){
+				if( it.next().m_bRemoved ){
+					it.remove();
+					m_cRemovedInClock.decrementAndGet();
+				}
+			}
+		}
+		finally{
+			m_lEviction.unlock();
+		}
+	}
+
+	public void clear(){
+		m_mEntries.clear();
+		m_qClock.clear();
+		m_cRemovedInClock.set( 0 );
+		m_cBytes.set( 0 );
+	}
+
+	public void setMemoryLimit( long cMaxBytes ){
+		m_cMaxBytes = cMaxBytes;
+		if( m_cBytes.get() > m_cMaxBytes )
+			evict();
+	}
+
+	public long getMemoryLimit(){
+		return m_cMaxBytes;
+	}
+
+	/**
+	 * Estimated memory taken by the cached projections, in bytes.
+	 */
+	public long getMemoryUsage(){
+		return m_cBytes.get();
+	}
+
+	public int size(){
+		return m_mEntries.size();
+	}
+
+	public long getHits(){
+		return m_cHits.sum();
+	}
+
+	public long getMisses(){
+		return m_cMisses.sum();
+	}
+
+	public long getEvictions(){
+		return m_cEvictions.sum();
+	}
+
+	/*
+	 * Exposes the counters of the shared cache in the Metrics registry.
+	 */
+	private void registerGauges(){
+		Metrics.registerGauge( "gCache.hitRate", () -> {
+			long cHits = getHits(), cAll = cHits + getMisses();
+			return cAll == 0 ? Double.NaN : cHits / (double)cAll;
+		} );
+		Metrics.registerGauge( "gCache.bytes", () -> getMemoryUsage() );
+		Metrics.registerGauge( "gCache.evictions", () -> getEvictions() );
+	}
+
+	public void resetCounters(){
+		m_cHits.reset();
+		m_cMisses.reset();
+		m_cEvictions.reset();
+	}
+
+	public String toString(){
+		return "GProjectionCache: |entries| = " + size() + ", memory " + getMemoryUsage() / 1000000 + "/" + m_cMaxBytes / 1000000 + "MB" +
+			", hits " + getHits() + ", misses " + getMisses() + ", evictions " + getEvictions();
+	}
+}
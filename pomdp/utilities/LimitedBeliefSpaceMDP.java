@@ -84,6 +84,10 @@ public class LimitedBeliefSpaceMDP extends MDPValueFunction {
 		return m_vStates.elementAt( iState );
 	}
 	
+	protected CompiledModel getCompiledModel(){
+		return null;
+	}
+	
 	public Collection<Integer> getValidStates(){
 		return new IntegerCollection( 0, m_vStates.size() );
 	}
@@ -10,6 +10,7 @@ import java.util.Vector;
 import java.util.Map.Entry;
 
 import pomdp.environments.POMDP;
+import pomdp.utilities.metrics.Metrics;
 
 public class LimitedBeliefStateFactory extends BeliefStateFactory {
 
@@ -35,10 +36,8 @@ public class LimitedBeliefStateFactory extends BeliefStateFactory {
 			Entry<Integer, Double> eBelief = null;
 			double dTr = 0.0, dO = 0.0, dBelief = 0.0;
 			
-			long lTimeBefore = 0, lTimeAfter = 0;
+			long lTimeBefore = Metrics.startTimer();
 			
-			if( ExecutionProperties.getReportOperationTime() )
-				lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
 			if( m_bCountBeliefUpdates )
 				m_cBeliefUpdates++;
 			
@@ -86,10 +85,8 @@ public class LimitedBeliefStateFactory extends BeliefStateFactory {
 				if( bsNext != bs )
 					bsNext.addPredecessor( bs, dNormalizingFactor, iAction );
 			}
-			if( ExecutionProperties.getReportOperationTime() && m_bCountBeliefUpdates ){
-				lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-				m_cTimeInTau += ( lTimeAfter - lTimeBefore ) / 1000;
-			}
+			if( m_bCountBeliefUpdates )
+				Metrics.TAU_TIME.recordSince( lTimeBefore );
 
 			return bsNext;
 		}
@@ -122,10 +119,8 @@ public class LimitedBeliefStateFactory extends BeliefStateFactory {
 			double dMaxEntry = 0.0, dLastMax = Double.POSITIVE_INFINITY;
 			Vector<Integer> vMaxEntries = null, vNonZeroEntries = new Vector<Integer>();
 			
-			long lTimeBefore = 0, lTimeAfter = 0;
+			long lTimeBefore = Metrics.startTimer();
 			
-			if( ExecutionProperties.getReportOperationTime() )
-				lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
 			if( m_bCountBeliefUpdates )
 				m_cBeliefUpdates++;
 			
@@ -221,10 +216,8 @@ public class LimitedBeliefStateFactory extends BeliefStateFactory {
 				if( bsNext != bs )
 					bsNext.addPredecessor( bs, dNormalizingFactor, iAction );
 			}
-			if( ExecutionProperties.getReportOperationTime() && m_bCountBeliefUpdates ){
-				lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-				m_cTimeInTau += ( lTimeAfter - lTimeBefore ) / 1000;
-			}
+			if( m_bCountBeliefUpdates )
+				Metrics.TAU_TIME.recordSince( lTimeBefore );
 
 			return bsNext;
 		}
@@ -0,0 +1,307 @@
+package pomdp.utilities;
+
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Value iteration for the underlying MDP (used for QMDP) over the compiled model, on primitive arrays.
+ * Three sweep types are supported:
+ * Jacobi - every sweep computes all the new values from the values of the previous sweep, in parallel over blocks of states.
+ * GaussSeidel - block Gauss-Seidel. Blocks run in parallel; inside a block values are updated in place, and values of other
+ * blocks are read from the previous sweep. The result does not depend on the number of threads.
+ * Prioritized - prioritized sweeping. States are backed up in order of their Bellman residual, and after a backup only the
+ * predecessors of the state (through the backward transitions) are re-evaluated. Runs on the calling thread.
+ * The maximal change of each sweep (or of every |S| backups for prioritized sweeping) is logged and kept in getSweepDeltas.
+ */
+public class MDPSolver {
+	public enum SweepType{
+		Jacobi, GaussSeidel, Prioritized;
+	}
+
+	private static final int BLOCK_SIZE = 1024;
+
+	private CompiledModel m_cmModel;
+	private double[] m_adRewards;
+	private int m_cActions;
+	private int m_cStates;
+	private double m_dGamma;
+	private int[] m_aiStates;
+	private boolean[] m_abValid;
+	private SweepType m_stType;
+	private Vector<Double> m_vSweepDeltas;
+
+	/**
+	 * @param adRewards - R(s,a) at position s*|A|+a
+	 * @param aiStates - the states to update, in increasing order
+	 */
+	public MDPSolver( CompiledModel cm, double[] adRewards, int cStates, int cActions, double dGamma, int[] aiStates ){
+		m_cmModel = cm;
+		m_adRewards = adRewards;
+		m_cStates = cStates;
+		m_cActions = cActions;
+		m_dGamma = dGamma;
+		m_aiStates = aiStates;
+		m_abValid = new boolean[cStates];
+		for( int iState : aiStates )
+			m_abValid[iState] = true;
+		m_stType = SweepType.GaussSeidel;
+		m_vSweepDeltas = new Vector<Double>();
+	}
+
+	public void setSweepType( SweepType stType ){
+		m_stType = stType;
+	}
+
+	public Vector<Double> getSweepDeltas(){
+		return m_vSweepDeltas;
+	}
+
+	/**
+	 * Runs value iteration from the given values until the maximal change of a sweep is at most dEpsilon.
+	 * @param adValues - initial values, replaced by the computed values
+	 * @param aiBestActions - receives the greedy action of every state
+	 * @return the maximal change in the last sweep
+	 */
+	public double solve( double[] adValues, int[] aiBestActions, int cMaxIterations, double dEpsilon ){
+		m_vSweepDeltas.clear();
+		if( m_stType == SweepType.Prioritized )
+			return solvePrioritized( adValues, aiBestActions, cMaxIterations, dEpsilon );
+
+		double[] adPrevious = new double[m_cStates];
+		double dMaxDelta = Double.POSITIVE_INFINITY;
+		int iIteration = 0;
+		long lStart = System.currentTimeMillis();
+		for( iIteration = 0 ; ( iIteration < cMaxIterations ) && ( dMaxDelta > dEpsilon ) ; iIteration++ ){
+			System.arraycopy( adValues, 0, adPrevious, 0, m_cStates );
+			dMaxDelta = ForkJoinPool.commonPool().invoke( new Sweep( adPrevious, adValues, aiBestActions, 0, m_aiStates.length ) );
+			m_vSweepDeltas.add( dMaxDelta );
+			Logger.getInstance().logFull( "MDPSolver", 0, "solve", m_stType + " sweep " + iIteration + ", delta = " + dMaxDelta +
+					", time " + ( System.currentTimeMillis() - lStart ) );
+		}
+		//make sure the greedy actions match the final values
+		ForkJoinPool.commonPool().invoke( new GreedyActions( adValues, aiBestActions, 0, m_aiStates.length ) );
+		return dMaxDelta;
+	}
+
+	/*
+	 * max_a R(s,a) + gamma * \sum_s' tr(s,a,s')V(s'), where V(s') is read from adCurrent inside [iFirstState,iLastState) and from adPrevious elsewhere.
+	 * Returns the maximizing action in aiAction[0].
+	 */
+	private double backup( int iState, double[] adPrevious, double[] adCurrent, int iFirstState, int iLastState, int[] aiAction ){
+		int iAction = 0, iEntry = 0, iEndState = 0, iMaxAction = -1;
+		double dSum = 0.0, dQValue = 0.0, dMaxQValue = Double.NEGATIVE_INFINITY;
+		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+			int[] aiRows = m_cmModel.getTransitionRows( iAction );
+			int[] aiColumns = m_cmModel.getTransitionColumns( iAction );
+			double[] adTr = m_cmModel.getTransitionValues( iAction );
+			dSum = 0.0;
+			for( iEntry = aiRows[iState] ; iEntry < aiRows[iState + 1] ; iEntry++ ){
+				iEndState = aiColumns[iEntry];
+				if( iEndState >= iFirstState && iEndState < iLastState )
+					dSum += adTr[iEntry] * adCurrent[iEndState];
+				else
+					dSum += adTr[iEntry] * adPrevious[iEndState];
+			}
+			dQValue = m_adRewards[iState * m_cActions + iAction] + m_dGamma * dSum;
+			if( dQValue > dMaxQValue ){
+				dMaxQValue = dQValue;
+				iMaxAction = iAction;
+			}
+		}
+		aiAction[0] = iMaxAction;
+		return dMaxQValue;
+	}
+
+	private class Sweep extends RecursiveTask<Double>{
+		private static final long serialVersionUID = 1L;
+		private double[] m_adPrevious, m_adCurrent;
+		private int[] m_aiBestActions;
+		private int m_iFirst, m_iLast;
+
+		public Sweep( double[] adPrevious, double[] adCurrent, int[] aiBestActions, int iFirst, int iLast ){
+			m_adPrevious = adPrevious;
+			m_adCurrent = adCurrent;
+			m_aiBestActions = aiBestActions;
+			m_iFirst = iFirst;
+			m_iLast = iLast;
+		}
+
+		protected Double compute(){
+			if( m_iLast - m_iFirst > BLOCK_SIZE ){
+				int iMiddle = m_iFirst + ( ( ( m_iLast - m_iFirst ) / 2 + BLOCK_SIZE - 1 ) / BLOCK_SIZE ) * BLOCK_SIZE;
+				Sweep sLeft = new Sweep( m_adPrevious, m_adCurrent, m_aiBestActions, m_iFirst, iMiddle );
+				Sweep sRight = new Sweep( m_adPrevious, m_adCurrent, m_aiBestActions, iMiddle, m_iLast );
+				sLeft.fork();
+				double dRight = sRight.compute();
+				return Math.max( sLeft.join(), dRight );
+			}
+			int iIndex = 0, iState = 0, iFirstState = 0, iLastState = 0;
+			int[] aiAction = new int[1];
+			double dValue = 0.0, dMaxDelta = 0.0;
+			if( m_stType == SweepType.GaussSeidel ){
+				iFirstState = m_aiStates[m_iFirst];
+				iLastState = m_aiStates[m_iLast - 1] + 1;
+			}
+			for( iIndex = m_iFirst ; iIndex < m_iLast ; iIndex++ ){
+				iState = m_aiStates[iIndex];
+				dValue = backup( iState, m_adPrevious, m_adCurrent, iFirstState, iLastState, aiAction );
+				dMaxDelta = Math.max( dMaxDelta, Math.abs( dValue - m_adPrevious[iState] ) );
+				m_adCurrent[iState] = dValue;
+				m_aiBestActions[iState] = aiAction[0];
+			}
+			return dMaxDelta;
+		}
+	}
+
+	private class GreedyActions extends RecursiveTask<Double>{
+		private static final long serialVersionUID = 1L;
+		private double[] m_adValues;
+		private int[] m_aiBestActions;
+		private int m_iFirst, m_iLast;
+
+		public GreedyActions( double[] adValues, int[] aiBestActions, int iFirst, int iLast ){
+			m_adValues = adValues;
+			m_aiBestActions = aiBestActions;
+			m_iFirst = iFirst;
+			m_iLast = iLast;
+		}
+
+		protected Double compute(){
+			if( m_iLast - m_iFirst > BLOCK_SIZE ){
+				int iMiddle = ( m_iFirst + m_iLast ) >>> 1;
+				invokeAll( new GreedyActions( m_adValues, m_aiBestActions, m_iFirst, iMiddle ), new GreedyActions( m_adValues, m_aiBestActions, iMiddle, m_iLast ) );
+				return 0.0;
+			}
+			int[] aiAction = new int[1];
+			for( int iIndex = m_iFirst ; iIndex < m_iLast ; iIndex++ ){
+				backup( m_aiStates[iIndex], m_adValues, m_adValues, 0, 0, aiAction );
+				m_aiBestActions[m_aiStates[iIndex]] = aiAction[0];
+			}
+			return 0.0;
+		}
+	}
+
+	/*
+	 * Prioritized sweeping over an indexed binary max heap of Bellman residuals.
+	 */
+	private double solvePrioritized( double[] adValues, int[] aiBestActions, int cMaxIterations, double dEpsilon ){
+		int[] aiHeap = new int[m_aiStates.length], aiPositions = new int[m_cStates];
+		double[] adPriorities = new double[m_cStates];
+		double[] adBackups = new double[m_cStates];
+		int[] aiAction = new int[1];
+		int cHeap = 0, iState = 0, iAction = 0, iEntry = 0, iPredecessor = 0, iSweep = 0;
+		long cBackups = 0, cMaxBackups = (long)cMaxIterations * m_aiStates.length, lStart = System.currentTimeMillis();
+		double dResidual = 0.0, dMaxResidual = 0.0;
+
+		for( iState = 0 ; iState < m_cStates ; iState++ )
+			aiPositions[iState] = -1;
+		for( int iIndex = 0 ; iIndex < m_aiStates.length ; iIndex++ ){
+			iState = m_aiStates[iIndex];
+			adBackups[iState] = backup( iState, adValues, adValues, 0, 0, aiAction );
+			aiBestActions[iState] = aiAction[0];
+			dResidual = Math.abs( adBackups[iState] - adValues[iState] );
+			if( dResidual > dEpsilon ){
+				adPriorities[iState] = dResidual;
+				cHeap = heapInsert( aiHeap, aiPositions, adPriorities, cHeap, iState );
+			}
+		}
+
+		while( cHeap > 0 && cBackups < cMaxBackups ){
+			iState = aiHeap[0];
+			cHeap = heapRemoveTop( aiHeap, aiPositions, adPriorities, cHeap );
+			dMaxResidual = Math.max( dMaxResidual, adPriorities[iState] );
+			adValues[iState] = adBackups[iState];
+			adPriorities[iState] = 0.0;
+			cBackups++;
+
+			for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+				int[] aiRows = m_cmModel.getBackwardTransitionRows( iAction );
+				int[] aiColumns = m_cmModel.getBackwardTransitionColumns( iAction );
+				for( iEntry = aiRows[iState] ; iEntry < aiRows[iState + 1] ; iEntry++ ){
+					iPredecessor = aiColumns[iEntry];
+					if( !m_abValid[iPredecessor] )
+						continue;
+					adBackups[iPredecessor] = backup( iPredecessor, adValues, adValues, 0, 0, aiAction );
+					aiBestActions[iPredecessor] = aiAction[0];
+					dResidual = Math.abs( adBackups[iPredecessor] - adValues[iPredecessor] );
+					if( dResidual > dEpsilon ){
+						adPriorities[iPredecessor] = dResidual;
+						if( aiPositions[iPredecessor] == -1 )
+							cHeap = heapInsert( aiHeap, aiPositions, adPriorities, cHeap, iPredecessor );
+						else
+							heapUpdate( aiHeap, aiPositions, adPriorities, cHeap, iPredecessor );
+					}
+					else if( aiPositions[iPredecessor] != -1 ){
+						adPriorities[iPredecessor] = dResidual;
+						heapUpdate( aiHeap, aiPositions, adPriorities, cHeap, iPredecessor );
+					}
+				}
+			}
+
+			if( cBackups % m_aiStates.length == 0 || cHeap == 0 ){
+				m_vSweepDeltas.add( dMaxResidual );
+				Logger.getInstance().logFull( "MDPSolver", 0, "solve", "Prioritized sweep " + iSweep + ", delta = " + dMaxResidual +
+						", queued states " + cHeap + ", time " + ( System.currentTimeMillis() - lStart ) );
+				iSweep++;
+				dMaxResidual = 0.0;
+			}
+		}
+		if( cHeap == 0 )
+			return 0.0;
+		return adPriorities[aiHeap[0]];
+	}
+
+	private static int heapInsert( int[] aiHeap, int[] aiPositions, double[] adPriorities, int cHeap, int iState ){
+		aiHeap[cHeap] = iState;
+		aiPositions[iState] = cHeap;
+		siftUp( aiHeap, aiPositions, adPriorities, cHeap );
+		return cHeap + 1;
+	}
+
+	private static int heapRemoveTop( int[] aiHeap, int[] aiPositions, double[] adPriorities, int cHeap ){
+		aiPositions[aiHeap[0]] = -1;
+		cHeap--;
+		if( cHeap > 0 ){
+			aiHeap[0] = aiHeap[cHeap];
+			aiPositions[aiHeap[0]] = 0;
+			siftDown( aiHeap, aiPositions, adPriorities, cHeap, 0 );
+		}
+		return cHeap;
+	}
+
+	private static void heapUpdate( int[] aiHeap, int[] aiPositions, double[] adPriorities, int cHeap, int iState ){
+		int iPosition = siftUp( aiHeap, aiPositions, adPriorities, aiPositions[iState] );
+		siftDown( aiHeap, aiPositions, adPriorities, cHeap, iPosition );
+	}
+
+	private static int siftUp( int[] aiHeap, int[] aiPositions, double[] adPriorities, int iPosition ){
+		int iState = aiHeap[iPosition], iParent = 0;
+		while( iPosition > 0 ){
+			iParent = ( iPosition - 1 ) >>> 1;
+			if( adPriorities[aiHeap[iParent]] >= adPriorities[iState] )
+				break;
+			aiHeap[iPosition] = aiHeap[iParent];
+			aiPositions[aiHeap[iPosition]] = iPosition;
+			iPosition = iParent;
+		}
+		aiHeap[iPosition] = iState;
+		aiPositions[iState] = iPosition;
+		return iPosition;
+	}
+
+	private static void siftDown( int[] aiHeap, int[] aiPositions, double[] adPriorities, int cHeap, int iPosition ){
+		int iState = aiHeap[iPosition], iChild = 0;
+		while( ( iChild = 2 * iPosition + 1 ) < cHeap ){
+			if( iChild + 1 < cHeap && adPriorities[aiHeap[iChild + 1]] > adPriorities[aiHeap[iChild]] )
+				iChild++;
+			if( adPriorities[aiHeap[iChild]] <= adPriorities[iState] )
+				break;
+			aiHeap[iPosition] = aiHeap[iChild];
+			aiPositions[aiHeap[iPosition]] = iPosition;
+			iPosition = iChild;
+		}
+		aiHeap[iPosition] = iState;
+		aiPositions[iState] = iPosition;
+	}
+}
@@ -3,6 +3,7 @@ package pomdp.utilities;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
@@ -44,6 +45,7 @@ public class MDPValueFunction extends PolicyStrategy {
 	protected boolean m_bConverged;
 	protected boolean m_bLoaded;
 	protected RandomGenerator m_rndGenerator;
+	private QMDPSnapshot m_qsSnapshot;
 	
 	//private static MDPValueFunction g_vMDP = null;
 	
@@ -64,6 +66,13 @@ public class MDPValueFunction extends PolicyStrategy {
 	*/
 	
 	public MDPValueFunction( POMDP pomdp, double dExplorationRate ){
+		this( pomdp, dExplorationRate, true );
+	}
+	
+	/**
+	 * Subclasses that do not keep a value per state pass bTabular = false, so the state values are never allocated.
+	 */
+	protected MDPValueFunction( POMDP pomdp, double dExplorationRate, boolean bTabular ){
 		m_pPOMDP = pomdp;
 		m_vValueFunction = new LinearValueFunctionApproximation( 0.0001, false );
 		m_cStates = m_pPOMDP.getStateCount();
@@ -72,7 +81,9 @@ public class MDPValueFunction extends PolicyStrategy {
 		m_dGamma = m_pPOMDP.getDiscountFactor();
 		//m_adQValues = new double[m_cStates][m_cActions];
 		//m_adValues = new double[m_cStates];
-		m_adValues = new DoubleVector( m_cStates );
+		m_adValues = null;
+		if( bTabular )
+			m_adValues = new DoubleVector( m_cStates );
 		m_ivBestActions = null;
 		m_avBestActions = null;
 		//m_vValues = new Vector<Double>();//newAlphaVector();
@@ -83,6 +94,7 @@ public class MDPValueFunction extends PolicyStrategy {
 		//m_pqStates = null;
 		//m_vPredStates = null;
 		m_rndGenerator = new RandomGenerator( "MDPVI", 0 );
+		m_qsSnapshot = null;
 	}
 	
 	protected double computeStateActionValue( int iState, int iAction ){
@@ -90,6 +102,10 @@ public class MDPValueFunction extends PolicyStrategy {
 		double dValue = 0.0, dTr = 0.0, dSumValues = 0.0, dQValue = 0.0;
 		Iterator itNonZeroTransitions = null;
 		Entry e = null;
+		CompiledModel cm = getCompiledModel();
+		
+		if( cm != null )
+			return R( iState, iAction ) + m_dGamma * expectedNextValue( cm, iState, iAction );
 		
 		dSumValues = 0.0;
 		double dSumTr = 0.0;
@@ -109,6 +125,18 @@ public class MDPValueFunction extends PolicyStrategy {
 		return dQValue;
 	}
 	
+	//\sum_s' tr(s,a,s')V(s') over the CSR row of s
+	protected double expectedNextValue( CompiledModel cm, int iState, int iAction ){
+		int[] aiRows = cm.getTransitionRows( iAction );
+		int[] aiColumns = cm.getTransitionColumns( iAction );
+		double[] adValues = cm.getTransitionValues( iAction );
+		double dSum = 0.0;
+		for( int iEntry = aiRows[iState] ; iEntry < aiRows[iState + 1] ; iEntry++ ){
+			dSum += adValues[iEntry] * getValue( aiColumns[iEntry] );
+		}
+		return dSum;
+	}
+	
 	protected double updateState( int iStartState ){
 		int iAction = 0, iMaxAction = -1;
 		double dMaxQValue = 0.0, dQValue = 0.0, dDelta = 0.0;
@@ -133,6 +161,13 @@ public class MDPValueFunction extends PolicyStrategy {
 		Iterator itNonZero = null;
 		double dValue = R( iState, iAction ), dTr = 0.0, dNextValue = 0.0;
 		Map.Entry e = null;
+		CompiledModel cm = null;
+		
+		if( m_qsSnapshot != null )
+			return m_qsSnapshot.getQValue( iState, iAction );
+		cm = getCompiledModel();
+		if( cm != null )
+			return dValue + m_dGamma * expectedNextValue( cm, iState, iAction );
 		
 		itNonZero = getNonZeroTransitions( iState, iAction );
 		while( itNonZero.hasNext() ){
@@ -350,10 +385,57 @@ public class MDPValueFunction extends PolicyStrategy {
 	}
 
 
+	/*
+	 * Solves the MDP over the compiled model with MDPSolver, starting from max_a R(s,a) as the boxed path does.
+	 */
+	private double computeCompiledValueFunction( CompiledModel cm, int cMaxIterations, double dEpsilon ){
+		int iState = 0, iAction = 0, cValidStates = 0;
+		double dValue = 0.0, dMaxValue = 0.0, dMaxDelta = 0.0;
+		double[] adRewards = new double[m_cStates * m_cActions], adValues = new double[m_cStates];
+		int[] aiBestActions = new int[m_cStates];
+		int[] aiStates = new int[getValidStates().size()];
+		long lStart = System.currentTimeMillis();
+		
+		cValidStates = 0;
+		for( int iValidState : getValidStates() )
+			aiStates[cValidStates++] = iValidState;
+		Arrays.sort( aiStates );
+		
+		for( int iIndex = 0 ; iIndex < aiStates.length ; iIndex++ ){
+			iState = aiStates[iIndex];
+			dMaxValue = Double.NEGATIVE_INFINITY;
+			for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+				dValue = R( iState, iAction );
+				adRewards[iState * m_cActions + iAction] = dValue;
+				if( dValue > dMaxValue )
+					dMaxValue = dValue;
+			}
+			adValues[iState] = dMaxValue;
+		}
+		
+		MDPSolver solver = new MDPSolver( cm, adRewards, m_cStates, m_cActions, m_dGamma, aiStates );
+		solver.setSweepType( ExecutionProperties.getMDPSweepType() );
+		dMaxDelta = solver.solve( adValues, aiBestActions, cMaxIterations, dEpsilon );
+		
+		m_ivBestActions = new IntVector( m_cStates );
+		for( int iIndex = 0 ; iIndex < aiStates.length ; iIndex++ ){
+			iState = aiStates[iIndex];
+			setValue( iState, adValues[iState] );
+			m_ivBestActions.set( iState, aiBestActions[iState] );
+		}
+		Logger.getInstance().logFull( "MDPVF", 0, "computeValueFunction", ExecutionProperties.getMDPSweepType() + " solver done after " + 
+				solver.getSweepDeltas().size() + " sweeps, delta = " + dMaxDelta + ", time " + ( System.currentTimeMillis() - lStart ) );
+		return dMaxDelta;
+	}
+
 	public double computeValueFunction( int cMaxIterations, double dEpsilon, boolean bFixedPolicy ){
 		int iIteration = 0, iMaxState = 0, iMinState = 0;
 		double dDelta = 0.0, dMaxDelta = 1000.0, dMaxValue = 0.0, dMinValue = 0.0, dValue = 0.0, dMaxValueForAllStates = Double.NEGATIVE_INFINITY;
 		int iAction = 0, iMaxAction = 0;
+		CompiledModel cm = getCompiledModel();
+		
+		if( !bFixedPolicy && ( cm != null ) )
+			return computeCompiledValueFunction( cm, cMaxIterations, dEpsilon );
 		
 		m_ivBestActions = new IntVector( m_cStates );
 		
@@ -475,12 +557,16 @@ public class MDPValueFunction extends PolicyStrategy {
 		int cMDPBackups = 0, iStartState = 0;
 		double dMaxDelta = Double.MAX_VALUE;
 		String sPath = ExecutionProperties.getPath();
-		String sFileName = sPath + m_pPOMDP.getName() + "QMDP.xml";
+		String sFileName = sPath + m_pPOMDP.getName() + QMDPSnapshot.FILE_SUFFIX;
+		long lModelHash = 0;
 		
+		//the hash goes over the whole model, so it is only computed when the function is not loaded yet
+		if( PERSIST_FUNCTION && !m_bLoaded )
+			lModelHash = computeModelHash();
 		if( PERSIST_FUNCTION && !m_bLoaded && !sFileName.equals( "" ) ){
 			try{
 				Logger.getInstance().logFull( "MDPVF", 0, "VI", "Started loading QMDP value function" );
-				load( sFileName );
+				loadSnapshot( sFileName, lModelHash );
 				Logger.getInstance().logFull( "MDPVF", 0, "VI", "QMDP value function loaded successfully" );
 				m_bLoaded = true;
 				m_bConverged = true;
@@ -512,7 +598,7 @@ public class MDPValueFunction extends PolicyStrategy {
 			if( PERSIST_FUNCTION && !sFileName.equals( "" ) ){
 				try{
 					m_bLoaded = true;
-					save( sFileName );
+					QMDPSnapshot.save( this, lModelHash, m_cStates, m_cActions, m_dGamma, sFileName );
 				}
 				catch( Exception e ){
 					System.out.println( "Unable to save QMDP value function: " + e );
@@ -584,6 +670,61 @@ public class MDPValueFunction extends PolicyStrategy {
 		return "N/A";
 	}
 	
+	/**
+	 * Restores V and the greedy actions from a binary snapshot. Q values are then read from the mapped snapshot
+	 * until a value changes.
+	 */
+	protected void loadSnapshot( String sFileName, long lModelHash ) throws Exception{
+		QMDPSnapshot qs = QMDPSnapshot.load( sFileName, lModelHash, m_cStates, m_cActions, m_dGamma );
+		m_ivBestActions = new IntVector( m_cStates );
+		for( int iState : getValidStates() ){
+			setValue( iState, qs.getValue( iState ) );
+			m_ivBestActions.set( iState, qs.getBestAction( iState ) );
+		}
+		m_qsSnapshot = qs;
+		makeVectors( m_bFullQFunction );
+	}
+	
+	/**
+	 * Hash of everything the MDP value function depends on - |S|, |A|, the discount, the valid states, R(s,a) and tr(s,a,s').
+	 * Used to reject snapshots of a different or modified model.
+	 */
+	protected long computeModelHash(){
+		long lHash = 0xcbf29ce484222325L;
+		int iAction = 0, iEntry = 0;
+		Iterator<Entry<Integer,Double>> itNonZero = null;
+		Entry<Integer,Double> e = null;
+		CompiledModel cm = getCompiledModel();
+		
+		lHash = QMDPSnapshot.hash( lHash, m_cStates );
+		lHash = QMDPSnapshot.hash( lHash, m_cActions );
+		lHash = QMDPSnapshot.hash( lHash, m_dGamma );
+		for( int iState : getValidStates() ){
+			lHash = QMDPSnapshot.hash( lHash, iState );
+			for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+				lHash = QMDPSnapshot.hash( lHash, R( iState, iAction ) );
+				if( cm != null ){
+					int[] aiRows = cm.getTransitionRows( iAction );
+					int[] aiColumns = cm.getTransitionColumns( iAction );
+					double[] adValues = cm.getTransitionValues( iAction );
+					for( iEntry = aiRows[iState] ; iEntry < aiRows[iState + 1] ; iEntry++ ){
+						lHash = QMDPSnapshot.hash( lHash, aiColumns[iEntry] );
+						lHash = QMDPSnapshot.hash( lHash, adValues[iEntry] );
+					}
+				}
+				else{
+					itNonZero = getNonZeroTransitions( iState, iAction );
+					while( itNonZero.hasNext() ){
+						e = itNonZero.next();
+						lHash = QMDPSnapshot.hash( lHash, e.getKey().intValue() );
+						lHash = QMDPSnapshot.hash( lHash, e.getValue().doubleValue() );
+					}
+				}
+			}
+		}
+		return lHash;
+	}
+	
 	/**
 	 * Loads the value function from an XML file.
 	 */
@@ -735,6 +876,7 @@ public class MDPValueFunction extends PolicyStrategy {
 		//return m_vValues.elementAt( iState );
 		//m_adValues[iState] = dValue;
 		m_adValues.set( iState, dValue );
+		m_qsSnapshot = null;
 	}
 
 	public int countEntries() {
@@ -764,6 +906,13 @@ public class MDPValueFunction extends PolicyStrategy {
 	protected Iterator<Entry<Integer,Double>> getNonZeroTransitions( int iState, int iAction ){
 		return m_pPOMDP.getNonZeroTransitions( iState, iAction );
 	}
+	/**
+	 * The compiled dynamics used by the backups, or null to go through getNonZeroTransitions.
+	 * Subclasses that define their own state space must return null.
+	 */
+	protected CompiledModel getCompiledModel(){
+		return m_pPOMDP.getCompiledModel();
+	}
 	public Collection<Integer> getValidStates(){
 		return m_pPOMDP.getValidStates();
 	}
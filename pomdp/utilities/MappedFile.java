@@ -0,0 +1,94 @@
+package pomdp.utilities;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Read only memory mapping of a whole file, of any size.
+ * A single MappedByteBuffer is limited to 2GB, so the file is mapped in 1GB segments. Each segment overlaps the next
+ * by 8 bytes, so that any primitive value can be read from the segment in which it starts.
+ * Reads use absolute positions and are thread safe. The mapping is shared through the page cache with other processes
+ * that map the same file, and pages are only read from disk when first accessed.
+ */
+public class MappedFile {
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+	private static final int SEGMENT_OVERLAP = 8;
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private ByteBuffer[] m_abSegments;
+	private long m_cBytes;
+	private String m_sFileName;
+
+	public MappedFile( String sFileName ) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile( sFileName, "r" );
+		int iSegment = 0, cSegments = 0;
+		long lStart = 0, lLength = 0;
+		try{
+			FileChannel fc = raf.getChannel();
+			m_sFileName = sFileName;
+			m_cBytes = fc.size();
+			cSegments = (int)( ( m_cBytes + SEGMENT_SIZE - 1 ) / SEGMENT_SIZE );
+			m_abSegments = new ByteBuffer[Math.max( 1, cSegments )];
+			if( cSegments == 0 )
+				m_abSegments[0] = ByteBuffer.allocate( 0 );
+			for( iSegment = 0 ; iSegment < cSegments ; iSegment++ ){
+				lStart = iSegment * SEGMENT_SIZE;
+				lLength = Math.min( SEGMENT_SIZE + SEGMENT_OVERLAP, m_cBytes - lStart );
+				MappedByteBuffer mbb = fc.map( FileChannel.MapMode.READ_ONLY, lStart, lLength );
+				m_abSegments[iSegment] = mbb;
+			}
+		}
+		finally{
+			//the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	public long size(){
+		return m_cBytes;
+	}
+
+	public String getFileName(){
+		return m_sFileName;
+	}
+
+	public byte getByte( long lPosition ){
+		return m_abSegments[(int)( lPosition >>> SEGMENT_SHIFT )].get( (int)( lPosition & SEGMENT_MASK ) );
+	}
+
+	public int getInt( long lPosition ){
+		return m_abSegments[(int)( lPosition >>> SEGMENT_SHIFT )].getInt( (int)( lPosition & SEGMENT_MASK ) );
+	}
+
+	public long getLong( long lPosition ){
+		return m_abSegments[(int)( lPosition >>> SEGMENT_SHIFT )].getLong( (int)( lPosition & SEGMENT_MASK ) );
+	}
+
+	public double getDouble( long lPosition ){
+		return m_abSegments[(int)( lPosition >>> SEGMENT_SHIFT )].getDouble( (int)( lPosition & SEGMENT_MASK ) );
+	}
+
+	/**
+	 * Reads a string written as its UTF-8 byte count (int) followed by the bytes.
+	 */
+	public String getString( long lPosition ){
+		int cBytes = getInt( lPosition ), iByte = 0;
+		byte[] abString = new byte[cBytes];
+		for( iByte = 0 ; iByte < cBytes ; iByte++ )
+			abString[iByte] = getByte( lPosition + 4 + iByte );
+		return new String( abString, UTF8 );
+	}
+
+	/**
+	 * Number of bytes taken by the string at the given position, including its length field.
+	 */
+	public long getStringSize( long lPosition ){
+		return 4 + getInt( lPosition );
+	}
+}
@@ -0,0 +1,344 @@
+package pomdp.utilities;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+
+import pomdp.utilities.datastructures.Function;
+import pomdp.utilities.datastructures.MapFunction;
+
+/**
+ * Read only function stored in a memory mapped file.
+ * Like SparseTabularFunction, a function over d dimensions holds d independent levels - values of 1, 2 and 3 parameters.
+ * Level k is a CSR matrix whose rows are the first k-1 parameters and whose columns are the last parameter:
+ * row count (long), entry count (long), row pointers (long[rows+1]), sorted columns (int[entries]), values (double[entries]).
+ * The function starts with its dimension count (int), the dimensions (int[]) and the min and max values (double).
+ */
+public class MappedSparseFunction extends Function {
+	private static final long serialVersionUID = 1L;
+
+	private transient MappedFile m_mfFile;
+	private long[] m_alRows;
+	private long[] m_alColumns;
+	private long[] m_alValues;
+	private long[] m_acRows;
+	private long m_lEnd;
+
+	private MappedSparseFunction( int[] aDims ){
+		super( aDims );
+	}
+
+	/**
+	 * Maps the function written at the given position of the file.
+	 */
+	public static MappedSparseFunction read( MappedFile mf, long lPosition ){
+		int cDims = mf.getInt( lPosition ), iDim = 0, iLevel = 0;
+		int[] aDims = new int[cDims];
+		long cEntries = 0;
+		lPosition += 4;
+		for( iDim = 0 ; iDim < cDims ; iDim++ ){
+			aDims[iDim] = mf.getInt( lPosition );
+			lPosition += 4;
+		}
+		MappedSparseFunction f = new MappedSparseFunction( aDims );
+		f.m_mfFile = mf;
+		f.setMinValue( mf.getDouble( lPosition ) );
+		f.setMaxValue( mf.getDouble( lPosition + 8 ) );
+		lPosition += 16;
+		f.m_acRows = new long[cDims];
+		f.m_alRows = new long[cDims];
+		f.m_alColumns = new long[cDims];
+		f.m_alValues = new long[cDims];
+		for( iLevel = 0 ; iLevel < cDims ; iLevel++ ){
+			f.m_acRows[iLevel] = mf.getLong( lPosition );
+			cEntries = mf.getLong( lPosition + 8 );
+			lPosition += 16;
+			f.m_alRows[iLevel] = lPosition;
+			lPosition += 8 * ( f.m_acRows[iLevel] + 1 );
+			f.m_alColumns[iLevel] = lPosition;
+			lPosition += 4 * cEntries;
+			f.m_alValues[iLevel] = lPosition;
+			lPosition += 8 * cEntries;
+		}
+		f.m_lEnd = lPosition;
+		return f;
+	}
+
+	/**
+	 * Position in the file right after this function.
+	 */
+	public long getEndPosition(){
+		return m_lEnd;
+	}
+
+	private long rowStart( int iLevel, long iRow ){
+		return m_mfFile.getLong( m_alRows[iLevel] + 8 * iRow );
+	}
+
+	private double lookup( int iLevel, long iRow, int iColumn ){
+		if( iLevel >= m_cDims || iRow < 0 || iRow >= m_acRows[iLevel] )
+			return 0.0;
+		long iLow = rowStart( iLevel, iRow ), iHigh = rowStart( iLevel, iRow + 1 ) - 1, iMiddle = 0;
+		long lColumns = m_alColumns[iLevel];
+		int iCurrent = 0;
+		while( iLow <= iHigh ){
+			iMiddle = ( iLow + iHigh ) >>> 1;
+			iCurrent = m_mfFile.getInt( lColumns + 4 * iMiddle );
+			if( iCurrent < iColumn )
+				iLow = iMiddle + 1;
+			else if( iCurrent > iColumn )
+				iHigh = iMiddle - 1;
+			else
+				return m_mfFile.getDouble( m_alValues[iLevel] + 8 * iMiddle );
+		}
+		return 0.0;
+	}
+
+	public double valueAt( int arg1 ){
+		return lookup( 0, 0, arg1 );
+	}
+
+	public double valueAt( int arg1, int arg2 ){
+		return lookup( 1, arg1, arg2 );
+	}
+
+	public double valueAt( int arg1, int arg2, int arg3 ){
+		return lookup( 2, (long)arg1 * m_aDims[1] + arg2, arg3 );
+	}
+
+	public void setValue( int arg1, double dValue ){
+		throw new UnsupportedOperationException( "Memory mapped functions are read only" );
+	}
+
+	public void setValue( int arg1, int arg2, double dValue ){
+		throw new UnsupportedOperationException( "Memory mapped functions are read only" );
+	}
+
+	public void setValue( int arg1, int arg2, int arg3, double dValue ){
+		throw new UnsupportedOperationException( "Memory mapped functions are read only" );
+	}
+
+	public Iterator<Entry<Integer,Double>> getNonZeroEntries( int arg1, int arg2 ){
+		return new RowIterator( 2, (long)arg1 * m_aDims[1] + arg2 );
+	}
+
+	public Iterator<Entry<Integer,Double>> getNonZeroEntries(){
+		return new RowIterator( 0, 0 );
+	}
+
+	public int countNonZeroEntries( int arg1, int arg2 ){
+		long iRow = (long)arg1 * m_aDims[1] + arg2;
+		return (int)( rowStart( 2, iRow + 1 ) - rowStart( 2, iRow ) );
+	}
+
+	public int countEntries(){
+		if( m_cDims < 3 )
+			return 0;
+		return (int)rowStart( 2, m_acRows[2] );
+	}
+
+	public int countNonZeroEntries(){
+		return (int)rowStart( 0, 1 );
+	}
+
+	private class RowIterator implements Iterator<Entry<Integer,Double>>{
+		private int m_iLevel;
+		private long m_iCurrent;
+		private long m_iEnd;
+
+		public RowIterator( int iLevel, long iRow ){
+			m_iLevel = iLevel;
+			if( iLevel < m_cDims && iRow < m_acRows[iLevel] ){
+				m_iCurrent = rowStart( iLevel, iRow );
+				m_iEnd = rowStart( iLevel, iRow + 1 );
+			}
+		}
+		public boolean hasNext(){
+			return m_iCurrent < m_iEnd;
+		}
+		public Entry<Integer,Double> next(){
+			if( m_iCurrent >= m_iEnd )
+				throw new NoSuchElementException();
+			int iColumn = m_mfFile.getInt( m_alColumns[m_iLevel] + 4 * m_iCurrent );
+			double dValue = m_mfFile.getDouble( m_alValues[m_iLevel] + 8 * m_iCurrent );
+			m_iCurrent++;
+			return new AbstractMap.SimpleImmutableEntry<Integer,Double>( iColumn, dValue );
+		}
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/*
+	 * Non zero entries of a single row, sorted by column before writing.
+	 */
+	private static class Row{
+		private int[] m_aiColumns = new int[8];
+		private double[] m_adValues = new double[8];
+		private int m_cEntries = 0;
+
+		public void clear(){
+			m_cEntries = 0;
+		}
+		public void add( int iColumn, double dValue ){
+			if( dValue == 0.0 )
+				return;
+			if( m_cEntries == m_aiColumns.length ){
+				m_aiColumns = Arrays.copyOf( m_aiColumns, m_cEntries * 2 );
+				m_adValues = Arrays.copyOf( m_adValues, m_cEntries * 2 );
+			}
+			m_aiColumns[m_cEntries] = iColumn;
+			m_adValues[m_cEntries] = dValue;
+			m_cEntries++;
+		}
+		public void sort(){
+			int i = 0, j = 0, iColumn = 0;
+			double dValue = 0.0;
+			if( m_cEntries >= 32 ){
+				long[] alKeys = new long[m_cEntries];
+				double[] adValues = Arrays.copyOf( m_adValues, m_cEntries );
+				for( i = 0 ; i < m_cEntries ; i++ )
+					alKeys[i] = ( (long)m_aiColumns[i] << 32 ) | i;
+				Arrays.sort( alKeys );
+				for( i = 0 ; i < m_cEntries ; i++ ){
+					m_aiColumns[i] = (int)( alKeys[i] >> 32 );
+					m_adValues[i] = adValues[(int)alKeys[i]];
+				}
+				return;
+			}
+			for( i = 1 ; i < m_cEntries ; i++ ){
+				iColumn = m_aiColumns[i];
+				dValue = m_adValues[i];
+				for( j = i - 1 ; j >= 0 && m_aiColumns[j] > iColumn ; j-- ){
+					m_aiColumns[j + 1] = m_aiColumns[j];
+					m_adValues[j + 1] = m_adValues[j];
+				}
+				m_aiColumns[j + 1] = iColumn;
+				m_adValues[j + 1] = dValue;
+			}
+		}
+	}
+
+	/**
+	 * Writes any function in the format read by read( MappedFile, long ).
+	 */
+	public static void write( Function f, DataOutputStream dos ) throws IOException{
+		int cDims = f.getDimensionCount(), iDim = 0, iLevel = 0, iEntry = 0;
+		long iRow = 0, cRows = 0, cEntries = 0;
+		Row r = new Row();
+		List<Map<Long,Row>> lRows = null;
+
+		dos.writeInt( cDims );
+		for( iDim = 0 ; iDim < cDims ; iDim++ )
+			dos.writeInt( f.getSize( iDim ) );
+		dos.writeDouble( f.getMinValue() );
+		dos.writeDouble( f.getMaxValue() );
+
+		if( f instanceof MapFunction )
+			lRows = collectMapFunctionRows( (MapFunction)f, cDims );
+
+		for( iLevel = 0 ; iLevel < cDims ; iLevel++ ){
+			cRows = 1;
+			for( iDim = 0 ; iDim < iLevel ; iDim++ )
+				cRows *= f.getSize( iDim );
+			cEntries = 0;
+			for( iRow = 0 ; iRow < cRows ; iRow++ )
+				cEntries += readRow( f, lRows, iLevel, iRow, r ).m_cEntries;
+			dos.writeLong( cRows );
+			dos.writeLong( cEntries );
+			//three passes - row pointers, columns and values - so that the rows need not be held in memory
+			cEntries = 0;
+			dos.writeLong( 0 );
+			for( iRow = 0 ; iRow < cRows ; iRow++ ){
+				cEntries += readRow( f, lRows, iLevel, iRow, r ).m_cEntries;
+				dos.writeLong( cEntries );
+			}
+			for( iRow = 0 ; iRow < cRows ; iRow++ ){
+				readRow( f, lRows, iLevel, iRow, r );
+				for( iEntry = 0 ; iEntry < r.m_cEntries ; iEntry++ )
+					dos.writeInt( r.m_aiColumns[iEntry] );
+			}
+			for( iRow = 0 ; iRow < cRows ; iRow++ ){
+				readRow( f, lRows, iLevel, iRow, r );
+				for( iEntry = 0 ; iEntry < r.m_cEntries ; iEntry++ )
+					dos.writeDouble( r.m_adValues[iEntry] );
+			}
+		}
+	}
+
+	private static Row readRow( Function f, List<Map<Long,Row>> lRows, int iLevel, long iRow, Row r ){
+		int iColumn = 0, cColumns = f.getSize( iLevel ), iArg1 = 0, iArg2 = 0;
+		r.clear();
+		if( lRows != null ){
+			Row rStored = lRows.get( iLevel ).get( iRow );
+			if( rStored != null )
+				return rStored;
+			return r;
+		}
+		if( iLevel == 0 ){
+			for( iColumn = 0 ; iColumn < cColumns ; iColumn++ )
+				r.add( iColumn, f.valueAt( iColumn ) );
+		}
+		else if( iLevel == 1 ){
+			for( iColumn = 0 ; iColumn < cColumns ; iColumn++ )
+				r.add( iColumn, f.valueAt( (int)iRow, iColumn ) );
+		}
+		else{
+			iArg1 = (int)( iRow / f.getSize( 1 ) );
+			iArg2 = (int)( iRow % f.getSize( 1 ) );
+			Iterator<Entry<Integer,Double>> itNonZero = f.getNonZeroEntries( iArg1, iArg2 );
+			if( itNonZero != null ){
+				while( itNonZero.hasNext() ){
+					Entry<Integer,Double> e = itNonZero.next();
+					r.add( e.getKey(), e.getValue() );
+				}
+				r.sort();
+			}
+			else{
+				for( iColumn = 0 ; iColumn < cColumns ; iColumn++ )
+					r.add( iColumn, f.valueAt( iArg1, iArg2, iColumn ) );
+			}
+		}
+		return r;
+	}
+
+	/*
+	 * MapFunction cannot enumerate rows, so its entries are bucketed up front. Keys are "arg1,arg2,arg3" with -1 for missing parameters.
+	 */
+	private static List<Map<Long,Row>> collectMapFunctionRows( MapFunction f, int cDims ){
+		List<Map<Long,Row>> lRows = new ArrayList<Map<Long,Row>>( cDims );
+		int iLevel = 0, iArg = 0;
+		int[] aiArgs = new int[3];
+		for( iLevel = 0 ; iLevel < cDims ; iLevel++ )
+			lRows.add( new TreeMap<Long,Row>() );
+		Iterator<?> itEntries = f.getNonZeroEntries();
+		while( itEntries.hasNext() ){
+			Entry<?,?> e = (Entry<?,?>)itEntries.next();
+			String[] asArgs = e.getKey().toString().split( "," );
+			for( iArg = 0 ; iArg < 3 ; iArg++ )
+				aiArgs[iArg] = ( iArg < asArgs.length ) ? Integer.parseInt( asArgs[iArg] ) : -1;
+			iLevel = ( aiArgs[1] == -1 ) ? 0 : ( ( aiArgs[2] == -1 ) ? 1 : 2 );
+			if( iLevel >= cDims )
+				continue;
+			long iRow = ( iLevel == 0 ) ? 0 : ( ( iLevel == 1 ) ? aiArgs[0] : (long)aiArgs[0] * f.getSize( 1 ) + aiArgs[1] );
+			Row r = lRows.get( iLevel ).get( iRow );
+			if( r == null ){
+				r = new Row();
+				lRows.get( iLevel ).put( iRow, r );
+			}
+			r.add( aiArgs[iLevel], ((Number)e.getValue()).doubleValue() );
+		}
+		for( Map<Long,Row> mRows : lRows )
+			for( Row r : mRows.values() )
+				r.sort();
+		return lRows;
+	}
+}
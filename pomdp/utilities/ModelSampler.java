@@ -0,0 +1,112 @@
+package pomdp.utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import pomdp.environments.POMDP;
+
+/**
+ * O(1) sampling of successor states, observations and start states, used by simulations (execute, observe, chooseStartState).
+ * Alias tables are built lazily from the compiled model - per (a,s) for T(s,a,.), per (a,s') for O(a,s',.).
+ * Once the tables take more than ExecutionProperties.getAliasTableMemoryLimit, rows without a table are sampled
+ * by a linear scan of the compiled row, which is still allocation free.
+ * Each sample consumes exactly one uniform number.
+ */
+public class ModelSampler {
+	private CompiledModel m_cmModel;
+	private int m_cStates;
+	private AliasTable[][] m_aTransitionTables;
+	private AliasTable[][] m_aObservationTables;
+	private volatile AliasTable m_atStartStates;
+	private AtomicLong m_cBytes;
+	private long m_cMaxBytes;
+	private POMDP m_pPOMDP;
+
+	public ModelSampler( POMDP pomdp, CompiledModel cm ){
+		int cActions = pomdp.getActionCount();
+		m_pPOMDP = pomdp;
+		m_cmModel = cm;
+		m_cStates = pomdp.getStateCount();
+		m_aTransitionTables = new AliasTable[cActions][];
+		m_aObservationTables = new AliasTable[cActions][];
+		for( int iAction = 0 ; iAction < cActions ; iAction++ ){
+			m_aTransitionTables[iAction] = new AliasTable[m_cStates];
+			m_aObservationTables[iAction] = new AliasTable[m_cStates];
+		}
+		m_atStartStates = null;
+		m_cBytes = new AtomicLong( 0 );
+		m_cMaxBytes = ExecutionProperties.getAliasTableMemoryLimit();
+	}
+
+	/**
+	 * @return s' ~ T(s,a,.), or -1 if s has no successors under a
+	 */
+	public int sampleSuccessor( int iState, int iAction, double dUniform ){
+		return sample( m_aTransitionTables[iAction], m_cmModel.getTransitionRows( iAction ), m_cmModel.getTransitionColumns( iAction ),
+				m_cmModel.getTransitionValues( iAction ), iState, dUniform );
+	}
+
+	/**
+	 * @return o ~ O(a,s',.), or -1 if no observation is possible at s' after a
+	 */
+	public int sampleObservation( int iAction, int iEndState, double dUniform ){
+		return sample( m_aObservationTables[iAction], m_cmModel.getObservationRows( iAction ), m_cmModel.getObservationColumns( iAction ),
+				m_cmModel.getObservationValues( iAction ), iEndState, dUniform );
+	}
+
+	public int sampleStartState( double dUniform ){
+		AliasTable atStart = m_atStartStates;
+		if( atStart == null ){
+			int iState = 0, cEntries = 0;
+			int[] aiStates = new int[m_cStates];
+			double[] adProbabilities = new double[m_cStates];
+			for( iState = 0 ; iState < m_cStates ; iState++ ){
+				if( m_pPOMDP.probStartState( iState ) > 0.0 ){
+					aiStates[cEntries] = iState;
+					adProbabilities[cEntries] = m_pPOMDP.probStartState( iState );
+					cEntries++;
+				}
+			}
+			if( cEntries == 0 )
+				return -1;
+			atStart = new AliasTable( aiStates, adProbabilities, 0, cEntries );
+			m_atStartStates = atStart;
+		}
+		return atStart.sample( dUniform );
+	}
+
+	private int sample( AliasTable[] aTables, int[] aiRows, int[] aiColumns, double[] adValues, int iRow, double dUniform ){
+		AliasTable atRow = aTables[iRow];
+		int iFirst = aiRows[iRow], iEnd = aiRows[iRow + 1], iEntry = 0;
+		double dSum = 0.0;
+
+		if( atRow != null )
+			return atRow.sample( dUniform );
+		if( iFirst == iEnd )
+			return -1;
+		if( iEnd - iFirst == 1 )
+			return aiColumns[iFirst];
+		if( m_cBytes.get() < m_cMaxBytes ){
+			//concurrent callers may build the same table twice, which is harmless
+			atRow = new AliasTable( aiColumns, adValues, iFirst, iEnd );
+			m_cBytes.addAndGet( atRow.getMemorySize() );
+			aTables[iRow] = atRow;
+			return atRow.sample( dUniform );
+		}
+		for( iEntry = iFirst ; iEntry < iEnd ; iEntry++ )
+			dSum += adValues[iEntry];
+		dUniform *= dSum;
+		for( iEntry = iFirst ; iEntry < iEnd - 1 ; iEntry++ ){
+			dUniform -= adValues[iEntry];
+			if( dUniform < 0.0 )
+				return aiColumns[iEntry];
+		}
+		return aiColumns[iEnd - 1];
+	}
+
+	/**
+	 * Estimated memory taken by the alias tables, in bytes.
+	 */
+	public long getMemoryUsage(){
+		return m_cBytes.get();
+	}
+}
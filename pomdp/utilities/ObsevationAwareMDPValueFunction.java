@@ -132,6 +132,10 @@ public class ObsevationAwareMDPValueFunction extends MDPValueFunction {
 		}
 		return mTransitions.entrySet().iterator();
 	}
+	protected CompiledModel getCompiledModel(){
+		return null;
+	}
+	
 	public Collection<Integer> getValidStates(){
 		return m_colValidStates;
 	}
@@ -0,0 +1,151 @@
+package pomdp.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+
+/**
+ * Binary snapshot of a solved MDP value function - V(s), the greedy action and Q(s,a) for every state.
+ * Layout (big endian, as written by DataOutputStream):
+ * magic, version (int), model hash (long), |S|, |A| (int), discount (double), V (double[|S|]),
+ * Q (double[|S|*|A|], at position s*|A|+a), greedy actions (int[|S|]). Entries of states that are not valid are 0.
+ * The snapshot is memory mapped on loading and read in place, and is rejected when the model hash does not match.
+ */
+public class QMDPSnapshot {
+	public static final String FILE_SUFFIX = "QMDP.bin";
+	private static final int MAGIC = 0x514D4450;
+	private static final int VERSION = 1;
+	private static final long HEADER_SIZE = 32;
+
+	private MappedFile m_mfFile;
+	private int m_cStates;
+	private int m_cActions;
+	private long m_lQValuesStart;
+	private long m_lActionsStart;
+
+	private QMDPSnapshot( MappedFile mf, int cStates, int cActions ){
+		m_mfFile = mf;
+		m_cStates = cStates;
+		m_cActions = cActions;
+		m_lQValuesStart = HEADER_SIZE + 8L * cStates;
+		m_lActionsStart = m_lQValuesStart + 8L * cStates * cActions;
+	}
+
+	/**
+	 * Maps a snapshot, verifying that it was written for the same model.
+	 */
+	public static QMDPSnapshot load( String sFileName, long lModelHash, int cStates, int cActions, double dGamma ) throws IOException, InvalidModelFileFormatException{
+		MappedFile mf = new MappedFile( sFileName );
+		if( mf.size() < HEADER_SIZE || mf.getInt( 0 ) != MAGIC )
+			throw new InvalidModelFileFormatException( "Not a QMDP snapshot" );
+		if( mf.getInt( 4 ) != VERSION )
+			throw new InvalidModelFileFormatException( "Unsupported QMDP snapshot version " + mf.getInt( 4 ) );
+		if( mf.getLong( 8 ) != lModelHash )
+			throw new InvalidModelFileFormatException( "QMDP snapshot was computed for a different model" );
+		if( mf.getInt( 16 ) != cStates || mf.getInt( 20 ) != cActions || mf.getDouble( 24 ) != dGamma )
+			throw new InvalidModelFileFormatException( "Unmatching state or action count. Expected <" +
+					cStates + "," + cActions + "> found <" + mf.getInt( 16 ) + "," + mf.getInt( 20 ) + ">" );
+		QMDPSnapshot qs = new QMDPSnapshot( mf, cStates, cActions );
+		if( mf.size() != qs.m_lActionsStart + 4L * cStates )
+			throw new InvalidModelFileFormatException( "Corrupted QMDP snapshot" );
+		return qs;
+	}
+
+	/**
+	 * Writes the values of a solved MDP value function. Q values are computed through vf.getQValue, and the greedy action is the first maximizing action.
+	 * The snapshot is written to a temporary file in the same directory and then renamed over sFileName, so other processes that
+	 * have the previous snapshot mapped keep reading it intact.
+	 */
+	public static void save( MDPValueFunction vf, long lModelHash, int cStates, int cActions, double dGamma, String sFileName ) throws IOException{
+		Collection<Integer> cValidStates = vf.getValidStates();
+		boolean[] abValid = new boolean[cStates];
+		int iState = 0, iAction = 0, iMaxAction = 0;
+		double dQValue = 0.0, dMaxQValue = 0.0;
+		int[] aiBestActions = new int[cStates];
+		Path pTarget = Paths.get( sFileName ).toAbsolutePath();
+		Path pTemp = Files.createTempFile( pTarget.getParent(), pTarget.getFileName().toString(), ".tmp" );
+		boolean bWritten = false;
+		DataOutputStream dos = null;
+
+		for( int iValidState : cValidStates )
+			abValid[iValidState] = true;
+		try{
+			dos = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( pTemp ), 1 << 16 ) );
+			dos.writeInt( MAGIC );
+			dos.writeInt( VERSION );
+			dos.writeLong( lModelHash );
+			dos.writeInt( cStates );
+			dos.writeInt( cActions );
+			dos.writeDouble( dGamma );
+			for( iState = 0 ; iState < cStates ; iState++ )
+				dos.writeDouble( abValid[iState] ? vf.getValue( iState ) : 0.0 );
+			for( iState = 0 ; iState < cStates ; iState++ ){
+				dMaxQValue = Double.NEGATIVE_INFINITY;
+				iMaxAction = 0;
+				for( iAction = 0 ; iAction < cActions ; iAction++ ){
+					dQValue = 0.0;
+					if( abValid[iState] )
+						dQValue = vf.getQValue( iState, iAction );
+					if( dQValue > dMaxQValue ){
+						dMaxQValue = dQValue;
+						iMaxAction = iAction;
+					}
+					dos.writeDouble( dQValue );
+				}
+				aiBestActions[iState] = iMaxAction;
+			}
+			for( iState = 0 ; iState < cStates ; iState++ )
+				dos.writeInt( aiBestActions[iState] );
+			dos.close();
+			dos = null;
+			try{
+				Files.move( pTemp, pTarget, StandardCopyOption.ATOMIC_MOVE );
+			}
+			catch( AtomicMoveNotSupportedException e ){
+				Files.move( pTemp, pTarget, StandardCopyOption.REPLACE_EXISTING );
+			}
+			bWritten = true;
+		}
+		finally{
+			if( dos != null )
+				dos.close();
+			if( !bWritten )
+				Files.deleteIfExists( pTemp );
+		}
+	}
+
+	public double getValue( int iState ){
+		return m_mfFile.getDouble( HEADER_SIZE + 8L * iState );
+	}
+
+	public int getBestAction( int iState ){
+		return m_mfFile.getInt( m_lActionsStart + 4L * iState );
+	}
+
+	public double getQValue( int iState, int iAction ){
+		return m_mfFile.getDouble( m_lQValuesStart + 8L * ( (long)iState * m_cActions + iAction ) );
+	}
+
+	public int getStateCount(){
+		return m_cStates;
+	}
+
+	/**
+	 * Accumulates a 64 bit FNV-1a style hash of a value, used to key snapshots by the content of the model.
+	 */
+	public static long hash( long lHash, long lValue ){
+		lValue = ( lValue ^ ( lValue >>> 33 ) ) * 0xff51afd7ed558ccdL;
+		lValue ^= lValue >>> 33;
+		return ( lHash ^ lValue ) * 0x100000001b3L;
+	}
+
+	public static long hash( long lHash, double dValue ){
+		return hash( lHash, Double.doubleToLongBits( dValue ) );
+	}
+}
@@ -2,6 +2,7 @@ package pomdp.utilities;
 
 import java.io.Serializable;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RandomGenerator  implements Serializable{
 	/*
@@ -51,6 +52,10 @@ public class RandomGenerator  implements Serializable{
 	private Random m_rndGenerator;
 	private String m_sName;
 	
+	//per thread streams override all generators on their thread - used to make simulations reproducible regardless of scheduling
+	private static final ThreadLocal<Random> g_tlStreams = new ThreadLocal<Random>();
+	private static final AtomicInteger g_cBoundStreams = new AtomicInteger( 0 );
+	
 	public RandomGenerator( String sName ){
 		//this( sName, System.currentTimeMillis() );
 		this( sName, System.nanoTime() );
@@ -73,24 +78,60 @@ public class RandomGenerator  implements Serializable{
 		System.out.println( "Initializing generator " + m_sName + " with random seed " + iSeed );
 	}
 	
+	/**
+	 * Binds a stream to the calling thread. Until unbindThreadStream is called, every generator draws its numbers
+	 * on this thread from the stream instead of its own sequence.
+	 */
+	public static void bindThreadStream( long iSeed ){
+		if( g_tlStreams.get() == null )
+			g_cBoundStreams.incrementAndGet();
+		g_tlStreams.set( new Random( iSeed ) );
+	}
+	
+	public static void unbindThreadStream(){
+		if( g_tlStreams.get() != null ){
+			g_tlStreams.remove();
+			g_cBoundStreams.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Seed of the i'th stream split from a base seed (SplitMix64). Streams of nearby indexes are statistically independent.
+	 */
+	public static long getStreamSeed( long iBaseSeed, long iStream ){
+		long z = iBaseSeed + ( iStream + 1 ) * 0x9E3779B97F4A7C15L;
+		z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+		z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+		return z ^ ( z >>> 31 );
+	}
+	
+	private Random current(){
+		if( g_cBoundStreams.get() > 0 ){
+			Random rndStream = g_tlStreams.get();
+			if( rndStream != null )
+				return rndStream;
+		}
+		return m_rndGenerator;
+	}
+	
 	public int nextInt( int iMax ){
-		return m_rndGenerator.nextInt( iMax );
+		return current().nextInt( iMax );
 	}
 	
 	public int nextInt(){
-		return m_rndGenerator.nextInt();
+		return current().nextInt();
 	}
 	
 	public double nextDouble(){
-		return m_rndGenerator.nextDouble();
+		return current().nextDouble();
 	}
 
 	public double nextDouble( double dMax ){
-		return m_rndGenerator.nextDouble() * dMax;
+		return current().nextDouble() * dMax;
 	}
 
 	public double nextDouble( double dLowerBound, double dUpperBound ){
-		return m_rndGenerator.nextDouble() * ( dUpperBound - dLowerBound ) + dLowerBound;
+		return current().nextDouble() * ( dUpperBound - dLowerBound ) + dLowerBound;
 	}
 	
 	
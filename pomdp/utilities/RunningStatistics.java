@@ -0,0 +1,78 @@
+package pomdp.utilities;
+
+/**
+ * Streaming mean and variance of a sample (Welford's algorithm), numerically stable for long runs.
+ */
+public class RunningStatistics {
+	private long m_cSamples;
+	private double m_dMean;
+	private double m_dSumSquaredDeviations;
+	private double m_dMin;
+	private double m_dMax;
+
+	public RunningStatistics(){
+		m_cSamples = 0;
+		m_dMean = 0.0;
+		m_dSumSquaredDeviations = 0.0;
+		m_dMin = Double.POSITIVE_INFINITY;
+		m_dMax = Double.NEGATIVE_INFINITY;
+	}
+
+	public void add( double dSample ){
+		double dDelta = dSample - m_dMean;
+		m_cSamples++;
+		m_dMean += dDelta / m_cSamples;
+		m_dSumSquaredDeviations += dDelta * ( dSample - m_dMean );
+		if( dSample < m_dMin )
+			m_dMin = dSample;
+		if( dSample > m_dMax )
+			m_dMax = dSample;
+	}
+
+	public long getCount(){
+		return m_cSamples;
+	}
+
+	public double getMean(){
+		return m_dMean;
+	}
+
+	/**
+	 * Unbiased sample variance.
+	 */
+	public double getVariance(){
+		if( m_cSamples < 2 )
+			return 0.0;
+		return m_dSumSquaredDeviations / ( m_cSamples - 1 );
+	}
+
+	public double getStdev(){
+		return Math.sqrt( getVariance() );
+	}
+
+	public double getStandardError(){
+		if( m_cSamples == 0 )
+			return Double.POSITIVE_INFINITY;
+		return Math.sqrt( getVariance() / m_cSamples );
+	}
+
+	/**
+	 * Half width of the normal confidence interval of the mean.
+	 * @param dZ - the normal quantile, e.g. 1.96 for 95%
+	 */
+	public double getConfidenceHalfWidth( double dZ ){
+		return dZ * getStandardError();
+	}
+
+	public double getMin(){
+		return m_dMin;
+	}
+
+	public double getMax(){
+		return m_dMax;
+	}
+
+	public String toString(){
+		return "n = " + m_cSamples + ", mean " + m_dMean + ", stdev " + getStdev() + ", SE " + getStandardError();
+	}
+}
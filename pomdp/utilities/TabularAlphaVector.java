@@ -50,6 +50,22 @@ public class TabularAlphaVector extends AlphaVector{
 		return m_mValues.iterator();
 	}
 	
+	public int[] getNonZeroIndexes(){
+		if( m_mValues == null )
+			return null;
+		return m_mValues.getIndexes();
+	}
+	
+	public double[] getNonZeroValues(){
+		if( m_mValues == null )
+			return null;
+		return m_mValues.getValues();
+	}
+	
+	public double[] getDenseValues(){
+		return m_aValues;
+	}
+	
 	private static int g_cGain = 0;
 	private static int g_cFinalized = 0;
 	
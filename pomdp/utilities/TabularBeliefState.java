@@ -107,6 +107,20 @@ public class TabularBeliefState extends BeliefState {
 		return m_mNonZeroEntries.size();
 	}
 	
+	public int[] getNonZeroIndexes(){
+		getNonZeroEntries();
+		return m_mNonZeroEntries.getIndexes();
+	}
+	
+	public double[] getNonZeroValues(){
+		getNonZeroEntries();
+		return m_mNonZeroEntries.getValues();
+	}
+	
+	public double[] getDenseValues(){
+		return m_aStateProbabilities;
+	}
+	
 	public double[] toArray(){
 		return (double[]) m_aStateProbabilities.clone();
 	}
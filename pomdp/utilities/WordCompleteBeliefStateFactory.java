@@ -6,6 +6,7 @@ import java.util.Map.Entry;
 
 import pomdp.environments.POMDP;
 import pomdp.environments.WordComplete;
+import pomdp.utilities.metrics.Metrics;
 
 public class WordCompleteBeliefStateFactory extends BeliefStateFactory {
 
@@ -46,10 +47,8 @@ public class WordCompleteBeliefStateFactory extends BeliefStateFactory {
 			int iEndState = 0, iStartState = 0, iTrueObservation = 0;
 			int cStates = m_pPOMDP.getStateCount();
 			
-			long lTimeBefore = 0, lTimeAfter = 0;
+			long lTimeBefore = Metrics.startTimer();
 			
-			if( ExecutionProperties.getReportOperationTime() )
-				lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
 			if( m_bCountBeliefUpdates )
 				m_cBeliefUpdates++;
 			
@@ -94,10 +93,8 @@ public class WordCompleteBeliefStateFactory extends BeliefStateFactory {
 				if( bsNext != bs )
 					bsNext.addPredecessor( bs, dNormalizingFactor, iAction );
 			}
-			if( ExecutionProperties.getReportOperationTime() && m_bCountBeliefUpdates ){
-				lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-				m_cTimeInTau += ( lTimeAfter - lTimeBefore ) / 1000;
-			}
+			if( m_bCountBeliefUpdates )
+				Metrics.TAU_TIME.recordSince( lTimeBefore );
 
 			return bsNext;
 		}
@@ -18,6 +18,7 @@ public class ComputeG extends Task implements Runnable {
 	private BeliefState m_bsBelief;
 	private LinearValueFunctionApproximation m_vValueFunction;
 	private AlphaVector m_avG;
+	private long m_cScanned;
 	
 	public ComputeG( BeliefState bs, LinearValueFunctionApproximation vValueFunction, int iAction, int cObservations ){
 		m_iAction = iAction;
@@ -25,6 +26,7 @@ public class ComputeG extends Task implements Runnable {
 		m_bsBelief = bs;
 		m_vValueFunction = vValueFunction;
 		m_avG = null;
+		m_cScanned = 0;
 	}
 	
 	protected AlphaVector G(){
@@ -49,6 +51,7 @@ public class ComputeG extends Task implements Runnable {
 						avMaxOriginal = avAlpha;
 					}
 				}
+				m_cScanned += vVectors.size();
 			}
 			else{
 				dMaxValue = 0.0;
@@ -85,9 +88,17 @@ public class ComputeG extends Task implements Runnable {
 		return m_avG;
 	}
 
+	/**
+	 * The number of vectors evaluated by the task, for the caller to add to its own scan count.
+	 */
+	public long getScannedCount(){
+		return m_cScanned;
+	}
+
 	@Override
 	public void copyResults(Task tProcessed) {
-		m_avG = ((ComputeG)tProcessed).getG();		
+		m_avG = ((ComputeG)tProcessed).getG();
+		m_cScanned = ((ComputeG)tProcessed).getScannedCount();
 	}
 
 	@Override
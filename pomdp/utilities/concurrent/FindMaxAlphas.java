@@ -17,6 +17,7 @@ public class FindMaxAlphas extends Task implements Runnable {
 	private LinearValueFunctionApproximation m_vValueFunction;
 	private AlphaVector[] m_avNextVectors;
 	private double m_dValue;
+	private long m_cScanned;
 	
 	public FindMaxAlphas( POMDP pomdp, int iAction, BeliefState bs, LinearValueFunctionApproximation vValueFunction ){
 		m_pPOMDP = pomdp;
@@ -25,6 +26,7 @@ public class FindMaxAlphas extends Task implements Runnable {
 		m_vValueFunction = vValueFunction;
 		m_avNextVectors = null;
 		m_dValue = 0.0;
+		m_cScanned = 0;
 	}
 		
 	public FindMaxAlphas( Element eTask, POMDP pomdp ) throws Exception {
@@ -92,6 +94,8 @@ public class FindMaxAlphas extends Task implements Runnable {
 		//if( m_pPOMDP.getBeliefStateFactory() == null )
 		//	BeliefStateFactory.getInstance( m_pPOMDP );
 		boolean bCache = m_pPOMDP.getBeliefStateFactory().isCachingBeliefStates();
+		//the task may run on the thread that waits for it, so its scans are moved out of the thread count and reported by the task
+		long cScannedBefore = LinearValueFunctionApproximation.getScannedCount();
 		m_pPOMDP.getBeliefStateFactory().cacheBeliefStates( false );
 
 		m_avNextVectors = new AlphaVector[m_pPOMDP.getObservationCount()];	
@@ -135,9 +139,18 @@ public class FindMaxAlphas extends Task implements Runnable {
 		
 		m_vValueFunction = null;
 		
+		m_cScanned = LinearValueFunctionApproximation.getScannedCount() - cScannedBefore;
+		LinearValueFunctionApproximation.addScanned( -m_cScanned );
 		return dSumValues;
 	}
 
+	/**
+	 * The number of vectors evaluated by the task, for the caller to add to its own scan count.
+	 */
+	public long getScannedCount(){
+		return m_cScanned;
+	}
+
 	public double getValue(){
 		return m_dValue;
 	}
@@ -145,7 +158,8 @@ public class FindMaxAlphas extends Task implements Runnable {
 		return m_avNextVectors;
 	}
 	public void copyResults( Task tProcessed ){
-		m_avNextVectors = ((FindMaxAlphas)tProcessed).getNextVectors();		
+		m_avNextVectors = ((FindMaxAlphas)tProcessed).getNextVectors();
+		m_cScanned = ((FindMaxAlphas)tProcessed).getScannedCount();
 	}
 	@Override
 	public String getName() {
@@ -0,0 +1,180 @@
+package pomdp.utilities.concurrent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import pomdp.algorithms.PolicyStrategy;
+import pomdp.environments.POMDP;
+import pomdp.utilities.RandomGenerator;
+import pomdp.utilities.RunningStatistics;
+
+/**
+ * Monte Carlo estimation of the discounted reward of a policy.
+ * Trial i draws all its random numbers from its own stream, split from the base seed by the trial index,
+ * so the result of a trial does not depend on which thread ran it or on what ran before it.
+ * Trials are executed in fixed size batches; the rewards of a batch are aggregated in trial order after it completes,
+ * and the stopping rule is only checked between batches. Hence the estimate is identical for any number of threads.
+ * The policy must support concurrent getAction calls when more than one thread is used.
+ */
+public class PolicyEvaluation {
+	private static final int BATCH_SIZE = 64;
+
+	private POMDP m_pPOMDP;
+	private PolicyStrategy m_psPolicy;
+	private int m_cMaxStepsToGoal;
+	private int m_cThreads;
+	private long m_iBaseSeed;
+	private int m_cMinTrials;
+	private double m_dZ;
+	private double m_dRelativeHalfWidth;
+	private RunningStatistics m_rsRewards;
+	private int[] m_aiActionCount;
+	private boolean m_bOutputMessages;
+
+	public PolicyEvaluation( POMDP pomdp, PolicyStrategy policy, int cMaxStepsToGoal, long iBaseSeed ){
+		m_pPOMDP = pomdp;
+		m_psPolicy = policy;
+		m_cMaxStepsToGoal = cMaxStepsToGoal;
+		m_iBaseSeed = iBaseSeed;
+		m_cThreads = 1;
+		m_cMinTrials = 50;
+		m_dZ = 2.0;
+		m_dRelativeHalfWidth = 0.01;
+		m_rsRewards = new RunningStatistics();
+		m_aiActionCount = new int[pomdp.getActionCount()];
+		m_bOutputMessages = false;
+	}
+
+	public void setThreadCount( int cThreads ){
+		m_cThreads = Math.max( 1, cThreads );
+	}
+
+	/**
+	 * Evaluation stops once the confidence interval of the mean, dZ standard errors wide on each side,
+	 * is within dRelativeHalfWidth * |mean|. Set dRelativeHalfWidth to 0 to always run all the trials.
+	 */
+	public void setStoppingRule( int cMinTrials, double dZ, double dRelativeHalfWidth ){
+		m_cMinTrials = cMinTrials;
+		m_dZ = dZ;
+		m_dRelativeHalfWidth = dRelativeHalfWidth;
+	}
+
+	public void setOutputMessages( boolean bOutputMessages ){
+		m_bOutputMessages = bOutputMessages;
+	}
+
+	/**
+	 * Runs up to cMaxTrials trials, or fewer if the stopping rule is met.
+	 * @return the statistics of the discounted rewards of the executed trials
+	 */
+	public RunningStatistics evaluate( int cMaxTrials ){
+		int iBatchStart = 0, cBatchTrials = 0, iTrial = 0;
+		double[] adRewards = new double[BATCH_SIZE];
+		double dHalfWidth = 0.0;
+
+		//make sure lazily built structures of the policy (e.g. the max alpha index) exist before the workers query them
+		m_psPolicy.getAction( m_pPOMDP.getBeliefStateFactory().getInitialBeliefState() );
+
+		for( iBatchStart = 0 ; iBatchStart < cMaxTrials ; iBatchStart += cBatchTrials ){
+			cBatchTrials = Math.min( BATCH_SIZE, cMaxTrials - iBatchStart );
+			runBatch( iBatchStart, cBatchTrials, adRewards );
+			for( iTrial = 0 ; iTrial < cBatchTrials ; iTrial++ )
+				m_rsRewards.add( adRewards[iTrial] );
+
+			dHalfWidth = m_rsRewards.getConfidenceHalfWidth( m_dZ );
+			if( m_bOutputMessages )
+				System.out.println( m_rsRewards.getCount() + ": " + m_rsRewards.getMean() + " +- " + dHalfWidth );
+			if( m_rsRewards.getCount() >= m_cMinTrials && dHalfWidth <= m_dRelativeHalfWidth * Math.abs( m_rsRewards.getMean() ) )
+				break;
+		}
+		return m_rsRewards;
+	}
+
+	private void runBatch( int iFirstTrial, int cTrials, double[] adRewards ){
+		int cWorkers = Math.min( m_cThreads, cTrials ), iWorker = 0;
+		AtomicInteger iNextTrial = new AtomicInteger( iFirstTrial );
+		RunTrials[] aWorkers = new RunTrials[cWorkers];
+
+		for( iWorker = 0 ; iWorker < cWorkers ; iWorker++ )
+			aWorkers[iWorker] = new RunTrials( iNextTrial, iFirstTrial, iFirstTrial + cTrials, adRewards );
+		if( cWorkers == 1 ){
+			aWorkers[0].execute();
+		}
+		else{
+			for( iWorker = 0 ; iWorker < cWorkers ; iWorker++ )
+				TaskExecutor.getInstance().addTask( aWorkers[iWorker] );
+			for( iWorker = 0 ; iWorker < cWorkers ; iWorker++ )
+				TaskExecutor.getInstance().waitForTask( aWorkers[iWorker] );
+		}
+		for( iWorker = 0 ; iWorker < cWorkers ; iWorker++ )
+			aWorkers[iWorker].addActionCounts( m_aiActionCount );
+	}
+
+	/**
+	 * Single trial i, using its own random stream.
+	 */
+	public double runTrial( int iTrial, int[] aiActionCount ){
+		RandomGenerator.bindThreadStream( RandomGenerator.getStreamSeed( m_iBaseSeed, iTrial ) );
+		try{
+			return m_pPOMDP.computeDiscountedReward( m_cMaxStepsToGoal, m_psPolicy, null, false, aiActionCount );
+		}
+		finally{
+			RandomGenerator.unbindThreadStream();
+		}
+	}
+
+	public RunningStatistics getStatistics(){
+		return m_rsRewards;
+	}
+
+	public int[] getActionCounts(){
+		return m_aiActionCount;
+	}
+
+	/*
+	 * Runs trials of a batch until no unclaimed trials are left.
+	 */
+	private class RunTrials extends Task{
+		private static final long serialVersionUID = 1L;
+		private AtomicInteger m_iNextTrial;
+		private int m_iFirstTrial;
+		private int m_iEndTrial;
+		private double[] m_adRewards;
+		private int[] m_aiActionCount;
+
+		public RunTrials( AtomicInteger iNextTrial, int iFirstTrial, int iEndTrial, double[] adRewards ){
+			m_iNextTrial = iNextTrial;
+			m_iFirstTrial = iFirstTrial;
+			m_iEndTrial = iEndTrial;
+			m_adRewards = adRewards;
+			setPOMDP( PolicyEvaluation.this.m_pPOMDP );
+			m_aiActionCount = new int[m_pPOMDP.getActionCount()];
+		}
+
+		public void execute(){
+			int iTrial = m_iNextTrial.getAndIncrement();
+			while( iTrial < m_iEndTrial ){
+				m_adRewards[iTrial - m_iFirstTrial] = runTrial( iTrial, m_aiActionCount );
+				iTrial = m_iNextTrial.getAndIncrement();
+			}
+		}
+
+		public void addActionCounts( int[] aiActionCount ){
+			for( int iAction = 0 ; iAction < aiActionCount.length ; iAction++ )
+				aiActionCount[iAction] += m_aiActionCount[iAction];
+		}
+
+		public void copyResults( Task tProcessed ){
+		}
+
+		public Element getDOM( Document doc ) throws Exception{
+			return null;
+		}
+
+		public String getName(){
+			return "PolicyEvaluationTrials";
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package pomdp.utilities.concurrent;
 
 import java.io.Serializable;
+import java.util.concurrent.ForkJoinTask;
 
 import pomdp.environments.POMDP;
 import org.w3c.dom.Document;
@@ -9,7 +10,8 @@ import org.w3c.dom.Element;
 public abstract class Task implements Serializable {
 	
 	private int m_iID = -1;
-	private boolean m_bDone = false;
+	private volatile boolean m_bDone = false;
+	private transient ForkJoinTask<Task> m_fFuture = null;
 	protected POMDP m_pPOMDP = null;
 	protected boolean m_bTerminate = false;
 
@@ -23,6 +25,17 @@ public abstract class Task implements Serializable {
 		return m_iID;
 	}
 
+	void setFuture( ForkJoinTask<Task> fFuture ){
+		m_fFuture = fFuture;
+	}
+
+	/**
+	 * The future of the last submission of this task to the TaskExecutor, or null.
+	 */
+	public ForkJoinTask<Task> getFuture(){
+		return m_fFuture;
+	}
+
 	public void done(){
 		m_bDone = true;
 	}
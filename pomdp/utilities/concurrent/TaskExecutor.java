@@ -0,0 +1,167 @@
+package pomdp.utilities.concurrent;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import pomdp.utilities.Logger;
+
+/**
+ * Work stealing executor for Tasks, replacing ThreadPool for fine grained tasks.
+ * Tasks run on a ForkJoinPool, so tasks submitted from inside other tasks are executed by the worker threads instead of
+ * blocking them. waitForTask runs the task on the calling thread if no worker has started it yet (caller runs),
+ * and otherwise joins it. Statistics are kept in striped counters per task name.
+ * Remote execution (Listener, RemoteTaskExecutionThread) remains with ThreadPool.
+ */
+public class TaskExecutor {
+	private ForkJoinPool m_fjpPool;
+	private AtomicInteger m_cTasks;
+	private Map<String, TaskStatistics> m_mTaskStatistics;
+
+	private static volatile TaskExecutor g_teExecutor = null;
+
+	private static class TaskStatistics{
+		private LongAdder m_cExecutions = new LongAdder();
+		private LongAdder m_cCallerExecutions = new LongAdder();
+		private LongAdder m_lWaitTime = new LongAdder();
+		private LongAdder m_lExecutionTime = new LongAdder();
+	}
+
+	/*
+	 * The future of a submitted task. Whoever claims it first - a worker or a waiting caller - executes the task.
+	 */
+	private class TaskFuture extends ForkJoinTask<Task>{
+		private static final long serialVersionUID = 1L;
+		private Task m_tTask;
+		private AtomicBoolean m_bClaimed;
+
+		public TaskFuture( Task t ){
+			m_tTask = t;
+			m_bClaimed = new AtomicBoolean( false );
+		}
+		public Task getRawResult(){
+			return m_tTask;
+		}
+		protected void setRawResult( Task t ){
+		}
+		protected boolean exec(){
+			if( m_bClaimed.compareAndSet( false, true ) )
+				run( m_tTask, false );
+			//if the caller claimed the task it completes it itself
+			return m_tTask.isDone();
+		}
+		boolean runOnCaller(){
+			if( !m_bClaimed.compareAndSet( false, true ) )
+				return false;
+			try{
+				run( m_tTask, true );
+			}
+			catch( RuntimeException e ){
+				completeExceptionally( e );
+				throw e;
+			}
+			catch( Error e ){
+				completeExceptionally( e );
+				throw e;
+			}
+			complete( m_tTask );
+			return true;
+		}
+	}
+
+	public TaskExecutor( int cThreads ){
+		m_fjpPool = new ForkJoinPool( cThreads );
+		m_cTasks = new AtomicInteger( 0 );
+		m_mTaskStatistics = new ConcurrentHashMap<String, TaskStatistics>();
+	}
+
+	public static TaskExecutor getInstance(){
+		if( g_teExecutor == null ){
+			synchronized( TaskExecutor.class ){
+				if( g_teExecutor == null )
+					g_teExecutor = new TaskExecutor( Runtime.getRuntime().availableProcessors() );
+			}
+		}
+		return g_teExecutor;
+	}
+
+	/**
+	 * Schedules the task for execution.
+	 * @return a future that completes when the task is done
+	 */
+	public Future<Task> submit( Task t ){
+		TaskFuture tf = new TaskFuture( t );
+		t.setId( m_cTasks.getAndIncrement() );
+		t.init();
+		t.setFuture( tf );
+		t.setStartWaitTime( System.currentTimeMillis() );
+		if( ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == m_fjpPool )
+			tf.fork();
+		else
+			m_fjpPool.execute( tf );
+		return tf;
+	}
+
+	/**
+	 * Same as ThreadPool.addTask.
+	 */
+	public int addTask( Task t ){
+		submit( t );
+		return t.getId();
+	}
+
+	/**
+	 * Waits until the task is done, running it on the calling thread if no worker picked it up yet.
+	 * Exceptions thrown by the task are rethrown here.
+	 */
+	public void waitForTask( Task t ){
+		ForkJoinTask<Task> f = t.getFuture();
+		if( f == null || f.isDone() ){
+			if( f != null )
+				f.join();
+			return;
+		}
+		TaskFuture tf = (TaskFuture)f;
+		if( !tf.runOnCaller() )
+			tf.join();
+	}
+
+	private void run( Task t, boolean bCaller ){
+		long lStart = System.currentTimeMillis();
+		t.setStartExecutionTime( lStart );
+		t.execute();
+		long lEnd = System.currentTimeMillis();
+		t.setEndExecutionTime( lEnd );
+		t.done();
+		TaskStatistics ts = m_mTaskStatistics.computeIfAbsent( t.getName(), sName -> new TaskStatistics() );
+		ts.m_cExecutions.increment();
+		if( bCaller )
+			ts.m_cCallerExecutions.increment();
+		ts.m_lWaitTime.add( lStart - t.getStartWaitTime() );
+		ts.m_lExecutionTime.add( lEnd - lStart );
+	}
+
+	public void printStatistics(){
+		for( Map.Entry<String, TaskStatistics> e : new TreeMap<String, TaskStatistics>( m_mTaskStatistics ).entrySet() ){
+			TaskStatistics ts = e.getValue();
+			long cExecutions = ts.m_cExecutions.sum();
+			if( cExecutions > 0 ){
+				Logger.getInstance().log( "TaskExecutor", 0, "printStatistics", e.getKey() +
+						", executions " + cExecutions + ", on caller " + ts.m_cCallerExecutions.sum() +
+						", wait time " + ts.m_lWaitTime.sum() / cExecutions +
+						", execution time " + ts.m_lExecutionTime.sum() / cExecutions );
+			}
+		}
+		Logger.getInstance().log( "TaskExecutor", 0, "printStatistics", "steals " + m_fjpPool.getStealCount() );
+	}
+
+	public void shutdown(){
+		m_fjpPool.shutdown();
+	}
+}
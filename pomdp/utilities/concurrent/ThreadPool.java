@@ -1,14 +1,16 @@
 package pomdp.utilities.concurrent;
 
-import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import pomdp.environments.POMDP;
 import pomdp.utilities.ExecutionProperties;
 import pomdp.utilities.Logger;
+import pomdp.utilities.metrics.Metrics;
 
 public class ThreadPool {
 	private Vector<TaskExecutionThread> m_vThreads;
@@ -16,13 +18,19 @@ public class ThreadPool {
 	private int m_cTasks;
 	private POMDP m_pPOMDP;
 	private boolean m_bTerminated;
-	Map<String,Vector<Long>> m_mTaskStatistics;
+	private Map<String,TaskStatistics> m_mTaskStatistics;
 	Vector<ValueIterationTask> m_vAlgorithms;
 	
 	private Listener m_lListener;
 	
 	private static ThreadPool g_tpPool = null;
 
+	private static class TaskStatistics{
+		private LongAdder m_cExecutions = new LongAdder();
+		private LongAdder m_lWaitTime = new LongAdder();
+		private LongAdder m_lExecutionTime = new LongAdder();
+	}
+
 	public ThreadPool( int cThreads, POMDP pomdp ){
 		this( cThreads, pomdp, true );
 		m_bTerminated = false;
@@ -50,7 +58,7 @@ public class ThreadPool {
 				e.printStackTrace();
 			}
 		}
-		m_mTaskStatistics = Collections.synchronizedMap( new TreeMap<String, Vector<Long>>() );
+		m_mTaskStatistics = new ConcurrentHashMap<String, TaskStatistics>();
 		m_vAlgorithms = new Vector<ValueIterationTask>();
 	}
 
@@ -84,15 +92,7 @@ public class ThreadPool {
 	}
 
 	public int addTask( Task t ){
-		String sTaskName = t.getName();
-		if( !m_mTaskStatistics.containsKey( sTaskName ) ){
-			Vector<Long> vStatistics = new Vector<Long>();
-			long l = 0;
-			vStatistics.add( l );
-			vStatistics.add( l );
-			vStatistics.add( l );
-			m_mTaskStatistics.put( sTaskName, vStatistics );
-		}
+		m_mTaskStatistics.computeIfAbsent( t.getName(), sName -> new TaskStatistics() );
 		t.setStartWaitTime( System.currentTimeMillis() );
 		
 		if( t instanceof ValueIterationTask ){
@@ -140,11 +140,16 @@ public class ThreadPool {
 			t.notify();
 		}
 		t.setEndExecutionTime( System.currentTimeMillis() );
-		String sTaskName = t.getName();
-		Vector<Long> vStatistics = m_mTaskStatistics.get( sTaskName );
-		vStatistics.set( 0, vStatistics.elementAt( 0 ) + 1 );
-		vStatistics.set( 1, vStatistics.elementAt( 1 ) + t.getStartExecutionTime() - t.getStartWaitTime() );
-		vStatistics.set( 2, vStatistics.elementAt( 2 ) + t.getEndExecutionTime() - t.getStartExecutionTime() );
+		long lWaitTime = t.getStartExecutionTime() - t.getStartWaitTime();
+		long lExecutionTime = t.getEndExecutionTime() - t.getStartExecutionTime();
+		TaskStatistics ts = m_mTaskStatistics.computeIfAbsent( t.getName(), sName -> new TaskStatistics() );
+		ts.m_cExecutions.increment();
+		ts.m_lWaitTime.add( lWaitTime );
+		ts.m_lExecutionTime.add( lExecutionTime );
+		if( Metrics.isEnabled() ){
+			Metrics.getHistogram( "task." + t.getName() + ".wait" ).record( lWaitTime * 1000000 );
+			Metrics.getHistogram( "task." + t.getName() + ".execution" ).record( lExecutionTime * 1000000 );
+		}
 	}
 	public void waitForTask( Task t ){
 		while( !t.isDone() && !m_bTerminated ){
@@ -174,11 +179,11 @@ public class ThreadPool {
 	}
 
 	public void printStatistics() {
-		for( String sTaskName : m_mTaskStatistics.keySet() ){
-			Vector<Long> vStatistics = m_mTaskStatistics.get( sTaskName );
-			long cExecutions = vStatistics.elementAt( 0 );
-			long lWaitTime = vStatistics.elementAt( 1 );
-			long lExecutionTime = vStatistics.elementAt( 2 );
+		for( Map.Entry<String, TaskStatistics> e : new TreeMap<String, TaskStatistics>( m_mTaskStatistics ).entrySet() ){
+			String sTaskName = e.getKey();
+			long cExecutions = e.getValue().m_cExecutions.sum();
+			long lWaitTime = e.getValue().m_lWaitTime.sum();
+			long lExecutionTime = e.getValue().m_lExecutionTime.sum();
 			if( cExecutions > 0 ){
 				Logger.getInstance().log( "ThreadPool", 0, "printStatistics", sTaskName + 
 						", executions " + cExecutions + ", wait time " + lWaitTime / cExecutions +
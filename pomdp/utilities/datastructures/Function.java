@@ -36,6 +36,10 @@ public abstract class Function implements Serializable {
 		return m_aDims[iDim];
 	}
 	
+	public int getDimensionCount(){
+		return m_cDims;
+	}
+	
 	public double getMaxValue(){
 		return m_dMaxValue;
 	}
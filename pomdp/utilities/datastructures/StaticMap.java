@@ -100,6 +100,20 @@ public class StaticMap implements Collection<Map.Entry<Integer,Double>>, Seriali
 		return m_cNonZeroValues;	
 	}
 
+	/**
+	 * The sorted keys of the map. Only the first size() positions are valid.
+	 */
+	public int[] getIndexes(){
+		return m_aiIndexes;
+	}
+	
+	/**
+	 * The values of the map, aligned with getIndexes().
+	 */
+	public double[] getValues(){
+		return m_adValues;
+	}
+
 	public Iterator<Map.Entry<Integer,Double>> iterator() {
 		return new StaticMapIterator( m_aiIndexes, m_adValues, m_cNonZeroValues );
 	}
@@ -0,0 +1,624 @@
+package pomdp.utilities.factored;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeSet;
+
+import pomdp.utilities.ExecutionProperties;
+import pomdp.utilities.Logger;
+import pomdp.utilities.factored.AlgebraicDecisionDiagram.AbstractionFilter;
+import pomdp.utilities.factored.AlgebraicDecisionDiagram.BinaryOperator;
+import pomdp.utilities.factored.AlgebraicDecisionDiagram.VariableTranslator;
+import pomdp.utilities.metrics.Counter;
+import pomdp.utilities.metrics.Metrics;
+
+/**
+ * The node store shared by all the SharedAlgebraicDecisionDiagram ADDs, in the style of the CUDD node manager.
+ * Nodes are hash consed in a unique table over (variable, false child, true child) and leaves are unique by their (rounded) value,
+ * so every sub diagram exists once and diagrams are reduced as they are built.
+ * Apply results are kept across calls in a bounded lossy computed table - a new result overwrites the entry in its slot.
+ * Unused nodes are reclaimed by a mark and sweep from the roots of the live ADDs once the node count passes a threshold.
+ * A collection only happens when an ADD operation starts (collectIfNeeded), so the nodes of an operation in progress are never reclaimed.
+ * Callers must hold the manager lock - the ADDs synchronize on the manager for every operation.
+ * @author shanigu
+ *
+ */
+public class ADDNodeManager {
+	public static final int LEAF_VARIABLE = Integer.MAX_VALUE / 2;
+	public static final int NONE = -1;
+	private static final int FREE_VARIABLE = -1;
+
+	public static final int SUM = 1;
+	public static final int PRODUCT = 2;
+	public static final int MAX = 3;
+	public static final int MAXIMUM = 4;
+	private static final BinaryOperator[] OPERATORS = { null, new AlgebraicDecisionDiagram.Sum(), new AlgebraicDecisionDiagram.Product(),
+		new AlgebraicDecisionDiagram.Max(), new AlgebraicDecisionDiagram.Maximum() };
+
+	//cofactors and if-then-else by variable share the computed table with the binary operators
+	private static final int FIRST_VARIABLE_OPERATOR = 5;
+
+	private static final int MANTISSA_FACTOR = 1000;
+	private static final double VALUE_OFFSET = 1000;
+
+	private static final Counter UNIQUE_TABLE_HITS = Metrics.getCounter( "add.uniqueTable.hits" );
+	private static final Counter UNIQUE_TABLE_MISSES = Metrics.getCounter( "add.uniqueTable.misses" );
+	private static final Counter COMPUTED_TABLE_HITS = Metrics.getCounter( "add.computedTable.hits" );
+	private static final Counter COMPUTED_TABLE_MISSES = Metrics.getCounter( "add.computedTable.misses" );
+
+	private static ADDNodeManager g_nmInstance = null;
+
+	//node i is ( m_aiVariable[i], m_aiFalse[i], m_aiTrue[i] ). A leaf stores the bits of its value in the child entries.
+	private int[] m_aiVariable;
+	private int[] m_aiFalse;
+	private int[] m_aiTrue;
+	private int[] m_aiNext; //unique table chain, or the free list for free nodes
+	private double[] m_adMean; //the value of a leaf, the average of the leaf values over all the assignments below a node
+	private double[] m_adMax;
+	private double[] m_adMin;
+	private int[] m_aiBuckets;
+	private int m_cAllocated;
+	private int m_iFreeList;
+	private int m_cNodes;
+	private int m_cCollectionThreshold;
+
+	private int[] m_aiCacheOperator;
+	private int[] m_aiCacheFirst;
+	private int[] m_aiCacheSecond;
+	private int[] m_aiCacheResult;
+
+	private ArrayList<WeakReference<SharedAlgebraicDecisionDiagram>> m_vADDs;
+	private int m_cADDsAfterPrune;
+	private long m_cCollections;
+
+	private ADDNodeManager(){
+		int cCapacity = 1 << 12, cCacheEntries = Integer.highestOneBit( Math.max( ExecutionProperties.getADDComputedTableSize(), 1024 ) );
+		m_aiVariable = new int[cCapacity];
+		m_aiFalse = new int[cCapacity];
+		m_aiTrue = new int[cCapacity];
+		m_aiNext = new int[cCapacity];
+		m_adMean = new double[cCapacity];
+		m_adMax = new double[cCapacity];
+		m_adMin = new double[cCapacity];
+		m_aiBuckets = new int[cCapacity];
+		Arrays.fill( m_aiBuckets, NONE );
+		m_cAllocated = 0;
+		m_iFreeList = NONE;
+		m_cNodes = 0;
+		m_cCollectionThreshold = ExecutionProperties.getADDCollectionThreshold();
+		m_aiCacheOperator = new int[cCacheEntries];
+		m_aiCacheFirst = new int[cCacheEntries];
+		m_aiCacheSecond = new int[cCacheEntries];
+		m_aiCacheResult = new int[cCacheEntries];
+		m_vADDs = new ArrayList<WeakReference<SharedAlgebraicDecisionDiagram>>();
+		m_cADDsAfterPrune = 0;
+		m_cCollections = 0;
+	}
+
+	public static synchronized ADDNodeManager getInstance(){
+		if( g_nmInstance == null ){
+			g_nmInstance = new ADDNodeManager();
+			Metrics.registerGauge( "add.nodes", () -> g_nmInstance.getNodeCount() );
+			Metrics.registerGauge( "add.collections", () -> g_nmInstance.getCollectionCount() );
+		}
+		return g_nmInstance;
+	}
+
+	public int getNodeCount(){
+		return m_cNodes;
+	}
+
+	public long getCollectionCount(){
+		return m_cCollections;
+	}
+
+	boolean isLeaf( int iNode ){
+		return m_aiVariable[iNode] == LEAF_VARIABLE;
+	}
+
+	int getVariable( int iNode ){
+		return m_aiVariable[iNode];
+	}
+
+	int getFalseChild( int iNode ){
+		return m_aiFalse[iNode];
+	}
+
+	int getTrueChild( int iNode ){
+		return m_aiTrue[iNode];
+	}
+
+	double getValue( int iNode ){
+		return m_adMean[iNode];
+	}
+
+	double getMean( int iNode ){
+		return m_adMean[iNode];
+	}
+
+	double getMax( int iNode ){
+		return m_adMax[iNode];
+	}
+
+	double getMin( int iNode ){
+		return m_adMin[iNode];
+	}
+
+	/**
+	 * Rounds leaf values the same way as CompactAlgebraicDecisionDiagram, so that close values share a leaf.
+	 */
+	static double round( double d ){
+		int iMantissa = 0;
+		double dRound = d;
+		if( dRound != 0.0 ){
+			while( Math.abs( dRound ) < 1.0 ){
+				dRound *= MANTISSA_FACTOR;
+				iMantissa++;
+			}
+			dRound = Math.round( dRound * VALUE_OFFSET );
+			dRound /= VALUE_OFFSET;
+			while( iMantissa > 0 ){
+				dRound /= MANTISSA_FACTOR;
+				iMantissa--;
+			}
+		}
+		return dRound;
+	}
+
+	int getLeaf( double dValue ){
+		double dRound = round( dValue );
+		if( dRound == 0.0 ) //no separate -0.0 leaf
+			dRound = 0.0;
+		long lBits = Double.doubleToLongBits( dRound );
+		return lookup( LEAF_VARIABLE, (int)( lBits >>> 32 ), (int)lBits, dRound );
+	}
+
+	int makeNode( int iVariable, int iFalseChild, int iTrueChild ){
+		if( iFalseChild == iTrueChild )
+			return iFalseChild;
+		return lookup( iVariable, iFalseChild, iTrueChild, 0.0 );
+	}
+
+	private int hash( int iVariable, int iFalseChild, int iTrueChild, int cEntries ){
+		int iHash = ( iVariable * 0x9E3779B1 ) ^ ( iFalseChild * 0x85EBCA6B ) ^ ( iTrueChild * 0xC2B2AE35 );
+		iHash ^= iHash >>> 15;
+		return iHash & ( cEntries - 1 );
+	}
+
+	private int lookup( int iVariable, int iFalseChild, int iTrueChild, double dValue ){
+		int iBucket = hash( iVariable, iFalseChild, iTrueChild, m_aiBuckets.length ), iNode = m_aiBuckets[iBucket];
+		while( iNode != NONE ){
+			if( m_aiVariable[iNode] == iVariable && m_aiFalse[iNode] == iFalseChild && m_aiTrue[iNode] == iTrueChild ){
+				if( Metrics.isEnabled() )
+					UNIQUE_TABLE_HITS.increment();
+				return iNode;
+			}
+			iNode = m_aiNext[iNode];
+		}
+		if( Metrics.isEnabled() )
+			UNIQUE_TABLE_MISSES.increment();
+		iNode = allocate();
+		m_aiVariable[iNode] = iVariable;
+		m_aiFalse[iNode] = iFalseChild;
+		m_aiTrue[iNode] = iTrueChild;
+		if( iVariable == LEAF_VARIABLE ){
+			m_adMean[iNode] = dValue;
+			m_adMax[iNode] = dValue;
+			m_adMin[iNode] = dValue;
+		}
+		else{
+			m_adMean[iNode] = ( m_adMean[iFalseChild] + m_adMean[iTrueChild] ) / 2;
+			m_adMax[iNode] = Math.max( m_adMax[iFalseChild], m_adMax[iTrueChild] );
+			m_adMin[iNode] = Math.min( m_adMin[iFalseChild], m_adMin[iTrueChild] );
+		}
+		m_aiNext[iNode] = m_aiBuckets[iBucket];
+		m_aiBuckets[iBucket] = iNode;
+		if( m_cNodes > m_aiBuckets.length )
+			rehash( m_aiBuckets.length * 2 );
+		return iNode;
+	}
+
+	private int allocate(){
+		int iNode = m_iFreeList;
+		if( iNode != NONE ){
+			m_iFreeList = m_aiNext[iNode];
+		}
+		else{
+			if( m_cAllocated == m_aiVariable.length )
+				grow( m_aiVariable.length * 2 );
+			iNode = m_cAllocated++;
+		}
+		m_cNodes++;
+		return iNode;
+	}
+
+	private void grow( int cCapacity ){
+		m_aiVariable = Arrays.copyOf( m_aiVariable, cCapacity );
+		m_aiFalse = Arrays.copyOf( m_aiFalse, cCapacity );
+		m_aiTrue = Arrays.copyOf( m_aiTrue, cCapacity );
+		m_aiNext = Arrays.copyOf( m_aiNext, cCapacity );
+		m_adMean = Arrays.copyOf( m_adMean, cCapacity );
+		m_adMax = Arrays.copyOf( m_adMax, cCapacity );
+		m_adMin = Arrays.copyOf( m_adMin, cCapacity );
+	}
+
+	private void rehash( int cBuckets ){
+		int iNode = 0, iBucket = 0;
+		m_aiBuckets = new int[cBuckets];
+		Arrays.fill( m_aiBuckets, NONE );
+		for( iNode = 0 ; iNode < m_cAllocated ; iNode++ ){
+			if( m_aiVariable[iNode] != FREE_VARIABLE ){
+				iBucket = hash( m_aiVariable[iNode], m_aiFalse[iNode], m_aiTrue[iNode], cBuckets );
+				m_aiNext[iNode] = m_aiBuckets[iBucket];
+				m_aiBuckets[iBucket] = iNode;
+			}
+		}
+	}
+
+	/**
+	 * Registers an ADD whose root must survive collections. ADDs are held weakly, so ADDs that are dropped without release are reclaimed too.
+	 */
+	synchronized void register( SharedAlgebraicDecisionDiagram add ){
+		m_vADDs.add( new WeakReference<SharedAlgebraicDecisionDiagram>( add ) );
+		if( m_vADDs.size() > 2 * m_cADDsAfterPrune + 1024 )
+			pruneADDs();
+	}
+
+	private void pruneADDs(){
+		ArrayList<WeakReference<SharedAlgebraicDecisionDiagram>> vLive = new ArrayList<WeakReference<SharedAlgebraicDecisionDiagram>>();
+		SharedAlgebraicDecisionDiagram add = null;
+		for( WeakReference<SharedAlgebraicDecisionDiagram> wr : m_vADDs ){
+			add = wr.get();
+			if( add != null && !add.isReleased() )
+				vLive.add( wr );
+		}
+		m_vADDs = vLive;
+		m_cADDsAfterPrune = vLive.size();
+	}
+
+	/**
+	 * Called at the start of every ADD operation, before the roots of its arguments are read.
+	 */
+	synchronized void collectIfNeeded(){
+		if( m_cNodes > m_cCollectionThreshold )
+			collectGarbage();
+	}
+
+	/**
+	 * Reclaims the nodes that are not reachable from a live ADD and clears the computed table.
+	 */
+	public synchronized void collectGarbage(){
+		boolean[] abMarked = new boolean[m_cAllocated];
+		int[] aiStack = new int[64];
+		int cStack = 0, iNode = 0, iBucket = 0, cBefore = m_cNodes;
+		long lStart = System.currentTimeMillis();
+
+		pruneADDs();
+		for( WeakReference<SharedAlgebraicDecisionDiagram> wr : m_vADDs ){
+			SharedAlgebraicDecisionDiagram add = wr.get();
+			if( add == null || add.getRootNode() == NONE )
+				continue;
+			aiStack[cStack++] = add.getRootNode();
+			while( cStack > 0 ){
+				iNode = aiStack[--cStack];
+				if( abMarked[iNode] )
+					continue;
+				abMarked[iNode] = true;
+				if( m_aiVariable[iNode] != LEAF_VARIABLE ){
+					if( cStack + 2 > aiStack.length )
+						aiStack = Arrays.copyOf( aiStack, aiStack.length * 2 );
+					aiStack[cStack++] = m_aiFalse[iNode];
+					aiStack[cStack++] = m_aiTrue[iNode];
+				}
+			}
+		}
+
+		Arrays.fill( m_aiBuckets, NONE );
+		m_iFreeList = NONE;
+		m_cNodes = 0;
+		//descending, so that the free list hands out the low ids first
+		for( iNode = m_cAllocated - 1 ; iNode >= 0 ; iNode-- ){
+			if( abMarked[iNode] ){
+				iBucket = hash( m_aiVariable[iNode], m_aiFalse[iNode], m_aiTrue[iNode], m_aiBuckets.length );
+				m_aiNext[iNode] = m_aiBuckets[iBucket];
+				m_aiBuckets[iBucket] = iNode;
+				m_cNodes++;
+			}
+			else{
+				m_aiVariable[iNode] = FREE_VARIABLE;
+				m_aiNext[iNode] = m_iFreeList;
+				m_iFreeList = iNode;
+			}
+		}
+		Arrays.fill( m_aiCacheOperator, 0 );
+		m_cCollectionThreshold = Math.max( ExecutionProperties.getADDCollectionThreshold(), 2 * m_cNodes );
+		m_cCollections++;
+		Logger.getInstance().logFull( "ADDNodeManager", 1, "collectGarbage", "Reclaimed " + ( cBefore - m_cNodes ) + " nodes, " + m_cNodes +
+				" live nodes, " + m_vADDs.size() + " ADDs, time " + ( System.currentTimeMillis() - lStart ) + " ms" );
+	}
+
+	private int cacheSlot( int iOperator, int iFirst, int iSecond ){
+		int iHash = ( iOperator * 0x9E3779B1 ) ^ ( iFirst * 0x85EBCA6B ) ^ ( iSecond * 0xC2B2AE35 );
+		iHash ^= iHash >>> 15;
+		return iHash & ( m_aiCacheOperator.length - 1 );
+	}
+
+	/**
+	 * Applies a binary operator (SUM, PRODUCT, MAX or MAXIMUM) to two diagrams.
+	 */
+	synchronized int apply( int iOperator, int iRoot1, int iRoot2 ){
+		return applyOperator( iOperator, OPERATORS[iOperator], iRoot1, iRoot2 );
+	}
+
+	private int applyOperator( int iOperator, BinaryOperator op, int iCurrent1, int iCurrent2 ){
+		boolean bLeaf1 = isLeaf( iCurrent1 ), bLeaf2 = isLeaf( iCurrent2 );
+		int iVariableId = 0, iFalse1 = iCurrent1, iTrue1 = iCurrent1, iFalse2 = iCurrent2, iTrue2 = iCurrent2, iSlot = 0, iNew = NONE;
+
+		if( bLeaf1 && bLeaf2 )
+			return getLeaf( op.compute( m_adMean[iCurrent1], m_adMean[iCurrent2] ) );
+		if( iOperator == PRODUCT && ( ( bLeaf1 && m_adMean[iCurrent1] == 0.0 ) || ( bLeaf2 && m_adMean[iCurrent2] == 0.0 ) ) )
+			return getLeaf( 0.0 );
+
+		//all the operators are commutative
+		if( iCurrent1 > iCurrent2 ){
+			iSlot = iCurrent1;
+			iCurrent1 = iCurrent2;
+			iCurrent2 = iSlot;
+			iFalse1 = iTrue1 = iCurrent1;
+			iFalse2 = iTrue2 = iCurrent2;
+		}
+		iSlot = cacheSlot( iOperator, iCurrent1, iCurrent2 );
+		if( m_aiCacheOperator[iSlot] == iOperator && m_aiCacheFirst[iSlot] == iCurrent1 && m_aiCacheSecond[iSlot] == iCurrent2 ){
+			if( Metrics.isEnabled() )
+				COMPUTED_TABLE_HITS.increment();
+			return m_aiCacheResult[iSlot];
+		}
+		if( Metrics.isEnabled() )
+			COMPUTED_TABLE_MISSES.increment();
+
+		iVariableId = Math.min( m_aiVariable[iCurrent1], m_aiVariable[iCurrent2] );
+		if( m_aiVariable[iCurrent1] == iVariableId ){
+			iFalse1 = m_aiFalse[iCurrent1];
+			iTrue1 = m_aiTrue[iCurrent1];
+		}
+		if( m_aiVariable[iCurrent2] == iVariableId ){
+			iFalse2 = m_aiFalse[iCurrent2];
+			iTrue2 = m_aiTrue[iCurrent2];
+		}
+		iNew = makeNode( iVariableId, applyOperator( iOperator, op, iFalse1, iFalse2 ), applyOperator( iOperator, op, iTrue1, iTrue2 ) );
+
+		m_aiCacheOperator[iSlot] = iOperator;
+		m_aiCacheFirst[iSlot] = iCurrent1;
+		m_aiCacheSecond[iSlot] = iCurrent2;
+		m_aiCacheResult[iSlot] = iNew;
+		return iNew;
+	}
+
+	/**
+	 * Sums out the variables of the filter, following CompactAlgebraicDecisionDiagram.existentialAbstraction.
+	 * Filters do not define equality, so the abstraction results are cached for the call only. The sums go through the computed table.
+	 */
+	synchronized int existentialAbstraction( int iRoot, AbstractionFilter aFilter ){
+		return existentialAbstraction( aFilter, aFilter.getFirstVariableId(), iRoot, new HashMap<Long,Integer>() );
+	}
+
+	private int existentialAbstraction( AbstractionFilter aFilter, int iExpectedVariableId, int iCurrent, Map<Long,Integer> mCache ){
+		int iNew = NONE, iFalse = NONE, iTrue = NONE, iNextExpected = 0, cLevels = 0;
+		if( isLeaf( iCurrent ) ){
+			double dValue = m_adMean[iCurrent];
+			if( iExpectedVariableId < aFilter.getLastVariableId() ){
+				cLevels = aFilter.countAbstractionVariablesBetween( iExpectedVariableId, aFilter.getLastVariableId() );
+				return getLeaf( dValue * (int)Math.pow( 2, cLevels ) );
+			}
+			return getLeaf( dValue );
+		}
+		long lKey = ( (long)iExpectedVariableId << 32 ) | iCurrent;
+		Integer iCached = mCache.get( lKey );
+		if( iCached != null )
+			return iCached;
+		iNextExpected = aFilter.firstVariableAfter( iExpectedVariableId );
+		if( iExpectedVariableId < m_aiVariable[iCurrent] ){
+			iFalse = existentialAbstraction( aFilter, iNextExpected, iCurrent, mCache );
+			iTrue = iFalse;
+		}
+		else{
+			iFalse = existentialAbstraction( aFilter, iNextExpected, m_aiFalse[iCurrent], mCache );
+			iTrue = existentialAbstraction( aFilter, iNextExpected, m_aiTrue[iCurrent], mCache );
+		}
+		if( aFilter.abstractVariable( iExpectedVariableId ) )
+			iNew = applyOperator( SUM, OPERATORS[SUM], iFalse, iTrue );
+		else
+			iNew = makeNode( iExpectedVariableId, iFalse, iTrue );
+		mCache.put( lKey, iNew );
+		return iNew;
+	}
+
+	/**
+	 * Renames the variables of a diagram.
+	 */
+	synchronized int translateVariables( int iRoot, VariableTranslator vt ){
+		return translateVariables( iRoot, vt, new HashMap<Integer,Integer>() );
+	}
+
+	private int translateVariables( int iCurrent, VariableTranslator vt, Map<Integer,Integer> mCache ){
+		if( isLeaf( iCurrent ) )
+			return iCurrent;
+		Integer iCached = mCache.get( iCurrent );
+		if( iCached != null )
+			return iCached;
+		int iFalse = translateVariables( m_aiFalse[iCurrent], vt, mCache );
+		int iTrue = translateVariables( m_aiTrue[iCurrent], vt, mCache );
+		int iNew = ifThenElse( vt.translate( m_aiVariable[iCurrent] ), iTrue, iFalse );
+		mCache.put( iCurrent, iNew );
+		return iNew;
+	}
+
+	private int variableOperator( int iVariable, int iOffset ){
+		return FIRST_VARIABLE_OPERATOR + 3 * iVariable + iOffset;
+	}
+
+	private int getCached( int iOperator, int iFirst, int iSecond ){
+		int iSlot = cacheSlot( iOperator, iFirst, iSecond );
+		if( m_aiCacheOperator[iSlot] == iOperator && m_aiCacheFirst[iSlot] == iFirst && m_aiCacheSecond[iSlot] == iSecond ){
+			if( Metrics.isEnabled() )
+				COMPUTED_TABLE_HITS.increment();
+			return m_aiCacheResult[iSlot];
+		}
+		if( Metrics.isEnabled() )
+			COMPUTED_TABLE_MISSES.increment();
+		return NONE;
+	}
+
+	private void setCached( int iOperator, int iFirst, int iSecond, int iResult ){
+		int iSlot = cacheSlot( iOperator, iFirst, iSecond );
+		m_aiCacheOperator[iSlot] = iOperator;
+		m_aiCacheFirst[iSlot] = iFirst;
+		m_aiCacheSecond[iSlot] = iSecond;
+		m_aiCacheResult[iSlot] = iResult;
+	}
+
+	/*
+	 * The diagram restricted to a value of the variable.
+	 */
+	private int cofactor( int iCurrent, int iVariable, boolean bValue ){
+		int iOperator = 0, iNew = NONE;
+		if( m_aiVariable[iCurrent] > iVariable )
+			return iCurrent;
+		if( m_aiVariable[iCurrent] == iVariable )
+			return bValue ? m_aiTrue[iCurrent] : m_aiFalse[iCurrent];
+		iOperator = variableOperator( iVariable, bValue ? 2 : 1 );
+		iNew = getCached( iOperator, iCurrent, 0 );
+		if( iNew == NONE ){
+			iNew = makeNode( m_aiVariable[iCurrent], cofactor( m_aiFalse[iCurrent], iVariable, bValue ), cofactor( m_aiTrue[iCurrent], iVariable, bValue ) );
+			setCached( iOperator, iCurrent, 0, iNew );
+		}
+		return iNew;
+	}
+
+	/*
+	 * The diagram that is iTrue when the variable is true and iFalse otherwise. When the variable does not come before the variables of the children
+	 * (a translation or a path that does not follow the variable order) the children are split by their top variable.
+	 */
+	private int ifThenElse( int iVariable, int iTrue, int iFalse ){
+		int iTop = Math.min( m_aiVariable[iFalse], m_aiVariable[iTrue] ), iNew = NONE;
+		if( iVariable < iTop )
+			return makeNode( iVariable, iFalse, iTrue );
+		if( iTop == iVariable )
+			return makeNode( iVariable, cofactor( iFalse, iVariable, false ), cofactor( iTrue, iVariable, true ) );
+		iNew = getCached( variableOperator( iVariable, 0 ), iTrue, iFalse );
+		if( iNew == NONE ){
+			iNew = makeNode( iTop, ifThenElse( iVariable, cofactor( iTrue, iTop, false ), cofactor( iFalse, iTop, false ) ),
+					ifThenElse( iVariable, cofactor( iTrue, iTop, true ), cofactor( iFalse, iTop, true ) ) );
+			setCached( variableOperator( iVariable, 0 ), iTrue, iFalse, iNew );
+		}
+		return iNew;
+	}
+
+	/**
+	 * Multiplies all the leaves by a scalar.
+	 */
+	synchronized int product( int iRoot, double dFactor ){
+		return product( iRoot, dFactor, new HashMap<Integer,Integer>() );
+	}
+
+	private int product( int iCurrent, double dFactor, Map<Integer,Integer> mCache ){
+		if( isLeaf( iCurrent ) )
+			return getLeaf( m_adMean[iCurrent] * dFactor );
+		Integer iCached = mCache.get( iCurrent );
+		if( iCached != null )
+			return iCached;
+		int iNew = makeNode( m_aiVariable[iCurrent], product( m_aiFalse[iCurrent], dFactor, mCache ), product( m_aiTrue[iCurrent], dFactor, mCache ) );
+		mCache.put( iCurrent, iNew );
+		return iNew;
+	}
+
+	synchronized TreeSet<Double> getLeafValues( int iRoot ){
+		TreeSet<Double> sValues = new TreeSet<Double>();
+		getLeafValues( iRoot, sValues, new HashSet<Integer>() );
+		return sValues;
+	}
+
+	private void getLeafValues( int iCurrent, TreeSet<Double> sValues, HashSet<Integer> sVisited ){
+		if( isLeaf( iCurrent ) ){
+			sValues.add( m_adMean[iCurrent] );
+		}
+		else if( sVisited.add( iCurrent ) ){
+			getLeafValues( m_aiFalse[iCurrent], sValues, sVisited );
+			getLeafValues( m_aiTrue[iCurrent], sValues, sVisited );
+		}
+	}
+
+	/**
+	 * Replaces the leaf values that appear in the map.
+	 */
+	synchronized int replaceLeaves( int iRoot, Map<Double,Double> mValues ){
+		return replaceLeaves( iRoot, mValues, new HashMap<Integer,Integer>() );
+	}
+
+	private int replaceLeaves( int iCurrent, Map<Double,Double> mValues, Map<Integer,Integer> mCache ){
+		if( isLeaf( iCurrent ) ){
+			Double dNewValue = mValues.get( m_adMean[iCurrent] );
+			if( dNewValue == null )
+				return iCurrent;
+			return getLeaf( dNewValue );
+		}
+		Integer iCached = mCache.get( iCurrent );
+		if( iCached != null )
+			return iCached;
+		int iNew = makeNode( m_aiVariable[iCurrent], replaceLeaves( m_aiFalse[iCurrent], mValues, mCache ),
+				replaceLeaves( m_aiTrue[iCurrent], mValues, mCache ) );
+		mCache.put( iCurrent, iNew );
+		return iNew;
+	}
+
+	/**
+	 * Sets the value to 0 when the variable is true, wherever the diagram does not test the variable.
+	 */
+	synchronized int assumeWorstCase( int iRoot, int iVariable ){
+		return assumeWorstCase( iRoot, iVariable, new HashMap<Integer,Integer>() );
+	}
+
+	private int assumeWorstCase( int iCurrent, int iVariable, Map<Integer,Integer> mCache ){
+		int iCurrentVariable = m_aiVariable[iCurrent];
+		if( iCurrentVariable > iVariable )
+			return makeNode( iVariable, iCurrent, getLeaf( 0.0 ) );
+		if( iCurrentVariable == iVariable )
+			return iCurrent;
+		Integer iCached = mCache.get( iCurrent );
+		if( iCached != null )
+			return iCached;
+		int iNew = makeNode( iCurrentVariable, assumeWorstCase( m_aiFalse[iCurrent], iVariable, mCache ),
+				assumeWorstCase( m_aiTrue[iCurrent], iVariable, mCache ) );
+		mCache.put( iCurrent, iNew );
+		return iNew;
+	}
+
+	/**
+	 * Interns a diagram given as arrays of vertices that point to each other, such as the paths added to an ADD.
+	 * Leaves have the variable LEAF_VARIABLE and a value, and a missing child (-1) is the 0 leaf.
+	 */
+	synchronized int intern( int iRoot, int[] aiVariable, int[] aiFalse, int[] aiTrue, double[] adValue, int cVertexes ){
+		if( iRoot == NONE )
+			return getLeaf( 0.0 );
+		int[] aiInterned = new int[cVertexes];
+		Arrays.fill( aiInterned, NONE );
+		return intern( iRoot, aiVariable, aiFalse, aiTrue, adValue, aiInterned );
+	}
+
+	private int intern( int iVertex, int[] aiVariable, int[] aiFalse, int[] aiTrue, double[] adValue, int[] aiInterned ){
+		if( iVertex == NONE )
+			return getLeaf( 0.0 );
+		if( aiInterned[iVertex] == NONE ){
+			if( aiVariable[iVertex] == LEAF_VARIABLE )
+				aiInterned[iVertex] = getLeaf( adValue[iVertex] );
+			else
+				aiInterned[iVertex] = ifThenElse( aiVariable[iVertex], intern( aiTrue[iVertex], aiVariable, aiFalse, aiTrue, adValue, aiInterned ),
+						intern( aiFalse[iVertex], aiVariable, aiFalse, aiTrue, adValue, aiInterned ) );
+		}
+		return aiInterned[iVertex];
+	}
+}
@@ -2,167 +2,447 @@ package pomdp.utilities.factored;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
+import pomdp.utilities.ExecutionProperties;
+import pomdp.utilities.Logger;
+import pomdp.utilities.Pair;
 import pomdp.utilities.factored.affine.AADD;
+import pomdp.utilities.factored.affine.AADDINode;
+import pomdp.utilities.factored.affine.AADDRNode;
 import pomdp.utilities.factored.affine.DD;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
+/**
+ * Implements an ADD over a shared affine ADD (AADD) context. An ADD is a root reference (rid) in the context,
+ * so copy takes constant time and the operations replace the root.
+ * Variable ids are the AADD global ids and follow the natural order.
+ * Every operation synchronizes on the context. The apply, reduce and node caches of the context only grow,
+ * so when they pass ExecutionProperties.getADDCollectionThreshold the context is flushed, keeping only the nodes of the live ADDs.
+ * Value sums are 2^(variable count) times the mean of the root, computed from the affine edges.
+ */
 public class AffineADD implements AlgebraicDecisionDiagram {
 
 	public final static ArrayList EMPTY_ARRAY = new ArrayList();
-	
+	private static final int NONE = -1;
+	private static final AtomicLong g_cADDs = new AtomicLong();
+	private static final Object g_oLock = new Object();
+
 	// An AADD is given by its node ID
 	public int _nodeID = -1;
-	
+
 	// The context maintains the caches and must be initialized
 	public int  MAX_VARS = -1;
 	public static AADD _context = null;
 	public static int  _zero = -1;
-	
-	
-	// Must pre-specify the maximum number of variables when 
-	// initializing a context
+
+	private long m_iID;
+	private int m_iCoveredID;
+	private double m_dFilteredValueSum;
+	private int m_iFilteredID;
+	private CompiledDecisionDiagram m_cddCompiled;
+	private int m_iCompiledID;
+
+	private static ArrayList<WeakReference<AffineADD>> g_vADDs = new ArrayList<WeakReference<AffineADD>>();
+	private static int g_cADDsAfterPrune = 0;
+	private static Map<Integer,Double> g_mMeans = new HashMap<Integer,Double>();
+	private static long g_cCollectionThreshold = 0;
+	private static long g_cCollections = 0;
+
+	// Must pre-specify the maximum number of variables when
+	// initializing a context. A context with fewer variables is replaced, which invalidates the existing AADDs.
 	public static void InitAADDContext(int max_vars) {
-		if (_context != null) {
-			return;
-		} 
-		//MAX_VARS = max_vars;
-		ArrayList order = new ArrayList();
-		for (int i = 0; i < max_vars; i++) {
-			order.add(new Integer(i));
+		synchronized( g_oLock ){
+			if (_context != null && _context._alOrder.size() >= max_vars) {
+				return;
+			}
+			ArrayList<Integer> order = new ArrayList<Integer>();
+			for (int i = 0; i < max_vars; i++) {
+				order.add(i);
+			}
+			_context = new AADD(order);
+			_zero = _context.getConstantNode(0d);
+			g_vADDs = new ArrayList<WeakReference<AffineADD>>();
+			g_cADDsAfterPrune = 0;
+			g_mMeans = new HashMap<Integer,Double>();
+			g_cCollectionThreshold = ExecutionProperties.getADDCollectionThreshold();
 		}
-		_context = new AADD(order);
-		_zero = _context.getConstantNode(0d);
 	}
-/*	
+/*
 	// Default AADD is constant 0 function
 	public AffineADD() {
 		if (_context == null) {
 			System.err.println("AADD Error - Constructor: no context initialized");
 			System.exit(1);
 		}
-		
+
 		// This AADD is really a node within larger AADD
 		_nodeID = _zero;
 	}
 */
-	
+
 	public AffineADD( int cVars ){
 		_nodeID = _zero;
 		MAX_VARS = cVars;
+		init();
 	}
-	
+
 	// Copy constructor
 	public AffineADD(AffineADD src) {
-		
+
 		// This AADD is really a node within larger AADD
 		this._nodeID = src._nodeID;
+		this.MAX_VARS = src.MAX_VARS;
+		init();
+		m_iCoveredID = src.m_iCoveredID;
+		m_iFilteredID = src.m_iFilteredID;
+		m_dFilteredValueSum = src.m_dFilteredValueSum;
+	}
+
+	private void init(){
+		m_iID = g_cADDs.incrementAndGet();
+		m_iCoveredID = NONE;
+		m_iFilteredID = NONE;
+		m_dFilteredValueSum = 0.0;
+		m_cddCompiled = null;
+		m_iCompiledID = NONE;
+		register( this );
+	}
+
+	private static AffineADD cast( AlgebraicDecisionDiagram addOther ){
+		if( !( addOther instanceof AffineADD ) )
+			throw new IllegalArgumentException( "AffineADD can only be combined with another AffineADD, got " + addOther.getClass().getName() );
+		return (AffineADD)addOther;
+	}
+
+	private static void register( AffineADD add ){
+		synchronized( g_oLock ){
+			g_vADDs.add( new WeakReference<AffineADD>( add ) );
+			if( g_vADDs.size() > 2 * g_cADDsAfterPrune + 1024 )
+				pruneADDs();
+		}
+	}
+
+	private static void pruneADDs(){
+		ArrayList<WeakReference<AffineADD>> vLive = new ArrayList<WeakReference<AffineADD>>();
+		AffineADD add = null;
+		for( WeakReference<AffineADD> wr : g_vADDs ){
+			add = wr.get();
+			if( add != null && add._nodeID != NONE )
+				vLive.add( wr );
+		}
+		g_vADDs = vLive;
+		g_cADDsAfterPrune = vLive.size();
+	}
+
+	/**
+	 * Called at the start of every operation. Flushes the caches of the context when they pass the collection threshold,
+	 * keeping the nodes that the live ADDs reach. rids are preserved by the flush.
+	 */
+	private static void collectIfNeeded(){
+		if( _context.getCacheSize() <= g_cCollectionThreshold )
+			return;
+		long cBefore = _context.getCacheSize();
+		AffineADD add = null;
+		pruneADDs();
+		_context.clearSpecialNodes();
+		_context.addSpecialNode( _zero );
+		for( WeakReference<AffineADD> wr : g_vADDs ){
+			add = wr.get();
+			if( add == null || add._nodeID == NONE )
+				continue;
+			_context.addSpecialNode( add._nodeID );
+			if( add.m_iCoveredID != NONE )
+				_context.addSpecialNode( add.m_iCoveredID );
+		}
+		_context.flushCaches( false );
+		_context.clearSpecialNodes();
+		g_mMeans.clear();
+		g_cCollections++;
+		g_cCollectionThreshold = Math.max( ExecutionProperties.getADDCollectionThreshold(), 2 * _context.getCacheSize() );
+		Logger.getInstance().logFull( "AffineADD", 0, "collectIfNeeded", "flushed AADD caches " + cBefore + " => " + _context.getCacheSize() );
 	}
 
-	
+	/**
+	 * The number of times the caches of the context were flushed.
+	 */
+	public static long getCollectionCount(){
+		return g_cCollections;
+	}
+
+	public static long getCacheSize(){
+		synchronized( g_oLock ){
+			if( _context == null )
+				return 0;
+			return _context.getCacheSize();
+		}
+	}
+
+	/**
+	 * With two time steps abValues holds the post and pre action values of every variable, as CompactAlgebraicDecisionDiagram.addPartialPath.
+	 */
 	@Override
 	public void addPartialPath(int[] aiVariables, boolean[] abValues,
 			double value, boolean twoTimeSteps) {
-		int temp_aadd = buildPartialPath(0, aiVariables, abValues, value);
-		_nodeID = _context.applyInt(_nodeID, temp_aadd, DD.ARITH_SUM);
+		int[] aiPathVariables = aiVariables;
+		if( twoTimeSteps ){
+			aiPathVariables = new int[abValues.length];
+			for( int i = 0 ; i < abValues.length ; i++ )
+				aiPathVariables[i] = aiVariables[i / 2] * 2 + i % 2;
+		}
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			int iPath = buildPartialPath(0, aiPathVariables, abValues, 1.0);
+			int temp_aadd = _context.scalarMultiply(iPath, value);
+			_nodeID = _context.applyInt(_nodeID, temp_aadd, DD.ARITH_SUM);
+			cover( iPath );
+		}
 	}
 
 	protected int buildPartialPath(int index, int[] aiVariables, boolean[] abValues, double value) {
-		if (index == aiVariables.length) 
+		if (index == abValues.length)
 			return _context.getConstantNode(value);
-		else 
+		else
 			return _context.applyInt(
-					_context.getVarNode(aiVariables[index], abValues[index] ? 0d : 1d, abValues[index] ? 1d : 0d), 
-					buildPartialPath(index+1, aiVariables, abValues, value), 
+					_context.getVarNode(aiVariables[index], abValues[index] ? 0d : 1d, abValues[index] ? 1d : 0d),
+					buildPartialPath(index+1, aiVariables, abValues, value),
 					DD.ARITH_PROD);
 	}
 
 	@Override
 	public void addPath(boolean[] abPath, double value) {
-		int temp_aadd = buildPath(0, abPath, value);
-		_nodeID = _context.applyInt(_nodeID, temp_aadd, DD.ARITH_SUM);
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			int iPath = buildPath(0, abPath, 1.0);
+			int temp_aadd = _context.scalarMultiply(iPath, value);
+			_nodeID = _context.applyInt(_nodeID, temp_aadd, DD.ARITH_SUM);
+			cover( iPath );
+		}
 	}
 
 	protected int buildPath(int var, boolean[] abPath, double value) {
-		if (var == abPath.length) 
+		if (var == abPath.length)
 			return _context.getConstantNode(value);
-		else 
+		else
 			return _context.applyInt(
-					_context.getVarNode(var, abPath[var] ? 0d : 1d, abPath[var] ? 1d : 0d), 
-					buildPath(var+1, abPath, value), 
+					_context.getVarNode(var, abPath[var] ? 0d : 1d, abPath[var] ? 1d : 0d),
+					buildPath(var+1, abPath, value),
 					DD.ARITH_PROD);
 	}
-	
+
+	//remembers the assignments that were given a value, so that finalizePaths can set the default value for the rest
+	private void cover( int iPath ){
+		if( m_iCoveredID == NONE )
+			m_iCoveredID = iPath;
+		else
+			m_iCoveredID = _context.applyInt( m_iCoveredID, iPath, DD.ARITH_MAX );
+	}
+
 	@Override
 	public AlgebraicDecisionDiagram copy() {
 		return new AffineADD(this);
 	}
 
+	/**
+	 * Whether the value of this ADD is at least the value of the other ADD for every assignment - the minimum of the difference is non negative.
+	 */
 	@Override
 	public boolean dominates(AlgebraicDecisionDiagram addOther) {
-		System.err.println("AADD Error - dominates: not implemented");
-		System.exit(1);
-		return false;
+		AffineADD aaddOther = cast( addOther );
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			if( _nodeID == aaddOther._nodeID )
+				return true;
+			if( aaddOther.getMaxValue() > getMaxValue() + AADD.PRECISION )
+				return false;
+			int iDifference = _context.applyInt( _nodeID, aaddOther._nodeID, DD.ARITH_MINUS );
+			return _context.getMinValue( iDifference ) >= -AADD.PRECISION;
+		}
 	}
 
+	/**
+	 * Equal when the values are equal after rounding them as the leaves of the other ADDs, see compareTo.
+	 */
 	@Override
 	public boolean equals(AlgebraicDecisionDiagram addOther) {
-		if (!(addOther instanceof AffineADD)) {
-			System.err.println("AADD Error - addOther: not implemented");
-			System.exit(1);
-		}
-		return _nodeID == ((AffineADD)addOther)._nodeID;
+		return compareTo( addOther ) == 0;
 	}
 
+	/**
+	 * Sums out the variables of the filter, walking the variable ids of the filter as CompactAlgebraicDecisionDiagram.existentialAbstraction,
+	 * so variables that a path skips are counted the same way.
+	 * The abstraction is linear in the leaf values, so the value o + m * f of an edge is abstracted as o times the abstraction of
+	 * the unit function with the structure of the node below it plus m times the abstraction of the node.
+	 */
 	@Override
 	public AlgebraicDecisionDiagram existentialAbstraction(
 			AbstractionFilter filter) {
 
-		AffineADD new_dd = new AffineADD(this);
-		int id = -1;
-		for( id = 0 ; id < MAX_VARS ; id++ ){
-			if( filter.abstractVariable( id ) )
-				new_dd._nodeID = _context.opOut(new_dd._nodeID, id, DD.ARITH_SUM);
-		}
-	/*	
-		int last_id = filter.getLastVariableId();
-		do {
-			id = (id == -1) ? filter.getFirstVariableId() : filter.firstVariableAfter(id);
-			new_dd._nodeID = _context.opOut(new_dd._nodeID, id, DD.ARITH_SUM);
-		} while (id != last_id);
-		*/
+		AffineADD new_dd = new AffineADD(MAX_VARS);
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			AADDRNode r = _context.getRNode( _nodeID );
+			Map<Long,AADDRNode> mFunctions = new HashMap<Long,AADDRNode>(), mUnits = new HashMap<Long,AADDRNode>();
+			AADDRNode rAbstracted = abstractEdge( filter, filter.getFirstVariableId(), r, mFunctions, mUnits );
+			new_dd._nodeID = _context.addRNodeRef( rAbstracted );
+		}
 		return new_dd;
 	}
 
+	private AADDRNode abstractEdge( AbstractionFilter aFilter, int iExpected, AADDRNode r, Map<Long,AADDRNode> mFunctions, Map<Long,AADDRNode> mUnits ){
+		AADDRNode rUnit = abstractNode( aFilter, iExpected, r._nRefID, true, mFunctions, mUnits );
+		if( r._nRefID == 0 )
+			return _context.scalarMultiply( rUnit, r._dOffset );
+		AADDRNode rFunction = abstractNode( aFilter, iExpected, r._nRefID, false, mFunctions, mUnits );
+		return _context.applyInt( _context.scalarMultiply( rUnit, r._dOffset ), _context.scalarMultiply( rFunction, r._dMult ), DD.ARITH_SUM );
+	}
+
+	//bUnit - abstracts the function that is 1 on every path of the node rather than the node itself
+	private AADDRNode abstractNode( AbstractionFilter aFilter, int iExpected, int iLocalID, boolean bUnit, Map<Long,AADDRNode> mFunctions, Map<Long,AADDRNode> mUnits ){
+		if( iLocalID == 0 ){
+			if( !bUnit )
+				return _context.getDNode( 0.0, true );
+			if( iExpected < aFilter.getLastVariableId() )
+				return _context.getDNode( Math.pow( 2, aFilter.countAbstractionVariablesBetween( iExpected, aFilter.getLastVariableId() ) ), true );
+			return _context.getDNode( 1.0, true );
+		}
+		Map<Long,AADDRNode> mCache = bUnit ? mUnits : mFunctions;
+		long lKey = ( (long)iExpected << 32 ) | iLocalID;
+		AADDRNode rCached = mCache.get( lKey );
+		if( rCached != null )
+			return rCached;
+		AADDINode ni = (AADDINode)_context.getNode( iLocalID );
+		int iNextExpected = aFilter.firstVariableAfter( iExpected );
+		AADDRNode rFalse = null, rTrue = null, rNew = null;
+		if( iExpected < ni._nGlobalID ){
+			rFalse = abstractNode( aFilter, iNextExpected, iLocalID, bUnit, mFunctions, mUnits );
+			rTrue = rFalse;
+		}
+		else if( bUnit ){
+			rFalse = abstractNode( aFilter, iNextExpected, ni._nLow, true, mFunctions, mUnits );
+			rTrue = abstractNode( aFilter, iNextExpected, ni._nHigh, true, mFunctions, mUnits );
+		}
+		else{
+			rFalse = abstractEdge( aFilter, iNextExpected, new AADDRNode( ni._nLow, ni._dLowOffset, ni._dLowMult ), mFunctions, mUnits );
+			rTrue = abstractEdge( aFilter, iNextExpected, new AADDRNode( ni._nHigh, ni._dHighOffset, ni._dHighMult ), mFunctions, mUnits );
+		}
+		if( aFilter.abstractVariable( iExpected ) )
+			rNew = _context.applyInt( rFalse, rTrue, DD.ARITH_SUM );
+		else if( rFalse == rTrue )
+			rNew = rFalse;
+		else if( iExpected == ni._nGlobalID )
+			rNew = makeNode( iExpected, rFalse, rTrue );
+		else
+			rNew = _context.applyInt( _context.applyInt( _context.getVarNodeInt( iExpected, 1d, 0d ), rFalse, DD.ARITH_PROD ),
+					_context.applyInt( _context.getVarNodeInt( iExpected, 0d, 1d ), rTrue, DD.ARITH_PROD ), DD.ARITH_SUM );
+		mCache.put( lKey, rNew );
+		return rNew;
+	}
+
+	/**
+	 * Paths were summed into the constant 0 diagram, so the default value is added to the assignments that no path covered.
+	 */
 	@Override
 	public void finalizePaths(double defaultValue) {
-		// Do nothing since we started with the constant 0 diagram
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			if( defaultValue != 0.0 ){
+				int iDefault = _context.getConstantNode( defaultValue );
+				if( m_iCoveredID != NONE ){
+					int iUncovered = _context.applyInt( _context.getConstantNode( 1.0 ), m_iCoveredID, DD.ARITH_MINUS );
+					iDefault = _context.scalarMultiply( iUncovered, defaultValue );
+				}
+				_nodeID = _context.applyInt( _nodeID, iDefault, DD.ARITH_SUM );
+			}
+			m_iCoveredID = NONE;
+		}
 	}
 
+	/**
+	 * Writes the diagram in the ADD format of the other ADDs (see expand), so the file can be read by any of them.
+	 */
 	@Override
 	public Element getDOM(Document doc) {
-		System.err.println("AADD Error - getDOM: not implemented");
-		System.exit(1);
-		return null;
+		Element eADD = doc.createElement( "ADD" );
+		Element eVertex = null;
+		AADDRNode r = null;
+		synchronized( g_oLock ){
+			Vector<AADDRNode> vVertexes = new Vector<AADDRNode>();
+			Map<AADDRNode,Integer> mIds = new HashMap<AADDRNode,Integer>();
+			expand( _context.getRNode( _nodeID ), vVertexes, mIds );
+			eADD.setAttribute( "VertexCount",  "" + vVertexes.size() );
+			eADD.setAttribute( "VariableCount",  "" + MAX_VARS );
+			eADD.setAttribute( "Root",  "" + ( vVertexes.size() - 1 ) );
+			for( int iVertex = 0 ; iVertex < vVertexes.size() ; iVertex++ ){
+				r = vVertexes.get( iVertex );
+				if( r._nRefID == 0 ){
+					eVertex = doc.createElement( "Value" );
+					eVertex.setAttribute( "value",  "" + r._dOffset );
+				}
+				else{
+					AADDINode ni = (AADDINode)_context.getNode( r._nRefID );
+					eVertex = doc.createElement( "Vertex" );
+					eVertex.setAttribute( "variable",  "" + ni._nGlobalID );
+					eVertex.setAttribute( "false",  "" + mIds.get( lowEdge( r, ni ) ) );
+					eVertex.setAttribute( "true",  "" + mIds.get( highEdge( r, ni ) ) );
+				}
+				eVertex.setAttribute( "id",  "" + iVertex );
+				eADD.appendChild( eVertex );
+			}
+		}
+		return eADD;
+	}
+
+	/**
+	 * Lists the diagram as an ADD, children first, so the root is the last vertex. Every distinct edge (node, offset and multiplier)
+	 * is a vertex, and the edges into the zero terminal are the leaves, with their offset as the value.
+	 */
+	private static int expand( AADDRNode r, Vector<AADDRNode> vVertexes, Map<AADDRNode,Integer> mIds ){
+		if( r._nRefID == 0 )
+			r = edge( 0, r._dOffset, 0.0 );
+		Integer iId = mIds.get( r );
+		if( iId != null )
+			return iId;
+		if( r._nRefID != 0 ){
+			AADDINode ni = (AADDINode)_context.getNode( r._nRefID );
+			expand( lowEdge( r, ni ), vVertexes, mIds );
+			expand( highEdge( r, ni ), vVertexes, mIds );
+		}
+		iId = vVertexes.size();
+		vVertexes.add( r );
+		mIds.put( r, iId );
+		return iId;
 	}
 
 	@Override
 	public long getId() {
-		return (long)_nodeID;
+		return m_iID;
 	}
 
 	@Override
 	public double getMaxValue() {
-		return _context.getMaxValue(_nodeID);
+		synchronized( g_oLock ){
+			return _context.getMaxValue(_nodeID);
+		}
+	}
+
+	@Override
+	public double getMinValue() {
+		synchronized( g_oLock ){
+			return _context.getMinValue(_nodeID);
+		}
 	}
 
 	@Override
 	public String getTreeString() {
-		return _context.printNode(_nodeID);
+		synchronized( g_oLock ){
+			return _context.printNode(_nodeID);
+		}
 	}
 
 	public String toString(){
@@ -179,7 +459,7 @@ public class AffineADD implements AlgebraicDecisionDiagram {
 		}
 		return s + "]";
 	}
-	
+
 	private void increment( boolean[] abPath ) {
 		int i = 0;
 		for( i = 0 ; i < abPath.length ; i++ ){
@@ -193,215 +473,487 @@ public class AffineADD implements AlgebraicDecisionDiagram {
 		}
 	}
 
+	//the mean of an internal node over all the assignments, from the affine transformations of its edges
+	private static double getMean( int iLocalID ){
+		if( iLocalID == 0 )
+			return 0.0;
+		Double dCached = g_mMeans.get( iLocalID );
+		if( dCached != null )
+			return dCached;
+		AADDINode ni = (AADDINode)_context.getNode( iLocalID );
+		double dMean = ( ni._dLowOffset + ni._dLowMult * getMean( ni._nLow ) +
+				ni._dHighOffset + ni._dHighMult * getMean( ni._nHigh ) ) / 2;
+		g_mMeans.put( iLocalID, dMean );
+		return dMean;
+	}
+
+	private static double getRootMean( int rid ){
+		AADDRNode r = _context.getRNode( rid );
+		return r._dOffset + r._dMult * getMean( r._nRefID );
+	}
+
 	@Override
 	public double getValueSum() {
-		int new_dd = _nodeID;
-		for (int v = 0; v < MAX_VARS; v++) {
-			new_dd = _context.opOut(new_dd, v, DD.ARITH_SUM);
+		synchronized( g_oLock ){
+			if( m_iFilteredID != NONE && m_iFilteredID == _nodeID )
+				return m_dFilteredValueSum;
+			return Math.pow( 2.0, MAX_VARS ) * getRootMean( _nodeID );
 		}
-		return _context.evaluate(new_dd, EMPTY_ARRAY);
 	}
 
 	@Override
 	public long getVertexCount() {
-		return _context.countExactNodes(_nodeID);
+		synchronized( g_oLock ){
+			return _context.countExactNodes(_nodeID);
+		}
 	}
 
 	@Override
 	public double innerProduct(AlgebraicDecisionDiagram addOther) {
-		if (!(addOther instanceof AffineADD)) {
-			System.err.println("AADD Error - getDOM: not implemented");
-			System.exit(1);
+		AffineADD aaddOther = cast( addOther );
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			int iProduct = _context.applyInt(_nodeID, aaddOther._nodeID, DD.ARITH_PROD);
+			return Math.pow( 2.0, MAX_VARS ) * getRootMean( iProduct );
 		}
-		AffineADD aaddOther = (AffineADD)addOther;
-		AffineADD aaddResult = new AffineADD( MAX_VARS );
-		aaddResult._nodeID = _context.applyInt(_nodeID, aaddOther._nodeID, DD.ARITH_PROD);
-		
-		return aaddResult.getValueSum();
 	}
 
+	/**
+	 * Reads the ADD format of the other ADDs. The vertexes may be listed in any order, so the diagram is built from the root down.
+	 */
 	@Override
 	public void parseXML(Element eadd) {
-		//System.err.println("AADD Error - parseXML: not implemented");
-		//System.exit(1);
-		throw new NotImplementedException();
+		NodeList nlChildren = eadd.getChildNodes();
+		Map<Integer,Element> mElements = new HashMap<Integer,Element>();
+		Element eChild = null;
+		for( int iChild = 0 ; iChild < nlChildren.getLength() ; iChild++ ){
+			eChild = (Element)nlChildren.item( iChild );
+			mElements.put( Integer.parseInt( eChild.getAttribute( "id" ) ), eChild );
+		}
+		MAX_VARS = Integer.parseInt( eadd.getAttribute( "VariableCount" ) );
+		InitAADDContext( MAX_VARS );
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			_nodeID = _context.addRNodeRef( parseVertex( Integer.parseInt( eadd.getAttribute( "Root" ) ), mElements, new HashMap<Integer,AADDRNode>() ) );
+			m_iCoveredID = NONE;
+			m_iFilteredID = NONE;
+		}
 	}
 
-	@Override
-	public AlgebraicDecisionDiagram product(AlgebraicDecisionDiagram addOther) {
-		if (!(addOther instanceof AffineADD)) {
-			System.err.println("AADD Error - getDOM: not implemented");
-			System.exit(1);
+	private static AADDRNode parseVertex( int iId, Map<Integer,Element> mElements, Map<Integer,AADDRNode> mNodes ){
+		AADDRNode r = mNodes.get( iId );
+		if( r != null )
+			return r;
+		Element eVertex = mElements.get( iId );
+		if( eVertex.getNodeName().equals( "Value" ) )
+			r = _context.getDNode( Double.parseDouble( eVertex.getAttribute( "value" ) ), true );
+		else
+			r = makeNode( Integer.parseInt( eVertex.getAttribute( "variable" ) ),
+					parseVertex( Integer.parseInt( eVertex.getAttribute( "false" ) ), mElements, mNodes ),
+					parseVertex( Integer.parseInt( eVertex.getAttribute( "true" ) ), mElements, mNodes ) );
+		mNodes.put( iId, r );
+		return r;
+	}
+
+	private AffineADD apply( AlgebraicDecisionDiagram addOther, int iOperator ){
+		AffineADD aaddOther = cast( addOther );
+		AffineADD aaddResult = new AffineADD( Math.max( MAX_VARS, aaddOther.MAX_VARS ) );
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			aaddResult._nodeID = _context.applyInt(_nodeID, aaddOther._nodeID, iOperator);
 		}
-		AffineADD aaddOther = (AffineADD)addOther;
-		AffineADD aaddResult = new AffineADD( MAX_VARS );
-		aaddResult._nodeID = _context.applyInt(_nodeID, aaddOther._nodeID, DD.ARITH_PROD);
-		
 		return aaddResult;
 	}
 
+	@Override
+	public AlgebraicDecisionDiagram product(AlgebraicDecisionDiagram addOther) {
+		return apply( addOther, DD.ARITH_PROD );
+	}
+
 	@Override
 	public void product(double factor) {
-		_nodeID = _context.scalarMultiply(_nodeID, factor);
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			_nodeID = _context.scalarMultiply(_nodeID, factor);
+		}
 	}
 
 	@Override
 	public void reduce() {
-		_nodeID = _context.reduce(_nodeID);
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			_nodeID = _context.reduce(_nodeID);
+		}
 	}
 
+	/**
+	 * Also keeps the value sum over the variables of the filter, as SharedAlgebraicDecisionDiagram.reduce( AbstractionFilter ).
+	 */
 	@Override
 	public void reduce(AbstractionFilter filter) {
-		_nodeID = _context.reduce(_nodeID);
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			_nodeID = _context.reduce(_nodeID);
+			if( filter == null )
+				return;
+			AADDRNode r = _context.getRNode( _nodeID );
+			double dRootSum = r._dOffset;
+			int iRootId = 0;
+			if( r._nRefID != 0 ){
+				Map<Integer,Double> mValueSums = new HashMap<Integer,Double>(), mUnitSums = new HashMap<Integer,Double>();
+				iRootId = ((AADDINode)_context.getNode( r._nRefID ))._nGlobalID;
+				dRootSum = r._dOffset * computeValueSum( r._nRefID, filter, true, mValueSums, mUnitSums ) +
+					r._dMult * computeValueSum( r._nRefID, filter, false, mValueSums, mUnitSums );
+			}
+			if( iRootId > MAX_VARS )
+				iRootId = MAX_VARS - 1;
+			m_dFilteredValueSum = Math.pow( 2.0, filter.countVariablesBetween( filter.getFirstVariableId(), iRootId ) ) * dRootSum;
+			m_iFilteredID = _nodeID;
+		}
 	}
 
+	//the children are below the variable, so the node is built directly
+	private static AADDRNode makeNode( int iVariable, AADDRNode rFalse, AADDRNode rTrue ){
+		return _context.getINode( iVariable, rFalse._nRefID, rTrue._nRefID, rFalse._dOffset, rFalse._dMult, rTrue._dOffset, rTrue._dMult, true );
+	}
+
+	//follows SharedAlgebraicDecisionDiagram.computeValueSum, with the edge values split as in abstractEdge
+	private double computeValueSum( int iLocalID, AbstractionFilter aFilter, boolean bUnit, Map<Integer,Double> mValueSums, Map<Integer,Double> mUnitSums ){
+		Map<Integer,Double> mCache = bUnit ? mUnitSums : mValueSums;
+		Double dCached = mCache.get( iLocalID );
+		if( dCached != null )
+			return dCached;
+		AADDINode ni = (AADDINode)_context.getNode( iLocalID );
+		int iVariableId = ni._nGlobalID, iChild = 0, iChildNode = 0, cLevels = 0, cOccurences = 0;
+		int cLeaves = (int)Math.pow( 2, aFilter.countVariablesBetween( iVariableId, aFilter.getLastVariableId() ) - 1 );
+		double dValueSum = 0.0, dOffset = 0.0, dMult = 0.0, dChildSum = 0.0;
+		for( iChild = 0 ; iChild < 2 ; iChild++ ){
+			iChildNode = iChild == 0 ? ni._nLow : ni._nHigh;
+			dOffset = bUnit ? 1.0 : ( iChild == 0 ? ni._dLowOffset : ni._dHighOffset );
+			dMult = iChild == 0 ? ni._dLowMult : ni._dHighMult;
+			if( iChildNode == 0 ){
+				dValueSum += cLeaves * dOffset;
+			}
+			else{
+				if( bUnit )
+					dChildSum = computeValueSum( iChildNode, aFilter, true, mValueSums, mUnitSums );
+				else
+					dChildSum = dOffset * computeValueSum( iChildNode, aFilter, true, mValueSums, mUnitSums ) +
+						dMult * computeValueSum( iChildNode, aFilter, false, mValueSums, mUnitSums );
+				cLevels = aFilter.countVariablesBetween( iVariableId, ((AADDINode)_context.getNode( iChildNode ))._nGlobalID );
+				cOccurences = (int)Math.pow( 2, cLevels - 1 );
+				dValueSum += dChildSum * cOccurences;
+			}
+		}
+		mCache.put( iLocalID, dValueSum );
+		return dValueSum;
+	}
+
+	/**
+	 * Merges close values as SharedAlgebraicDecisionDiagram.reduceToMin. The values are rounded as the leaves of the other ADDs
+	 * (ADDNodeManager.round), and a value that is within dSpan of the last kept value below it is replaced by that value.
+	 * AADDs have no explicit leaves, so the values are collected from the distinct edges of the diagram, which are as many as
+	 * the nodes of the same function as an ADD, and the diagram is rebuilt bottom up over the new values.
+	 */
 	@Override
-	public void reduceToMin(double span) {
-		_nodeID = _context.reduce(_nodeID);
+	public void reduceToMin(double dSpan) {
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			AADDRNode r = _context.getRNode( _nodeID );
+			if( r._nRefID == 0 || dSpan <= 0.0 )
+				return;
+			TreeSet<Double> sValues = new TreeSet<Double>();
+			collectValues( r, sValues, new HashSet<AADDRNode>() );
+			Map<Double,Double> mReplaced = new HashMap<Double,Double>();
+			double dLowerBound = Double.MAX_VALUE * -1;
+			for( double dValue : sValues ){
+				if( dValue != 0.0 ){
+					if( dValue < dLowerBound + dSpan )
+						mReplaced.put( dValue, dLowerBound );
+					else
+						dLowerBound = dValue;
+				}
+			}
+			_nodeID = _context.addRNodeRef( replaceValues( r, mReplaced, new HashMap<AADDRNode,AADDRNode>() ) );
+		}
+	}
+
+	//values within the precision of the context are 0, as the values of the other ADDs that were computed exactly
+	private static double roundValue( double dValue ){
+		if( Math.abs( dValue ) <= AADD.PRECISION )
+			return 0.0;
+		return ADDNodeManager.round( dValue );
+	}
+
+	//the edge values of the children of a node, as the offset and multiplier of the full edge into the child.
+	//Edges into the zero terminal keep only their offset (without -0.0), so equal values are equal edges.
+	private static AADDRNode lowEdge( AADDRNode r, AADDINode ni ){
+		return edge( ni._nLow, r._dOffset + r._dMult * ni._dLowOffset, r._dMult * ni._dLowMult );
+	}
+
+	private static AADDRNode highEdge( AADDRNode r, AADDINode ni ){
+		return edge( ni._nHigh, r._dOffset + r._dMult * ni._dHighOffset, r._dMult * ni._dHighMult );
+	}
+
+	private static AADDRNode edge( int iLocalID, double dOffset, double dMult ){
+		if( iLocalID == 0 )
+			return new AADDRNode( 0, dOffset + 0.0, 0.0 );
+		return new AADDRNode( iLocalID, dOffset, dMult );
+	}
+
+	private static void collectValues( AADDRNode r, Set<Double> sValues, Set<AADDRNode> sVisited ){
+		if( r._nRefID == 0 ){
+			sValues.add( roundValue( r._dOffset ) );
+			return;
+		}
+		if( !sVisited.add( r ) )
+			return;
+		AADDINode ni = (AADDINode)_context.getNode( r._nRefID );
+		collectValues( lowEdge( r, ni ), sValues, sVisited );
+		collectValues( highEdge( r, ni ), sValues, sVisited );
+	}
+
+	private static AADDRNode replaceValues( AADDRNode r, Map<Double,Double> mReplaced, Map<AADDRNode,AADDRNode> mCache ){
+		if( r._nRefID == 0 ){
+			double dValue = roundValue( r._dOffset );
+			Double dReplaced = mReplaced.get( dValue );
+			if( dReplaced != null )
+				dValue = dReplaced;
+			return _context.getDNode( dValue, true );
+		}
+		AADDRNode rCached = mCache.get( r );
+		if( rCached != null )
+			return rCached;
+		AADDINode ni = (AADDINode)_context.getNode( r._nRefID );
+		AADDRNode rNew = makeNode( ni._nGlobalID, replaceValues( lowEdge( r, ni ), mReplaced, mCache ), replaceValues( highEdge( r, ni ), mReplaced, mCache ) );
+		mCache.put( r, rNew );
+		return rNew;
 	}
 
 	@Override
 	public void save(FileWriter fw) throws IOException {
-		throw new NotImplementedException();
+		synchronized( g_oLock ){
+			Vector<AADDRNode> vVertexes = new Vector<AADDRNode>();
+			Map<AADDRNode,Integer> mIds = new HashMap<AADDRNode,Integer>();
+			expand( _context.getRNode( _nodeID ), vVertexes, mIds );
+			fw.write( "<ADD VertexCount = \"" + vVertexes.size() + "\" VariableCount = \"" + MAX_VARS + "\" Root = \"" + ( vVertexes.size() - 1 ) + "\">" );
+			for( int iVertex = 0 ; iVertex < vVertexes.size() ; iVertex++ ){
+				AADDRNode r = vVertexes.get( iVertex );
+				if( r._nRefID == 0 ){
+					fw.write( "<Value id = \"" + iVertex +
+							"\" value = \"" + r._dOffset +
+							"\"/>" );
+				}
+				else{
+					AADDINode ni = (AADDINode)_context.getNode( r._nRefID );
+					fw.write( "<Vertex id = \"" + iVertex +
+							"\" variable = \"" + ni._nGlobalID +
+							"\" false = \"" + mIds.get( lowEdge( r, ni ) ) +
+							"\" true = \"" + mIds.get( highEdge( r, ni ) ) +
+							"\"/>" );
+				}
+			}
+			fw.write( "</ADD>" );
+		}
 	}
 
 	@Override
 	public AlgebraicDecisionDiagram sum(AlgebraicDecisionDiagram addOther) {
-		if (!(addOther instanceof AffineADD)) {
-			System.err.println("AADD Error - getDOM: not implemented");
-			System.exit(1);
-		}
-		AffineADD aaddOther = (AffineADD)addOther;
-		AffineADD aaddResult = new AffineADD( MAX_VARS );
-		aaddResult._nodeID = _context.applyInt(_nodeID, aaddOther._nodeID, DD.ARITH_SUM);
-		
-		return aaddResult;
+		return apply( addOther, DD.ARITH_SUM );
 	}
 
 	@Override
 	public void translateVariables(VariableTranslator vt) {
-		HashMap gid_map = new HashMap();
-		for (int i = 0; i < MAX_VARS; i++) {
-			int trans = vt.translate(i);
-			if (trans != i)
-				gid_map.put(new Integer(i), new Integer(trans));
+		HashMap<Integer,Integer> gid_map = new HashMap<Integer,Integer>();
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			for (int i = 0; i < _context._alOrder.size(); i++) {
+				int trans = vt.translate(i);
+				if (trans != i)
+					gid_map.put(i, trans);
+			}
+			_nodeID = _context.remapGIDsInt(_nodeID, gid_map);
 		}
-		_context.remapGIDs(_nodeID, gid_map);
+		MAX_VARS = vt.translateVariableCount( MAX_VARS );
 	}
 
 	@Override
 	public double valueAt(boolean[] abPath) {
 		ArrayList assign = new ArrayList();
-		for (int i = 0; i < MAX_VARS; i++) 
+		for (int i = 0; i < abPath.length; i++)
 			assign.add(new Boolean(abPath[i]));
-		return _context.evaluate(_nodeID, assign);
+		synchronized( g_oLock ){
+			return _context.evaluate(_nodeID, assign);
+		}
 	}
 
 	@Override
 	public double valueAt(int[] aiVariables, boolean[] abValues) {
 		ArrayList assign = new ArrayList();
-		for (int i = 0; i < MAX_VARS; i++) 
+		for (int i = 0; i < MAX_VARS; i++)
 			assign.add(null);
 		for (int i = 0; i < aiVariables.length; i++)
 			assign.set(aiVariables[i], new Boolean(abValues[i]));
-		return _context.evaluate(_nodeID, assign);
+		synchronized( g_oLock ){
+			return _context.evaluate(_nodeID, assign);
+		}
 	}
 
+	/**
+	 * The nodes of a released ADD are dropped at the next flush of the context.
+	 */
 	@Override
 	public void release() {
-		System.err.println("AADD Error - release: not implemented at this time");
+		_nodeID = NONE;
+		m_iCoveredID = NONE;
+		m_iFilteredID = NONE;
 	}
 
+	/**
+	 * Compares the values rounded as the leaves of the other ADDs (ADDNodeManager.round), where the values of the same assignments
+	 * are compared with the true child first, as CompactAlgebraicDecisionDiagram.compareTo. Belief states are cached by this order,
+	 * so beliefs that differ only by the rounding error of the updates are found in the cache as with the other ADDs.
+	 */
 	@Override
 	public int compareTo(AlgebraicDecisionDiagram arg0) {
-		if (!(arg0 instanceof AffineADD)) {
-			System.err.println("AADD Error - compareTo: not implemented");
-			System.exit(1);
+		AffineADD aaddOther = cast( arg0 );
+		synchronized( g_oLock ){
+			if( _nodeID == aaddOther._nodeID )
+				return 0;
+			return compare( _context.getRNode( _nodeID ), _context.getRNode( aaddOther._nodeID ), new HashMap<AADDRNode,Map<AADDRNode,Integer>>() );
 		}
-		return _nodeID - ((AffineADD)arg0)._nodeID;
 	}
 
-	/**
-	 * @param args
-	 */
-	/*
-	public static void main(String[] args) {
-		
-		// Initialize AADD caches with max number of variables 
-		AffineADD.InitAADDContext(3);
-		
-		// Build an AADD and add in two paths (one full, one partial)
-		AlgebraicDecisionDiagram a1 = new AffineADD();
-		
-		// Path 1
-		boolean[] abPath = new boolean[] {true, false, true};
-		a1.addPath(abPath, 1d);
-		AlgebraicDecisionDiagram a2 = (AffineADD)a1.copy();
-		
-		// Path 2
-		int[] aiVariables = new int[] { 1, 2 };
-		boolean[] abValues = new boolean[] { true, true };
-		a1.addPartialPath(aiVariables, abValues, 2d, false);
-		
-		// Some dianostic output
-		System.out.println("AADD Repr: " + a1.getTreeString());
-		System.out.println("Num nodes [Expected:5]: " + a1.getVertexCount()); // should be 9
-		System.out.println("ValueSum  [Expected:5]: " + a1.getValueSum());    // shuold be 5
-		System.out.println("InnerProd [Expected:9]: " + a1.innerProduct(a1)); // should be 9
-		
-		// Print out truth table values 
-		System.out.println("\nOriginal - should be two 2's, one 1:");
-		for (int i = 0; i < 8; i++) {
-			abPath[0] = ((i >> 0) % 2) != 0;
-			abPath[1] = ((i >> 1) % 2) != 0;
-			abPath[2] = ((i >> 2) % 2) != 0;
-			System.out.println("a1 val [" + abPath[0] + "," + abPath[1] + "," + abPath[2] + "] = " + a1.valueAt(abPath));
-		}
-
-		// Print out truth table values for a product
-		System.out.println("\nAfter a product - should be one 1");
-		AlgebraicDecisionDiagram a3 = a1.product(a2);
-		for (int i = 0; i < 8; i++) {
-			abPath[0] = ((i >> 0) % 2) != 0;
-			abPath[1] = ((i >> 1) % 2) != 0;
-			abPath[2] = ((i >> 2) % 2) != 0;
-			System.out.println("a3 val [" + abPath[0] + "," + abPath[1] + "," + abPath[2] + "] = " + a3.valueAt(abPath));
-		}
-
-		// Print out truth table values for a sum & scalar multiply
-		System.out.println("\nAfter a sum & scalar multiply - should be three 3 4's");
-		AlgebraicDecisionDiagram a4 = a1.sum(a2);
-		a4.product(2d);
-		for (int i = 0; i < 8; i++) {
-			abPath[0] = ((i >> 0) % 2) != 0;
-			abPath[1] = ((i >> 1) % 2) != 0;
-			abPath[2] = ((i >> 2) % 2) != 0;
-			System.out.println("a4 val [" + abPath[0] + "," + abPath[1] + "," + abPath[2] + "] = " + a4.valueAt(abPath));
+	private static int compare( AADDRNode r1, AADDRNode r2, Map<AADDRNode,Map<AADDRNode,Integer>> mCache ){
+		if( r1._nRefID == 0 && r2._nRefID == 0 )
+			return Double.compare( roundValue( r1._dOffset ), roundValue( r2._dOffset ) );
+		Map<AADDRNode,Integer> mResults = mCache.get( r1 );
+		if( mResults == null ){
+			mResults = new HashMap<AADDRNode,Integer>();
+			mCache.put( r1, mResults );
 		}
+		Integer iCached = mResults.get( r2 );
+		if( iCached != null )
+			return iCached;
+		AADDINode ni1 = r1._nRefID == 0 ? null : (AADDINode)_context.getNode( r1._nRefID );
+		AADDINode ni2 = r2._nRefID == 0 ? null : (AADDINode)_context.getNode( r2._nRefID );
+		int iVariable1 = ni1 == null ? Integer.MAX_VALUE : ni1._nGlobalID, iVariable2 = ni2 == null ? Integer.MAX_VALUE : ni2._nGlobalID;
+		int iVariable = Math.min( iVariable1, iVariable2 );
+		int iResult = compare( iVariable1 == iVariable ? highEdge( r1, ni1 ) : r1, iVariable2 == iVariable ? highEdge( r2, ni2 ) : r2, mCache );
+		if( iResult == 0 )
+			iResult = compare( iVariable1 == iVariable ? lowEdge( r1, ni1 ) : r1, iVariable2 == iVariable ? lowEdge( r2, ni2 ) : r2, mCache );
+		mResults.put( r2, iResult );
+		return iResult;
 	}
-*/
+
+	/**
+	 * Follows AlgebraicDecisionDiagram.Max - the larger of the two values and their sum.
+	 */
 	@Override
 	public AlgebraicDecisionDiagram max(AlgebraicDecisionDiagram addOther) {
-		// TODO Auto-generated method stub
-		return null;
+		AffineADD aaddMax = apply( addOther, DD.ARITH_MAX ), aaddSum = apply( addOther, DD.ARITH_SUM );
+		return aaddMax.apply( aaddSum, DD.ARITH_MAX );
 	}
 
+	@Override
+	public AlgebraicDecisionDiagram maximum(AlgebraicDecisionDiagram addOther) {
+		return apply( addOther, DD.ARITH_MAX );
+	}
+
+	/**
+	 * \sum_s f(s)pr(s) where the variables are independent and adVariableProbabilities[i] is the probability that variable i is true.
+	 */
 	@Override
 	public double innerProduct(double[] adVariableProbabilities) {
-		// TODO Auto-generated method stub
-		return 0;
+		synchronized( g_oLock ){
+			AADDRNode r = _context.getRNode( _nodeID );
+			return r._dOffset + r._dMult * innerProduct( r._nRefID, adVariableProbabilities, new HashMap<Integer,Double>() );
+		}
+	}
+
+	private double innerProduct( int iLocalID, double[] adVariableProbabilities, Map<Integer,Double> mCache ){
+		if( iLocalID == 0 )
+			return 0.0;
+		Double dCached = mCache.get( iLocalID );
+		if( dCached != null )
+			return dCached;
+		AADDINode ni = (AADDINode)_context.getNode( iLocalID );
+		double dProb = adVariableProbabilities[ni._nGlobalID];
+		double dValue = ( 1 - dProb ) * ( ni._dLowOffset + ni._dLowMult * innerProduct( ni._nLow, adVariableProbabilities, mCache ) ) +
+				dProb * ( ni._dHighOffset + ni._dHighMult * innerProduct( ni._nHigh, adVariableProbabilities, mCache ) );
+		mCache.put( iLocalID, dValue );
+		return dValue;
+	}
+
+	/**
+	 * The flat form of the diagram as an ADD (see expand). Variable ids follow the natural order, so the level of a variable is its id.
+	 * The compiled form is kept until the root of the ADD changes.
+	 */
+	@Override
+	public CompiledDecisionDiagram compile() {
+		synchronized( g_oLock ){
+			if( m_cddCompiled != null && m_iCompiledID == _nodeID )
+				return m_cddCompiled;
+			Vector<AADDRNode> vVertexes = new Vector<AADDRNode>();
+			Map<AADDRNode,Integer> mIds = new HashMap<AADDRNode,Integer>();
+			expand( _context.getRNode( _nodeID ), vVertexes, mIds );
+			int cVertexes = vVertexes.size(), iVertex = 0;
+			int[] aiVariable = new int[cVertexes], aiFalse = new int[cVertexes], aiTrue = new int[cVertexes];
+			double[] adValue = new double[cVertexes];
+			for( iVertex = 0 ; iVertex < cVertexes ; iVertex++ ){
+				AADDRNode r = vVertexes.get( iVertex );
+				if( r._nRefID == 0 ){
+					aiVariable[iVertex] = CompiledDecisionDiagram.LEAF;
+					adValue[iVertex] = r._dOffset;
+				}
+				else{
+					AADDINode ni = (AADDINode)_context.getNode( r._nRefID );
+					aiVariable[iVertex] = ni._nGlobalID;
+					aiFalse[iVertex] = mIds.get( lowEdge( r, ni ) );
+					aiTrue[iVertex] = mIds.get( highEdge( r, ni ) );
+				}
+			}
+			m_cddCompiled = new CompiledDecisionDiagram( aiVariable, aiFalse, aiTrue, adValue );
+			m_iCompiledID = _nodeID;
+			return m_cddCompiled;
+		}
 	}
 
 	@Override
 	public double innerProduct(PathProbabilityEstimator pbe) {
-		// TODO Auto-generated method stub
-		return 0;
+		synchronized( g_oLock ){
+			AADDRNode r = _context.getRNode( _nodeID );
+			return innerProduct( r._nRefID, r._dOffset, r._dMult, pbe, new Vector<Pair<Integer, Boolean>>() );
+		}
+	}
+
+	private double innerProduct( int iLocalID, double dOffset, double dMult, PathProbabilityEstimator pbe, Vector<Pair<Integer, Boolean>> vAssignment ){
+		if( iLocalID == 0 )
+			return dOffset * pbe.valueAt( vAssignment );
+		AADDINode ni = (AADDINode)_context.getNode( iLocalID );
+		Pair<Integer, Boolean> pAssignment = new Pair<Integer, Boolean>( ni._nGlobalID, false );
+		vAssignment.add( pAssignment );
+		double dFalseValue = innerProduct( ni._nLow, dOffset + dMult * ni._dLowOffset, dMult * ni._dLowMult, pbe, vAssignment );
+		pAssignment.setValue( true );
+		double dTrueValue = innerProduct( ni._nHigh, dOffset + dMult * ni._dHighOffset, dMult * ni._dHighMult, pbe, vAssignment );
+		vAssignment.remove( pAssignment );
+		return dFalseValue + dTrueValue;
 	}
 
+	/**
+	 * Sets the value to 0 where an unspecified variable is true, for the variables the diagram does not test,
+	 * as ADDNodeManager.assumeWorstCase does for the paths that skip the variable.
+	 */
 	@Override
 	public void setUnspecifiedVariablesToWorstCase(
 			Vector<Integer> unspecifiedVariables) {
-		// TODO Auto-generated method stub
-		
+		synchronized( g_oLock ){
+			collectIfNeeded();
+			Set<?> sVariables = _context.getGIDs( _nodeID );
+			for( int iVariable : unspecifiedVariables ){
+				if( !sVariables.contains( iVariable ) )
+					_nodeID = _context.applyInt( _nodeID, _context.getVarNode( iVariable, 1d, 0d ), DD.ARITH_PROD );
+			}
+		}
 	}
 }
@@ -28,6 +28,10 @@ public interface AlgebraicDecisionDiagram extends Comparable<AlgebraicDecisionDi
 	 * Computes and returns the max of the two ADDs
 	 */
 	public abstract AlgebraicDecisionDiagram max( AlgebraicDecisionDiagram addOther );
+	/**
+	 * Computes and returns the pointwise maximum of the two ADDs. Unlike max, the values are never summed.
+	 */
+	public abstract AlgebraicDecisionDiagram maximum( AlgebraicDecisionDiagram addOther );
 
 	/**
 	 * Reduces the ADD to its minimal form
@@ -109,6 +113,12 @@ public interface AlgebraicDecisionDiagram extends Comparable<AlgebraicDecisionDi
 	 */
 	public abstract double innerProduct( double[] adVariableProbabilities );
 
+	/**
+	 * A read only flat form of the ADD for repeated inner products. The ADD must be finalized, and later changes to it are not reflected.
+	 * @return null if the ADD type does not support compilation
+	 */
+	public abstract CompiledDecisionDiagram compile();
+
 	/**
 	 * Computes whether one ADD dominates (pointwise) another ADD. That is - for all i v_1(i) >= v_2(i) 
 	 * @param addOther
@@ -154,6 +164,12 @@ public interface AlgebraicDecisionDiagram extends Comparable<AlgebraicDecisionDi
 	 */
 	public double getMaxValue();
 
+	/**
+	 * Returns the minimal value within the ADD.
+	 * @return
+	 */
+	public double getMinValue();
+
 	/**
 	 * This interface allows the abstraction (elimination) of multiple variables in a single pass.
 	 * It is possible to use only the abstractVariable method that specifies which variables should be removed.
@@ -219,6 +235,13 @@ public interface AlgebraicDecisionDiagram extends Comparable<AlgebraicDecisionDi
 			*/
 		}
 	}
+	public class Maximum implements BinaryOperator{
+		public double compute( double d1, double d2 ){
+			if( d1 > d2 )
+				return d1;
+			return d2;
+		}
+	}
 	/**
 	 * Saves an ADD to an XML format
 	 * @param fw
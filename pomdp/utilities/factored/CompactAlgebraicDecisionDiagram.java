@@ -10,6 +10,7 @@ import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -26,6 +27,7 @@ import pomdp.utilities.datastructures.LongArrayVector;
 import pomdp.utilities.datastructures.LongArrayVectorFactory;
 import pomdp.utilities.datastructures.LongVector;
 import pomdp.utilities.datastructures.LongVectorFactory;
+import pomdp.utilities.metrics.Metrics;
 import pomdp.utilities.factored.AlgebraicDecisionDiagram.AbstractionFilter;
 
 /**
@@ -64,16 +66,18 @@ public class CompactAlgebraicDecisionDiagram implements AlgebraicDecisionDiagram
 	private static LongArrayVectorFactory g_avFactory = new LongArrayVectorFactory();
 	private static ArrayVectorFactory<LongVector> g_vvFactory = new ArrayVectorFactory<LongVector>();
 	
-	public static long m_cADDs = 0, g_cLiveAdds = 0, g_cFinalized = 0;
+	private static final AtomicLong g_cADDs = new AtomicLong();
+	static{
+		Metrics.registerGauge( "add.created", () -> g_cADDs.get() );
+	}
 	
 	public CompactAlgebraicDecisionDiagram( int cVariables, boolean bMaintainValueSum ){
 		m_iRoot = -1;
 		m_cVariables = cVariables;
 		m_dMaxValue = Double.NEGATIVE_INFINITY;
 		m_dValueSum = Double.NEGATIVE_INFINITY;
-		m_iID = m_cADDs++;
+		m_iID = g_cADDs.getAndIncrement();
 		m_bReduced = false;
-		g_cLiveAdds++;
 		m_cMaxVertexes = (long)Math.pow( 2, cVariables + 1 );
 		m_bMaintainValueSum = true;//bMaintainValueSum;
 		initDataStructures();
@@ -209,6 +213,19 @@ public class CompactAlgebraicDecisionDiagram implements AlgebraicDecisionDiagram
 		addMax.reduce();
 		return addMax;
 	}
+
+	/* (non-Javadoc)
+	 * @see pomdp.AlgebraicDecisionDiagram#maximum(pomdp.CompactAlgebraicDecisionDiagram)
+	 */
+	public CompactAlgebraicDecisionDiagram maximum( AlgebraicDecisionDiagram add ){
+		CompactAlgebraicDecisionDiagram addOther = (CompactAlgebraicDecisionDiagram)add;
+		int cMaxVariables = Math.max( m_cVariables, addOther.m_cVariables );
+		CompactAlgebraicDecisionDiagram addMaximum = new CompactAlgebraicDecisionDiagram( cMaxVariables, true );
+	
+		addMaximum.applyOperator( m_iRoot, this, addOther.m_iRoot, addOther, new Maximum() );
+		addMaximum.reduce();
+		return addMaximum;
+	}
 	
 	private static long m_cTouchedVertexes = 0;
 	private void applyOperator( long iRoot1, CompactAlgebraicDecisionDiagram add1, 
@@ -1520,6 +1537,19 @@ public class CompactAlgebraicDecisionDiagram implements AlgebraicDecisionDiagram
 	public double getMaxValue(){
 		return m_dMaxValue;
 	}
+	public double getMinValue(){
+		return getMinValue( m_iRoot, new HashMap<Long,Double>() );
+	}
+	private double getMinValue( long iCurrent, Map<Long,Double> mCache ){
+		if( isLeaf( iCurrent ) )
+			return getValue( iCurrent );
+		Double dCached = mCache.get( iCurrent );
+		if( dCached != null )
+			return dCached;
+		double dMin = Math.min( getMinValue( getFalseChild( iCurrent ), mCache ), getMinValue( getTrueChild( iCurrent ), mCache ) );
+		mCache.put( iCurrent, dMin );
+		return dMin;
+	}
 	public long getVariableCount() {
 		return m_cVariables;
 	}
@@ -1648,6 +1678,41 @@ public class CompactAlgebraicDecisionDiagram implements AlgebraicDecisionDiagram
 		return dFalseValue + dTrueValue;
 	}
 	
+	public CompiledDecisionDiagram compile(){
+		Vector<Long> vVertexes = new Vector<Long>();
+		Map<Long,Integer> mIndexes = new HashMap<Long,Integer>();
+		addVertexes( m_iRoot, vVertexes, mIndexes );
+		int cVertexes = vVertexes.size(), iVertex = 0;
+		int[] aiVariable = new int[cVertexes], aiFalse = new int[cVertexes], aiTrue = new int[cVertexes];
+		double[] adValue = new double[cVertexes];
+		long iCurrent = 0;
+		for( iVertex = 0 ; iVertex < cVertexes ; iVertex++ ){
+			iCurrent = vVertexes.get( iVertex );
+			if( isLeaf( iCurrent ) ){
+				aiVariable[iVertex] = CompiledDecisionDiagram.LEAF;
+				adValue[iVertex] = getValue( iCurrent );
+			}
+			else{
+				aiVariable[iVertex] = getVariableId( iCurrent );
+				aiFalse[iVertex] = mIndexes.get( getFalseChild( iCurrent ) );
+				aiTrue[iVertex] = mIndexes.get( getTrueChild( iCurrent ) );
+			}
+		}
+		return new CompiledDecisionDiagram( aiVariable, aiFalse, aiTrue, adValue );
+	}
+
+	//children before their parents
+	private void addVertexes( long iCurrent, Vector<Long> vVertexes, Map<Long,Integer> mIndexes ){
+		if( mIndexes.containsKey( iCurrent ) )
+			return;
+		if( !isLeaf( iCurrent ) ){
+			addVertexes( getFalseChild( iCurrent ), vVertexes, mIndexes );
+			addVertexes( getTrueChild( iCurrent ), vVertexes, mIndexes );
+		}
+		mIndexes.put( iCurrent, vVertexes.size() );
+		vVertexes.add( iCurrent );
+	}
+
 	private double m_dSumVisited = 0.0;
 	public double innerProduct( PathProbabilityEstimator p ){
 		Vector<Pair<Integer, Boolean>> vAssignment = new Vector<Pair<Integer, Boolean>>();
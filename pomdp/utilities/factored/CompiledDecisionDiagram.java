@@ -0,0 +1,216 @@
+package pomdp.utilities.factored;
+
+/**
+ * A read only, flat form of a finalized ADD for repeated evaluation.
+ * The vertexes are kept in arrays, children before their parents, so the root is the last vertex and inner products with
+ * variable marginals are a single bottom up loop without recursion or map lookups.
+ * Two compiled diagrams can be multiplied without access to the ADD that produced them.
+ */
+public class CompiledDecisionDiagram {
+	public static final int LEAF = -1;
+
+	private int m_cVertexes;
+	private int[] m_aiVariable;
+	private int[] m_aiFalse;
+	private int[] m_aiTrue;
+	private double[] m_adValue;
+	private double[] m_adMean;
+
+	private static ThreadLocal<double[]> g_adBuffer = new ThreadLocal<double[]>();
+	private static ThreadLocal<ProductCache> g_pcCache = new ThreadLocal<ProductCache>();
+
+	/**
+	 * The vertexes must be ordered children first. Leaves have the variable LEAF and their value in adValue.
+	 */
+	public CompiledDecisionDiagram( int[] aiVariable, int[] aiFalse, int[] aiTrue, double[] adValue ){
+		int iVertex = 0;
+		m_cVertexes = aiVariable.length;
+		m_aiVariable = aiVariable;
+		m_aiFalse = aiFalse;
+		m_aiTrue = aiTrue;
+		m_adValue = adValue;
+		m_adMean = new double[m_cVertexes];
+		for( iVertex = 0 ; iVertex < m_cVertexes ; iVertex++ ){
+			if( m_aiVariable[iVertex] == LEAF )
+				m_adMean[iVertex] = m_adValue[iVertex];
+			else
+				m_adMean[iVertex] = ( m_adMean[m_aiFalse[iVertex]] + m_adMean[m_aiTrue[iVertex]] ) / 2;
+		}
+	}
+
+	public int getVertexCount(){
+		return m_cVertexes;
+	}
+
+	/**
+	 * The mean of the diagram over all the assignments to its variables.
+	 */
+	public double getMean(){
+		return m_adMean[m_cVertexes - 1];
+	}
+
+	private static double[] getBuffer( int cEntries ){
+		double[] adBuffer = g_adBuffer.get();
+		if( adBuffer == null || adBuffer.length < cEntries ){
+			adBuffer = new double[Math.max( cEntries, 1024 )];
+			g_adBuffer.set( adBuffer );
+		}
+		return adBuffer;
+	}
+
+	/**
+	 * \sum_s f(s)pr(s) where the variables are independent and adVariableProbabilities[i] is the probability that variable i is true.
+	 */
+	public double innerProduct( double[] adVariableProbabilities ){
+		double[] adBuffer = getBuffer( m_cVertexes );
+		double dProb = 0.0;
+		int iVertex = 0;
+		for( iVertex = 0 ; iVertex < m_cVertexes ; iVertex++ ){
+			if( m_aiVariable[iVertex] == LEAF ){
+				adBuffer[iVertex] = m_adValue[iVertex];
+			}
+			else{
+				dProb = adVariableProbabilities[m_aiVariable[iVertex]];
+				adBuffer[iVertex] = ( 1 - dProb ) * adBuffer[m_aiFalse[iVertex]] + dProb * adBuffer[m_aiTrue[iVertex]];
+			}
+		}
+		return adBuffer[m_cVertexes - 1];
+	}
+
+	/**
+	 * The inner products with a set of beliefs, each given by its variable marginals, in a single pass over the vertexes.
+	 */
+	public double[] innerProducts( double[][] aadVariableProbabilities ){
+		int cBeliefs = aadVariableProbabilities.length;
+		double[] adBuffer = getBuffer( m_cVertexes * cBeliefs );
+		double[] adResults = new double[cBeliefs];
+		double dProb = 0.0, dValue = 0.0;
+		int iVertex = 0, iBelief = 0, iVariable = 0, iOffset = 0, iFalseOffset = 0, iTrueOffset = 0;
+		for( iVertex = 0 ; iVertex < m_cVertexes ; iVertex++ ){
+			iOffset = iVertex * cBeliefs;
+			iVariable = m_aiVariable[iVertex];
+			if( iVariable == LEAF ){
+				dValue = m_adValue[iVertex];
+				for( iBelief = 0 ; iBelief < cBeliefs ; iBelief++ )
+					adBuffer[iOffset + iBelief] = dValue;
+			}
+			else{
+				iFalseOffset = m_aiFalse[iVertex] * cBeliefs;
+				iTrueOffset = m_aiTrue[iVertex] * cBeliefs;
+				for( iBelief = 0 ; iBelief < cBeliefs ; iBelief++ ){
+					dProb = aadVariableProbabilities[iBelief][iVariable];
+					adBuffer[iOffset + iBelief] = ( 1 - dProb ) * adBuffer[iFalseOffset + iBelief] + dProb * adBuffer[iTrueOffset + iBelief];
+				}
+			}
+		}
+		System.arraycopy( adBuffer, ( m_cVertexes - 1 ) * cBeliefs, adResults, 0, cBeliefs );
+		return adResults;
+	}
+
+	/**
+	 * The mean of the product of the two diagrams over all the assignments. Both must be compiled under the same variable order.
+	 */
+	public double averageProduct( CompiledDecisionDiagram cddOther ){
+		ProductCache pc = g_pcCache.get();
+		if( pc == null ){
+			pc = new ProductCache();
+			g_pcCache.set( pc );
+		}
+		pc.clear();
+		return averageProduct( m_cVertexes - 1, cddOther, cddOther.m_cVertexes - 1, pc );
+	}
+
+	private double averageProduct( int iCurrent, CompiledDecisionDiagram cddOther, int iOther, ProductCache pc ){
+		boolean bLeaf = m_aiVariable[iCurrent] == LEAF, bOtherLeaf = cddOther.m_aiVariable[iOther] == LEAF;
+		if( bLeaf && bOtherLeaf )
+			return m_adValue[iCurrent] * cddOther.m_adValue[iOther];
+		if( bLeaf )
+			return m_adValue[iCurrent] * cddOther.m_adMean[iOther];
+		if( bOtherLeaf )
+			return cddOther.m_adValue[iOther] * m_adMean[iCurrent];
+		long lKey = ( (long)iCurrent << 32 ) | iOther;
+		int iSlot = pc.find( lKey );
+		if( pc.contains( iSlot ) )
+			return pc.m_adValues[iSlot];
+		int iVariable = m_aiVariable[iCurrent], iOtherVariable = cddOther.m_aiVariable[iOther];
+		int iFalse = iCurrent, iTrue = iCurrent, iOtherFalse = iOther, iOtherTrue = iOther;
+		if( iVariable <= iOtherVariable ){
+			iFalse = m_aiFalse[iCurrent];
+			iTrue = m_aiTrue[iCurrent];
+		}
+		if( iOtherVariable <= iVariable ){
+			iOtherFalse = cddOther.m_aiFalse[iOther];
+			iOtherTrue = cddOther.m_aiTrue[iOther];
+		}
+		double dValue = ( averageProduct( iFalse, cddOther, iOtherFalse, pc ) + averageProduct( iTrue, cddOther, iOtherTrue, pc ) ) / 2;
+		pc.put( lKey, dValue );
+		return dValue;
+	}
+
+	/*
+	 * Open addressing map from vertex pairs to the average of their product. Entries of earlier computations are
+	 * invalidated by a stamp, so clearing does not touch the table.
+	 */
+	private static class ProductCache{
+		private long[] m_alKeys;
+		private double[] m_adValues;
+		private int[] m_aiStamps;
+		private int m_iStamp;
+		private int m_cEntries;
+		private int m_iMask;
+
+		public ProductCache(){
+			allocate( 1 << 10 );
+		}
+
+		private void allocate( int cSlots ){
+			m_alKeys = new long[cSlots];
+			m_adValues = new double[cSlots];
+			m_aiStamps = new int[cSlots];
+			m_iMask = cSlots - 1;
+			m_iStamp = 1;
+			m_cEntries = 0;
+		}
+
+		public void clear(){
+			m_cEntries = 0;
+			m_iStamp++;
+			if( m_iStamp == Integer.MAX_VALUE )
+				allocate( m_alKeys.length );
+		}
+
+		public int find( long lKey ){
+			int iSlot = (int)( ( lKey * 0x9E3779B97F4A7C15L ) >>> 32 ) & m_iMask;
+			while( m_aiStamps[iSlot] == m_iStamp && m_alKeys[iSlot] != lKey )
+				iSlot = ( iSlot + 1 ) & m_iMask;
+			return iSlot;
+		}
+
+		public boolean contains( int iSlot ){
+			return m_aiStamps[iSlot] == m_iStamp;
+		}
+
+		public void put( long lKey, double dValue ){
+			if( 2 * ( m_cEntries + 1 ) > m_alKeys.length )
+				grow();
+			int iSlot = find( lKey );
+			if( m_aiStamps[iSlot] != m_iStamp )
+				m_cEntries++;
+			m_alKeys[iSlot] = lKey;
+			m_adValues[iSlot] = dValue;
+			m_aiStamps[iSlot] = m_iStamp;
+		}
+
+		private void grow(){
+			long[] alKeys = m_alKeys;
+			double[] adValues = m_adValues;
+			int[] aiStamps = m_aiStamps;
+			int iStamp = m_iStamp, iSlot = 0;
+			allocate( alKeys.length * 2 );
+			for( iSlot = 0 ; iSlot < alKeys.length ; iSlot++ ){
+				if( aiStamps[iSlot] == iStamp )
+					put( alKeys[iSlot], adValues[iSlot] );
+			}
+		}
+	}
+}
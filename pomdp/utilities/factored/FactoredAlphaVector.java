@@ -1,6 +1,7 @@
 package pomdp.utilities.factored;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 import java.util.Map.Entry;
@@ -14,10 +15,9 @@ import pomdp.environments.FactoredPOMDP;
 import pomdp.environments.POMDP;
 import pomdp.utilities.AlphaVector;
 import pomdp.utilities.BeliefState;
-import pomdp.utilities.ExecutionProperties;
-import pomdp.utilities.JProf;
 import pomdp.utilities.Logger;
 import pomdp.utilities.TabularAlphaVector;
+import pomdp.utilities.metrics.Metrics;
 import pomdp.utilities.concurrent.Lock;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 import pomdp.utilities.factored.AlgebraicDecisionDiagram.VariableTranslator;
@@ -93,7 +93,8 @@ public class FactoredAlphaVector extends AlphaVector {
 	
 	private static int g_cGs = 0;
 		
-	protected AlphaVector computeG( int iAction, int iObservation ){
+	//synchronized since translateVariables temporarily modifies the values of this vector
+	protected synchronized AlphaVector computeG( int iAction, int iObservation ){
 		FactoredAlphaVector avG = new FactoredAlphaVector( null, iAction, m_cStateVariables, m_pPOMDP );
 
 		AlgebraicDecisionDiagram addProduct = null, addAbstracted = null;
@@ -145,18 +146,11 @@ public class FactoredAlphaVector extends AlphaVector {
 		if( bs.isDeterministic() ){
 			return valueAt( bs.getDeterministicIndex() );
 		}
-		s_cDotProducts++;
-		s_cCurrentDotProducts++;
-		long lBefore = 0, lAfter = 0;
+		Metrics.DOT_PRODUCTS.increment();
+		long lBefore = Metrics.startTimer();
 		double dValue = 0.0;
-		if( ExecutionProperties.getReportOperationTime() ){
-			lBefore = JProf.getCurrentThreadCpuTimeSafe();
-		}
 		if( bs instanceof FactoredBeliefState ){
 			FactoredBeliefState fbs = (FactoredBeliefState)bs;
-			long lTimeBefore = 0, lTimeAfter = 0;
-			if( ExecutionProperties.getReportOperationTime() )
-				lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
 			
 			if( !m_bAbstracted ){
 				fbs.m_addProbabilities.translateVariables( m_pPOMDP.getPostActionVariableExpander() );
@@ -189,23 +183,49 @@ public class FactoredAlphaVector extends AlphaVector {
 				dValue += valueAt( e.getKey() ) * e.getValue();
 			}
 		}
-		if( ExecutionProperties.getReportOperationTime() ){
-			lAfter = JProf.getCurrentThreadCpuTimeSafe();
-			s_cCurrentTimeInDotProduct += ( lAfter - lBefore ) / 1000;
-			s_cTotalTimeInDotProduct += ( lAfter - lBefore ) / 1000;
-			/*
-			if( s_cCurrentDotProducts == ( TIME_INTERVAL * 1000 ) ){
-				String sMsg = "After " + s_cDotProducts + " dot product - avg time = " + s_cCurrentTimeInDotProduct / ( TIME_INTERVAL * 1000 );
-				s_cCurrentTimeInDotProduct = 0;
-				s_cCurrentDotProducts = 0;
-				Logger.getInstance().log( "FactoredAlphaVector", 0, "dotProduct", sMsg );
-			}
-			*/
-		}
+		Metrics.DOT_PRODUCT_TIME.recordSince( lBefore );
 			
 		return dValue;
 	}
 	
+	/**
+	 * Beliefs that are given by the marginals of their variables are evaluated together over the compiled diagram.
+	 */
+	public double[] dotProducts( List<BeliefState> vBeliefs ){
+		double[] adValues = new double[vBeliefs.size()];
+		double[][] aadVariableProbabilities = null;
+		double[] adMarginalValues = null;
+		int[] aiMarginalBeliefs = new int[vBeliefs.size()];
+		int iBelief = 0, cMarginalBeliefs = 0;
+		CompiledDecisionDiagram cdd = null;
+		for( BeliefState bs : vBeliefs ){
+			if( ( bs instanceof ModifiedRockSampleBeliefState ) && !bs.isDeterministic() )
+				aiMarginalBeliefs[cMarginalBeliefs++] = iBelief;
+			else
+				adValues[iBelief] = dotProduct( bs );
+			iBelief++;
+		}
+		if( cMarginalBeliefs > 0 ){
+			cdd = m_addValues.compile();
+			if( cdd == null ){
+				for( iBelief = 0 ; iBelief < cMarginalBeliefs ; iBelief++ )
+					adValues[aiMarginalBeliefs[iBelief]] = dotProduct( vBeliefs.get( aiMarginalBeliefs[iBelief] ) );
+				return adValues;
+			}
+			long lBefore = Metrics.startTimer();
+			aadVariableProbabilities = new double[cMarginalBeliefs][];
+			for( iBelief = 0 ; iBelief < cMarginalBeliefs ; iBelief++ )
+				aadVariableProbabilities[iBelief] = ((ModifiedRockSampleBeliefState)vBeliefs.get( aiMarginalBeliefs[iBelief] )).getVariableProbabilities();
+			adMarginalValues = cdd.innerProducts( aadVariableProbabilities );
+			for( iBelief = 0 ; iBelief < cMarginalBeliefs ; iBelief++ )
+				adValues[aiMarginalBeliefs[iBelief]] = adMarginalValues[iBelief];
+			if( s_bCountDotProduct )
+				Metrics.DOT_PRODUCTS.add( cMarginalBeliefs );
+			Metrics.DOT_PRODUCT_TIME.recordSince( lBefore );
+		}
+		return adValues;
+	}
+
 	public AlphaVector addReward( int iAction ){
 		FactoredAlphaVector avResult = (FactoredAlphaVector) newAlphaVector();
 		avResult.m_addValues = m_addValues.copy();
@@ -230,7 +250,43 @@ public class FactoredAlphaVector extends AlphaVector {
 		return super.dominates( avOther );
 	}
 	
-	public boolean equals( AlphaVector avOther ){
+	/**
+	 * Whether this vector is at least avOther minus dEpsilon everywhere - the minimum of the difference of the ADDs, without visiting the states.
+	 */
+	public boolean dominates( FactoredAlphaVector avOther, double dEpsilon ){
+		if( avOther == this )
+			return true;
+		AlgebraicDecisionDiagram addNegated = avOther.m_addValues.copy();
+		addNegated.product( -1.0 );
+		AlgebraicDecisionDiagram addDifference = m_addValues.sum( addNegated );
+		double dMinDifference = addDifference.getMinValue();
+		addNegated.release();
+		addDifference.release();
+		return dMinDifference >= -dEpsilon;
+	}
+	
+	public void translate( double dOffset ){
+		AlgebraicDecisionDiagram addOffset = m_pPOMDP.newAlgebraicDecisionDiagram( m_cStateVariables, true );
+		addOffset.finalizePaths( dOffset );
+		AlgebraicDecisionDiagram addNewValues = m_addValues.sum( addOffset );
+		addOffset.release();
+		m_addValues.release();
+		m_addValues = addNewValues;
+	}
+	
+	public void scale( double dScale ){
+		m_addValues.product( dScale );
+	}
+	
+	public double sumValues(){
+		return m_addValues.getValueSum();
+	}
+	
+	public double getMinValue(){
+		return m_addValues.getMinValue();
+	}
+	
+		public boolean equals( AlphaVector avOther ){
 		if( m_iID != -1 && avOther.getId() != -1 ){
 			return m_iID == avOther.getId();
 		}
@@ -284,7 +340,6 @@ public class FactoredAlphaVector extends AlphaVector {
 		m_cActions = m_pPOMDP.getActionCount();
 		m_cObservations = m_pPOMDP.getObservationCount();
 		m_cStateVariables = m_pPOMDP.getStateVariablesCount();
-		m_aCachedG = new AlphaVector[m_cActions][m_cObservations];
 	}
 
 	public void translate( VariableTranslator vt ){
@@ -18,6 +18,8 @@ import pomdp.utilities.ExecutionProperties;
 import pomdp.utilities.JProf;
 import pomdp.utilities.Logger;
 import pomdp.utilities.datastructures.StaticMap;
+import pomdp.utilities.metrics.Counter;
+import pomdp.utilities.metrics.Metrics;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 public class FactoredBeliefState extends BeliefState{
@@ -79,16 +81,17 @@ public class FactoredBeliefState extends BeliefState{
 		return m_mNonZeroEntries;
 	}
 	
-	protected static int g_cTau = 0;
-	protected static long g_lCurrentTimeInTau = 0;
-	protected static long g_lTotalTimeInTau = 0;
+	protected static final Counter g_cTau = Metrics.getCounter( "tau.actionObservationProducts" );
 	
 	public static int getTauComputationCount(){
-		return g_cTau;
+		return (int)g_cTau.get();
 	}
 	
+	/**
+	 * Average time (us) of a belief update, recorded only while metrics are on.
+	 */
 	public static double getAvgTauTime(){
-		return g_lTotalTimeInTau / (double)g_cTau;
+		return Metrics.TAU_TIME.getMean() / 1000.0;
 	}
 	
 	private String getKey( int iAction, int iObservation ){
@@ -98,10 +101,8 @@ public class FactoredBeliefState extends BeliefState{
 	public synchronized AlgebraicDecisionDiagram getActionObservationProduct( int iAction, int iObservation ){
 		String sKey = getKey( iAction, iObservation );
 		AlgebraicDecisionDiagram addProduct = m_mCachedProducts.get( sKey ), addAbstracted = null;
-		long lTimeBefore = 0, lTimeAfter = 0;
 		if( addProduct == null ){
-			if( ExecutionProperties.getReportOperationTime() )
-				lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
+			long lTimeBefore = Metrics.startTimer();
 			if( m_pPOMDP.m_bUseRelevantVariablesOnly ){
 				addProduct = m_pPOMDP.relevantActionDiagramProduct( m_addProbabilities, iAction, iObservation, true );
 								
@@ -155,20 +156,8 @@ public class FactoredBeliefState extends BeliefState{
 			
 			addProduct.release();
 			addProduct = addAbstracted;
-			g_cTau++;
-			if( ExecutionProperties.getReportOperationTime() ){
-				lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-				//if( iAction != m_cActions - 1 ){
-					g_lCurrentTimeInTau += ( lTimeAfter - lTimeBefore ) / 1000;
-					g_lTotalTimeInTau += ( lTimeAfter - lTimeBefore ) / 1000;
-					/*
-					if( g_cTau % 1000 == 0 ){
-						Logger.getInstance().log( "FactoredBeliefState", 0, "getActionObservationProduct", "After " + g_cTau + " next BS computations, avg time " + g_lCurrentTimeInTau / 1000 );
-						g_lCurrentTimeInTau = 0;
-					}
-					*/
-				//}
-			}
+			g_cTau.increment();
+			Metrics.TAU_TIME.recordSince( lTimeBefore );
 
 		}
 		else{
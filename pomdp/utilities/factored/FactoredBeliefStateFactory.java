@@ -21,7 +21,6 @@ import pomdp.utilities.BeliefState;
 import pomdp.utilities.BeliefStateComparator;
 import pomdp.utilities.BeliefStateFactory;
 import pomdp.utilities.ExecutionProperties;
-import pomdp.utilities.JProf;
 import pomdp.utilities.Logger;
 
 public class FactoredBeliefStateFactory extends BeliefStateFactory {
@@ -64,7 +63,6 @@ public class FactoredBeliefStateFactory extends BeliefStateFactory {
 	public static long g_cNext = 0, g_cTime = 0;
 	
 	public BeliefState nextBeliefState( BeliefState bs, int iAction, int iObservation ){
-		long lTimeBefore = 0, lTimeAfter = 0;
 		if( bs instanceof FactoredBeliefState ){
 			FactoredBeliefState fbs = (FactoredBeliefState)bs;
 			FactoredBeliefState bsNext = null;
@@ -72,10 +70,6 @@ public class FactoredBeliefStateFactory extends BeliefStateFactory {
 			if( m_bCountBeliefUpdates )
 				m_cBeliefUpdates++;
 			
-			if( ExecutionProperties.getReportOperationTime() ){
-				lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
-			}
-			
 			AlgebraicDecisionDiagram addProbabilities = fbs.getActionObservationProduct( iAction, iObservation );
 			
 			//if( Math.abs( addProbabilities.getValueSum() - 1.0 ) > 0.1 )
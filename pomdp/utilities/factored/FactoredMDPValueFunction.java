@@ -0,0 +1,284 @@
+package pomdp.utilities.factored;
+
+import java.io.FileInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import pomdp.environments.FactoredPOMDP;
+import pomdp.utilities.AlphaVector;
+import pomdp.utilities.BeliefState;
+import pomdp.utilities.Logger;
+import pomdp.utilities.MDPValueFunction;
+
+/**
+ * The MDP value function of a factored model, computed by value iteration over ADDs (as in SPUDD) rather than over the states.
+ * Q_a = R_a + gamma * \sum_s' tr(s,a,s')V(s'), and V = max_a Q_a. The transition diagram of an action is the sum of its action diagrams over the observations,
+ * because the observation probabilities sum to 1.
+ * The Q functions are kept as factored alpha vectors, so the QMDP heuristic over beliefs works as with the flat MDP,
+ * and the values of a single state are read from the ADDs at the assignment of that state.
+ */
+public class FactoredMDPValueFunction extends MDPValueFunction {
+	private FactoredPOMDP m_pFactoredPOMDP;
+	private FactoredAlphaVector m_avValues;
+	private FactoredAlphaVector[] m_aavQValues;
+	private AlgebraicDecisionDiagram[] m_aaddTransitions;
+
+	public FactoredMDPValueFunction( FactoredPOMDP pomdp, double dExplorationRate ){
+		super( pomdp, dExplorationRate, false );
+		m_pFactoredPOMDP = pomdp;
+		m_avValues = null;
+		m_aavQValues = null;
+		m_aaddTransitions = null;
+	}
+
+	public synchronized void valueIteration( int cMaxIterations, double dEpsilon ){
+		if( m_bLoaded )
+			return;
+		Logger.getInstance().logFull( "MDPVF", 0, "valueIteration", "Starting factored MDP value iteration" );
+		computeValueFunction( cMaxIterations, dEpsilon, false );
+		m_bConverged = true;
+		m_bLoaded = true;
+	}
+
+	public double computeValueFunction( int cMaxIterations, double dEpsilon, boolean bFixedPolicy ){
+		int iIteration = 0, iAction = 0;
+		double dMaxDelta = Double.POSITIVE_INFINITY;
+		AlgebraicDecisionDiagram addNewValues = null, addMaximum = null;
+		long lStart = System.currentTimeMillis();
+
+		if( bFixedPolicy )
+			throw new UnsupportedOperationException( "The factored MDP value function keeps no state to action policy, so it cannot evaluate a fixed policy" );
+
+		createTransitionDiagrams();
+		m_avValues = new FactoredAlphaVector( m_pFactoredPOMDP );
+		m_avValues.m_addValues = maxReward();
+		m_aavQValues = new FactoredAlphaVector[m_cActions];
+
+		for( iIteration = 0 ; ( iIteration < cMaxIterations ) && ( dMaxDelta > dEpsilon ) ; iIteration++ ){
+			addNewValues = null;
+			for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+				if( m_aavQValues[iAction] != null )
+					m_aavQValues[iAction].m_addValues.release();
+				m_aavQValues[iAction] = computeQVector( m_avValues, iAction );
+				if( addNewValues == null ){
+					addNewValues = m_aavQValues[iAction].m_addValues.copy();
+				}
+				else{
+					addMaximum = addNewValues.maximum( m_aavQValues[iAction].m_addValues );
+					addNewValues.release();
+					addNewValues = addMaximum;
+				}
+			}
+			dMaxDelta = maxDifference( addNewValues, m_avValues.m_addValues );
+			m_avValues.m_addValues.release();
+			m_avValues.m_addValues = addNewValues;
+			Logger.getInstance().logFull( "MDPVF", 0, "computeValueFunction", "After " + iIteration +
+					" iterations, delta = " + dMaxDelta + " vertexes " + addNewValues.getVertexCount() );
+		}
+		releaseTransitionDiagrams();
+		makeVectors( true );
+		Logger.getInstance().logFull( "MDPVF", 0, "computeValueFunction", "Factored MDP value iteration done after " + iIteration +
+				" iterations, delta = " + dMaxDelta + ", time " + ( System.currentTimeMillis() - lStart ) );
+		return dMaxDelta;
+	}
+
+	//max_a R_a, the starting point of the flat value iteration
+	private AlgebraicDecisionDiagram maxReward(){
+		AlgebraicDecisionDiagram addMax = m_pFactoredPOMDP.getReward( 0 ).copy(), addNext = null;
+		int iAction = 0;
+		for( iAction = 1 ; iAction < m_cActions ; iAction++ ){
+			addNext = addMax.maximum( m_pFactoredPOMDP.getReward( iAction ) );
+			addMax.release();
+			addMax = addNext;
+		}
+		return addMax;
+	}
+
+	//tr(s,a,s') = \sum_o tr(s,a,s')O(a,s',o), summed once per action from the action diagrams of the model
+	private void createTransitionDiagrams(){
+		AlgebraicDecisionDiagram addSum = null, addNext = null, addAction = null;
+		int iAction = 0, iObservation = 0;
+		releaseTransitionDiagrams();
+		m_aaddTransitions = new AlgebraicDecisionDiagram[m_cActions];
+		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+			addSum = null;
+			for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
+				if( m_pFactoredPOMDP.m_bUseRelevantVariablesOnly )
+					addAction = m_pFactoredPOMDP.getRelevantActionDiagram( iAction, iObservation );
+				else
+					addAction = m_pFactoredPOMDP.getCompleteActionDiagram( iAction, iObservation );
+				if( addSum == null ){
+					addSum = addAction.copy();
+				}
+				else{
+					addNext = addSum.sum( addAction );
+					addSum.release();
+					addSum = addNext;
+				}
+			}
+			addSum.reduce();
+			m_aaddTransitions[iAction] = addSum;
+		}
+	}
+
+	private void releaseTransitionDiagrams(){
+		if( m_aaddTransitions == null )
+			return;
+		for( AlgebraicDecisionDiagram add : m_aaddTransitions )
+			add.release();
+		m_aaddTransitions = null;
+	}
+
+	//Q_a = R_a + gamma * \sum_s' tr(s,a,s')V(s'). The projection follows FactoredAlphaVector.computeG, but close values are not merged,
+	//because the merging keeps the iteration from converging.
+	private FactoredAlphaVector computeQVector( FactoredAlphaVector avValues, int iAction ){
+		AlgebraicDecisionDiagram addValues = avValues.m_addValues, addProduct = null, addSum = null, addQ = null;
+		if( m_pFactoredPOMDP.m_bUseRelevantVariablesOnly ){
+			addProduct = m_pFactoredPOMDP.relevantActionDiagramProduct( addValues, iAction, m_aaddTransitions[iAction], false );
+			addSum = m_pFactoredPOMDP.existentialAbstraction( addProduct, true, false, iAction, true );
+		}
+		else{
+			addValues.translateVariables( m_pFactoredPOMDP.getPostActionVariableExpander() );
+			addProduct = addValues.product( m_aaddTransitions[iAction] );
+			addValues.translateVariables( m_pFactoredPOMDP.getVariableReducer() );
+			addSum = m_pFactoredPOMDP.existentialAbstraction( addProduct, false );
+		}
+		addProduct.release();
+		addSum.product( m_dGamma );
+		addQ = addSum.sum( m_pFactoredPOMDP.getReward( iAction ) );
+		addSum.release();
+		addQ.reduce();
+		FactoredAlphaVector avQ = new FactoredAlphaVector( null, iAction, m_pFactoredPOMDP.getStateVariablesCount(), m_pFactoredPOMDP );
+		avQ.m_addValues = addQ;
+		return avQ;
+	}
+
+	//max_s |f1(s) - f2(s)|, from the minimal values of the two differences
+	private double maxDifference( AlgebraicDecisionDiagram add1, AlgebraicDecisionDiagram add2 ){
+		AlgebraicDecisionDiagram addNegated = add2.copy();
+		addNegated.product( -1.0 );
+		AlgebraicDecisionDiagram addDifference = add1.sum( addNegated );
+		double dMinDifference = addDifference.getMinValue();
+		addDifference.product( -1.0 );
+		double dMaxDifference = -addDifference.getMinValue();
+		addNegated.release();
+		addDifference.release();
+		return Math.max( dMaxDifference, -dMinDifference );
+	}
+
+	/**
+	 * The Q vectors are the only form of the function, so there is no separate policy mapping.
+	 */
+	protected void makeVectors( boolean bFullQFunction ){
+		BeliefState bsUniform = m_pPOMDP.getBeliefStateFactory().getUniformBeliefState();
+		m_vValueFunction.clear();
+		if( m_aavQValues == null )
+			return;
+		for( FactoredAlphaVector avQ : m_aavQValues ){
+			avQ.setWitness( bsUniform );
+			m_vValueFunction.add( avQ, false );
+		}
+	}
+
+	/**
+	 * Loads V from a ValueFunction file (see MDPValueFunction.save). The values of all the states are added as paths of a single ADD,
+	 * and the Q vectors are computed by one backup of V.
+	 * Policy files are rejected, because a fixed policy cannot be evaluated over the ADDs (see computeValueFunction).
+	 */
+	public void load( String sFileName ) throws Exception{
+		Document docValueFunction = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse( new FileInputStream( sFileName ) );
+		Element eMDPFunction = (Element)docValueFunction.getChildNodes().item( 0 ), eState = null;
+		NodeList nlStates = eMDPFunction.getChildNodes();
+		int cStates = Integer.parseInt( eMDPFunction.getAttribute( "StateCount" ) );
+		int cActions = Integer.parseInt( eMDPFunction.getAttribute( "ActionCount" ) );
+		int iStateItem = 0, iAction = 0;
+		String sType = eMDPFunction.getAttribute( "type" );
+		AlgebraicDecisionDiagram addValues = null;
+
+		if( ( cStates != m_cStates ) || ( cActions != m_cActions ) )
+			throw new Exception( "Unmatching state or action count. Expected <" + 
+					m_cStates + "," + m_cActions + "> found <" + cStates + "," + cActions + ">" );
+		if( sType.equals( "Policy" ) )
+			throw new Exception( "A policy cannot be loaded into the factored MDP value function - it keeps no state to action policy" );
+		if( !sType.equals( "ValueFunction" ) )
+			throw new Exception( "Wrong file format" );
+
+		addValues = m_pFactoredPOMDP.newAlgebraicDecisionDiagram( m_pFactoredPOMDP.getStateVariablesCount(), true );
+		for( iStateItem = 0 ; iStateItem < nlStates.getLength() ; iStateItem++ ){
+			eState = (Element)nlStates.item( iStateItem );
+			addValues.addPath( m_pFactoredPOMDP.indexToState( Integer.parseInt( eState.getAttribute( "Id" ) ) ),
+					Double.parseDouble( eState.getAttribute( "Value" ) ) );
+		}
+		addValues.finalizePaths( 0 );
+		addValues.reduce();
+		if( m_avValues != null )
+			m_avValues.m_addValues.release();
+		m_avValues = new FactoredAlphaVector( m_pFactoredPOMDP );
+		m_avValues.m_addValues = addValues;
+
+		createTransitionDiagrams();
+		for( iAction = 0 ; iAction < m_cActions ; iAction++ ){
+			if( m_aavQValues != null && m_aavQValues[iAction] != null )
+				m_aavQValues[iAction].m_addValues.release();
+		}
+		m_aavQValues = new FactoredAlphaVector[m_cActions];
+		for( iAction = 0 ; iAction < m_cActions ; iAction++ )
+			m_aavQValues[iAction] = computeQVector( m_avValues, iAction );
+		releaseTransitionDiagrams();
+		makeVectors( true );
+	}
+
+	public double getValue( int iState ){
+		if( m_avValues == null )
+			return 0.0;
+		return m_avValues.valueAt( iState );
+	}
+
+	/**
+	 * Sets the value of a single state by adding the difference at the assignment of the state. The Q vectors are not changed.
+	 */
+	public void setValue( int iState, double dValue ){
+		AlgebraicDecisionDiagram addPoint = m_pFactoredPOMDP.newAlgebraicDecisionDiagram( m_pFactoredPOMDP.getStateVariablesCount(), true ), addNewValues = null;
+		addPoint.addPath( m_pFactoredPOMDP.indexToState( iState ), dValue - getValue( iState ) );
+		addPoint.finalizePaths( 0 );
+		addPoint.reduce();
+		if( m_avValues == null ){
+			m_avValues = new FactoredAlphaVector( m_pFactoredPOMDP );
+			m_avValues.m_addValues = addPoint;
+			return;
+		}
+		addNewValues = m_avValues.m_addValues.sum( addPoint );
+		addPoint.release();
+		m_avValues.m_addValues.release();
+		m_avValues.m_addValues = addNewValues;
+	}
+
+	public double getQValue( int iState, int iAction ){
+		if( m_aavQValues == null )
+			return 0.0;
+		return m_aavQValues[iAction].valueAt( iState );
+	}
+
+	public double getQValue( BeliefState bs, int iAction ){
+		if( m_aavQValues == null )
+			return 0.0;
+		return m_aavQValues[iAction].dotProduct( bs );
+	}
+
+	/**
+	 * The ADD of the MDP state values, or null before the value iteration.
+	 */
+	public AlgebraicDecisionDiagram getValuesADD(){
+		if( m_avValues == null )
+			return null;
+		return m_avValues.m_addValues;
+	}
+
+	public AlphaVector newAlphaVector(){
+		return new FactoredAlphaVector( m_pFactoredPOMDP );
+	}
+}
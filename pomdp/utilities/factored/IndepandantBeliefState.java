@@ -11,7 +11,7 @@ import pomdp.environments.FactoredPOMDP.BeliefType;
 import pomdp.utilities.BeliefState;
 import pomdp.utilities.BeliefStateFactory;
 import pomdp.utilities.ExecutionProperties;
-import pomdp.utilities.JProf;
+import pomdp.utilities.metrics.Metrics;
 import pomdp.utilities.factored.AlgebraicDecisionDiagram.AbstractionFilter;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
@@ -305,39 +305,45 @@ public class IndepandantBeliefState extends BeliefState {
 		return addNew;
 	}
 
-	protected AlgebraicDecisionDiagram computeNextBeliefProbability( int iAction, int iObservation ){
-		int[] aiRelevantComponenets = m_pPOMDP.getRelevantComponents( iAction, iObservation );
-		int iRelevantComponent = 0, iRelevantComponentIdx = 0;
-		AlgebraicDecisionDiagram addNew = null;
-		AlgebraicDecisionDiagram addTr = null;
-		AlgebraicDecisionDiagram addOb = m_pPOMDP.getObservationDiagram( iAction, iObservation );
-		AlgebraicDecisionDiagram addComponentBefore = null;
-		AlgebraicDecisionDiagram addComponentAfter = null;
-		
-		addOb.translateVariables( m_pPOMDP.getPreActionVariableExpander() );
-		addNew = addOb.copy();
-		addOb.translateVariables( m_pPOMDP.getVariableReducer() );
-		if( m_bUseProduct ){
-			m_addProduct.translateVariables( m_pPOMDP.getPostActionVariableExpander() );
-			addNew = addNew.product( m_addProduct );
-			m_addProduct.translateVariables( m_pPOMDP.getVariableReducer() );
-		}
-		//for( iRelevantComponentIdx = 0 ; iRelevantComponentIdx < aiRelevantComponenets.length ; iRelevantComponentIdx++ ){
-			//iRelevantComponent = aiRelevantComponenets[iRelevantComponentIdx];
-		for( iRelevantComponent = 0 ; iRelevantComponent < m_cComponents ; iRelevantComponent++ ){
-			addComponentBefore = m_addComponents[iRelevantComponent];
-			addTr = m_pPOMDP.getIndependentComponentTransitionDiagram( iAction, iRelevantComponent );
+	/**
+	 * The joint distribution over the pre and post action variables - b(s)tr(s,a,s'), without the observation.
+	 */
+	protected AlgebraicDecisionDiagram computePredictedBelief( int iAction ){
+		AlgebraicDecisionDiagram addPredicted = null, addTr = null, addComponent = null, addStep = null;
+		int iComponent = 0;
+		for( iComponent = 0 ; iComponent < m_cComponents ; iComponent++ ){
+			addTr = m_pPOMDP.getIndependentComponentTransitionDiagram( iAction, iComponent );
 			if( m_bUseProduct ){
-				addNew = addNew.product( addTr );
+				addStep = addTr;
 			}
 			else{
-				addComponentBefore.translateVariables( m_pPOMDP.getPostActionVariableExpander() );
-				addComponentAfter = addTr.product( addComponentBefore );
-				addComponentBefore.translateVariables( m_pPOMDP.getVariableReducer() );
-				addNew = addNew.product( addComponentAfter );
+				addComponent = m_addComponents[iComponent];
+				addComponent.translateVariables( m_pPOMDP.getPostActionVariableExpander() );
+				addStep = addTr.product( addComponent );
+				addComponent.translateVariables( m_pPOMDP.getVariableReducer() );
 			}
+			if( addPredicted == null )
+				addPredicted = addStep;
+			else
+				addPredicted = addPredicted.product( addStep );
 		}
-		
+		if( m_bUseProduct ){
+			m_addProduct.translateVariables( m_pPOMDP.getPostActionVariableExpander() );
+			addPredicted = m_addProduct.product( addPredicted );
+			m_addProduct.translateVariables( m_pPOMDP.getVariableReducer() );
+		}
+		return addPredicted;
+	}
+
+	protected AlgebraicDecisionDiagram computeNextBeliefProbability( int iAction, int iObservation ){
+		return computeNextBeliefProbability( computePredictedBelief( iAction ), iAction, iObservation );
+	}
+
+	protected AlgebraicDecisionDiagram computeNextBeliefProbability( AlgebraicDecisionDiagram addPredicted, int iAction, int iObservation ){
+		AlgebraicDecisionDiagram addOb = m_pPOMDP.getObservationDiagram( iAction, iObservation ), addNew = null;
+		addOb.translateVariables( m_pPOMDP.getPreActionVariableExpander() );
+		addNew = addOb.product( addPredicted );
+		addOb.translateVariables( m_pPOMDP.getVariableReducer() );
 		return addNew;
 	}
 
@@ -388,10 +394,7 @@ public class IndepandantBeliefState extends BeliefState {
 
 
 	public BeliefState nextBeliefState( int iAction, int iObservation ){	
-		long lTimeBefore = 0, lTimeAfter = 0;
-		if( ExecutionProperties.getReportOperationTime() ){
-			lTimeBefore = JProf.getCurrentThreadCpuTimeSafe();
-		}
+		long lTimeBefore = Metrics.startTimer();
 		IndepandantBeliefState ibsNew = new IndepandantBeliefState( m_pPOMDP, -1 );
 		AlgebraicDecisionDiagram addTotal = null, addComponent = null, addProduct = null;
 		double dSumProbs = 0.0;
@@ -429,9 +432,8 @@ public class IndepandantBeliefState extends BeliefState {
 			}
 		}
 			
+		Metrics.TAU_TIME.recordSince( lTimeBefore );
 		if( ExecutionProperties.getReportOperationTime() ){
-			lTimeAfter = JProf.getCurrentThreadCpuTimeSafe();
-			m_pPOMDP.getBeliefStateFactory().m_cTimeInTau += ( lTimeAfter - lTimeBefore ) / 1000;
 			m_pPOMDP.getBeliefStateFactory().m_cBeliefUpdates++;
 			/*
 			if( m_pPOMDP.getBeliefStateFactory().m_cBeliefUpdates % 1000 == 0 ){
@@ -454,16 +456,34 @@ public class IndepandantBeliefState extends BeliefState {
 	}
 
 	/**(non-Javadoc)
+	 * Computes pr(o|a) for all the observations together, sharing the predicted belief, and caches them.
 	 * @see pomdp.utilities.BeliefState#probabilityOGivenA(int, int)
 	 */
 	public double probabilityOGivenA( int iAction, int iObservation ){	
-		AlgebraicDecisionDiagram addNext = null;
+		if( m_aCachedObservationProbabilities == null )
+			return computeObservationProbabilities( iAction )[iObservation];
+		double dProb = m_aCachedObservationProbabilities[iAction][iObservation];
+		if( dProb < 0.0 ){
+			double[] adProbs = computeObservationProbabilities( iAction );
+			for( int iOtherObservation = 0 ; iOtherObservation < m_cObservations ; iOtherObservation++ )
+				setProbabilityOGivenA( iAction, iOtherObservation, adProbs[iOtherObservation] );
+			dProb = adProbs[iObservation];
+		}
+		return dProb;
+	}
+
+	protected double[] computeObservationProbabilities( int iAction ){
+		AlgebraicDecisionDiagram addPredicted = null;
+		double[] adProbs = new double[m_cObservations];
+		int iObservation = 0;
 		if( m_bUseProduct && ( m_addProduct == null ) ){
 			computeComponentProduct();
 		}
-		addNext = computeNextBeliefProbability( iAction, iObservation );
-		double dTotalProb = addNext.getValueSum();
-		return dTotalProb;
+		addPredicted = computePredictedBelief( iAction );
+		for( iObservation = 0 ; iObservation < m_cObservations ; iObservation++ ){
+			adProbs[iObservation] = computeNextBeliefProbability( addPredicted, iAction, iObservation ).getValueSum();
+		}
+		return adProbs;
 	}
 	
 	public Collection<Entry<Integer,Double>> getNonZeroEntries(){
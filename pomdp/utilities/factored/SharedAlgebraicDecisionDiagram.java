@@ -0,0 +1,887 @@
+package pomdp.utilities.factored;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import pomdp.utilities.Pair;
+
+/**
+ * Implements an ADD over the nodes of the shared ADDNodeManager. An ADD is a root node and a variable count -
+ * sub diagrams are shared with all the other ADDs, apply results are reused across calls, and results are reduced as they are built,
+ * so reduce only has to intern the paths added through addPath / addPartialPath.
+ * Operations that modify an ADD (e.g. translateVariables, product by a scalar) replace its root, so copy takes constant time,
+ * and two ADDs are equal iff they have the same root.
+ * Value sums follow CompactAlgebraicDecisionDiagram - the sum of a vertex is over the assignments of the variables from its own variable
+ * to the last variable. The sums are computed from the node means, and the sum of a reduce with an abstraction filter is kept
+ * until the ADD changes.
+ * @author shanigu
+ *
+ */
+public class SharedAlgebraicDecisionDiagram implements AlgebraicDecisionDiagram, Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final int NONE = ADDNodeManager.NONE;
+	private static final int LEAF_VARIABLE = ADDNodeManager.LEAF_VARIABLE;
+	private static final AtomicLong g_cADDs = new AtomicLong();
+	private static final ADDNodeManager g_nmManager = ADDNodeManager.getInstance();
+
+	private int m_cVariables;
+	private transient int m_iRoot;
+	private transient long m_iID;
+	private transient boolean m_bReleased;
+	private transient PathBuilder m_pbPaths;
+	private transient double m_dFilteredValueSum;
+	private transient int m_iFilteredRoot;
+	private transient int m_iCountedRoot;
+	private transient long m_cVertexes;
+	private transient CompiledDecisionDiagram m_cddCompiled;
+	private transient int m_iCompiledRoot;
+	private transient long m_cCompiledCollections;
+	private transient int m_iEvaluatedRoot;
+
+	public SharedAlgebraicDecisionDiagram( int cVariables ){
+		m_cVariables = cVariables;
+		init();
+	}
+
+	private SharedAlgebraicDecisionDiagram( SharedAlgebraicDecisionDiagram addOther ){
+		this( addOther.m_cVariables );
+		synchronized( g_nmManager ){
+			m_iRoot = addOther.m_iRoot;
+			if( addOther.m_pbPaths != null )
+				m_pbPaths = new PathBuilder( addOther.m_pbPaths );
+			m_dFilteredValueSum = addOther.m_dFilteredValueSum;
+			m_iFilteredRoot = addOther.m_iFilteredRoot;
+		}
+	}
+
+	private void init(){
+		m_iRoot = NONE;
+		m_iID = g_cADDs.getAndIncrement();
+		m_bReleased = false;
+		m_pbPaths = null;
+		m_iFilteredRoot = NONE;
+		m_iCountedRoot = NONE;
+		m_iCompiledRoot = NONE;
+		m_iEvaluatedRoot = NONE;
+		g_nmManager.register( this );
+	}
+
+	/*
+	 * The root for the collections of the node manager.
+	 */
+	int getRootNode(){
+		return m_iRoot;
+	}
+
+	boolean isReleased(){
+		return m_bReleased;
+	}
+
+	/*
+	 * Interns the added paths. The caller holds the manager lock.
+	 */
+	private int getRoot(){
+		if( m_pbPaths != null ){
+			m_iRoot = g_nmManager.intern( m_pbPaths.m_iRoot, m_pbPaths.m_aiVariable, m_pbPaths.m_aiFalse, m_pbPaths.m_aiTrue,
+					m_pbPaths.m_adValue, m_pbPaths.m_cVertexes );
+			m_pbPaths = null;
+		}
+		else if( m_iRoot == NONE ){
+			m_iRoot = g_nmManager.getLeaf( 0.0 );
+		}
+		return m_iRoot;
+	}
+
+	public long getId(){
+		return m_iID;
+	}
+
+	public AlgebraicDecisionDiagram product( AlgebraicDecisionDiagram addOther ){
+		return apply( (SharedAlgebraicDecisionDiagram)addOther, ADDNodeManager.PRODUCT );
+	}
+
+	public AlgebraicDecisionDiagram sum( AlgebraicDecisionDiagram addOther ){
+		return apply( (SharedAlgebraicDecisionDiagram)addOther, ADDNodeManager.SUM );
+	}
+
+	public AlgebraicDecisionDiagram max( AlgebraicDecisionDiagram addOther ){
+		return apply( (SharedAlgebraicDecisionDiagram)addOther, ADDNodeManager.MAX );
+	}
+
+	public AlgebraicDecisionDiagram maximum( AlgebraicDecisionDiagram addOther ){
+		return apply( (SharedAlgebraicDecisionDiagram)addOther, ADDNodeManager.MAXIMUM );
+	}
+
+	private SharedAlgebraicDecisionDiagram apply( SharedAlgebraicDecisionDiagram addOther, int iOperator ){
+		SharedAlgebraicDecisionDiagram addResult = new SharedAlgebraicDecisionDiagram( Math.max( m_cVariables, addOther.m_cVariables ) );
+		synchronized( g_nmManager ){
+			g_nmManager.collectIfNeeded();
+			addResult.m_iRoot = g_nmManager.apply( iOperator, getRoot(), addOther.getRoot() );
+		}
+		return addResult;
+	}
+
+	public void reduce(){
+		reduce( null );
+	}
+
+	/**
+	 * Diagrams are always reduced, so this only interns the added paths, and with a filter computes the value sum over the variables of the filter.
+	 */
+	public void reduce( AbstractionFilter aFilter ){
+		synchronized( g_nmManager ){
+			g_nmManager.collectIfNeeded();
+			int iRoot = getRoot();
+			if( aFilter == null )
+				return;
+			double dRootSum = 0.0;
+			int iRootId = g_nmManager.getVariable( iRoot );
+			if( g_nmManager.isLeaf( iRoot ) )
+				dRootSum = g_nmManager.getValue( iRoot );
+			else
+				dRootSum = computeValueSum( iRoot, aFilter, new HashMap<Integer,Double>() );
+			if( iRootId > m_cVariables )
+				iRootId = m_cVariables - 1;
+			m_dFilteredValueSum = Math.pow( 2.0, aFilter.countVariablesBetween( aFilter.getFirstVariableId(), iRootId ) ) * dRootSum;
+			m_iFilteredRoot = iRoot;
+		}
+	}
+
+	//follows CompactAlgebraicDecisionDiagram.setValueSum
+	private double computeValueSum( int iCurrent, AbstractionFilter aFilter, Map<Integer,Double> mValueSums ){
+		Double dCached = mValueSums.get( iCurrent );
+		if( dCached != null )
+			return dCached;
+		int iVariableId = g_nmManager.getVariable( iCurrent ), iChild = 0, cLevels = 0, cOccurences = 0;
+		int cLeaves = (int)Math.pow( 2, aFilter.countVariablesBetween( iVariableId, aFilter.getLastVariableId() ) - 1 );
+		double dValueSum = 0.0;
+		for( iChild = 0 ; iChild < 2 ; iChild++ ){
+			int iChildNode = iChild == 0 ? g_nmManager.getFalseChild( iCurrent ) : g_nmManager.getTrueChild( iCurrent );
+			if( g_nmManager.isLeaf( iChildNode ) ){
+				dValueSum += cLeaves * g_nmManager.getValue( iChildNode );
+			}
+			else{
+				cLevels = aFilter.countVariablesBetween( iVariableId, g_nmManager.getVariable( iChildNode ) );
+				cOccurences = (int)Math.pow( 2, cLevels - 1 );
+				dValueSum += computeValueSum( iChildNode, aFilter, mValueSums ) * cOccurences;
+			}
+		}
+		mValueSums.put( iCurrent, dValueSum );
+		return dValueSum;
+	}
+
+	private boolean useFilteredValueSums(){
+		return m_iFilteredRoot != NONE && m_iFilteredRoot == m_iRoot && m_pbPaths == null;
+	}
+
+	private double getValueSum( int iNode ){
+		if( g_nmManager.isLeaf( iNode ) )
+			return g_nmManager.getValue( iNode );
+		return Math.pow( 2.0, m_cVariables - g_nmManager.getVariable( iNode ) ) * g_nmManager.getMean( iNode );
+	}
+
+	public double getValueSum(){
+		synchronized( g_nmManager ){
+			int iRoot = getRoot();
+			if( useFilteredValueSums() )
+				return m_dFilteredValueSum;
+			return Math.pow( 2.0, m_cVariables ) * g_nmManager.getMean( iRoot );
+		}
+	}
+
+	public double getMaxValue(){
+		synchronized( g_nmManager ){
+			return g_nmManager.getMax( getRoot() );
+		}
+	}
+
+	public double getMinValue(){
+		synchronized( g_nmManager ){
+			return g_nmManager.getMin( getRoot() );
+		}
+	}
+
+	public String toString(){
+		synchronized( g_nmManager ){
+			return toString( getRoot() );
+		}
+	}
+
+	private String toString( int iCurrent ){
+		if( g_nmManager.isLeaf( iCurrent ) )
+			return "(" + g_nmManager.getValue( iCurrent ) + ")";
+		String sData = "(id=" + iCurrent + ",var=" + g_nmManager.getVariable( iCurrent );
+		sData += toString( g_nmManager.getFalseChild( iCurrent ) );
+		sData += toString( g_nmManager.getTrueChild( iCurrent ) );
+		sData += ")";
+		return sData;
+	}
+
+	public String getTreeString(){
+		synchronized( g_nmManager ){
+			return getTreeString( getRoot(), 0 );
+		}
+	}
+
+	private String getTreeString( int iCurrent, int iDepth ){
+		String sOffset = "";
+		for( int i = 0 ; i < iDepth ; i++ )
+			sOffset += "  ";
+		if( g_nmManager.isLeaf( iCurrent ) )
+			return sOffset + "(" + g_nmManager.getValue( iCurrent ) + ")";
+		String sTree = sOffset + "(id=" + iCurrent + ",var=" + g_nmManager.getVariable( iCurrent );
+		sTree += ", sum= " + getValueSum( iCurrent ) + "\n";
+		sTree += getTreeString( g_nmManager.getFalseChild( iCurrent ), iDepth + 1 ) + "\n";
+		sTree += getTreeString( g_nmManager.getTrueChild( iCurrent ), iDepth + 1 ) + "\n";
+		sTree += sOffset + ")";
+		return sTree;
+	}
+
+	/*
+	 * The paths added to the ADD, before they are interned in the node manager. Follows the vertex layout of CompactAlgebraicDecisionDiagram.
+	 */
+	private static class PathBuilder{
+		private int[] m_aiVariable;
+		private int[] m_aiFalse;
+		private int[] m_aiTrue;
+		private double[] m_adValue;
+		private int m_cVertexes;
+		private int m_iRoot;
+
+		public PathBuilder(){
+			m_aiVariable = new int[16];
+			m_aiFalse = new int[16];
+			m_aiTrue = new int[16];
+			m_adValue = new double[16];
+			m_cVertexes = 0;
+			m_iRoot = NONE;
+		}
+		public PathBuilder( PathBuilder pbOther ){
+			m_aiVariable = pbOther.m_aiVariable.clone();
+			m_aiFalse = pbOther.m_aiFalse.clone();
+			m_aiTrue = pbOther.m_aiTrue.clone();
+			m_adValue = pbOther.m_adValue.clone();
+			m_cVertexes = pbOther.m_cVertexes;
+			m_iRoot = pbOther.m_iRoot;
+		}
+		public int addVertex( int iVariable ){
+			if( m_cVertexes == m_aiVariable.length ){
+				m_aiVariable = Arrays.copyOf( m_aiVariable, m_cVertexes * 2 );
+				m_aiFalse = Arrays.copyOf( m_aiFalse, m_cVertexes * 2 );
+				m_aiTrue = Arrays.copyOf( m_aiTrue, m_cVertexes * 2 );
+				m_adValue = Arrays.copyOf( m_adValue, m_cVertexes * 2 );
+			}
+			m_aiVariable[m_cVertexes] = iVariable;
+			m_aiFalse[m_cVertexes] = NONE;
+			m_aiTrue[m_cVertexes] = NONE;
+			return m_cVertexes++;
+		}
+		public int addLeaf( double dValue ){
+			int iLeaf = addVertex( LEAF_VARIABLE );
+			m_adValue[iLeaf] = dValue;
+			return iLeaf;
+		}
+		//copies an interned diagram, so that paths can be added to it
+		public int copy( int iCurrent, Map<Integer,Integer> mCopied ){
+			Integer iCopy = mCopied.get( iCurrent );
+			if( iCopy != null )
+				return iCopy;
+			if( g_nmManager.isLeaf( iCurrent ) ){
+				iCopy = addLeaf( g_nmManager.getValue( iCurrent ) );
+			}
+			else{
+				iCopy = addVertex( g_nmManager.getVariable( iCurrent ) );
+				int iFalse = copy( g_nmManager.getFalseChild( iCurrent ), mCopied );
+				int iTrue = copy( g_nmManager.getTrueChild( iCurrent ), mCopied );
+				m_aiFalse[iCopy] = iFalse;
+				m_aiTrue[iCopy] = iTrue;
+			}
+			mCopied.put( iCurrent, iCopy );
+			return iCopy;
+		}
+	}
+
+	private PathBuilder getPaths(){
+		if( m_pbPaths == null ){
+			m_pbPaths = new PathBuilder();
+			if( m_iRoot != NONE ){
+				synchronized( g_nmManager ){
+					m_pbPaths.m_iRoot = m_pbPaths.copy( m_iRoot, new HashMap<Integer,Integer>() );
+				}
+			}
+		}
+		return m_pbPaths;
+	}
+
+	public void addPath( boolean[] abPath, double dValue ){
+		addPath( abPath, dValue, 0 );
+	}
+
+	public void addPath( boolean[] abPath, double dValue, int iFirstVariable ){
+		PathBuilder pb = getPaths();
+		if( abPath == null ){
+			pb.m_iRoot = pb.addLeaf( dValue );
+			return;
+		}
+		int iCurrent = NONE, iVar = 0;
+		if( pb.m_iRoot == NONE || pb.m_aiVariable[pb.m_iRoot] == LEAF_VARIABLE )
+			pb.m_iRoot = pb.addVertex( iFirstVariable );
+		iCurrent = pb.m_iRoot;
+		for( iVar = 0 ; iVar < abPath.length - 1 ; iVar++ ){
+			iCurrent = getChild( pb, iCurrent, abPath[iVar], iFirstVariable + iVar + 1 );
+		}
+		setChild( pb, iCurrent, abPath[iVar], pb.addLeaf( dValue ) );
+	}
+
+	private int getChild( PathBuilder pb, int iCurrent, boolean bValue, int iNextVariable ){
+		int[] aiChildren = bValue ? pb.m_aiTrue : pb.m_aiFalse;
+		if( aiChildren[iCurrent] == NONE ){
+			int iChild = pb.addVertex( iNextVariable );
+			aiChildren = bValue ? pb.m_aiTrue : pb.m_aiFalse; //the arrays may have grown
+			aiChildren[iCurrent] = iChild;
+		}
+		return aiChildren[iCurrent];
+	}
+
+	private void setChild( PathBuilder pb, int iCurrent, boolean bValue, int iChild ){
+		if( bValue )
+			pb.m_aiTrue[iCurrent] = iChild;
+		else
+			pb.m_aiFalse[iCurrent] = iChild;
+	}
+
+	//if bTwoTimeSteps = true then abValues has the structure [pre,post,pre,post,...]
+	//otherwise abValues has the structure [pre,pre,pre,...]
+	//and aiVars has the structure [pre,pre,pre,..]
+	public void addPartialPath( int[] aiVariables, boolean[] abValues, double dValue, boolean bTwoTimeSteps ){
+		PathBuilder pb = getPaths();
+		int iCurrent = NONE, iValueIdx = 0, iNextVarIdx = 0;
+		if( pb.m_iRoot == NONE ){
+			if( aiVariables.length == 0 ){
+				pb.m_iRoot = pb.addLeaf( dValue );
+				return;
+			}
+			if( bTwoTimeSteps )
+				pb.m_iRoot = pb.addVertex( aiVariables[0] * 2 );
+			else
+				pb.m_iRoot = pb.addVertex( aiVariables[0] );
+		}
+		iCurrent = pb.m_iRoot;
+		for( iValueIdx = 0 ; iValueIdx < abValues.length - 1 ; iValueIdx++ ){
+			if( bTwoTimeSteps ){
+				if( iValueIdx % 2 == 0 ) //pre-action
+					iNextVarIdx = aiVariables[iValueIdx / 2] * 2 + 1;
+				else //post-action - move on to the next var
+					iNextVarIdx = aiVariables[iValueIdx / 2 + 1] * 2;
+			}
+			else{
+				iNextVarIdx = aiVariables[iValueIdx + 1];
+			}
+			iCurrent = getChild( pb, iCurrent, abValues[iValueIdx], iNextVarIdx );
+		}
+		setChild( pb, iCurrent, abValues[iValueIdx], pb.addLeaf( dValue ) );
+	}
+
+	public void finalizePaths( double dDefaultValue ){
+		if( m_pbPaths == null ){
+			if( m_iRoot == NONE ){
+				synchronized( g_nmManager ){
+					m_iRoot = g_nmManager.getLeaf( dDefaultValue );
+				}
+			}
+			return;
+		}
+		PathBuilder pb = m_pbPaths;
+		int iDefault = pb.addLeaf( dDefaultValue ), iVertex = 0;
+		if( pb.m_iRoot == NONE )
+			pb.m_iRoot = iDefault;
+		for( iVertex = 0 ; iVertex < pb.m_cVertexes ; iVertex++ ){
+			if( pb.m_aiVariable[iVertex] != LEAF_VARIABLE ){
+				if( pb.m_aiFalse[iVertex] == NONE )
+					pb.m_aiFalse[iVertex] = iDefault;
+				if( pb.m_aiTrue[iVertex] == NONE )
+					pb.m_aiTrue[iVertex] = iDefault;
+			}
+		}
+	}
+
+	public double valueAt( boolean[] abPath ){
+		synchronized( g_nmManager ){
+			int iCurrent = getRoot();
+			while( !g_nmManager.isLeaf( iCurrent ) ){
+				if( abPath[g_nmManager.getVariable( iCurrent )] )
+					iCurrent = g_nmManager.getTrueChild( iCurrent );
+				else
+					iCurrent = g_nmManager.getFalseChild( iCurrent );
+			}
+			return g_nmManager.getValue( iCurrent );
+		}
+	}
+
+	public double valueAt( int[] aiVariables, boolean[] abPath ){
+		synchronized( g_nmManager ){
+			int iCurrent = getRoot(), iIdx = 0, iVar = 0;
+			while( !g_nmManager.isLeaf( iCurrent ) ){
+				iVar = g_nmManager.getVariable( iCurrent );
+				for( iIdx = 0 ; iIdx < aiVariables.length && aiVariables[iIdx] != iVar ; iIdx++ );
+				if( abPath[iIdx] )
+					iCurrent = g_nmManager.getTrueChild( iCurrent );
+				else
+					iCurrent = g_nmManager.getFalseChild( iCurrent );
+			}
+			return g_nmManager.getValue( iCurrent );
+		}
+	}
+
+	public AlgebraicDecisionDiagram existentialAbstraction( AbstractionFilter aFilter ){
+		SharedAlgebraicDecisionDiagram addAbstracted = new SharedAlgebraicDecisionDiagram( m_cVariables );
+		synchronized( g_nmManager ){
+			g_nmManager.collectIfNeeded();
+			addAbstracted.m_iRoot = g_nmManager.existentialAbstraction( getRoot(), aFilter );
+		}
+		return addAbstracted;
+	}
+
+	public AlgebraicDecisionDiagram copy(){
+		return new SharedAlgebraicDecisionDiagram( this );
+	}
+
+	public void product( double dFactor ){
+		synchronized( g_nmManager ){
+			g_nmManager.collectIfNeeded();
+			m_iRoot = g_nmManager.product( getRoot(), dFactor );
+		}
+	}
+
+	//the average of the product of the two diagrams over all the assignments, so the missing variables need no counting
+	private double averageProduct( int iAlpha, int iBelief, Map<Long,Double> mCachedResults ){
+		boolean bAlphaLeaf = g_nmManager.isLeaf( iAlpha ), bBeliefLeaf = g_nmManager.isLeaf( iBelief );
+		if( bAlphaLeaf && bBeliefLeaf )
+			return g_nmManager.getValue( iAlpha ) * g_nmManager.getValue( iBelief );
+		if( bAlphaLeaf )
+			return g_nmManager.getValue( iAlpha ) * g_nmManager.getMean( iBelief );
+		if( bBeliefLeaf )
+			return g_nmManager.getValue( iBelief ) * g_nmManager.getMean( iAlpha );
+		long lKey = ( (long)iAlpha << 32 ) | iBelief;
+		Double dCached = mCachedResults.get( lKey );
+		if( dCached != null )
+			return dCached;
+		int iAlphaVariableId = g_nmManager.getVariable( iAlpha ), iBeliefVariableId = g_nmManager.getVariable( iBelief );
+		int iVariableId = Math.min( iAlphaVariableId, iBeliefVariableId );
+		int iAlphaFalse = iAlpha, iAlphaTrue = iAlpha, iBeliefFalse = iBelief, iBeliefTrue = iBelief;
+		if( iAlphaVariableId == iVariableId ){
+			iAlphaFalse = g_nmManager.getFalseChild( iAlpha );
+			iAlphaTrue = g_nmManager.getTrueChild( iAlpha );
+		}
+		if( iBeliefVariableId == iVariableId ){
+			iBeliefFalse = g_nmManager.getFalseChild( iBelief );
+			iBeliefTrue = g_nmManager.getTrueChild( iBelief );
+		}
+		double dValue = ( averageProduct( iAlphaFalse, iBeliefFalse, mCachedResults ) + averageProduct( iAlphaTrue, iBeliefTrue, mCachedResults ) ) / 2;
+		mCachedResults.put( lKey, dValue );
+		return dValue;
+	}
+
+	//addOther must be a probabilistic ADD
+	public double innerProduct( AlgebraicDecisionDiagram addOther ){
+		SharedAlgebraicDecisionDiagram addBelief = (SharedAlgebraicDecisionDiagram)addOther;
+		CompiledDecisionDiagram cddAlpha = null, cddBelief = null;
+		synchronized( g_nmManager ){
+			cddAlpha = getCompiledIfReused();
+			cddBelief = addBelief.getCompiledIfReused();
+			if( cddAlpha == null || cddBelief == null )
+				return Math.pow( 2.0, m_cVariables ) * averageProduct( getRoot(), addBelief.getRoot(), new HashMap<Long,Double>() );
+		}
+		//both are compiled, so they are evaluated outside the manager lock
+		return Math.pow( 2.0, m_cVariables ) * cddAlpha.averageProduct( cddBelief );
+	}
+
+	/*
+	 * A diagram that takes part in a single inner product is not worth compiling, so the compiled form is built on the second
+	 * inner product of the same root. The caller holds the manager lock.
+	 */
+	private CompiledDecisionDiagram getCompiledIfReused(){
+		int iRoot = getRoot();
+		if( isCompiled( iRoot ) || m_iEvaluatedRoot == iRoot )
+			return compile();
+		m_iEvaluatedRoot = iRoot;
+		return null;
+	}
+
+	private boolean isCompiled( int iRoot ){
+		return m_cddCompiled != null && m_iCompiledRoot == iRoot && m_cCompiledCollections == g_nmManager.getCollectionCount();
+	}
+
+	/**
+	 * The compiled form is kept until the root of the ADD or the node numbering (after a collection) changes.
+	 */
+	public CompiledDecisionDiagram compile(){
+		synchronized( g_nmManager ){
+			int iRoot = getRoot();
+			if( isCompiled( iRoot ) )
+				return m_cddCompiled;
+			Vector<Integer> vVertexes = getVertexes();
+			Map<Integer,Integer> mIds = localIds( vVertexes );
+			int cVertexes = vVertexes.size(), iVertex = 0, iCurrent = 0;
+			int[] aiVariable = new int[cVertexes], aiFalse = new int[cVertexes], aiTrue = new int[cVertexes];
+			double[] adValue = new double[cVertexes];
+			for( iVertex = 0 ; iVertex < cVertexes ; iVertex++ ){
+				iCurrent = vVertexes.get( iVertex );
+				if( g_nmManager.isLeaf( iCurrent ) ){
+					aiVariable[iVertex] = CompiledDecisionDiagram.LEAF;
+					adValue[iVertex] = g_nmManager.getValue( iCurrent );
+				}
+				else{
+					aiVariable[iVertex] = g_nmManager.getVariable( iCurrent );
+					aiFalse[iVertex] = mIds.get( g_nmManager.getFalseChild( iCurrent ) );
+					aiTrue[iVertex] = mIds.get( g_nmManager.getTrueChild( iCurrent ) );
+				}
+			}
+			m_cddCompiled = new CompiledDecisionDiagram( aiVariable, aiFalse, aiTrue, adValue );
+			m_iCompiledRoot = iRoot;
+			m_cCompiledCollections = g_nmManager.getCollectionCount();
+			return m_cddCompiled;
+		}
+	}
+
+	public double innerProduct( double[] adVariableProbabilities ){
+		CompiledDecisionDiagram cdd = null;
+		synchronized( g_nmManager ){
+			cdd = compile();
+		}
+		return cdd.innerProduct( adVariableProbabilities );
+	}
+
+	public double innerProduct( PathProbabilityEstimator p ){
+		synchronized( g_nmManager ){
+			return innerProduct( getRoot(), p, new Vector<Pair<Integer, Boolean>>() );
+		}
+	}
+
+	private double innerProduct( int iCurrent, PathProbabilityEstimator p, Vector<Pair<Integer, Boolean>> vAssignment ){
+		if( g_nmManager.isLeaf( iCurrent ) )
+			return g_nmManager.getValue( iCurrent ) * p.valueAt( vAssignment );
+		Pair<Integer, Boolean> pAssignment = new Pair<Integer, Boolean>( g_nmManager.getVariable( iCurrent ), false );
+		vAssignment.add( pAssignment );
+		double dFalseValue = innerProduct( g_nmManager.getFalseChild( iCurrent ), p, vAssignment );
+		pAssignment.setValue( true );
+		double dTrueValue = innerProduct( g_nmManager.getTrueChild( iCurrent ), p, vAssignment );
+		vAssignment.remove( pAssignment );
+		return dFalseValue + dTrueValue;
+	}
+
+	public boolean dominates( AlgebraicDecisionDiagram addOther ){
+		SharedAlgebraicDecisionDiagram add = (SharedAlgebraicDecisionDiagram)addOther;
+		synchronized( g_nmManager ){
+			int iRoot = getRoot(), iOtherRoot = add.getRoot();
+			if( iRoot == iOtherRoot )
+				return true;
+			if( g_nmManager.getMax( iOtherRoot ) > g_nmManager.getMax( iRoot ) )
+				return false;
+			if( add.getValueSum() > getValueSum() )
+				return false;
+			return dominates( iRoot, this, iOtherRoot, add, new HashSet<Long>() );
+		}
+	}
+
+	//Does add1 dominate add2. sDominated holds the pairs that were already found to be dominated.
+	private boolean dominates( int iCurrent1, SharedAlgebraicDecisionDiagram add1, int iCurrent2, SharedAlgebraicDecisionDiagram add2, HashSet<Long> sDominated ){
+		if( iCurrent1 == iCurrent2 )
+			return true;
+		if( g_nmManager.isLeaf( iCurrent1 ) && g_nmManager.isLeaf( iCurrent2 ) )
+			return g_nmManager.getValue( iCurrent1 ) >= g_nmManager.getValue( iCurrent2 );
+		long lKey = ( (long)iCurrent1 << 32 ) | iCurrent2;
+		if( sDominated.contains( lKey ) )
+			return true;
+		int iVariableId1 = g_nmManager.getVariable( iCurrent1 ), iVariableId2 = g_nmManager.getVariable( iCurrent2 );
+		boolean bDominates = false;
+		if( iVariableId1 == iVariableId2 ){
+			if( add1.getValueSum( iCurrent1 ) < add2.getValueSum( iCurrent2 ) )
+				return false;
+			bDominates = dominates( g_nmManager.getFalseChild( iCurrent1 ), add1, g_nmManager.getFalseChild( iCurrent2 ), add2, sDominated ) &&
+				dominates( g_nmManager.getTrueChild( iCurrent1 ), add1, g_nmManager.getTrueChild( iCurrent2 ), add2, sDominated );
+		}
+		else if( iVariableId1 < iVariableId2 ){
+			bDominates = dominates( g_nmManager.getFalseChild( iCurrent1 ), add1, iCurrent2, add2, sDominated ) &&
+				dominates( g_nmManager.getTrueChild( iCurrent1 ), add1, iCurrent2, add2, sDominated );
+		}
+		else{
+			bDominates = dominates( iCurrent1, add1, g_nmManager.getFalseChild( iCurrent2 ), add2, sDominated ) &&
+				dominates( iCurrent1, add1, g_nmManager.getTrueChild( iCurrent2 ), add2, sDominated );
+		}
+		if( bDominates )
+			sDominated.add( lKey );
+		return bDominates;
+	}
+
+	/**
+	 * Diagrams are canonical, so two ADDs are equal iff they have the same root.
+	 */
+	public boolean equals( AlgebraicDecisionDiagram addOther ){
+		SharedAlgebraicDecisionDiagram add = (SharedAlgebraicDecisionDiagram)addOther;
+		synchronized( g_nmManager ){
+			return getRoot() == add.getRoot();
+		}
+	}
+
+	private int compare( int iCurrent1, int iCurrent2 ){
+		if( iCurrent1 == iCurrent2 )
+			return 0;
+		boolean bLeaf1 = g_nmManager.isLeaf( iCurrent1 ), bLeaf2 = g_nmManager.isLeaf( iCurrent2 );
+		if( bLeaf1 && bLeaf2 )
+			return Double.compare( g_nmManager.getValue( iCurrent1 ), g_nmManager.getValue( iCurrent2 ) );
+		if( bLeaf1 )
+			return 1;
+		if( bLeaf2 )
+			return -1;
+		int iVariableId1 = g_nmManager.getVariable( iCurrent1 ), iVariableId2 = g_nmManager.getVariable( iCurrent2 );
+		if( iVariableId1 != iVariableId2 )
+			return iVariableId1 - iVariableId2;
+		int iResult = compare( g_nmManager.getTrueChild( iCurrent1 ), g_nmManager.getTrueChild( iCurrent2 ) );
+		if( iResult != 0 )
+			return iResult;
+		return compare( g_nmManager.getFalseChild( iCurrent1 ), g_nmManager.getFalseChild( iCurrent2 ) );
+	}
+
+	public int compareTo( AlgebraicDecisionDiagram addOther ){
+		if( addOther instanceof SharedAlgebraicDecisionDiagram ){
+			synchronized( g_nmManager ){
+				return compare( getRoot(), ((SharedAlgebraicDecisionDiagram)addOther).getRoot() );
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Replaces every non zero leaf value by the lowest value that is within dSpan below it, as CompactAlgebraicDecisionDiagram.reduceToMin.
+	 */
+	public void reduceToMin( double dSpan ){
+		synchronized( g_nmManager ){
+			g_nmManager.collectIfNeeded();
+			int iRoot = getRoot();
+			if( g_nmManager.isLeaf( iRoot ) || dSpan <= 0.0 )
+				return;
+			Map<Double,Double> mReplaced = new TreeMap<Double,Double>();
+			double dLowerBound = Double.MAX_VALUE * -1;
+			for( double dValue : g_nmManager.getLeafValues( iRoot ) ){
+				if( dValue != 0.0 ){
+					if( dValue < dLowerBound + dSpan )
+						mReplaced.put( dValue, dLowerBound );
+					else
+						dLowerBound = dValue;
+				}
+			}
+			if( !mReplaced.isEmpty() )
+				m_iRoot = g_nmManager.replaceLeaves( iRoot, mReplaced );
+		}
+	}
+
+	public void translateVariables( VariableTranslator vt ){
+		if( m_pbPaths != null ){
+			for( int iVertex = 0 ; iVertex < m_pbPaths.m_cVertexes ; iVertex++ ){
+				if( m_pbPaths.m_aiVariable[iVertex] != LEAF_VARIABLE )
+					m_pbPaths.m_aiVariable[iVertex] = vt.translate( m_pbPaths.m_aiVariable[iVertex] );
+			}
+		}
+		else{
+			synchronized( g_nmManager ){
+				g_nmManager.collectIfNeeded();
+				m_iRoot = g_nmManager.translateVariables( getRoot(), vt );
+			}
+		}
+		m_cVariables = vt.translateVariableCount( m_cVariables );
+	}
+
+	public void release(){
+		m_bReleased = true;
+		m_iRoot = NONE;
+		m_pbPaths = null;
+		m_iFilteredRoot = NONE;
+	}
+
+	public void setUnspecifiedVariablesToWorstCase( Vector<Integer> vUnspecifiedVariables ){
+		synchronized( g_nmManager ){
+			g_nmManager.collectIfNeeded();
+			int iRoot = getRoot();
+			for( int iVariable : vUnspecifiedVariables )
+				iRoot = g_nmManager.assumeWorstCase( iRoot, iVariable );
+			m_iRoot = iRoot;
+		}
+	}
+
+	public long getVertexCount(){
+		synchronized( g_nmManager ){
+			int iRoot = getRoot();
+			if( m_iCountedRoot != iRoot ){
+				m_cVertexes = getVertexes().size();
+				m_iCountedRoot = iRoot;
+			}
+			return m_cVertexes;
+		}
+	}
+
+	public long getVariableCount(){
+		return m_cVariables;
+	}
+
+	/*
+	 * The reachable vertexes, children before their parents. The caller holds the manager lock.
+	 */
+	private Vector<Integer> getVertexes(){
+		Vector<Integer> vVertexes = new Vector<Integer>();
+		addVertexes( getRoot(), vVertexes, new HashSet<Integer>() );
+		return vVertexes;
+	}
+
+	private void addVertexes( int iCurrent, Vector<Integer> vVertexes, HashSet<Integer> sVisited ){
+		if( !sVisited.add( iCurrent ) )
+			return;
+		if( !g_nmManager.isLeaf( iCurrent ) ){
+			addVertexes( g_nmManager.getFalseChild( iCurrent ), vVertexes, sVisited );
+			addVertexes( g_nmManager.getTrueChild( iCurrent ), vVertexes, sVisited );
+		}
+		vVertexes.add( iCurrent );
+	}
+
+	public void save( FileWriter fw ) throws IOException{
+		synchronized( g_nmManager ){
+			Vector<Integer> vVertexes = getVertexes();
+			Map<Integer,Integer> mIds = localIds( vVertexes );
+			fw.write( "<ADD VertexCount = \"" + vVertexes.size() + "\" VariableCount = \"" + m_cVariables + "\" Root = \"" + mIds.get( getRoot() ) + "\">" );
+			for( int iVertex : vVertexes ){
+				if( g_nmManager.isLeaf( iVertex ) ){
+					fw.write( "<Value id = \"" + mIds.get( iVertex ) +
+							"\" value = \"" + g_nmManager.getValue( iVertex ) +
+							"\"/>" );
+				}
+				else{
+					fw.write( "<Vertex id = \"" + mIds.get( iVertex ) +
+							"\" variable = \"" + g_nmManager.getVariable( iVertex ) +
+							"\" false = \"" + mIds.get( g_nmManager.getFalseChild( iVertex ) ) +
+							"\" true = \"" + mIds.get( g_nmManager.getTrueChild( iVertex ) ) +
+							"\"/>" );
+				}
+			}
+			fw.write( "</ADD>" );
+		}
+	}
+
+	private Map<Integer,Integer> localIds( Vector<Integer> vVertexes ){
+		Map<Integer,Integer> mIds = new HashMap<Integer,Integer>();
+		for( int iVertex : vVertexes )
+			mIds.put( iVertex, mIds.size() );
+		return mIds;
+	}
+
+	public void parseXML( Element eADD ){
+		NodeList nlChildren = eADD.getChildNodes();
+		Element eChild = null;
+		int iChild = 0, iId = 0;
+		Map<Integer,Integer> mIds = new HashMap<Integer,Integer>();
+		PathBuilder pb = new PathBuilder();
+
+		m_cVariables = Integer.parseInt( eADD.getAttribute( "VariableCount" ) );
+		for( iChild = 0 ; iChild < nlChildren.getLength() ; iChild++ ){
+			eChild = (Element)nlChildren.item( iChild );
+			if( eChild.getNodeName().equals( "Value" ) )
+				iId = pb.addLeaf( Double.parseDouble( eChild.getAttribute( "value" ) ) );
+			else
+				iId = pb.addVertex( Integer.parseInt( eChild.getAttribute( "variable" ) ) );
+			mIds.put( Integer.parseInt( eChild.getAttribute( "id" ) ), iId );
+		}
+		for( iChild = 0 ; iChild < nlChildren.getLength() ; iChild++ ){
+			eChild = (Element)nlChildren.item( iChild );
+			if( eChild.getNodeName().equals( "Vertex" ) ){
+				iId = mIds.get( Integer.parseInt( eChild.getAttribute( "id" ) ) );
+				pb.m_aiTrue[iId] = mIds.get( Integer.parseInt( eChild.getAttribute( "true" ) ) );
+				pb.m_aiFalse[iId] = mIds.get( Integer.parseInt( eChild.getAttribute( "false" ) ) );
+			}
+		}
+		pb.m_iRoot = mIds.get( Integer.parseInt( eADD.getAttribute( "Root" ) ) );
+		m_pbPaths = pb;
+		m_iRoot = NONE;
+		reduce();
+	}
+
+	public Element getDOM( Document doc ){
+		Element eADD = doc.createElement( "ADD" );
+		Element eVertex = null;
+		synchronized( g_nmManager ){
+			Vector<Integer> vVertexes = getVertexes();
+			Map<Integer,Integer> mIds = localIds( vVertexes );
+			eADD.setAttribute( "VertexCount",  "" + vVertexes.size() );
+			eADD.setAttribute( "VariableCount",  "" + m_cVariables );
+			eADD.setAttribute( "Root",  "" + mIds.get( getRoot() ) );
+			for( int iVertex : vVertexes ){
+				if( g_nmManager.isLeaf( iVertex ) ){
+					eVertex = doc.createElement( "Value" );
+					eVertex.setAttribute( "value",  "" + g_nmManager.getValue( iVertex ) );
+				}
+				else{
+					eVertex = doc.createElement( "Vertex" );
+					eVertex.setAttribute( "variable",  "" + g_nmManager.getVariable( iVertex ) );
+					eVertex.setAttribute( "false",  "" + mIds.get( g_nmManager.getFalseChild( iVertex ) ) );
+					eVertex.setAttribute( "true",  "" + mIds.get( g_nmManager.getTrueChild( iVertex ) ) );
+				}
+				eVertex.setAttribute( "id",  "" + mIds.get( iVertex ) );
+				eADD.appendChild( eVertex );
+			}
+		}
+		return eADD;
+	}
+
+	//node ids are local to the node manager, so the vertexes are written children first with ids local to the ADD
+	private void writeObject( ObjectOutputStream oos ) throws IOException{
+		oos.defaultWriteObject();
+		synchronized( g_nmManager ){
+			Vector<Integer> vVertexes = getVertexes();
+			Map<Integer,Integer> mIds = localIds( vVertexes );
+			oos.writeInt( vVertexes.size() );
+			for( int iVertex : vVertexes ){
+				oos.writeInt( g_nmManager.getVariable( iVertex ) );
+				if( g_nmManager.isLeaf( iVertex ) ){
+					oos.writeDouble( g_nmManager.getValue( iVertex ) );
+				}
+				else{
+					oos.writeInt( mIds.get( g_nmManager.getFalseChild( iVertex ) ) );
+					oos.writeInt( mIds.get( g_nmManager.getTrueChild( iVertex ) ) );
+				}
+			}
+		}
+	}
+
+	private void readObject( ObjectInputStream ois ) throws IOException, ClassNotFoundException{
+		ois.defaultReadObject();
+		int cVertexes = ois.readInt(), iVertex = 0;
+		PathBuilder pb = new PathBuilder();
+		for( iVertex = 0 ; iVertex < cVertexes ; iVertex++ ){
+			int iVariable = ois.readInt();
+			if( iVariable == LEAF_VARIABLE ){
+				pb.addLeaf( ois.readDouble() );
+			}
+			else{
+				pb.addVertex( iVariable );
+				pb.m_aiFalse[iVertex] = ois.readInt();
+				pb.m_aiTrue[iVertex] = ois.readInt();
+			}
+		}
+		pb.m_iRoot = cVertexes - 1;
+		init();
+		m_pbPaths = pb;
+		reduce();
+	}
+}
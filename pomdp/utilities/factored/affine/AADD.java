@@ -514,9 +514,12 @@ extends DD {
 			return new AADDRNode(r._nRefID, val * r._dOffset, val * r._dMult);
 		}
 
-		// Otherwise we'll have to call Apply
-		AADDRNode aval = getDNode(val, true);
-		return applyInt(aval, r, ARITH_PROD);	
+		// Otherwise negate (a normalized node cannot have a negative
+		// multiplier) and scale by the absolute value.  A product with a
+		// negative constant cannot go through Apply, whose PROD cache key
+		// divides by the zero multiplier of the constant.
+		AADDRNode neg = applyInt(getDNode(0d, true), r, ARITH_MINUS);
+		return scalarMultiply(neg, -val);
 	}
 
 	// Gets *canonical* AADDRNode ref to return
@@ -916,10 +919,7 @@ extends DD {
 		} 
 		
 		else{ // n instanceof ADDINode so recurse and update caches
-			AADDRNode nr = getRNode( local_id );
-			ADDNode n = getNode(nr._nRefID);
-			AADDINode ni = (AADDINode)n;	
-			//AADDINode ni = (AADDINode)getNode(local_id);	
+			AADDINode ni = (AADDINode)getNode(local_id);	
 			Integer old_id = new Integer(ni._nGlobalID);
 			Integer new_id = (Integer)gid_map.get(old_id);
 			if (new_id == null) {
@@ -1273,14 +1273,11 @@ extends DD {
 					TERM_PRUNE_CNT++;
 				} break;
 				case ARITH_PROD: {
-					if (tnode._dOffset >= 0d) { // RANGE_SCALE only
-						// Need to multiply other node by tnode._dOffset...
-						// can only do this if we're normalizing, otherwise
-						// cannot have non-1d multiplier.
-						ret = scalarMultiply(other, tnode._dOffset);
-						PROD_PRUNE_CNT++;
-						TERM_PRUNE_CNT++;
-					}
+					// RANGE_SCALE only - scalarMultiply negates for
+					// negative constants.
+					ret = scalarMultiply(other, tnode._dOffset);
+					PROD_PRUNE_CNT++;
+					TERM_PRUNE_CNT++;
 
 				} break;
 				case ARITH_MIN: 
@@ -0,0 +1,644 @@
+package pomdp.utilities.lp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Revised simplex for small dense LPs with bounded variables:
+ *   max c*x s.t. lo_i <= A_i*x <= up_i for every row i, lo_j <= x_j <= up_j for every column j.
+ * Every row has a logical variable r_i = A_i*x carrying the row bounds, so the system is A*x - r = 0 and the all-logical basis
+ * is always a valid starting basis. Infinite bounds are Double.NEGATIVE_INFINITY / POSITIVE_INFINITY.
+ * The basis inverse is kept explicitly, updated on every pivot, and refactored every REFACTOR_INTERVAL pivots.
+ * The basis survives objective changes, bound changes and added or removed rows, so a sequence of related LPs is warm started -
+ * the primal simplex re-optimizes after the objective changes or rows are removed, and the dual simplex restores feasibility after rows
+ * are added or bounds tightened.
+ */
+public class BoundedSimplex {
+	public enum Status{
+		Optimal, Infeasible, Unbounded, IterationLimit
+	}
+
+	private static final double PRIMAL_TOLERANCE = 1e-9;
+	private static final double DUAL_TOLERANCE = 1e-9;
+	private static final double PIVOT_TOLERANCE = 1e-9;
+	private static final int REFACTOR_INTERVAL = 64;
+	private static final int DEGENERATE_PIVOTS_BEFORE_BLAND = 50;
+
+	private int m_cColumns;
+	private int m_cRows;
+	private ArrayList<double[]> m_vRows;
+	//indexed by variable - the structural columns first, then a logical variable per row
+	private double[] m_adLower;
+	private double[] m_adUpper;
+	private double[] m_adValues;
+	private double[] m_adCosts;
+	private int[] m_aiBasisPosition;
+	//indexed by basis position
+	private int[] m_aiBasic;
+	private double[][] m_aadBasisInverse;
+	private int m_cPivotsSinceRefactor;
+	private long m_cIterations;
+
+	public BoundedSimplex( int cColumns ){
+		int iColumn = 0;
+		m_cColumns = cColumns;
+		m_cRows = 0;
+		m_vRows = new ArrayList<double[]>();
+		m_adLower = new double[cColumns + 16];
+		m_adUpper = new double[cColumns + 16];
+		m_adValues = new double[cColumns + 16];
+		m_adCosts = new double[cColumns + 16];
+		m_aiBasisPosition = new int[cColumns + 16];
+		m_aiBasic = new int[16];
+		m_aadBasisInverse = new double[16][16];
+		for( iColumn = 0 ; iColumn < cColumns ; iColumn++ ){
+			m_adUpper[iColumn] = Double.POSITIVE_INFINITY;
+			m_aiBasisPosition[iColumn] = -1;
+		}
+		m_cPivotsSinceRefactor = 0;
+		m_cIterations = 0;
+	}
+
+	public int getColumnCount(){
+		return m_cColumns;
+	}
+
+	public int getRowCount(){
+		return m_cRows;
+	}
+
+	/**
+	 * Total number of simplex iterations over the lifetime of this LP.
+	 */
+	public long getIterationCount(){
+		return m_cIterations;
+	}
+
+	/**
+	 * Adds the row lo <= adCoefficients*x <= up. The logical variable of the row enters the basis, so the current basis
+	 * stays valid, but may become infeasible.
+	 * @return the index of the new row
+	 */
+	public int addRow( double[] adCoefficients, double dLower, double dUpper ){
+		int iRow = m_cRows, iVariable = m_cColumns + iRow, iPosition = 0, i = 0;
+		double[] adRow = adCoefficients.clone();
+		double dValue = 0.0;
+
+		ensureRowCapacity( iRow + 1 );
+		m_vRows.add( adRow );
+		m_cRows++;
+		m_adLower[iVariable] = dLower;
+		m_adUpper[iVariable] = dUpper;
+		m_adCosts[iVariable] = 0.0;
+
+		//B' = [B 0; a_B -1] so inv(B') = [inv(B) 0; a_B*inv(B) -1], where a_B holds the row coefficients of the basic variables
+		double[] adNewInverseRow = m_aadBasisInverse[iRow];
+		for( i = 0 ; i <= iRow ; i++ )
+			adNewInverseRow[i] = 0.0;
+		for( iPosition = 0 ; iPosition < iRow ; iPosition++ ){
+			double dCoefficient = coefficient( iRow, m_aiBasic[iPosition] );
+			if( dCoefficient != 0.0 ){
+				double[] adInverseRow = m_aadBasisInverse[iPosition];
+				for( i = 0 ; i < iRow ; i++ )
+					adNewInverseRow[i] += dCoefficient * adInverseRow[i];
+			}
+		}
+		adNewInverseRow[iRow] = -1.0;
+		for( iPosition = 0 ; iPosition < iRow ; iPosition++ )
+			m_aadBasisInverse[iPosition][iRow] = 0.0;
+
+		for( i = 0 ; i < m_cColumns ; i++ )
+			dValue += adRow[i] * m_adValues[i];
+		m_adValues[iVariable] = dValue;
+		m_aiBasic[iRow] = iVariable;
+		m_aiBasisPosition[iVariable] = iRow;
+		return iRow;
+	}
+
+	/**
+	 * Removes a row. The logical variable of the row is first pivoted into the basis (if it is not basic already), and then
+	 * the row and its logical variable are dropped together, so the remaining basis stays valid.
+	 * The variable that leaves the basis is chosen among the basic variables within their bounds, so the basis stays primal feasible
+	 * if it was. If every candidate is out of its bounds (rows were added since the last restoreFeasibility), the leaving variable is moved
+	 * to its nearest bound, because the simplex only repairs basic variables.
+	 * The rows after iRow move one index down.
+	 */
+	public void removeRow( int iRow ){
+		int iVariable = m_cColumns + iRow, iPosition = 0, iMaxPosition = -1, iMaxFeasiblePosition = -1, iLeaving = 0, i = 0, cVariables = m_cColumns + m_cRows;
+		double[] adColumn = null;
+		double dValue = 0.0;
+
+		if( m_aiBasisPosition[iVariable] == -1 ){
+			adColumn = new double[m_cRows];
+			computeColumn( iVariable, adColumn );
+			for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ ){
+				if( iMaxPosition == -1 || Math.abs( adColumn[iPosition] ) > Math.abs( adColumn[iMaxPosition] ) )
+					iMaxPosition = iPosition;
+				if( Math.abs( adColumn[iPosition] ) > PIVOT_TOLERANCE && isWithinBounds( m_aiBasic[iPosition] ) &&
+						( iMaxFeasiblePosition == -1 || Math.abs( adColumn[iPosition] ) > Math.abs( adColumn[iMaxFeasiblePosition] ) ) )
+					iMaxFeasiblePosition = iPosition;
+			}
+			if( iMaxFeasiblePosition != -1 )
+				iMaxPosition = iMaxFeasiblePosition;
+			iLeaving = m_aiBasic[iMaxPosition];
+			//the leaving variable keeps its value, so the basic values do not change
+			pivot( iMaxPosition, iVariable, adColumn );
+			if( !isWithinBounds( iLeaving ) ){
+				dValue = m_adValues[iLeaving] < m_adLower[iLeaving] ? m_adLower[iLeaving] : m_adUpper[iLeaving];
+				m_adValues[iLeaving] = dValue;
+				computeBasicValues();
+			}
+		}
+		iPosition = m_aiBasisPosition[iVariable];
+
+		//with the row last and the logical variable last, B = [B' 0; a -1] and inv(B) = [inv(B') 0; a*inv(B') -1],
+		//so inv(B') is inv(B) without the basis position of the logical variable and without the column of the row
+		double[] adRemovedRow = m_aadBasisInverse[iPosition];
+		for( i = iPosition ; i < m_cRows - 1 ; i++ ){
+			m_aadBasisInverse[i] = m_aadBasisInverse[i + 1];
+			m_aiBasic[i] = m_aiBasic[i + 1];
+		}
+		m_aadBasisInverse[m_cRows - 1] = adRemovedRow;
+		for( i = 0 ; i < m_cRows - 1 ; i++ )
+			System.arraycopy( m_aadBasisInverse[i], iRow + 1, m_aadBasisInverse[i], iRow, m_cRows - 1 - iRow );
+
+		for( i = iVariable ; i < cVariables - 1 ; i++ ){
+			m_adLower[i] = m_adLower[i + 1];
+			m_adUpper[i] = m_adUpper[i + 1];
+			m_adValues[i] = m_adValues[i + 1];
+			m_adCosts[i] = m_adCosts[i + 1];
+			m_aiBasisPosition[i] = m_aiBasisPosition[i + 1];
+		}
+		m_vRows.remove( iRow );
+		m_cRows--;
+		for( i = 0 ; i < m_cRows ; i++ ){
+			if( m_aiBasic[i] > iVariable )
+				m_aiBasic[i]--;
+			m_aiBasisPosition[m_aiBasic[i]] = i;
+		}
+	}
+
+	public void setColumnBounds( int iColumn, double dLower, double dUpper ){
+		setBounds( iColumn, dLower, dUpper );
+	}
+
+	public void setRowBounds( int iRow, double dLower, double dUpper ){
+		setBounds( m_cColumns + iRow, dLower, dUpper );
+	}
+
+	/*
+	 * Nonbasic variables keep their value if it is within the new bounds, and are moved to the nearest bound otherwise.
+	 */
+	private void setBounds( int iVariable, double dLower, double dUpper ){
+		m_adLower[iVariable] = dLower;
+		m_adUpper[iVariable] = dUpper;
+		if( m_aiBasisPosition[iVariable] == -1 ){
+			double dValue = m_adValues[iVariable];
+			if( dValue < dLower )
+				dValue = dLower;
+			else if( dValue > dUpper )
+				dValue = dUpper;
+			if( dValue != m_adValues[iVariable] ){
+				m_adValues[iVariable] = dValue;
+				computeBasicValues();
+			}
+		}
+	}
+
+	/**
+	 * Sets the costs of the structural columns.
+	 */
+	public void setObjective( double[] adCosts ){
+		System.arraycopy( adCosts, 0, m_adCosts, 0, m_cColumns );
+	}
+
+	public double getValue( int iColumn ){
+		return m_adValues[iColumn];
+	}
+
+	public double getObjectiveValue(){
+		double dValue = 0.0;
+		for( int iColumn = 0 ; iColumn < m_cColumns ; iColumn++ )
+			dValue += m_adCosts[iColumn] * m_adValues[iColumn];
+		return dValue;
+	}
+
+	/**
+	 * Optimizes from the current basis - restores feasibility with the dual simplex if needed, and then runs the primal simplex.
+	 */
+	public Status solve( int cMaxIterations ){
+		Status sFeasibility = restoreFeasibility( cMaxIterations );
+		if( sFeasibility != Status.Optimal )
+			return sFeasibility;
+		return primal( cMaxIterations );
+	}
+
+	/**
+	 * Makes the current basis primal feasible with the dual simplex. If the basis is dual feasible for the current objective
+	 * (e.g. it was optimal before rows were added), the result is optimal. Otherwise the costs are ignored during this phase.
+	 */
+	public Status restoreFeasibility( int cMaxIterations ){
+		if( isPrimalFeasible() )
+			return Status.Optimal;
+		if( isDualFeasible() )
+			return dual( cMaxIterations, false );
+		return dual( cMaxIterations, true );
+	}
+
+	/**
+	 * Drops the current basis - all logical variables become basic and the structural columns move to their bound nearest to zero.
+	 */
+	public void resetBasis(){
+		int iVariable = 0, iRow = 0;
+		for( iVariable = 0 ; iVariable < m_cColumns ; iVariable++ ){
+			m_aiBasisPosition[iVariable] = -1;
+			if( m_adLower[iVariable] > 0.0 )
+				m_adValues[iVariable] = m_adLower[iVariable];
+			else if( m_adUpper[iVariable] < 0.0 )
+				m_adValues[iVariable] = m_adUpper[iVariable];
+			else
+				m_adValues[iVariable] = 0.0;
+		}
+		for( iRow = 0 ; iRow < m_cRows ; iRow++ ){
+			m_aiBasic[iRow] = m_cColumns + iRow;
+			m_aiBasisPosition[m_cColumns + iRow] = iRow;
+		}
+		refactor();
+	}
+
+	private Status primal( int cMaxIterations ){
+		int iVariable = 0, iEntering = 0, iLeaving = 0, iPosition = 0, cDegenerate = 0, cIterations = 0, iBasic = 0;
+		double dReducedCost = 0.0, dBestReducedCost = 0.0, dDirection = 0.0, dStep = 0.0, dRatio = 0.0, dDelta = 0.0, dEnteringCost = 0.0;
+		double[] adDuals = new double[m_cRows], adColumn = new double[m_cRows];
+		boolean bBland = false;
+
+		while( true ){
+			if( cIterations++ >= cMaxIterations )
+				return Status.IterationLimit;
+			m_cIterations++;
+			if( m_cPivotsSinceRefactor >= REFACTOR_INTERVAL && !refactor() )
+				resetBasis();
+
+			computeDuals( adDuals );
+			iEntering = -1;
+			dBestReducedCost = 0.0;
+			dEnteringCost = 0.0;
+			bBland = cDegenerate > DEGENERATE_PIVOTS_BEFORE_BLAND;
+			for( iVariable = 0 ; iVariable < m_cColumns + m_cRows ; iVariable++ ){
+				if( m_aiBasisPosition[iVariable] != -1 || m_adLower[iVariable] == m_adUpper[iVariable] )
+					continue;
+				dReducedCost = reducedCost( iVariable, adDuals );
+				if( ( dReducedCost > DUAL_TOLERANCE && m_adValues[iVariable] < m_adUpper[iVariable] - PRIMAL_TOLERANCE ) ||
+						( dReducedCost < -DUAL_TOLERANCE && m_adValues[iVariable] > m_adLower[iVariable] + PRIMAL_TOLERANCE ) ){
+					if( Math.abs( dReducedCost ) > dBestReducedCost ){
+						dBestReducedCost = Math.abs( dReducedCost );
+						dEnteringCost = dReducedCost;
+						iEntering = iVariable;
+						if( bBland )
+							break;
+					}
+				}
+			}
+			if( iEntering == -1 )
+				return Status.Optimal;
+
+			computeColumn( iEntering, adColumn );
+			dDirection = dEnteringCost > 0.0 ? 1.0 : -1.0;
+			//moving the entering variable by dDirection * t changes the basic variables by -dDirection * t * adColumn
+			if( dDirection > 0.0 )
+				dStep = m_adUpper[iEntering] - m_adValues[iEntering];
+			else
+				dStep = m_adValues[iEntering] - m_adLower[iEntering];
+			iLeaving = -1;
+			for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ ){
+				dDelta = -dDirection * adColumn[iPosition];
+				iBasic = m_aiBasic[iPosition];
+				if( dDelta < -PIVOT_TOLERANCE && m_adLower[iBasic] > Double.NEGATIVE_INFINITY )
+					dRatio = Math.max( 0.0, m_adValues[iBasic] - m_adLower[iBasic] ) / -dDelta;
+				else if( dDelta > PIVOT_TOLERANCE && m_adUpper[iBasic] < Double.POSITIVE_INFINITY )
+					dRatio = Math.max( 0.0, m_adUpper[iBasic] - m_adValues[iBasic] ) / dDelta;
+				else
+					continue;
+				if( dRatio < dStep - PRIMAL_TOLERANCE ||
+						( dRatio <= dStep + PRIMAL_TOLERANCE && iLeaving != -1 &&
+						( bBland ? iBasic < m_aiBasic[iLeaving] : Math.abs( adColumn[iPosition] ) > Math.abs( adColumn[iLeaving] ) ) ) ){
+					dStep = dRatio;
+					iLeaving = iPosition;
+				}
+			}
+			if( dStep == Double.POSITIVE_INFINITY )
+				return Status.Unbounded;
+
+			if( dStep < PRIMAL_TOLERANCE )
+				cDegenerate++;
+			else
+				cDegenerate = 0;
+
+			m_adValues[iEntering] += dDirection * dStep;
+			for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ )
+				m_adValues[m_aiBasic[iPosition]] -= dDirection * dStep * adColumn[iPosition];
+			if( iLeaving == -1 ){
+				//bound flip
+				m_adValues[iEntering] = dDirection > 0.0 ? m_adUpper[iEntering] : m_adLower[iEntering];
+			}
+			else{
+				iBasic = m_aiBasic[iLeaving];
+				m_adValues[iBasic] = -dDirection * adColumn[iLeaving] < 0.0 ? m_adLower[iBasic] : m_adUpper[iBasic];
+				pivot( iLeaving, iEntering, adColumn );
+			}
+		}
+	}
+
+	/*
+	 * Dual simplex with bounded variables. With bIgnoreCosts all reduced costs are treated as zero, which makes any basis
+	 * dual feasible - this is used as a feasibility phase, with Bland's rule to avoid cycling.
+	 */
+	private Status dual( int cMaxIterations, boolean bIgnoreCosts ){
+		int iVariable = 0, iEntering = 0, iLeaving = 0, iPosition = 0, cIterations = 0, iBasic = 0, cDegenerate = 0;
+		double dInfeasibility = 0.0, dMaxInfeasibility = 0.0, dAlpha = 0.0, dRatio = 0.0, dBestRatio = 0.0, dBestAlpha = 0.0, dTarget = 0.0, dStep = 0.0;
+		double dReducedCost = 0.0, dMaxAlpha = 0.0;
+		double[] adDuals = new double[m_cRows], adColumn = new double[m_cRows], adPivotRow = new double[m_cRows];
+		double[] adAlphas = new double[m_cColumns + m_cRows];
+		boolean bIncrease = false, bBland = false;
+
+		while( true ){
+			if( cIterations++ >= cMaxIterations )
+				return Status.IterationLimit;
+			m_cIterations++;
+			if( m_cPivotsSinceRefactor >= REFACTOR_INTERVAL && !refactor() ){
+				resetBasis();
+				bIgnoreCosts = true;
+			}
+			bBland = bIgnoreCosts || cDegenerate > DEGENERATE_PIVOTS_BEFORE_BLAND;
+
+			iLeaving = -1;
+			dMaxInfeasibility = PRIMAL_TOLERANCE;
+			for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ ){
+				iBasic = m_aiBasic[iPosition];
+				dInfeasibility = Math.max( m_adLower[iBasic] - m_adValues[iBasic], m_adValues[iBasic] - m_adUpper[iBasic] );
+				if( dInfeasibility > dMaxInfeasibility && ( iLeaving == -1 || !bBland || iBasic < m_aiBasic[iLeaving] ) ){
+					dMaxInfeasibility = bBland ? PRIMAL_TOLERANCE : dInfeasibility;
+					iLeaving = iPosition;
+				}
+			}
+			if( iLeaving == -1 )
+				return Status.Optimal;
+
+			iBasic = m_aiBasic[iLeaving];
+			bIncrease = m_adValues[iBasic] < m_adLower[iBasic];
+			dTarget = bIncrease ? m_adLower[iBasic] : m_adUpper[iBasic];
+			System.arraycopy( m_aadBasisInverse[iLeaving], 0, adPivotRow, 0, m_cRows );
+			if( !bIgnoreCosts )
+				computeDuals( adDuals );
+
+			dMaxAlpha = 0.0;
+			for( iVariable = 0 ; iVariable < m_cColumns + m_cRows ; iVariable++ ){
+				adAlphas[iVariable] = 0.0;
+				if( m_aiBasisPosition[iVariable] != -1 || m_adLower[iVariable] == m_adUpper[iVariable] )
+					continue;
+				adAlphas[iVariable] = dotColumn( adPivotRow, iVariable );
+				dMaxAlpha = Math.max( dMaxAlpha, Math.abs( adAlphas[iVariable] ) );
+			}
+
+			//the leaving variable changes by -alpha_j * dx_j - choose an entering variable that moves it towards the violated bound
+			iEntering = -1;
+			dBestRatio = Double.POSITIVE_INFINITY;
+			dBestAlpha = 0.0;
+			for( iVariable = 0 ; iVariable < m_cColumns + m_cRows ; iVariable++ ){
+				dAlpha = adAlphas[iVariable];
+				if( Math.abs( dAlpha ) <= Math.max( PIVOT_TOLERANCE, 1e-7 * dMaxAlpha ) )
+					continue;
+				boolean bEnteringIncreases = ( dAlpha < 0.0 ) == bIncrease;
+				if( bEnteringIncreases && m_adValues[iVariable] >= m_adUpper[iVariable] - PRIMAL_TOLERANCE )
+					continue;
+				if( !bEnteringIncreases && m_adValues[iVariable] <= m_adLower[iVariable] + PRIMAL_TOLERANCE )
+					continue;
+				dReducedCost = bIgnoreCosts ? 0.0 : reducedCost( iVariable, adDuals );
+				dRatio = Math.abs( dReducedCost ) / Math.abs( dAlpha );
+				if( dRatio < dBestRatio - DUAL_TOLERANCE ||
+						( dRatio <= dBestRatio + DUAL_TOLERANCE && ( bBland ? iEntering == -1 : Math.abs( dAlpha ) > Math.abs( dBestAlpha ) ) ) ){
+					dBestRatio = dRatio;
+					dBestAlpha = dAlpha;
+					iEntering = iVariable;
+				}
+			}
+			if( iEntering == -1 )
+				return Status.Infeasible;
+
+			if( dBestRatio < DUAL_TOLERANCE )
+				cDegenerate++;
+			else
+				cDegenerate = 0;
+
+			computeColumn( iEntering, adColumn );
+			dStep = ( dTarget - m_adValues[iBasic] ) / -adColumn[iLeaving];
+			m_adValues[iEntering] += dStep;
+			for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ )
+				m_adValues[m_aiBasic[iPosition]] -= dStep * adColumn[iPosition];
+			m_adValues[iBasic] = dTarget;
+			pivot( iLeaving, iEntering, adColumn );
+		}
+	}
+
+	private boolean isWithinBounds( int iVariable ){
+		return m_adValues[iVariable] >= m_adLower[iVariable] - PRIMAL_TOLERANCE && m_adValues[iVariable] <= m_adUpper[iVariable] + PRIMAL_TOLERANCE;
+	}
+
+	private boolean isPrimalFeasible(){
+		for( int iPosition = 0 ; iPosition < m_cRows ; iPosition++ ){
+			if( !isWithinBounds( m_aiBasic[iPosition] ) )
+				return false;
+		}
+		return true;
+	}
+
+	private boolean isDualFeasible(){
+		double[] adDuals = new double[m_cRows];
+		double dReducedCost = 0.0;
+		computeDuals( adDuals );
+		for( int iVariable = 0 ; iVariable < m_cColumns + m_cRows ; iVariable++ ){
+			if( m_aiBasisPosition[iVariable] != -1 || m_adLower[iVariable] == m_adUpper[iVariable] )
+				continue;
+			dReducedCost = reducedCost( iVariable, adDuals );
+			if( ( dReducedCost > DUAL_TOLERANCE && m_adValues[iVariable] < m_adUpper[iVariable] - PRIMAL_TOLERANCE ) ||
+					( dReducedCost < -DUAL_TOLERANCE && m_adValues[iVariable] > m_adLower[iVariable] + PRIMAL_TOLERANCE ) )
+				return false;
+		}
+		return true;
+	}
+
+	private double coefficient( int iRow, int iVariable ){
+		if( iVariable < m_cColumns )
+			return m_vRows.get( iRow )[iVariable];
+		return iVariable - m_cColumns == iRow ? -1.0 : 0.0;
+	}
+
+	/*
+	 * y = c_B * inv(B)
+	 */
+	private void computeDuals( double[] adDuals ){
+		int iPosition = 0, iRow = 0;
+		double dCost = 0.0;
+		for( iRow = 0 ; iRow < m_cRows ; iRow++ )
+			adDuals[iRow] = 0.0;
+		for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ ){
+			dCost = m_adCosts[m_aiBasic[iPosition]];
+			if( dCost != 0.0 ){
+				double[] adInverseRow = m_aadBasisInverse[iPosition];
+				for( iRow = 0 ; iRow < m_cRows ; iRow++ )
+					adDuals[iRow] += dCost * adInverseRow[iRow];
+			}
+		}
+	}
+
+	private double reducedCost( int iVariable, double[] adDuals ){
+		return m_adCosts[iVariable] - dotColumn( adDuals, iVariable );
+	}
+
+	/*
+	 * Product of a row vector (over the rows) and the column of a variable.
+	 */
+	private double dotColumn( double[] adRowVector, int iVariable ){
+		if( iVariable >= m_cColumns )
+			return -adRowVector[iVariable - m_cColumns];
+		double dSum = 0.0;
+		for( int iRow = 0 ; iRow < m_cRows ; iRow++ )
+			dSum += adRowVector[iRow] * m_vRows.get( iRow )[iVariable];
+		return dSum;
+	}
+
+	/*
+	 * w = inv(B) * A_j
+	 */
+	private void computeColumn( int iVariable, double[] adColumn ){
+		int iPosition = 0, iRow = 0;
+		if( iVariable >= m_cColumns ){
+			iRow = iVariable - m_cColumns;
+			for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ )
+				adColumn[iPosition] = -m_aadBasisInverse[iPosition][iRow];
+			return;
+		}
+		for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ )
+			adColumn[iPosition] = 0.0;
+		for( iRow = 0 ; iRow < m_cRows ; iRow++ ){
+			double dCoefficient = m_vRows.get( iRow )[iVariable];
+			if( dCoefficient != 0.0 ){
+				for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ )
+					adColumn[iPosition] += m_aadBasisInverse[iPosition][iRow] * dCoefficient;
+			}
+		}
+	}
+
+	private void pivot( int iLeaving, int iEntering, double[] adColumn ){
+		int iPosition = 0, iRow = 0;
+		double[] adPivotRow = m_aadBasisInverse[iLeaving];
+		double dPivot = adColumn[iLeaving], dFactor = 0.0;
+		for( iRow = 0 ; iRow < m_cRows ; iRow++ )
+			adPivotRow[iRow] /= dPivot;
+		for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ ){
+			dFactor = adColumn[iPosition];
+			if( iPosition != iLeaving && dFactor != 0.0 ){
+				double[] adInverseRow = m_aadBasisInverse[iPosition];
+				for( iRow = 0 ; iRow < m_cRows ; iRow++ )
+					adInverseRow[iRow] -= dFactor * adPivotRow[iRow];
+			}
+		}
+		m_aiBasisPosition[m_aiBasic[iLeaving]] = -1;
+		m_aiBasic[iLeaving] = iEntering;
+		m_aiBasisPosition[iEntering] = iLeaving;
+		m_cPivotsSinceRefactor++;
+	}
+
+	/*
+	 * Recomputes inv(B) from the basic columns with Gauss-Jordan elimination, and then the values of the basic variables.
+	 * Returns false if the basis is numerically singular.
+	 */
+	private boolean refactor(){
+		int iPosition = 0, iRow = 0, iPivot = 0, iMax = 0, i = 0;
+		double[][] aadBasis = new double[m_cRows][];
+		double[] adTemp = null;
+		double dFactor = 0.0;
+
+		//aadBasis[row][position] augmented with the identity
+		for( iRow = 0 ; iRow < m_cRows ; iRow++ ){
+			aadBasis[iRow] = new double[2 * m_cRows];
+			for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ )
+				aadBasis[iRow][iPosition] = coefficient( iRow, m_aiBasic[iPosition] );
+			aadBasis[iRow][m_cRows + iRow] = 1.0;
+		}
+		for( iPivot = 0 ; iPivot < m_cRows ; iPivot++ ){
+			iMax = iPivot;
+			for( iRow = iPivot + 1 ; iRow < m_cRows ; iRow++ ){
+				if( Math.abs( aadBasis[iRow][iPivot] ) > Math.abs( aadBasis[iMax][iPivot] ) )
+					iMax = iRow;
+			}
+			if( Math.abs( aadBasis[iMax][iPivot] ) < 1e-12 )
+				return false;
+			adTemp = aadBasis[iPivot];
+			aadBasis[iPivot] = aadBasis[iMax];
+			aadBasis[iMax] = adTemp;
+			dFactor = aadBasis[iPivot][iPivot];
+			for( i = 0 ; i < 2 * m_cRows ; i++ )
+				aadBasis[iPivot][i] /= dFactor;
+			for( iRow = 0 ; iRow < m_cRows ; iRow++ ){
+				dFactor = aadBasis[iRow][iPivot];
+				if( iRow != iPivot && dFactor != 0.0 ){
+					for( i = iPivot ; i < 2 * m_cRows ; i++ )
+						aadBasis[iRow][i] -= dFactor * aadBasis[iPivot][i];
+				}
+			}
+		}
+		//after the elimination row k of the augmented part is row k of inv(B), which maps rows to basis position k
+		for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ )
+			System.arraycopy( aadBasis[iPosition], m_cRows, m_aadBasisInverse[iPosition], 0, m_cRows );
+		m_cPivotsSinceRefactor = 0;
+		computeBasicValues();
+		return true;
+	}
+
+	/*
+	 * x_B = -inv(B) * N * x_N, since A*x - r = 0.
+	 */
+	private void computeBasicValues(){
+		int iRow = 0, iVariable = 0, iPosition = 0;
+		double[] adRight = new double[m_cRows];
+		for( iRow = 0 ; iRow < m_cRows ; iRow++ ){
+			double[] adRow = m_vRows.get( iRow );
+			double dSum = 0.0;
+			for( iVariable = 0 ; iVariable < m_cColumns ; iVariable++ ){
+				if( m_aiBasisPosition[iVariable] == -1 )
+					dSum += adRow[iVariable] * m_adValues[iVariable];
+			}
+			if( m_aiBasisPosition[m_cColumns + iRow] == -1 )
+				dSum -= m_adValues[m_cColumns + iRow];
+			adRight[iRow] = -dSum;
+		}
+		for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ ){
+			double dSum = 0.0;
+			double[] adInverseRow = m_aadBasisInverse[iPosition];
+			for( iRow = 0 ; iRow < m_cRows ; iRow++ )
+				dSum += adInverseRow[iRow] * adRight[iRow];
+			m_adValues[m_aiBasic[iPosition]] = dSum;
+		}
+	}
+
+	private void ensureRowCapacity( int cRows ){
+		int cVariables = m_cColumns + cRows, cCapacity = 0, iPosition = 0;
+		if( cVariables > m_adLower.length ){
+			cCapacity = Math.max( cVariables, 2 * m_adLower.length );
+			m_adLower = Arrays.copyOf( m_adLower, cCapacity );
+			m_adUpper = Arrays.copyOf( m_adUpper, cCapacity );
+			m_adValues = Arrays.copyOf( m_adValues, cCapacity );
+			m_adCosts = Arrays.copyOf( m_adCosts, cCapacity );
+			m_aiBasisPosition = Arrays.copyOf( m_aiBasisPosition, cCapacity );
+		}
+		if( cRows > m_aiBasic.length ){
+			cCapacity = Math.max( cRows, 2 * m_aiBasic.length );
+			m_aiBasic = Arrays.copyOf( m_aiBasic, cCapacity );
+			double[][] aadInverse = new double[cCapacity][cCapacity];
+			for( iPosition = 0 ; iPosition < m_cRows ; iPosition++ )
+				System.arraycopy( m_aadBasisInverse[iPosition], 0, aadInverse[iPosition], 0, m_cRows );
+			m_aadBasisInverse = aadInverse;
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package pomdp.utilities.lp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import pomdp.utilities.AlphaVector;
+
+/**
+ * Exact pruning of a set of alpha vectors with witness LPs (WitnessLP).
+ * filter is Lark's algorithm - vectors are checked against a growing set of winners, and each winner is added to the same LP.
+ * In the parallel mode every vector is checked against all the other vectors, which is independent for each vector, so blocks of
+ * vectors are checked concurrently, each block on its own LP.
+ * Both remove pointwise dominated vectors and duplicates first.
+ */
+public class LPPruning {
+	private static final int BLOCK_SIZE = 16;
+
+	private static long g_cIterations = 0;
+
+	/**
+	 * Returns the vectors that have a witness belief where they improve over the others by more than dEpsilon.
+	 */
+	public static Vector<AlphaVector> prune( Collection<AlphaVector> colVectors, int cStates, double dEpsilon, boolean bParallel ){
+		if( bParallel )
+			return pruneParallel( colVectors, cStates, dEpsilon );
+		return filter( colVectors, cStates, dEpsilon );
+	}
+
+	/**
+	 * Lark's filter.
+	 */
+	public static Vector<AlphaVector> filter( Collection<AlphaVector> colVectors, int cStates, double dEpsilon ){
+		List<AlphaVector> lCandidates = removePointwiseDominated( colVectors );
+		List<double[]> lValues = new ArrayList<double[]>();
+		Vector<AlphaVector> vWinners = new Vector<AlphaVector>();
+		WitnessLP lp = new WitnessLP( cStates );
+
+		if( lCandidates.size() <= 1 )
+			return new Vector<AlphaVector>( lCandidates );
+		for( AlphaVector av : lCandidates )
+			lValues.add( av.toArray() );
+		addCorners( lCandidates, lValues, vWinners, lp, cStates );
+		addWitnessed( lCandidates, lValues, vWinners, lp, dEpsilon );
+		addIterations( lp.getIterationCount() );
+		return vWinners;
+	}
+
+	/*
+	 * The best vectors at the corners of the belief simplex are winners.
+	 */
+	private static void addCorners( List<AlphaVector> lCandidates, List<double[]> lValues, Vector<AlphaVector> vWinners, WitnessLP lp, int cStates ){
+		boolean[] abCorner = new boolean[lCandidates.size()];
+		int iState = 0, iBest = 0;
+		for( iState = 0 ; iState < cStates ; iState++ )
+			abCorner[best( lValues, iState )] = true;
+		for( iBest = abCorner.length - 1 ; iBest >= 0 ; iBest-- ){
+			if( abCorner[iBest] ){
+				vWinners.add( lCandidates.get( iBest ) );
+				lp.addVector( lValues.get( iBest ) );
+				lCandidates.remove( iBest );
+				lValues.remove( iBest );
+			}
+		}
+	}
+
+	/*
+	 * The main loop of Lark's filter - a candidate without a witness against the winners is dropped, otherwise the best candidate
+	 * at the witness becomes a winner.
+	 */
+	private static void addWitnessed( List<AlphaVector> lCandidates, List<double[]> lValues, Vector<AlphaVector> vWinners, WitnessLP lp, double dEpsilon ){
+		double[] adWitness = null;
+		int iBest = 0;
+		while( !lCandidates.isEmpty() ){
+			adWitness = lp.findWitness( lValues.get( 0 ), -1, dEpsilon );
+			if( adWitness == null ){
+				lCandidates.remove( 0 );
+				lValues.remove( 0 );
+			}
+			else{
+				iBest = best( lValues, adWitness );
+				vWinners.add( lCandidates.get( iBest ) );
+				lp.addVector( lValues.get( iBest ) );
+				lCandidates.remove( iBest );
+				lValues.remove( iBest );
+			}
+		}
+	}
+
+	/**
+	 * Checks every vector against all the others, blocks of vectors in parallel.
+	 * Vectors that are equal up to dEpsilon remove each other in this check, so the vectors without a witness are checked again
+	 * against the survivors with Lark's filter, which keeps one vector of every such group.
+	 */
+	public static Vector<AlphaVector> pruneParallel( Collection<AlphaVector> colVectors, int cStates, double dEpsilon ){
+		List<AlphaVector> lCandidates = removePointwiseDominated( colVectors );
+		Vector<AlphaVector> vWinners = new Vector<AlphaVector>();
+		int iVector = 0;
+
+		if( lCandidates.size() <= 1 )
+			return new Vector<AlphaVector>( lCandidates );
+		double[][] aadValues = new double[lCandidates.size()][];
+		boolean[] abDominated = new boolean[lCandidates.size()];
+		for( iVector = 0 ; iVector < aadValues.length ; iVector++ )
+			aadValues[iVector] = lCandidates.get( iVector ).toArray();
+		ForkJoinPool.commonPool().invoke( new CheckBlock( aadValues, abDominated, cStates, dEpsilon, 0, aadValues.length ) );
+		List<AlphaVector> lDominated = new ArrayList<AlphaVector>();
+		List<double[]> lDominatedValues = new ArrayList<double[]>();
+		WitnessLP lp = new WitnessLP( cStates );
+		for( iVector = 0 ; iVector < aadValues.length ; iVector++ ){
+			if( abDominated[iVector] ){
+				lDominated.add( lCandidates.get( iVector ) );
+				lDominatedValues.add( aadValues[iVector] );
+			}
+			else{
+				vWinners.add( lCandidates.get( iVector ) );
+				lp.addVector( aadValues[iVector] );
+			}
+		}
+		if( !lDominated.isEmpty() ){
+			if( vWinners.isEmpty() )
+				addCorners( lDominated, lDominatedValues, vWinners, lp, cStates );
+			addWitnessed( lDominated, lDominatedValues, vWinners, lp, dEpsilon );
+			addIterations( lp.getIterationCount() );
+		}
+		return vWinners;
+	}
+
+	private static class CheckBlock extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		private double[][] m_aadValues;
+		private boolean[] m_abDominated;
+		private int m_cStates;
+		private double m_dEpsilon;
+		private int m_iFirst, m_iLast;
+
+		public CheckBlock( double[][] aadValues, boolean[] abDominated, int cStates, double dEpsilon, int iFirst, int iLast ){
+			m_aadValues = aadValues;
+			m_abDominated = abDominated;
+			m_cStates = cStates;
+			m_dEpsilon = dEpsilon;
+			m_iFirst = iFirst;
+			m_iLast = iLast;
+		}
+
+		protected void compute(){
+			int iVector = 0;
+			if( m_iLast - m_iFirst > BLOCK_SIZE ){
+				int iMiddle = ( m_iFirst + m_iLast ) / 2;
+				invokeAll( new CheckBlock( m_aadValues, m_abDominated, m_cStates, m_dEpsilon, m_iFirst, iMiddle ),
+						new CheckBlock( m_aadValues, m_abDominated, m_cStates, m_dEpsilon, iMiddle, m_iLast ) );
+				return;
+			}
+			WitnessLP lp = new WitnessLP( m_cStates );
+			for( iVector = 0 ; iVector < m_aadValues.length ; iVector++ )
+				lp.addVector( m_aadValues[iVector] );
+			for( iVector = m_iFirst ; iVector < m_iLast ; iVector++ )
+				m_abDominated[iVector] = lp.findWitness( m_aadValues[iVector], iVector, m_dEpsilon ) == null;
+			addIterations( lp.getIterationCount() );
+		}
+	}
+
+	/*
+	 * Keeps the first of equal vectors and removes vectors that are pointwise dominated by another vector.
+	 */
+	private static List<AlphaVector> removePointwiseDominated( Collection<AlphaVector> colVectors ){
+		List<AlphaVector> lVectors = new ArrayList<AlphaVector>( colVectors );
+		List<AlphaVector> lResult = new ArrayList<AlphaVector>();
+		List<double[]> lValues = new ArrayList<double[]>();
+		boolean bDominated = false;
+		int iVector = 0;
+
+		for( AlphaVector av : lVectors ){
+			double[] adValues = av.toArray();
+			bDominated = false;
+			for( double[] adOther : lValues ){
+				if( dominates( adOther, adValues ) ){
+					bDominated = true;
+					break;
+				}
+			}
+			if( !bDominated ){
+				for( iVector = lValues.size() - 1 ; iVector >= 0 ; iVector-- ){
+					if( dominates( adValues, lValues.get( iVector ) ) ){
+						lValues.remove( iVector );
+						lResult.remove( iVector );
+					}
+				}
+				lValues.add( adValues );
+				lResult.add( av );
+			}
+		}
+		return lResult;
+	}
+
+	private static boolean dominates( double[] adFirst, double[] adSecond ){
+		for( int iState = 0 ; iState < adFirst.length ; iState++ ){
+			if( adSecond[iState] > adFirst[iState] )
+				return false;
+		}
+		return true;
+	}
+
+	private static int best( List<double[]> lValues, int iState ){
+		int iVector = 0, iBest = -1;
+		double dMax = Double.NEGATIVE_INFINITY;
+		for( iVector = 0 ; iVector < lValues.size() ; iVector++ ){
+			if( lValues.get( iVector )[iState] > dMax ){
+				dMax = lValues.get( iVector )[iState];
+				iBest = iVector;
+			}
+		}
+		return iBest;
+	}
+
+	private static int best( List<double[]> lValues, double[] adBelief ){
+		int iVector = 0, iState = 0, iBest = -1;
+		double dMax = Double.NEGATIVE_INFINITY, dValue = 0.0;
+		for( iVector = 0 ; iVector < lValues.size() ; iVector++ ){
+			double[] adValues = lValues.get( iVector );
+			dValue = 0.0;
+			for( iState = 0 ; iState < adBelief.length ; iState++ )
+				dValue += adBelief[iState] * adValues[iState];
+			if( dValue > dMax ){
+				dMax = dValue;
+				iBest = iVector;
+			}
+		}
+		return iBest;
+	}
+
+	private static synchronized void addIterations( long cIterations ){
+		g_cIterations += cIterations;
+	}
+
+	/**
+	 * Total number of simplex iterations of all pruning operations.
+	 */
+	public static synchronized long getIterationCount(){
+		return g_cIterations;
+	}
+}
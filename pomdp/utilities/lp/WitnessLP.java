@@ -0,0 +1,195 @@
+package pomdp.utilities.lp;
+
+import java.util.ArrayList;
+
+import pomdp.utilities.AlphaVector;
+import pomdp.utilities.Logger;
+
+/**
+ * The witness LP of exact pruning - given a set of vectors and a vector alpha, find
+ *   max alpha*b - v s.t. beta*b <= v for every beta in the set, sum_s b(s) = 1, 0 <= b(s) <= 1.
+ * A positive optimum is the improvement of alpha over the set at the belief b.
+ * The vectors of the set are rows of a single BoundedSimplex, so successive queries start from the previous optimal basis -
+ * queries for different vectors re-optimize with the primal simplex, and vectors added to the set are fixed with the dual simplex.
+ * A vector of the set can be excluded from a single query, so every vector can be checked against all the others on one LP,
+ * and vectors can be dropped from the set and added back between queries (setActive) without rebuilding the LP.
+ * Not thread safe - use an instance per thread.
+ */
+public class WitnessLP {
+	private static final int MAX_ITERATIONS = 100000;
+
+	private BoundedSimplex m_lpSolver;
+	private int m_cStates;
+	private ArrayList<double[]> m_vVectors;
+	//the LP row of every vector, or -1 for vectors that are not in the set
+	private ArrayList<Integer> m_vRows;
+	private int m_cActive;
+	private double m_dImprovement;
+	private double[] m_adCosts;
+
+	public WitnessLP( int cStates ){
+		m_cStates = cStates;
+		m_vVectors = new ArrayList<double[]>();
+		m_vRows = new ArrayList<Integer>();
+		m_cActive = 0;
+		m_adCosts = new double[cStates + 1];
+		m_dImprovement = 0.0;
+		m_lpSolver = newSolver();
+	}
+
+	private BoundedSimplex newSolver(){
+		BoundedSimplex lp = new BoundedSimplex( m_cStates + 1 );
+		double[] adRow = new double[m_cStates + 1];
+		int iState = 0;
+		for( iState = 0 ; iState < m_cStates ; iState++ ){
+			lp.setColumnBounds( iState, 0.0, 1.0 );
+			adRow[iState] = 1.0;
+		}
+		//the value of the set at the belief
+		lp.setColumnBounds( m_cStates, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY );
+		lp.addRow( adRow, 1.0, 1.0 );
+		return lp;
+	}
+
+	/**
+	 * Adds a vector to the set.
+	 * @return the index of the vector, used to exclude it in findWitness
+	 */
+	public int addVector( AlphaVector av ){
+		return addVector( av.toArray() );
+	}
+
+	public int addVector( double[] adValues ){
+		return addVector( adValues, true );
+	}
+
+	public int addVector( AlphaVector av, boolean bActive ){
+		return addVector( av.toArray(), bActive );
+	}
+
+	/**
+	 * Adds a vector to the LP. An inactive vector does not constrain the queries until it is activated with setActive.
+	 * @return the index of the vector, used in setActive and to exclude it in findWitness
+	 */
+	public int addVector( double[] adValues, boolean bActive ){
+		m_vVectors.add( adValues );
+		m_vRows.add( -1 );
+		if( bActive ){
+			setActive( m_vVectors.size() - 1, true );
+		}
+		return m_vVectors.size() - 1;
+	}
+
+	/**
+	 * Drops a vector from the set or adds it back. The rows of dropped vectors are removed from the LP, which keeps a feasible basis
+	 * feasible, and the basis is fixed with the dual simplex after every row that is added back.
+	 */
+	public void setActive( int iVector, boolean bActive ){
+		int iRow = m_vRows.get( iVector ), iOther = 0, iOtherRow = 0;
+		if( ( iRow != -1 ) == bActive )
+			return;
+		if( bActive ){
+			double[] adValues = m_vVectors.get( iVector ), adRow = new double[m_cStates + 1];
+			System.arraycopy( adValues, 0, adRow, 0, m_cStates );
+			adRow[m_cStates] = -1.0;
+			m_vRows.set( iVector, m_lpSolver.addRow( adRow, Double.NEGATIVE_INFINITY, 0.0 ) );
+			m_lpSolver.restoreFeasibility( MAX_ITERATIONS );
+			m_cActive++;
+		}
+		else{
+			m_lpSolver.removeRow( iRow );
+			m_vRows.set( iVector, -1 );
+			for( iOther = 0 ; iOther < m_vRows.size() ; iOther++ ){
+				iOtherRow = m_vRows.get( iOther );
+				if( iOtherRow > iRow )
+					m_vRows.set( iOther, iOtherRow - 1 );
+			}
+			m_cActive--;
+		}
+	}
+
+	public boolean isActive( int iVector ){
+		return m_vRows.get( iVector ) != -1;
+	}
+
+	public int getVectorCount(){
+		return m_vVectors.size();
+	}
+
+	/**
+	 * The improvement of the vector at the belief found by the last findWitness.
+	 */
+	public double getImprovement(){
+		return m_dImprovement;
+	}
+
+	public long getIterationCount(){
+		return m_lpSolver.getIterationCount();
+	}
+
+	public double[] findWitness( AlphaVector av, double dEpsilon ){
+		return findWitness( av.toArray(), -1, dEpsilon );
+	}
+
+	/**
+	 * Finds a belief where the vector is better than all the vectors of the set by more than dEpsilon.
+	 * @param iExclude the index of a vector of the set to ignore in this query, or -1
+	 * @return the belief, or null if the vector is dominated by the set
+	 */
+	public double[] findWitness( double[] adAlpha, int iExclude, double dEpsilon ){
+		double[] adBelief = null;
+		int iState = 0;
+
+		int iExcludedRow = ( iExclude == -1 ) ? -1 : m_vRows.get( iExclude );
+		if( m_cActive == 0 || ( m_cActive == 1 && iExcludedRow != -1 ) ){
+			//nothing to compete with - any belief is a witness
+			m_dImprovement = Double.POSITIVE_INFINITY;
+			return corner( adAlpha );
+		}
+
+		if( iExcludedRow != -1 )
+			m_lpSolver.setRowBounds( iExcludedRow, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY );
+		System.arraycopy( adAlpha, 0, m_adCosts, 0, m_cStates );
+		m_adCosts[m_cStates] = -1.0;
+		m_lpSolver.setObjective( m_adCosts );
+		BoundedSimplex.Status sStatus = m_lpSolver.solve( MAX_ITERATIONS );
+		if( sStatus != BoundedSimplex.Status.Optimal ){
+			//numerical trouble - start over from the all logical basis
+			Logger.getInstance().log( "WitnessLP", 1, "findWitness", "LP returned " + sStatus + ", restarting" );
+			m_lpSolver.resetBasis();
+			sStatus = m_lpSolver.solve( MAX_ITERATIONS );
+		}
+
+		adBelief = new double[m_cStates];
+		for( iState = 0 ; iState < m_cStates ; iState++ )
+			adBelief[iState] = Math.min( 1.0, Math.max( 0.0, m_lpSolver.getValue( iState ) ) );
+		if( sStatus == BoundedSimplex.Status.Optimal ){
+			m_dImprovement = m_lpSolver.getObjectiveValue();
+		}
+		else{
+			//keep the vector rather than prune it wrongly
+			Logger.getInstance().logError( "WitnessLP", "findWitness", "LP failed with " + sStatus );
+			m_dImprovement = Double.POSITIVE_INFINITY;
+		}
+
+		if( iExcludedRow != -1 ){
+			m_lpSolver.setRowBounds( iExcludedRow, Double.NEGATIVE_INFINITY, 0.0 );
+			m_lpSolver.restoreFeasibility( MAX_ITERATIONS );
+		}
+
+		if( m_dImprovement > dEpsilon )
+			return adBelief;
+		return null;
+	}
+
+	private double[] corner( double[] adAlpha ){
+		double[] adBelief = new double[m_cStates];
+		int iState = 0, iMaxState = 0;
+		for( iState = 1 ; iState < m_cStates ; iState++ ){
+			if( adAlpha[iState] > adAlpha[iMaxState] )
+				iMaxState = iState;
+		}
+		adBelief[iMaxState] = 1.0;
+		return adBelief;
+	}
+}
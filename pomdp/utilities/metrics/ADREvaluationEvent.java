@@ -0,0 +1,38 @@
+package pomdp.utilities.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of an estimation of the average discounted reward of a policy by simulation.
+ */
+@Name( "pomdp.ADREvaluation" )
+@Label( "ADR Evaluation" )
+@Category( { "POMDP", "Evaluation" } )
+@StackTrace( false )
+public class ADREvaluationEvent extends jdk.jfr.Event {
+	@Name( "trials" )
+	@Label( "Trials" )
+	private long m_cTrials;
+	@Name( "maxSteps" )
+	@Label( "Max Steps" )
+	private int m_cMaxSteps;
+	@Name( "adr" )
+	@Label( "ADR" )
+	private double m_dADR;
+	@Name( "standardError" )
+	@Label( "Standard Error" )
+	private double m_dStandardError;
+
+	public void end( long cTrials, int cMaxSteps, double dADR, double dStandardError ){
+		if( !shouldCommit() )
+			return;
+		m_cTrials = cTrials;
+		m_cMaxSteps = cMaxSteps;
+		m_dADR = dADR;
+		m_dStandardError = dStandardError;
+		commit();
+	}
+}
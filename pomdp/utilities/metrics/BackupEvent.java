@@ -0,0 +1,37 @@
+package pomdp.utilities.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of the backup of a single belief state.
+ */
+@Name( "pomdp.Backup" )
+@Label( "Backup" )
+@Category( { "POMDP", "Solver" } )
+@StackTrace( false )
+public class BackupEvent extends jdk.jfr.Event {
+	@Name( "beliefId" )
+	@Label( "Belief Id" )
+	private int m_iBeliefId;
+	@Name( "action" )
+	@Label( "Action" )
+	@Description( "The action of the new vector" )
+	private int m_iAction;
+	@Name( "vectorsScanned" )
+	@Label( "Vectors Scanned" )
+	@Description( "Number of vectors evaluated against beliefs while maximizing over the value function for every action and observation" )
+	private int m_cVectorsScanned;
+
+	public void end( int iBeliefId, int iAction, int cVectorsScanned ){
+		if( !shouldCommit() )
+			return;
+		m_iBeliefId = iBeliefId;
+		m_iAction = iAction;
+		m_cVectorsScanned = cVectorsScanned;
+		commit();
+	}
+}
@@ -0,0 +1,32 @@
+package pomdp.utilities.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of a batched backup of a set of belief states against the same value function.
+ */
+@Name( "pomdp.BatchedBackup" )
+@Label( "Batched Backup" )
+@Category( { "POMDP", "Solver" } )
+@StackTrace( false )
+public class BatchedBackupEvent extends jdk.jfr.Event {
+	@Name( "beliefPoints" )
+	@Label( "Belief Points" )
+	private int m_cBeliefPoints;
+	@Name( "vectorsScanned" )
+	@Label( "Vectors Scanned" )
+	@Description( "Number of projection rows evaluated against beliefs, over all the beliefs, actions and observations" )
+	private int m_cVectorsScanned;
+
+	public void end( int cBeliefPoints, int cVectorsScanned ){
+		if( !shouldCommit() )
+			return;
+		m_cBeliefPoints = cBeliefPoints;
+		m_cVectorsScanned = cVectorsScanned;
+		commit();
+	}
+}
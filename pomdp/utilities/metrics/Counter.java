@@ -0,0 +1,36 @@
+package pomdp.utilities.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonic event counter, striped so that concurrent increments do not contend.
+ */
+public class Counter {
+	private String m_sName;
+	private LongAdder m_cCount;
+
+	Counter( String sName ){
+		m_sName = sName;
+		m_cCount = new LongAdder();
+	}
+
+	public String getName(){
+		return m_sName;
+	}
+
+	public void increment(){
+		m_cCount.increment();
+	}
+
+	public void add( long cEvents ){
+		m_cCount.add( cEvents );
+	}
+
+	public long get(){
+		return m_cCount.sum();
+	}
+
+	public void reset(){
+		m_cCount.reset();
+	}
+}
@@ -0,0 +1,30 @@
+package pomdp.utilities.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of an expansion of the belief point set (PBVI).
+ */
+@Name( "pomdp.BeliefExpansion" )
+@Label( "Belief Expansion" )
+@Category( { "POMDP", "Solver" } )
+@StackTrace( false )
+public class ExpansionEvent extends jdk.jfr.Event {
+	@Name( "beliefPointsBefore" )
+	@Label( "Belief Points Before" )
+	private int m_cBefore;
+	@Name( "beliefPointsAfter" )
+	@Label( "Belief Points After" )
+	private int m_cAfter;
+
+	public void end( int cBefore, int cAfter ){
+		if( !shouldCommit() )
+			return;
+		m_cBefore = cBefore;
+		m_cAfter = cAfter;
+		commit();
+	}
+}
@@ -0,0 +1,37 @@
+package pomdp.utilities.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * The last reported value of a quantity, such as the size of a value function.
+ * A gauge either holds the value it was last set to, or reads it from a source whenever it is sampled.
+ */
+public class Gauge {
+	private String m_sName;
+	private volatile double m_dValue;
+	private DoubleSupplier m_dsSource;
+
+	Gauge( String sName, DoubleSupplier dsSource ){
+		m_sName = sName;
+		m_dValue = Double.NaN;
+		m_dsSource = dsSource;
+	}
+
+	public String getName(){
+		return m_sName;
+	}
+
+	public void set( double dValue ){
+		m_dValue = dValue;
+	}
+
+	public double get(){
+		if( m_dsSource != null )
+			return m_dsSource.getAsDouble();
+		return m_dValue;
+	}
+
+	public void reset(){
+		m_dValue = Double.NaN;
+	}
+}
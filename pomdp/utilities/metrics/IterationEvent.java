@@ -0,0 +1,54 @@
+package pomdp.utilities.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of a single iteration of a value iteration algorithm, from its begin to its end.
+ */
+@Name( "pomdp.Iteration" )
+@Label( "Solver Iteration" )
+@Category( { "POMDP", "Solver" } )
+@StackTrace( false )
+public class IterationEvent extends jdk.jfr.Event {
+	@Name( "algorithm" )
+	@Label( "Algorithm" )
+	private String m_sAlgorithm;
+	@Name( "iteration" )
+	@Label( "Iteration" )
+	private int m_iIteration;
+	@Name( "vectors" )
+	@Label( "Vectors" )
+	@Description( "|V| at the end of the iteration" )
+	private int m_cVectors;
+	@Name( "beliefPoints" )
+	@Label( "Belief Points" )
+	private int m_cBeliefPoints;
+	@Name( "backups" )
+	@Label( "Backups" )
+	@Description( "Backups executed during the iteration" )
+	private long m_cBackups;
+	@Name( "maxDelta" )
+	@Label( "Max Delta" )
+	private double m_dMaxDelta;
+	@Name( "boundGap" )
+	@Label( "Bound Gap" )
+	@Description( "Upper bound minus lower bound at the initial belief, NaN for algorithms without an upper bound" )
+	private double m_dBoundGap;
+
+	public void end( String sAlgorithm, int iIteration, int cVectors, int cBeliefPoints, long cBackups, double dMaxDelta, double dBoundGap ){
+		if( !shouldCommit() )
+			return;
+		m_sAlgorithm = sAlgorithm;
+		m_iIteration = iIteration;
+		m_cVectors = cVectors;
+		m_cBeliefPoints = cBeliefPoints;
+		m_cBackups = cBackups;
+		m_dMaxDelta = dMaxDelta;
+		m_dBoundGap = dBoundGap;
+		commit();
+	}
+}
@@ -0,0 +1,119 @@
+package pomdp.utilities.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds with log-linear buckets, in the spirit of HdrHistogram.
+ * Values below 16 have their own bucket, and every power of two above is split into 16 linear sub buckets,
+ * so a recorded value is known up to a relative error of 1/32 over the whole range of a long,
+ * with a fixed number of buckets and a constant recording cost (no allocation, no locks).
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKETS;
+
+	private String m_sName;
+	private AtomicLongArray m_acBuckets;
+	private LongAdder m_cCount;
+	private LongAdder m_lSum;
+	private LongAccumulator m_lMax;
+
+	LatencyHistogram( String sName ){
+		m_sName = sName;
+		m_acBuckets = new AtomicLongArray( BUCKETS );
+		m_cCount = new LongAdder();
+		m_lSum = new LongAdder();
+		m_lMax = new LongAccumulator( Long::max, 0 );
+	}
+
+	public String getName(){
+		return m_sName;
+	}
+
+	private static int bucketIndex( long lValue ){
+		if( lValue < SUB_BUCKETS )
+			return (int)lValue;
+		int iExponent = 63 - Long.numberOfLeadingZeros( lValue );
+		return ( iExponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + (int)( ( lValue >>> ( iExponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 ) );
+	}
+
+	//the middle of the range of values that fall into the bucket
+	private static long bucketValue( int iBucket ){
+		if( iBucket < SUB_BUCKETS )
+			return iBucket;
+		int iShift = iBucket / SUB_BUCKETS - 1;
+		long lLowest = (long)( SUB_BUCKETS + iBucket % SUB_BUCKETS ) << iShift;
+		return lLowest + ( ( 1L << iShift ) >>> 1 );
+	}
+
+	public void record( long lNanos ){
+		if( lNanos < 0 )
+			lNanos = 0;
+		m_acBuckets.incrementAndGet( bucketIndex( lNanos ) );
+		m_cCount.increment();
+		m_lSum.add( lNanos );
+		m_lMax.accumulate( lNanos );
+	}
+
+	/**
+	 * Records the time passed since a start time obtained from Metrics.startTimer.
+	 * Start time 0 means that metrics were off when the operation started, and nothing is recorded.
+	 */
+	public void recordSince( long lStartTime ){
+		if( lStartTime != 0 )
+			record( System.nanoTime() - lStartTime );
+	}
+
+	public long getCount(){
+		return m_cCount.sum();
+	}
+
+	public long getTotal(){
+		return m_lSum.sum();
+	}
+
+	public double getMean(){
+		long cCount = m_cCount.sum();
+		if( cCount == 0 )
+			return Double.NaN;
+		return m_lSum.sum() / (double)cCount;
+	}
+
+	public long getMax(){
+		return m_lMax.get();
+	}
+
+	/**
+	 * @param dPercentile - in [0,100]
+	 * @return the recorded value at the percentile, up to the bucket precision, or 0 if nothing was recorded
+	 */
+	public long getPercentile( double dPercentile ){
+		long[] acBuckets = new long[BUCKETS];
+		long cCount = 0, cTarget = 0, cSeen = 0;
+		int iBucket = 0;
+		for( iBucket = 0 ; iBucket < BUCKETS ; iBucket++ ){
+			acBuckets[iBucket] = m_acBuckets.get( iBucket );
+			cCount += acBuckets[iBucket];
+		}
+		if( cCount == 0 )
+			return 0;
+		cTarget = Math.max( 1, (long)Math.ceil( dPercentile / 100.0 * cCount ) );
+		for( iBucket = 0 ; iBucket < BUCKETS ; iBucket++ ){
+			cSeen += acBuckets[iBucket];
+			if( cSeen >= cTarget )
+				return Math.min( bucketValue( iBucket ), getMax() );
+		}
+		return getMax();
+	}
+
+	public void reset(){
+		for( int iBucket = 0 ; iBucket < BUCKETS ; iBucket++ )
+			m_acBuckets.set( iBucket, 0 );
+		m_cCount.reset();
+		m_lSum.reset();
+		m_lMax.reset();
+	}
+}
@@ -0,0 +1,220 @@
+package pomdp.utilities.metrics;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import pomdp.utilities.ExecutionProperties;
+import pomdp.utilities.Logger;
+
+/**
+ * Registry of the performance metrics of the solvers - counters, latency histograms and gauges, by name.
+ * Instruments are thread safe and cheap to update. The instruments of the hot paths are static fields, and their
+ * call sites check isEnabled first, so with metrics off (ExecutionProperties.useMetrics) an operation costs a
+ * single static read.
+ * A snapshot of all the instruments is a single JSON line, and a reporter thread can append snapshots to a file periodically.
+ * For every pair of counters X.hits and X.misses the snapshot also reports the gauge X.hitRate.
+ */
+public class Metrics {
+	private static final Map<String, Counter> g_mCounters = new ConcurrentHashMap<String, Counter>();
+	private static final Map<String, LatencyHistogram> g_mHistograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	private static final Map<String, Gauge> g_mGauges = new ConcurrentHashMap<String, Gauge>();
+
+	public static final LatencyHistogram BACKUP_TIME = getHistogram( "backup.time" );
+	public static final LatencyHistogram BATCHED_BACKUP_TIME = getHistogram( "backup.batch.time" );
+	public static final LatencyHistogram TAU_TIME = getHistogram( "tau.time" );
+	public static final LatencyHistogram G_TIME = getHistogram( "g.time" );
+	public static final LatencyHistogram DOT_PRODUCT_TIME = getHistogram( "dotProduct.time" );
+
+	public static final Counter G_COMPUTATIONS = getCounter( "g.computations" );
+	public static final Counter DOT_PRODUCTS = getCounter( "dotProduct.count" );
+	public static final Counter APPROXIMATE_DOT_PRODUCTS = getCounter( "dotProduct.approximate" );
+	public static final Counter BELIEF_UPDATES = getCounter( "belief.updates" );
+	public static final Counter SUCCESSOR_CACHE_HITS = getCounter( "successorCache.hits" );
+	public static final Counter SUCCESSOR_CACHE_MISSES = getCounter( "successorCache.misses" );
+
+	private static ScheduledExecutorService g_sesReporter = null;
+	private static String g_sReportFile = null;
+
+	public static boolean isEnabled(){
+		return ExecutionProperties.useMetrics();
+	}
+
+	public static void setEnabled( boolean bEnabled ){
+		ExecutionProperties.setUseMetrics( bEnabled );
+	}
+
+	/**
+	 * The start time of a timed operation, to be passed to LatencyHistogram.recordSince. 0 when metrics are off.
+	 */
+	public static long startTimer(){
+		if( ExecutionProperties.useMetrics() )
+			return System.nanoTime();
+		return 0;
+	}
+
+	public static Counter getCounter( String sName ){
+		return g_mCounters.computeIfAbsent( sName, s -> new Counter( s ) );
+	}
+
+	public static LatencyHistogram getHistogram( String sName ){
+		return g_mHistograms.computeIfAbsent( sName, s -> new LatencyHistogram( s ) );
+	}
+
+	public static Gauge getGauge( String sName ){
+		return g_mGauges.computeIfAbsent( sName, s -> new Gauge( s, null ) );
+	}
+
+	/**
+	 * Registers (or replaces) a gauge that reads its value from a source when sampled.
+	 */
+	public static Gauge registerGauge( String sName, DoubleSupplier dsSource ){
+		Gauge g = new Gauge( sName, dsSource );
+		g_mGauges.put( sName, g );
+		return g;
+	}
+
+	public static void reset(){
+		for( Counter c : g_mCounters.values() )
+			c.reset();
+		for( LatencyHistogram h : g_mHistograms.values() )
+			h.reset();
+		for( Gauge g : g_mGauges.values() )
+			g.reset();
+	}
+
+	/**
+	 * A snapshot of all the instruments as a single line JSON object. Histogram values are in nanoseconds,
+	 * and instruments that were never updated are omitted.
+	 */
+	public static String snapshot(){
+		StringBuilder sb = new StringBuilder();
+		TreeMap<String, Double> mGauges = new TreeMap<String, Double>();
+		boolean bFirst = true;
+
+		sb.append( "{\"time\":" ).append( System.currentTimeMillis() );
+
+		sb.append( ",\"counters\":{" );
+		for( Counter c : new TreeMap<String, Counter>( g_mCounters ).values() ){
+			if( c.get() == 0 )
+				continue;
+			if( !bFirst )
+				sb.append( ',' );
+			sb.append( quote( c.getName() ) ).append( ':' ).append( c.get() );
+			bFirst = false;
+		}
+		sb.append( '}' );
+
+		for( Gauge g : g_mGauges.values() ){
+			double dValue = g.get();
+			if( !Double.isNaN( dValue ) )
+				mGauges.put( g.getName(), dValue );
+		}
+		for( Counter c : g_mCounters.values() ){
+			if( c.getName().endsWith( ".hits" ) ){
+				String sPrefix = c.getName().substring( 0, c.getName().length() - ".hits".length() );
+				Counter cMisses = g_mCounters.get( sPrefix + ".misses" );
+				long cHits = c.get(), cAll = cHits;
+				if( cMisses != null )
+					cAll += cMisses.get();
+				if( cAll > 0 )
+					mGauges.put( sPrefix + ".hitRate", cHits / (double)cAll );
+			}
+		}
+		sb.append( ",\"gauges\":{" );
+		bFirst = true;
+		for( Map.Entry<String, Double> e : mGauges.entrySet() ){
+			if( !bFirst )
+				sb.append( ',' );
+			sb.append( quote( e.getKey() ) ).append( ':' ).append( number( e.getValue() ) );
+			bFirst = false;
+		}
+		sb.append( '}' );
+
+		sb.append( ",\"histograms\":{" );
+		bFirst = true;
+		for( LatencyHistogram h : new TreeMap<String, LatencyHistogram>( g_mHistograms ).values() ){
+			if( h.getCount() == 0 )
+				continue;
+			if( !bFirst )
+				sb.append( ',' );
+			sb.append( quote( h.getName() ) ).append( ":{\"count\":" ).append( h.getCount() );
+			sb.append( ",\"mean\":" ).append( number( h.getMean() ) );
+			sb.append( ",\"p50\":" ).append( h.getPercentile( 50.0 ) );
+			sb.append( ",\"p90\":" ).append( h.getPercentile( 90.0 ) );
+			sb.append( ",\"p99\":" ).append( h.getPercentile( 99.0 ) );
+			sb.append( ",\"p999\":" ).append( h.getPercentile( 99.9 ) );
+			sb.append( ",\"max\":" ).append( h.getMax() ).append( '}' );
+			bFirst = false;
+		}
+		sb.append( "}}" );
+		return sb.toString();
+	}
+
+	private static String number( double dValue ){
+		if( Double.isNaN( dValue ) || Double.isInfinite( dValue ) )
+			return "null";
+		return Double.toString( dValue );
+	}
+
+	private static String quote( String s ){
+		return "\"" + s.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ) + "\"";
+	}
+
+	/**
+	 * Appends a snapshot line to the file.
+	 */
+	public static void writeSnapshot( String sFileName ){
+		String sSnapshot = snapshot();
+		try{
+			FileWriter fw = new FileWriter( sFileName, true );
+			try{
+				fw.write( sSnapshot + "\n" );
+			}
+			finally{
+				fw.close();
+			}
+		}
+		catch( IOException e ){
+			Logger.getInstance().logError( "Metrics", "writeSnapshot", "Could not write to " + sFileName + ": " + e );
+		}
+	}
+
+	/**
+	 * Starts a daemon thread that appends a snapshot to the file every lPeriod ms, replacing a running reporter.
+	 */
+	public static synchronized void startReporter( String sFileName, long lPeriod ){
+		stopReporter();
+		g_sReportFile = sFileName;
+		g_sesReporter = Executors.newSingleThreadScheduledExecutor( r -> {
+			Thread t = new Thread( r, "MetricsReporter" );
+			t.setDaemon( true );
+			return t;
+		} );
+		g_sesReporter.scheduleAtFixedRate( () -> writeSnapshot( sFileName ), lPeriod, lPeriod, TimeUnit.MILLISECONDS );
+		Logger.getInstance().log( "Metrics", 0, "startReporter", "Writing metrics to " + sFileName + " every " + lPeriod + " ms" );
+	}
+
+	/**
+	 * Stops the reporter, after writing a last snapshot.
+	 */
+	public static synchronized void stopReporter(){
+		if( g_sesReporter == null )
+			return;
+		g_sesReporter.shutdown();
+		try{
+			g_sesReporter.awaitTermination( 1, TimeUnit.SECONDS );
+		}
+		catch( InterruptedException e ){
+		}
+		writeSnapshot( g_sReportFile );
+		g_sesReporter = null;
+		g_sReportFile = null;
+	}
+}
@@ -0,0 +1,34 @@
+package pomdp.utilities.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event of a pruning of a value function.
+ */
+@Name( "pomdp.Pruning" )
+@Label( "Value Function Pruning" )
+@Category( { "POMDP", "Solver" } )
+@StackTrace( false )
+public class PruningEvent extends jdk.jfr.Event {
+	@Name( "method" )
+	@Label( "Method" )
+	private String m_sMethod;
+	@Name( "vectorsBefore" )
+	@Label( "Vectors Before" )
+	private int m_cBefore;
+	@Name( "vectorsAfter" )
+	@Label( "Vectors After" )
+	private int m_cAfter;
+
+	public void end( String sMethod, int cBefore, int cAfter ){
+		if( !shouldCommit() )
+			return;
+		m_sMethod = sMethod;
+		m_cBefore = cBefore;
+		m_cAfter = cAfter;
+		commit();
+	}
+}
@@ -0,0 +1,323 @@
+package pomdp.valuefunction;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.IdentityHashMap;
+
+import pomdp.utilities.AlphaVector;
+import pomdp.utilities.BeliefState;
+
+/**
+ * Exact max inner product search over a set of alpha vectors.
+ * States are split into contiguous blocks and for each vector we keep the maximal value inside every block.
+ * Since beliefs are distributions, alpha*b <= \sum_k b(block k) * max_{s in block k} alpha(s), which lets us skip
+ * most full dot products - the vectors are first ranked by this bound, the best ranked vector is evaluated to get
+ * a lower bound, and then only vectors whose bound can still beat the current best are evaluated.
+ * Values are taken from the raw vector (without the decay offset), and the offset is accounted for at query time.
+ * Vectors must not be modified after insertion, except through decay.
+ */
+public class AlphaVectorIndex {
+	private static final int MAX_BLOCKS = 64;
+	private static final double TOLERANCE = 1E-10;
+
+	/**
+	 * The vectors and block maxima seen by queries - the first m_cVectors entries of the arrays.
+	 * Appends write past that prefix and publish a longer table over the same arrays, so the prefix of a published table never changes.
+	 * Removals and rebuilds publish new arrays.
+	 */
+	private static class Table{
+		private final AlphaVector[] m_aVectors;
+		private final double[] m_adBlockMax;
+		private final int m_cVectors;
+
+		private Table( AlphaVector[] aVectors, double[] adBlockMax, int cVectors ){
+			m_aVectors = aVectors;
+			m_adBlockMax = adBlockMax;
+			m_cVectors = cVectors;
+		}
+	}
+
+	private int m_cStates;
+	private int m_cBlocks;
+	private int m_cBlockSize;
+	private volatile Table m_tTable;
+	private IdentityHashMap<AlphaVector, Integer> m_mPositions;
+	private Object m_oSource;
+	private long m_cQueries;
+	private long m_cDotProducts;
+
+	public AlphaVectorIndex( int cStates ){
+		m_cStates = cStates;
+		m_cBlocks = Math.max( 1, Math.min( MAX_BLOCKS, cStates ) );
+		m_cBlockSize = ( cStates + m_cBlocks - 1 ) / m_cBlocks;
+		m_cBlocks = Math.max( 1, ( cStates + m_cBlockSize - 1 ) / m_cBlockSize );
+		m_tTable = emptyTable();
+		m_mPositions = new IdentityHashMap<AlphaVector, Integer>();
+		m_oSource = null;
+		m_cQueries = 0;
+		m_cDotProducts = 0;
+	}
+
+	private Table emptyTable(){
+		return new Table( new AlphaVector[16], new double[16 * m_cBlocks], 0 );
+	}
+
+	/**
+	 * Checks whether the index still describes the given vector list - the same source object holding the same number of vectors.
+	 */
+	public synchronized boolean isSynchronized( Object oSource, int cVectors ){
+		return m_oSource == oSource && m_tTable.m_cVectors == cVectors;
+	}
+
+	/**
+	 * Indexes the given vectors. Queries see either the previous vectors or all the new ones.
+	 */
+	public synchronized void rebuild( Collection<AlphaVector> colVectors, Object oSource ){
+		Table tTable = emptyTable();
+		m_mPositions.clear();
+		for( AlphaVector av : colVectors ){
+			if( av != null && !m_mPositions.containsKey( av ) )
+				tTable = append( tTable, av );
+		}
+		m_tTable = tTable;
+		m_oSource = oSource;
+	}
+
+	/**
+	 * Adds a vector appended at position cVectors of the source, if the index describes the first cVectors vectors of that source.
+	 */
+	public synchronized void addIfSynchronized( Object oSource, int cVectors, AlphaVector av ){
+		if( m_oSource == oSource && m_tTable.m_cVectors == cVectors )
+			add( av );
+	}
+
+	/**
+	 * Moves the index to a new source, if the index describes the first cVectors vectors of oSource - the removed vectors are dropped
+	 * and the added vectors appended, without reindexing the vectors that are kept.
+	 * @return false if the index does not describe oSource and has to be rebuilt
+	 */
+	public synchronized boolean moveIfSynchronized( Object oSource, int cVectors, Object oNewSource, Collection<AlphaVector> colRemoved, Collection<AlphaVector> colAdded ){
+		if( m_oSource != oSource || m_tTable.m_cVectors != cVectors )
+			return false;
+		Table tTable = m_tTable;
+		AlphaVector[] aVectors = Arrays.copyOf( tTable.m_aVectors, tTable.m_aVectors.length );
+		double[] adBlockMax = Arrays.copyOf( tTable.m_adBlockMax, tTable.m_adBlockMax.length );
+		int iLast = tTable.m_cVectors - 1;
+		for( AlphaVector av : colRemoved ){
+			Integer iPosition = m_mPositions.remove( av );
+			if( iPosition == null )
+				continue;
+			if( iPosition != iLast ){
+				aVectors[iPosition] = aVectors[iLast];
+				System.arraycopy( adBlockMax, iLast * m_cBlocks, adBlockMax, iPosition * m_cBlocks, m_cBlocks );
+				m_mPositions.put( aVectors[iPosition], iPosition );
+			}
+			aVectors[iLast] = null;
+			iLast--;
+		}
+		tTable = new Table( aVectors, adBlockMax, iLast + 1 );
+		for( AlphaVector av : colAdded ){
+			if( av != null && !m_mPositions.containsKey( av ) )
+				tTable = append( tTable, av );
+		}
+		m_tTable = tTable;
+		m_oSource = oNewSource;
+		return true;
+	}
+
+	public synchronized void add( AlphaVector av ){
+		if( m_mPositions.containsKey( av ) )
+			return;
+		m_tTable = append( m_tTable, av );
+	}
+
+	/*
+	 * Writes the vector right after the prefix of the table (growing into new arrays when full) and returns a table one vector longer.
+	 * No published table over the same arrays is longer than tTable, so the written entries are not visible to any query.
+	 */
+	private Table append( Table tTable, AlphaVector av ){
+		int iBlock = 0, iState = 0, iEntry = 0, cEntries = 0, iOffset = 0, cVectors = tTable.m_cVectors;
+		double dOffset = av.getOffset();
+		AlphaVector[] aVectors = tTable.m_aVectors;
+		double[] adBlockMax = tTable.m_adBlockMax;
+
+		if( cVectors == aVectors.length ){
+			aVectors = Arrays.copyOf( aVectors, cVectors * 2 );
+			adBlockMax = Arrays.copyOf( adBlockMax, cVectors * 2 * m_cBlocks );
+		}
+		iOffset = cVectors * m_cBlocks;
+
+		int[] aiIndexes = av.getNonZeroIndexes();
+		double[] adValues = av.getNonZeroValues();
+		double[] adDense = av.getDenseValues();
+		if( aiIndexes != null ){
+			//states outside the sparse view are implicit zeros, so a block is only free of zeros when all its states are listed
+			int[] acBlockEntries = new int[m_cBlocks];
+			for( iBlock = 0 ; iBlock < m_cBlocks ; iBlock++ )
+				adBlockMax[iOffset + iBlock] = Double.NEGATIVE_INFINITY;
+			cEntries = av.getNonZeroEntriesCount();
+			for( iEntry = 0 ; iEntry < cEntries ; iEntry++ ){
+				iBlock = aiIndexes[iEntry] / m_cBlockSize;
+				acBlockEntries[iBlock]++;
+				if( adValues[iEntry] > adBlockMax[iOffset + iBlock] )
+					adBlockMax[iOffset + iBlock] = adValues[iEntry];
+			}
+			for( iBlock = 0 ; iBlock < m_cBlocks ; iBlock++ ){
+				if( acBlockEntries[iBlock] < getBlockLength( iBlock ) && adBlockMax[iOffset + iBlock] < 0.0 )
+					adBlockMax[iOffset + iBlock] = 0.0;
+			}
+		}
+		else{
+			for( iBlock = 0 ; iBlock < m_cBlocks ; iBlock++ )
+				adBlockMax[iOffset + iBlock] = Double.NEGATIVE_INFINITY;
+			for( iState = 0 ; iState < m_cStates ; iState++ ){
+				double dValue = ( adDense != null ) ? adDense[iState] : av.valueAt( iState ) + dOffset;
+				iBlock = iState / m_cBlockSize;
+				if( dValue > adBlockMax[iOffset + iBlock] )
+					adBlockMax[iOffset + iBlock] = dValue;
+			}
+		}
+
+		aVectors[cVectors] = av;
+		m_mPositions.put( av, cVectors );
+		return new Table( aVectors, adBlockMax, cVectors + 1 );
+	}
+
+	/**
+	 * Moves the last vector into the place of the removed one, over copies of the arrays so that running queries are not affected.
+	 */
+	public synchronized void remove( AlphaVector av ){
+		Integer iPosition = m_mPositions.remove( av );
+		if( iPosition == null )
+			return;
+		Table tTable = m_tTable;
+		int iLast = tTable.m_cVectors - 1;
+		AlphaVector[] aVectors = Arrays.copyOf( tTable.m_aVectors, tTable.m_aVectors.length );
+		double[] adBlockMax = Arrays.copyOf( tTable.m_adBlockMax, tTable.m_adBlockMax.length );
+		if( iPosition != iLast ){
+			aVectors[iPosition] = aVectors[iLast];
+			System.arraycopy( adBlockMax, iLast * m_cBlocks, adBlockMax, iPosition * m_cBlocks, m_cBlocks );
+			m_mPositions.put( aVectors[iPosition], iPosition );
+		}
+		aVectors[iLast] = null;
+		m_tTable = new Table( aVectors, adBlockMax, iLast );
+	}
+
+	public synchronized void clear(){
+		m_tTable = emptyTable();
+		m_mPositions.clear();
+		m_oSource = null;
+	}
+
+	public synchronized boolean contains( AlphaVector av ){
+		return m_mPositions.containsKey( av );
+	}
+
+	public int size(){
+		return m_tTable.m_cVectors;
+	}
+
+	private int getBlockLength( int iBlock ){
+		return Math.min( m_cBlockSize, m_cStates - iBlock * m_cBlockSize );
+	}
+
+	/**
+	 * Finds the vector maximizing alpha*b. Ties are broken in favor of the latest inserted vector,
+	 * as in LinearValueFunctionApproximation.getMaxAlpha.
+	 * Queries do not lock the index - they scan the table published when they start, also while vectors are added or removed.
+	 * @param bs - the belief state
+	 * @param adMaxValue - if not null, receives the maximal value at position 0
+	 * @return the maximizing vector, or null if the index is empty
+	 */
+	public AlphaVector getMaxAlpha( BeliefState bs, double[] adMaxValue ){
+		int iVector = 0, iBlock = 0, iEntry = 0, cEntries = 0, iBestBound = -1, cNonZeroBlocks = 0, iOffset = 0, cDotProducts = 0;
+		double dMass = 0.0, dBound = 0.0, dValue = 0.0, dMaxValue = Double.NEGATIVE_INFINITY, dMaxBound = Double.NEGATIVE_INFINITY;
+		double[] adBlockMass = new double[m_cBlocks];
+		int[] aiNonZeroBlocks = null;
+		double[] adBounds = null;
+		AlphaVector avMax = null, avCurrent = null;
+		Table tTable = m_tTable;
+		AlphaVector[] aVectors = tTable.m_aVectors;
+		double[] adBlockMax = tTable.m_adBlockMax;
+		int cVectors = tTable.m_cVectors;
+
+		if( cVectors == 0 )
+			return null;
+		m_cQueries++;
+
+		int[] aiIndexes = bs.getNonZeroIndexes();
+		double[] adValues = bs.getNonZeroValues();
+		if( aiIndexes != null ){
+			cEntries = bs.getNonZeroEntriesCount();
+			for( iEntry = 0 ; iEntry < cEntries ; iEntry++ )
+				adBlockMass[aiIndexes[iEntry] / m_cBlockSize] += adValues[iEntry];
+		}
+		else{
+			Iterator<Entry<Integer,Double>> itNonZero = bs.getNonZeroEntries().iterator();
+			Entry<Integer,Double> e = null;
+			while( itNonZero.hasNext() ){
+				e = itNonZero.next();
+				adBlockMass[e.getKey() / m_cBlockSize] += e.getValue();
+			}
+		}
+		aiNonZeroBlocks = new int[m_cBlocks];
+		for( iBlock = 0 ; iBlock < m_cBlocks ; iBlock++ ){
+			if( adBlockMass[iBlock] != 0.0 ){
+				aiNonZeroBlocks[cNonZeroBlocks++] = iBlock;
+				dMass += adBlockMass[iBlock];
+			}
+		}
+
+		adBounds = new double[cVectors];
+		for( iVector = 0 ; iVector < cVectors ; iVector++ ){
+			iOffset = iVector * m_cBlocks;
+			dBound = 0.0;
+			for( iEntry = 0 ; iEntry < cNonZeroBlocks ; iEntry++ ){
+				iBlock = aiNonZeroBlocks[iEntry];
+				dBound += adBlockMass[iBlock] * adBlockMax[iOffset + iBlock];
+			}
+			dValue = aVectors[iVector].getOffset();
+			if( dValue < 0.0 )
+				dBound -= dValue * dMass;
+			dBound += TOLERANCE * ( Math.abs( dBound ) + 1.0 );
+			adBounds[iVector] = dBound;
+			if( dBound > dMaxBound ){
+				dMaxBound = dBound;
+				iBestBound = iVector;
+			}
+		}
+
+		avMax = aVectors[iBestBound];
+		dMaxValue = avMax.dotProduct( bs );
+		cDotProducts++;
+
+		for( iVector = 0 ; iVector < cVectors ; iVector++ ){
+			if( iVector != iBestBound && adBounds[iVector] >= dMaxValue ){
+				avCurrent = aVectors[iVector];
+				dValue = avCurrent.dotProduct( bs );
+				cDotProducts++;
+				if( ( dValue > dMaxValue ) || ( ( dValue == dMaxValue ) && ( avCurrent.getInsertionTime() > avMax.getInsertionTime() ) ) ){
+					dMaxValue = dValue;
+					avMax = avCurrent;
+				}
+			}
+		}
+
+		m_cDotProducts += cDotProducts;
+		LinearValueFunctionApproximation.addScanned( cDotProducts );
+		if( adMaxValue != null )
+			adMaxValue[0] = dMaxValue;
+		return avMax;
+	}
+
+	/**
+	 * Average number of full dot products per query.
+	 */
+	public double getAvgDotProducts(){
+		if( m_cQueries == 0 )
+			return 0.0;
+		return m_cDotProducts / (double)m_cQueries;
+	}
+}
@@ -6,12 +6,16 @@ import java.util.Map.Entry;
 import pomdp.algorithms.pointbased.HeuristicSearchValueIteration.ValueFunctionEntry;
 import pomdp.environments.POMDP;
 import pomdp.utilities.BeliefState;
+import pomdp.utilities.ExecutionProperties;
 import pomdp.utilities.MDPValueFunction;
 
 public class JigSawValueFunction extends UpperBoundValueFunctionApproximation {
+	//index of the inner points of m_mBeliefStateValues used for the interpolation
+	private SawtoothUpperBound m_sbInnerPoints;
 
 	public JigSawValueFunction( POMDP pomdp, MDPValueFunction vfMDP  ) {
 		super( pomdp, vfMDP );
+		m_sbInnerPoints = new SawtoothUpperBound( m_adStateValues, ExecutionProperties.getSawtoothPointsPerSupport() );
 	}
 
 	protected double computeValueGivenCornerPoints( BeliefState bs ){
@@ -31,46 +35,24 @@ public class JigSawValueFunction extends UpperBoundValueFunctionApproximation {
 	}
 	
 	protected double computeNewValue( BeliefState bs ){
-		double dVb = 0.0, dVc = 0.0, dV = 0.0;
-		int iState = 0;
-		Iterator<Entry<Integer, Double>> itNonZero = bs.getNonZeroEntries().iterator();
-		Iterator<Entry<BeliefState,Double>> itInnerPoints = m_mBeliefStateValues.entrySet().iterator();
-		Entry<Integer, Double> eBelief = null;
-		Entry<BeliefState,Double> eValue = null;
-		double dProbC = 0.0, dMinR = 100000, dMinValue = 0.0, dProbB = 0.0;
-		BeliefState bsInnerPoint = null;
-		
-		dVb = computeValueGivenCornerPoints( bs );
-		dMinValue = dVb;
-		
-		while( itInnerPoints.hasNext() ){
-			eValue = itInnerPoints.next();
-			bsInnerPoint = eValue.getKey();
-			if( bs != bsInnerPoint ){
-				dVc = eValue.getValue();
-				itNonZero = bsInnerPoint.getNonZeroEntries().iterator();
-				dMinR = 100000;
-				while( ( itNonZero.hasNext() ) && ( dMinR > 0.0 ) ){
-					eBelief = itNonZero.next();
-					iState = eBelief.getKey();
-					dProbC = eBelief.getValue();
-					dProbB = bs.valueAt( iState );
-					if( dProbB / dProbC < dMinR )
-						dMinR = dProbB / dProbC;
-				}
-				if( dMinR > 0.0 ){
-					dV = computeValueGivenCornerPoints( bsInnerPoint );
-					if( ( dVb + dMinR * ( dVc - dV ) ) < dMinValue ){
-						dMinValue = dVb + dMinR * ( dVc - dV );
-					}
-				}
-			}
-		}
-		
-		return dMinValue;
+		return m_sbInnerPoints.valueAt( bs );
 	}
 	
 	public double interpolate( BeliefState bs ){
 		return computeNewValue( bs );
 	}
+	
+	public void updateValue( BeliefState bs ){
+		super.updateValue( bs );
+		BeliefState bsEvicted = m_sbInnerPoints.add( bs, m_mBeliefStateValues.get( bs ), true );
+		if( bsEvicted != null )
+			m_mBeliefStateValues.remove( bsEvicted );
+	}
+	
+	public void pruneUpperBound(){
+		super.pruneUpperBound();
+		m_sbInnerPoints.clear();
+		for( Entry<BeliefState,Double> e : getUpperBoundPoints() )
+			m_sbInnerPoints.add( e.getKey(), e.getValue(), false );
+	}
 }
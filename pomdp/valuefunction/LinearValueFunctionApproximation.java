@@ -3,9 +3,16 @@ package pomdp.valuefunction;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -28,31 +35,113 @@ import pomdp.utilities.RandomGenerator;
 import pomdp.utilities.concurrent.DotProduct;
 import pomdp.utilities.concurrent.ThreadPool;
 import pomdp.utilities.datastructures.LinkedList;
+import pomdp.utilities.lp.LPPruning;
+import pomdp.utilities.metrics.PruningEvent;
 import pomdp.utilities.skyline.SkylinePruning;
 
-//import lpsolve.*;
-
+/**
+ * A max over alpha vectors (the lower bound of point based algorithms).
+ * The vectors are kept in immutable generations - an array prefix published through an AtomicReference - so readers
+ * (getMaxAlpha, valueAt, iteration, getVectors) always see a consistent snapshot without locking, also while other threads add or prune vectors.
+ * Adding a vector that does not remove others reserves the next slot of the shared array (a lock-free append log) and publishes
+ * a generation one vector longer. Operations that remove vectors (dominance pruning, pruneXXX) publish a new compacted array with
+ * compareAndSet, merging in vectors that other threads appended in the meantime.
+ * Every generation is ordered by insertion time - writers append in the order of their times and compacted arrays are sorted -
+ * because getMaxAlpha stops scanning at the first vector that the belief state already checked.
+ */
 public class LinearValueFunctionApproximation implements Serializable{
-	//protected Vector<AlphaVector> m_vAlphaVectors;
-	//protected ArrayList<AlphaVector> m_vAlphaVectorsRead, m_vAlphaVectorsWrite;
-	protected LinkedList<AlphaVector> m_vAlphaVectors;
+	protected AtomicReference<Generation> m_gVectors;
 	protected RandomGenerator m_rndGenerator;
-	protected int m_cValueFunctionChanges;
+	protected AtomicInteger m_cValueFunctionChanges;
+	private AtomicInteger m_cInsertionTimes;
 	protected double m_dEpsilon;
 	protected boolean m_bCacheValues;
-	protected double m_dMaxValue;
+	protected volatile double m_dMaxValue;
 	private static boolean g_bUseMultithreadInDotProducts = false;
-	private boolean m_bEvaluatingPolicy;
-	private boolean m_bPruned;
+	private static final double LP_EPSILON = 1e-9;
+	private volatile boolean m_bEvaluatingPolicy;
+	private volatile boolean m_bPruned;
+	private boolean m_bUseMaxAlphaIndex;
+	private transient AlphaVectorIndex m_aviIndex;
+	//vectors evaluated against beliefs on each thread, to report the vectors scanned by a backup
+	private static final ThreadLocal<long[]> g_acScanned = ThreadLocal.withInitial( () -> new long[1] );
+	
+	/**
+	 * An immutable snapshot of the vectors - the first m_cVectors entries of m_aVectors.
+	 * Generations created by appends share the array of their predecessor, and m_cReserved (shared by all generations over the
+	 * same array) hands out the next free slot. A slot is written before the generation that contains it is published, and never 
+	 * changes afterwards.
+	 */
+	protected static class Generation extends AbstractCollection<AlphaVector> implements Serializable{
+		private static final long serialVersionUID = 1L;
+		private final AlphaVector[] m_aVectors;
+		private final AtomicInteger m_cReserved;
+		private final int m_cVectors;
+		
+		private Generation( AlphaVector[] aVectors, int cVectors ){
+			m_aVectors = aVectors;
+			m_cVectors = cVectors;
+			m_cReserved = new AtomicInteger( cVectors );
+		}
+		private Generation( Generation gPrevious, int cVectors ){
+			m_aVectors = gPrevious.m_aVectors;
+			m_cReserved = gPrevious.m_cReserved;
+			m_cVectors = cVectors;
+		}
+		private static Generation of( Collection<AlphaVector> colVectors ){
+			AlphaVector[] aVectors = new AlphaVector[Math.max( 16, colVectors.size() + colVectors.size() / 2 )];
+			int cVectors = 0;
+			for( AlphaVector av : colVectors ){
+				if( av != null )
+					aVectors[cVectors++] = av;
+			}
+			Arrays.sort( aVectors, 0, cVectors, Comparator.comparingInt( AlphaVector::getInsertionTime ) );
+			return new Generation( aVectors, cVectors );
+		}
+		public AlphaVector get( int iVector ){
+			if( iVector >= m_cVectors )
+				throw new IndexOutOfBoundsException( iVector + " >= " + m_cVectors );
+			return m_aVectors[iVector];
+		}
+		public int size(){
+			return m_cVectors;
+		}
+		public boolean contains( Object o ){
+			for( int iVector = 0 ; iVector < m_cVectors ; iVector++ ){
+				if( m_aVectors[iVector].equals( o ) )
+					return true;
+			}
+			return false;
+		}
+		public Iterator<AlphaVector> iterator(){
+			return new Iterator<AlphaVector>(){
+				private int m_iNext = 0;
+				public boolean hasNext(){
+					return m_iNext < m_cVectors;
+				}
+				public AlphaVector next(){
+					if( m_iNext >= m_cVectors )
+						throw new NoSuchElementException();
+					return m_aVectors[m_iNext++];
+				}
+				public void remove(){
+					throw new UnsupportedOperationException( "Value function snapshots are immutable" );
+				}
+			};
+		}
+	}
 	
 	public LinearValueFunctionApproximation( double dEpsilon, boolean bCacheValues ){
-		m_vAlphaVectors = new LinkedList<AlphaVector>();
-		m_cValueFunctionChanges = 0;
+		m_gVectors = new AtomicReference<Generation>( new Generation( new AlphaVector[16], 0 ) );
+		m_cValueFunctionChanges = new AtomicInteger( 0 );
+		m_cInsertionTimes = new AtomicInteger( 0 );
 		m_dEpsilon = dEpsilon;
 		m_bCacheValues = true;
 		m_dMaxValue = 0.0;
 		m_bEvaluatingPolicy = false;
 		m_bPruned = false;
+		m_bUseMaxAlphaIndex = false;
+		m_aviIndex = null;
 		m_rndGenerator = new RandomGenerator( "LinearValueFunctionApproximation" );
 	}
 
@@ -61,6 +150,9 @@ public class LinearValueFunctionApproximation implements Serializable{
 	}
 
 	public LinearValueFunctionApproximation( LinearValueFunctionApproximation vOtherValueFunction ) {
+		m_gVectors = new AtomicReference<Generation>();
+		m_cValueFunctionChanges = new AtomicInteger( 0 );
+		m_cInsertionTimes = new AtomicInteger( 0 );
 		copy( vOtherValueFunction );
 		m_bCacheValues = vOtherValueFunction.m_bCacheValues;
 	}
@@ -69,12 +161,30 @@ public class LinearValueFunctionApproximation implements Serializable{
 		System.out.println( "LinearValueFunctionApproximation finalized" );
 	}
 	
+	/**
+	 * The number of vectors that getMaxAlpha and the backups evaluated against beliefs on the calling thread so far.
+	 * A backup reports the difference of this count before and after it.
+	 */
+	public static long getScannedCount(){
+		return g_acScanned.get()[0];
+	}
+	
+	public static void addScanned( long cVectors ){
+		g_acScanned.get()[0] += cVectors;
+	}
+	
+	/**
+	 * The current generation of vectors. The returned collection never changes.
+	 */
+	protected Generation snapshot(){
+		return m_gVectors.get();
+	}
 
 	public double valueAt( BeliefState bs ){
-		if( m_vAlphaVectors.size() == 0 )
+		if( snapshot().size() == 0 )
 			return Double.NEGATIVE_INFINITY;
 		double dValue = bs.getMaxValue();
-		int iTime = bs.getMaxValueTime(), cValueFunctionChanges = m_cValueFunctionChanges;
+		int iTime = bs.getMaxValueTime(), cValueFunctionChanges = m_cValueFunctionChanges.get();
 		if( ( iTime < cValueFunctionChanges ) || !m_bCacheValues ){
 			AlphaVector avMaxAlpha = getMaxAlpha( bs );
 			if( avMaxAlpha == null )
@@ -89,24 +199,60 @@ public class LinearValueFunctionApproximation implements Serializable{
 	}
 
 	public AlphaVector getMaxAlpha( BeliefState bs ){
-		int cElements = m_vAlphaVectors.size();
+		//the change count is read before the snapshot. Writers advance it only after publishing their vector, and in the order of
+		//the insertion times, so all vectors inserted up to the count read here are in the snapshot and the cached time never covers
+		//vectors that were not scanned
+		int iCurrentTime = m_cValueFunctionChanges.get();
+		Generation gVectors = snapshot();
+		int cElements = gVectors.size();
 		if( cElements == 0 )
 			return null;
 		AlphaVector avMaxAlpha = bs.getMaxAlpha();
-		double dMaxValue = bs.getMaxValue(), dValue = 0.0;
+		double dMaxValue = bs.getMaxValue();
 		int iBeliefStateLastCheckTime = bs.getMaxAlphaTime();
-		int iCurrentTime = m_cValueFunctionChanges;
+		AlphaVectorIndex aviIndex = getMaxAlphaIndex( gVectors );
 		
-		if( !m_vAlphaVectors.contains( avMaxAlpha ) ){
+		if( ( aviIndex != null ) ? !aviIndex.contains( avMaxAlpha ) : !gVectors.contains( avMaxAlpha ) ){
 			avMaxAlpha = null;
 			dMaxValue = Double.NEGATIVE_INFINITY;
 			iBeliefStateLastCheckTime = -1;
 		}
-
+		
+		//without a valid cached vector the incremental scan below would go over all vectors, so we use the index instead
+		if( aviIndex != null && ( avMaxAlpha == null || !m_bCacheValues ) ){
+			double[] adMaxValue = new double[1];
+			avMaxAlpha = aviIndex.getMaxAlpha( bs, adMaxValue );
+			dMaxValue = adMaxValue[0];
+		}
+		else{
+			avMaxAlpha = getMaxAlpha( gVectors, bs, avMaxAlpha, dMaxValue, iBeliefStateLastCheckTime );
+			if( avMaxAlpha != null && ( !m_bCacheValues || avMaxAlpha != bs.getMaxAlpha() || bs.getMaxAlphaTime() < iBeliefStateLastCheckTime ) )
+				dMaxValue = avMaxAlpha.dotProduct( bs );
+		}
+		
+		if( avMaxAlpha != null ){
+			if( m_bCacheValues ){
+				bs.setMaxAlpha( avMaxAlpha, iCurrentTime );
+				bs.setMaxValue( dMaxValue, iCurrentTime );
+			}
+			
+			avMaxAlpha.incrementHitCount();
+		}
+		return avMaxAlpha;
+	}
+	
+	/*
+	 * Scans the vectors from the newest to the oldest, stopping at vectors that were already checked for this belief state.
+	 * Relies on the generation being ordered by insertion time.
+	 */
+	private AlphaVector getMaxAlpha( Generation gVectors, BeliefState bs, AlphaVector avMaxAlpha, double dMaxValue, int iBeliefStateLastCheckTime ){
+		double dValue = 0.0;
+		int iVector = 0;
+		
 		if( g_bUseMultithreadInDotProducts  && ExecutionProperties.useMultiThread() ){
-			DotProduct[] m_dpTasks = new DotProduct[m_vAlphaVectors.size()];
+			DotProduct[] m_dpTasks = new DotProduct[gVectors.size()];
 			int i = 0;
-			for( AlphaVector avCurrent : m_vAlphaVectors ){
+			for( AlphaVector avCurrent : gVectors ){
 				if( !m_bCacheValues || avCurrent.getInsertionTime() > iBeliefStateLastCheckTime ){
 					m_dpTasks[i] = new DotProduct( avCurrent, bs );
 					ThreadPool.getInstance().addTask( m_dpTasks[i] );
@@ -124,37 +270,21 @@ public class LinearValueFunctionApproximation implements Serializable{
 			}
 		}
 		
-		int iInsertionTime = Integer.MAX_VALUE;
-		Iterator<AlphaVector> itBackward = m_vAlphaVectors.backwardIterator();
+		int iInsertionTime = Integer.MAX_VALUE, cScanned = 0;
 		boolean bDone = false;
-		while( itBackward.hasNext() && !bDone ){
-			AlphaVector avCurrent = itBackward.next();
-			if( avCurrent != null ){
-				iInsertionTime = avCurrent.getInsertionTime();
-				if( m_bCacheValues && ( iBeliefStateLastCheckTime >= iInsertionTime ) )
-					bDone = true;
-				/*
-				if( avCurrent.getId() == 1334 ){
-					System.out.println( bs );
-					System.out.println( avCurrent );
-				}
-				*/
-				dValue = avCurrent.dotProduct( bs );
-				if( ( dValue > dMaxValue ) || ( ( dValue == dMaxValue ) && ( avMaxAlpha != null ) && ( iInsertionTime > avMaxAlpha.getInsertionTime() )  ) ){
-					dMaxValue = dValue;
-					avMaxAlpha = avCurrent;
-				}
-			}
-		}
-		
-		if( avMaxAlpha != null ){
-			if( m_bCacheValues ){
-				bs.setMaxAlpha( avMaxAlpha, iCurrentTime );
-				bs.setMaxValue( dMaxValue, iCurrentTime );
+		for( iVector = gVectors.size() - 1 ; iVector >= 0 && !bDone ; iVector-- ){
+			AlphaVector avCurrent = gVectors.get( iVector );
+			iInsertionTime = avCurrent.getInsertionTime();
+			if( m_bCacheValues && ( iBeliefStateLastCheckTime >= iInsertionTime ) )
+				bDone = true;
+			dValue = avCurrent.dotProduct( bs );
+			cScanned++;
+			if( ( dValue > dMaxValue ) || ( ( dValue == dMaxValue ) && ( avMaxAlpha != null ) && ( iInsertionTime > avMaxAlpha.getInsertionTime() )  ) ){
+				dMaxValue = dValue;
+				avMaxAlpha = avCurrent;
 			}
-			
-			avMaxAlpha.incrementHitCount();
 		}
+		addScanned( cScanned );
 		return avMaxAlpha;
 	}
 
@@ -165,14 +295,20 @@ public class LinearValueFunctionApproximation implements Serializable{
 		return avMaxAlpha.getAction();
 	}
 
+	/**
+	 * Iterates over a snapshot of the vectors. Vectors added or removed during the iteration are not reflected.
+	 */
 	public Iterator<AlphaVector> iterator(){
-		return m_vAlphaVectors.iterator();
+		return snapshot().iterator();
 	}
 
 	public AlphaVector elementAt(int iElement ){
-		return (AlphaVector) m_vAlphaVectors.get( iElement );
+		return snapshot().get( iElement );
 	}
 	
+	/**
+	 * Readers work on snapshots, so evaluation no longer blocks writers. Kept for callers that mark evaluation periods.
+	 */
 	public void startEvaluation(){
 		m_bEvaluatingPolicy = true;
 	}
@@ -183,37 +319,43 @@ public class LinearValueFunctionApproximation implements Serializable{
 	public boolean addPrunePointwiseDominated( AlphaVector avNew ){
 		BeliefState bsWitness = null;
 		double dNewValue = 0.0;
+		Generation gBase = snapshot();
+		Vector<AlphaVector> vRemaining = new Vector<AlphaVector>( gBase.size() + 1 );
+		boolean bRemoved = false;
 		
-		while( m_bEvaluatingPolicy ){
-			try {
-				wait( 100 );
-			} catch (Exception e) {
-			}
-		}
-
-		Iterator<AlphaVector> it = m_vAlphaVectors.iterator();
-		AlphaVector avExisting = null;
-		while( it.hasNext() ){
-			avExisting = it.next();
+		for( AlphaVector avExisting : gBase ){
 			if( avExisting.equals( avNew ) || avExisting.dominates( avNew ) ){
 				return false;
 			}
 			else if( avNew.dominates( avExisting ) ){
-				it.remove();
+				bRemoved = true;
 			}
-		}		
+			else{
+				vRemaining.add( avExisting );
+			}
+		}
 		
 		m_bPruned = false;
 		
-		m_cValueFunctionChanges++;
-		addVector( avNew );
+		int iInsertionTime = m_cInsertionTimes.incrementAndGet();
+		if( m_bCacheValues )
+			avNew.setInsertionTime( iInsertionTime );
+		awaitTurn( iInsertionTime );
+		if( bRemoved ){
+			vRemaining.add( avNew );
+			publish( gBase, vRemaining );
+			vectorsRemoved( gBase, vRemaining );
+		}
+		else{
+			addVector( avNew );
+		}
+		changePublished( iInsertionTime );
 		if( m_bCacheValues ){		
-			avNew.setInsertionTime( m_cValueFunctionChanges );
 			bsWitness = avNew.getWitness();
 			if( bsWitness != null ){
 				dNewValue = avNew.dotProduct( bsWitness );
-				bsWitness.setMaxAlpha( avNew, m_cValueFunctionChanges );
-				bsWitness.setMaxValue( dNewValue, m_cValueFunctionChanges );
+				bsWitness.setMaxAlpha( avNew, iInsertionTime );
+				bsWitness.setMaxValue( dNewValue, iInsertionTime );
 			}
 		}
 		
@@ -223,20 +365,206 @@ public class LinearValueFunctionApproximation implements Serializable{
 		return true;
 	}
 	
+	/*
+	 * Waits until the vectors with earlier insertion times are published, so that vectors are appended in the order of their times.
+	 */
+	private void awaitTurn( int iInsertionTime ){
+		while( m_cValueFunctionChanges.get() < iInsertionTime - 1 ){
+			//the times were reset by clear or copy while this writer was running
+			if( m_cInsertionTimes.get() < iInsertionTime )
+				return;
+			Thread.yield();
+		}
+	}
+	
+	/*
+	 * Advances the change count to the insertion time of a vector that was published (or rejected). Times are reserved before
+	 * publishing, so the count waits for writers holding earlier times - a count never covers a vector that is not yet visible.
+	 */
+	private void changePublished( int iInsertionTime ){
+		while( !m_cValueFunctionChanges.compareAndSet( iInsertionTime - 1, iInsertionTime ) ){
+			//the times were reset by clear or copy while this writer was running
+			if( m_cInsertionTimes.get() < iInsertionTime || m_cValueFunctionChanges.get() >= iInsertionTime )
+				return;
+			Thread.yield();
+		}
+	}
+	
+	/*
+	 * Appends a vector through the shared append log of the current generation.
+	 */
 	private void addVector( AlphaVector avNew ){
-		m_vAlphaVectors.add( avNew );
+		Generation gCurrent = null;
+		int cVectors = 0;
+		AlphaVectorIndex aviIndex = m_aviIndex;
+		while( true ){
+			gCurrent = m_gVectors.get();
+			cVectors = gCurrent.m_cVectors;
+			if( cVectors == gCurrent.m_aVectors.length ){
+				//full - publish a larger copy and retry
+				Generation gLarger = new Generation( Arrays.copyOf( gCurrent.m_aVectors, 2 * cVectors ), cVectors );
+				if( m_gVectors.compareAndSet( gCurrent, gLarger ) )
+					moveMaxAlphaIndex( gCurrent, gLarger );
+			}
+			else if( gCurrent.m_cReserved.compareAndSet( cVectors, cVectors + 1 ) ){
+				gCurrent.m_aVectors[cVectors] = avNew;
+				if( m_gVectors.compareAndSet( gCurrent, new Generation( gCurrent, cVectors + 1 ) ) ){
+					if( aviIndex != null )
+						aviIndex.addIfSynchronized( gCurrent.m_aVectors, cVectors, avNew );
+					return;
+				}
+				//the array was replaced by a compaction - the reserved slot is abandoned together with the old array
+			}
+			else{
+				//another writer reserved the slot and is about to publish it
+				Thread.yield();
+			}
+		}
 	}
-		
-	public void initHitCounts(){
-		try{
-			for( AlphaVector av : m_vAlphaVectors ){
-				av.initHitCount();
+	
+	/*
+	 * Publishes a generation holding colVectors, computed from gBase. If other threads changed the vectors since gBase,
+	 * vectors they appended are kept and vectors they removed stay removed.
+	 */
+	private void publish( Generation gBase, Collection<AlphaVector> colVectors ){
+		Generation gCurrent = null, gNew = null;
+		IdentityHashMap<AlphaVector, Boolean> mBase = null;
+		while( true ){
+			gCurrent = m_gVectors.get();
+			if( gCurrent == gBase ){
+				gNew = Generation.of( colVectors );
+			}
+			else if( gCurrent.m_aVectors == gBase.m_aVectors && gCurrent.m_cVectors >= gBase.m_cVectors ){
+				//only appends happened since gBase
+				Vector<AlphaVector> vMerged = new Vector<AlphaVector>( colVectors );
+				for( int iVector = gBase.m_cVectors ; iVector < gCurrent.m_cVectors ; iVector++ )
+					vMerged.add( gCurrent.m_aVectors[iVector] );
+				gNew = Generation.of( vMerged );
+			}
+			else{
+				if( mBase == null ){
+					mBase = new IdentityHashMap<AlphaVector, Boolean>();
+					for( AlphaVector av : gBase )
+						mBase.put( av, Boolean.TRUE );
+				}
+				//keep the result only where the current generation still holds the vector, and add vectors that are not in gBase
+				IdentityHashMap<AlphaVector, Boolean> mCurrent = new IdentityHashMap<AlphaVector, Boolean>();
+				for( AlphaVector av : gCurrent )
+					mCurrent.put( av, Boolean.TRUE );
+				Vector<AlphaVector> vMerged = new Vector<AlphaVector>();
+				IdentityHashMap<AlphaVector, Boolean> mMerged = new IdentityHashMap<AlphaVector, Boolean>();
+				for( AlphaVector av : colVectors ){
+					if( mCurrent.containsKey( av ) || !mBase.containsKey( av ) ){
+						vMerged.add( av );
+						mMerged.put( av, Boolean.TRUE );
+					}
+				}
+				for( AlphaVector av : gCurrent ){
+					if( !mBase.containsKey( av ) && !mMerged.containsKey( av ) )
+						vMerged.add( av );
+				}
+				gNew = Generation.of( vMerged );
 			}
+			if( m_gVectors.compareAndSet( gCurrent, gNew ) ){
+				moveMaxAlphaIndex( gCurrent, gNew );
+				return;
+			}
+		}
+	}
+	
+	/*
+	 * Moves the max alpha index from the array of gOld to the compacted array of gNew, dropping and adding only the vectors that changed,
+	 * so compactions do not rebuild the index. If the index lags behind gOld it is rebuilt by the next query.
+	 */
+	private void moveMaxAlphaIndex( Generation gOld, Generation gNew ){
+		AlphaVectorIndex aviIndex = m_aviIndex;
+		if( aviIndex == null || !aviIndex.isSynchronized( gOld.m_aVectors, gOld.m_cVectors ) )
+			return;
+		IdentityHashMap<AlphaVector, Boolean> mOld = new IdentityHashMap<AlphaVector, Boolean>();
+		IdentityHashMap<AlphaVector, Boolean> mNew = new IdentityHashMap<AlphaVector, Boolean>();
+		Vector<AlphaVector> vRemoved = new Vector<AlphaVector>(), vAdded = new Vector<AlphaVector>();
+		for( AlphaVector av : gOld )
+			mOld.put( av, Boolean.TRUE );
+		for( AlphaVector av : gNew ){
+			mNew.put( av, Boolean.TRUE );
+			if( !mOld.containsKey( av ) )
+				vAdded.add( av );
 		}
-		catch( Exception e )
-		{
-			System.err.println( e + " retrying" );
-			initHitCounts();
+		for( AlphaVector av : gOld ){
+			if( !mNew.containsKey( av ) )
+				vRemoved.add( av );
+		}
+		aviIndex.moveIfSynchronized( gOld.m_aVectors, gOld.m_cVectors, gNew.m_aVectors, vRemoved, vAdded );
+	}
+	
+	private void vectorRemoved( AlphaVector av ){
+		if( m_aviIndex != null )
+			m_aviIndex.remove( av );
+		if( av != null )
+			av.dropCachedG();
+	}
+	
+	private void vectorsRemoved( Generation gBase, Collection<AlphaVector> vRemaining ){
+		IdentityHashMap<AlphaVector, Boolean> mRemaining = new IdentityHashMap<AlphaVector, Boolean>();
+		for( AlphaVector av : vRemaining )
+			mRemaining.put( av, Boolean.TRUE );
+		for( AlphaVector av : gBase ){
+			if( !mRemaining.containsKey( av ) )
+				vectorRemoved( av );
+		}
+	}
+	
+	/*
+	 * Replaces the vectors after pruning a snapshot, dropping the cached G projections of the pruned vectors.
+	 */
+	private void replaceVectors( Generation gBase, Collection<AlphaVector> vRemaining ){
+		IdentityHashMap<AlphaVector, Boolean> mRemaining = new IdentityHashMap<AlphaVector, Boolean>();
+		publish( gBase, vRemaining );
+		for( AlphaVector av : vRemaining )
+			mRemaining.put( av, Boolean.TRUE );
+		for( AlphaVector av : gBase ){
+			if( av != null && !mRemaining.containsKey( av ) )
+				av.dropCachedG();
+		}
+	}
+	
+	/**
+	 * Enables an exact max inner product index (AlphaVectorIndex) for getMaxAlpha. 
+	 * The index is kept up to date incrementally, also when pruning compacts the vector array, and rebuilt when the vectors are replaced (copy, setVectors).
+	 * Only used for flat alpha vectors.
+	 */
+	public void setUseMaxAlphaIndex( boolean bUse ){
+		m_bUseMaxAlphaIndex = bUse;
+		m_aviIndex = null;
+	}
+	
+	public boolean useMaxAlphaIndex(){
+		return m_bUseMaxAlphaIndex;
+	}
+	
+	private AlphaVectorIndex getMaxAlphaIndex( Generation gVectors ){
+		if( !m_bUseMaxAlphaIndex )
+			return null;
+		AlphaVectorIndex aviIndex = m_aviIndex;
+		if( aviIndex == null ){
+			if( gVectors.size() == 0 )
+				return null;
+			AlphaVector avFirst = gVectors.get( 0 );
+			if( avFirst.getNonZeroIndexes() == null && avFirst.getDenseValues() == null )
+				return null;
+			aviIndex = new AlphaVectorIndex( avFirst.getStateCount() );
+			aviIndex.rebuild( gVectors, gVectors.m_aVectors );
+			m_aviIndex = aviIndex;
+		}
+		else if( !aviIndex.isSynchronized( gVectors.m_aVectors, gVectors.size() ) ){
+			aviIndex.rebuild( gVectors, gVectors.m_aVectors );
+		}
+		return aviIndex;
+	}
+		
+	public void initHitCounts(){
+		for( AlphaVector av : snapshot() ){
+			av.initHitCount();
 		}
 	}
 	
@@ -245,15 +573,21 @@ public class LinearValueFunctionApproximation implements Serializable{
 	}
 	
 	public void pruneLowHitCountVectors( int cMinimalHitCount, int iMaximalTimeStamp ){
-		while( m_bEvaluatingPolicy ){
-			try {
-				wait( 100 );
-			} catch (Exception e) {
-			}
-		}
+		PruningEvent ePruning = new PruningEvent();
+		ePruning.begin();
+		int cBefore = size();
+		removeLowHitCountVectors( cMinimalHitCount, iMaximalTimeStamp );
+		ePruning.end( "LowHitCount", cBefore, size() );
+	}
+	
+	/*
+	 * The pruning of pruneLowHitCountVectors, without an event, for pruning methods that report their own event.
+	 */
+	private void removeLowHitCountVectors( int cMinimalHitCount, int iMaximalTimeStamp ){
 		int cPruned = 0, cNew = 0;
-		LinkedList<AlphaVector> vAlphaVectorsWrite = new LinkedList<AlphaVector>();
-		for( AlphaVector av : m_vAlphaVectors ){
+		Generation gBase = snapshot();
+		Vector<AlphaVector> vAlphaVectorsWrite = new Vector<AlphaVector>();
+		for( AlphaVector av : gBase ){
 			if( av.getInsertionTime() > iMaximalTimeStamp || av.getHitCount() > cMinimalHitCount ){
 				vAlphaVectorsWrite.add( av );
 			}
@@ -265,9 +599,9 @@ public class LinearValueFunctionApproximation implements Serializable{
 			}
 		}
 		if( vAlphaVectorsWrite.size() > 0 ){
-			System.out.println( "Pruned from " + m_vAlphaVectors.size() + " to " + vAlphaVectorsWrite.size() + ". pruned " + cPruned + ", new vectors " + cNew );
+			System.out.println( "Pruned from " + gBase.size() + " to " + vAlphaVectorsWrite.size() + ". pruned " + cPruned + ", new vectors " + cNew );
 			m_bPruned = true;
-			m_vAlphaVectors = vAlphaVectorsWrite;
+			replaceVectors( gBase, vAlphaVectorsWrite );
 		}
 	}
 	
@@ -279,42 +613,75 @@ public class LinearValueFunctionApproximation implements Serializable{
 		
 		addPrunePointwiseDominated( avNew );
 		
-		if( m_vAlphaVectors.size() > cMaxVectors ){
-			int i = m_rndGenerator.nextInt( m_vAlphaVectors.size() );
-			m_vAlphaVectors.remove( i );
+		Generation gBase = snapshot();
+		if( gBase.size() > cMaxVectors ){
+			AlphaVector avRemoved = gBase.get( m_rndGenerator.nextInt( gBase.size() ) );
+			if( removeVector( avRemoved ) )
+				vectorRemoved( avRemoved );
+		}
+	}
+	
+	/*
+	 * Removes the first vector that equals av, returns false if there is no such vector in the value function.
+	 */
+	private boolean removeVector( AlphaVector av ){
+		Generation gBase = snapshot();
+		Vector<AlphaVector> vRemaining = new Vector<AlphaVector>( gBase.size() );
+		boolean bFound = false;
+		for( AlphaVector avExisting : gBase ){
+			if( !bFound && avExisting.equals( av ) )
+				bFound = true;
+			else
+				vRemaining.add( avExisting );
 		}
+		if( bFound )
+			publish( gBase, vRemaining );
+		return bFound;
 	}
 	
 	public void add( AlphaVector avNew, boolean bPruneDominated ){
-		AlphaVector avExisting = null;
 		BeliefState bsWitness = null;
-		boolean bDominated = false;
-		double dPreviousValue = 0.0, dNewValue = 0.0;
+		boolean bDominated = false, bRemoved = false;
+		double dNewValue = 0.0;
+		Generation gBase = null;
+		Vector<AlphaVector> vRemaining = null;
 		
-		m_cValueFunctionChanges++;
 		if( bPruneDominated ){
-			int iVector = 0;
-			for( iVector = 0 ; iVector < m_vAlphaVectors.size() && !bDominated ; iVector++ ){
-				avExisting = m_vAlphaVectors.get( iVector );
-				if( avNew.dominates( avExisting ) ){
-					m_vAlphaVectors.remove( avExisting );
-				}
-				else if( avExisting.dominates( avNew ) ){
-					bDominated = true;
+			gBase = snapshot();
+			vRemaining = new Vector<AlphaVector>( gBase.size() + 1 );
+			for( AlphaVector avExisting : gBase ){
+				if( !bDominated && avNew.dominates( avExisting ) )
+					bRemoved = true;
+				else{
+					if( avExisting.dominates( avNew ) )
+						bDominated = true;
+					vRemaining.add( avExisting );
 				}
 			}
 		}
 		
-		if( !bDominated ){
-			m_vAlphaVectors.add( avNew );
+		int iInsertionTime = m_cInsertionTimes.incrementAndGet();
+		if( m_bCacheValues )
+			avNew.setInsertionTime( iInsertionTime );
+		awaitTurn( iInsertionTime );
+		if( bRemoved ){
+			if( !bDominated )
+				vRemaining.add( avNew );
+			publish( gBase, vRemaining );
+			vectorsRemoved( gBase, vRemaining );
+		}
+		
+		if( !bDominated && !bRemoved )
+			addVector( avNew );
+		changePublished( iInsertionTime );
 		
+		if( !bDominated ){
 			if( m_bCacheValues ){		
-				avNew.setInsertionTime( m_cValueFunctionChanges );
 				bsWitness = avNew.getWitness();
 				if( bsWitness != null ){
 					dNewValue = avNew.dotProduct( bsWitness );
-					bsWitness.setMaxAlpha( avNew, m_cValueFunctionChanges );
-					bsWitness.setMaxValue( dNewValue, m_cValueFunctionChanges );
+					bsWitness.setMaxAlpha( avNew, iInsertionTime );
+					bsWitness.setMaxValue( dNewValue, iInsertionTime );
 				}
 			}
 	
@@ -326,43 +693,40 @@ public class LinearValueFunctionApproximation implements Serializable{
 
 
 	public void clear() {
-		for( AlphaVector av : m_vAlphaVectors ){
+		Generation gOld = m_gVectors.getAndSet( new Generation( new AlphaVector[16], 0 ) );
+		for( AlphaVector av : gOld ){
 			av.release();
 		}
-		m_vAlphaVectors.clear();
-		m_cValueFunctionChanges = 0;
-		
+		if( m_aviIndex != null )
+			m_aviIndex.clear();
+		m_cInsertionTimes.set( 0 );
+		m_cValueFunctionChanges.set( 0 );
 	}
 
 	public void addAll( LinearValueFunctionApproximation vOtherValueFunction ){
-		m_vAlphaVectors.addAll( vOtherValueFunction.m_vAlphaVectors );
+		for( AlphaVector av : vOtherValueFunction.snapshot() )
+			addVector( av );
 	}
 
 	public int size(){
-		return m_vAlphaVectors.count();
+		return snapshot().size();
 	}
 	
 	public boolean equals( LinearValueFunctionApproximation vOther ){
-		return vOther.m_vAlphaVectors.containsAll( m_vAlphaVectors ) && 
-			m_vAlphaVectors.containsAll( vOther.m_vAlphaVectors );
+		Generation gOther = vOther.snapshot(), gVectors = snapshot();
+		return gOther.containsAll( gVectors ) && gVectors.containsAll( gOther );
 	}
 
 	public void copy( LinearValueFunctionApproximation vOtherValueFunction ){
-		while( m_bEvaluatingPolicy ){
-			try {
-				wait( 100 );
-			} catch (Exception e) {
-			}
-		}
-		m_vAlphaVectors = new LinkedList<AlphaVector>( vOtherValueFunction.m_vAlphaVectors );
-		//m_cValueFunctionChanges = vOtherValueFunction.m_cValueFunctionChanges;
+		m_gVectors.set( Generation.of( vOtherValueFunction.snapshot() ) );
 		m_dEpsilon = vOtherValueFunction.m_dEpsilon;
 		m_rndGenerator = vOtherValueFunction.m_rndGenerator;
-		m_cValueFunctionChanges = vOtherValueFunction.m_cValueFunctionChanges;
-		m_dEpsilon = vOtherValueFunction.m_dEpsilon;
+		m_cInsertionTimes.set( vOtherValueFunction.m_cValueFunctionChanges.get() );
+		m_cValueFunctionChanges.set( vOtherValueFunction.m_cValueFunctionChanges.get() );
 		m_bCacheValues = vOtherValueFunction.m_bCacheValues;
 		m_dMaxValue = vOtherValueFunction.m_dMaxValue;
 		m_bEvaluatingPolicy = vOtherValueFunction.m_bEvaluatingPolicy;
+		m_bUseMaxAlphaIndex = vOtherValueFunction.m_bUseMaxAlphaIndex;
 	}
 
 	public void add( AlphaVector avNew ){
@@ -370,20 +734,19 @@ public class LinearValueFunctionApproximation implements Serializable{
 	}
 
 	public void remove( AlphaVector av ){
-		m_vAlphaVectors.remove( av );
+		if( removeVector( av ) )
+			vectorRemoved( av );
 	}
 
 	public double approximateValueAt( BeliefState bs ){
-		if( m_vAlphaVectors.size() == 0 )
+		Generation gVectors = snapshot();
+		if( gVectors.size() == 0 )
 			return -1 * Double.MAX_VALUE;
-		int iBeliefStateMaxAlphaTime = bs.getApproximateValueTime();
+		int iBeliefStateMaxAlphaTime = bs.getApproximateValueTime(), cValueFunctionChanges = m_cValueFunctionChanges.get();
 		double dMaxValue = bs.getApproximateValue(), dValue = 0.0;
-		AlphaVector avCurrent = null;
 		
-		if( iBeliefStateMaxAlphaTime < m_cValueFunctionChanges ){
-			int iVector = 0;
-			for( iVector = 0 ; iVector < m_vAlphaVectors.size() ; iVector++ ){
-				avCurrent = m_vAlphaVectors.get( iVector );
+		if( iBeliefStateMaxAlphaTime < cValueFunctionChanges ){
+			for( AlphaVector avCurrent : gVectors ){
 				if( avCurrent.getInsertionTime() > iBeliefStateMaxAlphaTime ){
 					dValue = avCurrent.approximateDotProduct( bs );
 					if( dValue > dMaxValue ){
@@ -391,14 +754,14 @@ public class LinearValueFunctionApproximation implements Serializable{
 					}
 				}
 			}
-			bs.setApproximateValue( dMaxValue, m_cValueFunctionChanges );
+			bs.setApproximateValue( dMaxValue, cValueFunctionChanges );
 		}
 		
 		return dMaxValue;
 	}
 
 	public int getChangesCount() {
-		return m_cValueFunctionChanges;
+		return m_cValueFunctionChanges.get();
 	}
 	
 	public void setCaching( boolean bCache ){
@@ -406,13 +769,13 @@ public class LinearValueFunctionApproximation implements Serializable{
 	}
 
 	public boolean contains( AlphaVector av ){
-		return m_vAlphaVectors.contains( av );
+		return snapshot().contains( av );
 	}
 	
 	public String toString(){
 		String sRetVal = "<";
 		
-		for( AlphaVector av : m_vAlphaVectors ){
+		for( AlphaVector av : snapshot() ){
 			sRetVal += av.toString() + "\n";
 		}
 		
@@ -424,34 +787,38 @@ public class LinearValueFunctionApproximation implements Serializable{
 	}
 
 	public AlphaVector getFirst() {
-		return m_vAlphaVectors.getFirst();
+		Generation gVectors = snapshot();
+		if( gVectors.size() == 0 )
+			return null;
+		return gVectors.get( 0 );
 	}
 
 	public AlphaVector getLast() {
-		return m_vAlphaVectors.getLast();
+		Generation gVectors = snapshot();
+		if( gVectors.size() == 0 )
+			return null;
+		return gVectors.get( gVectors.size() - 1 );
 	}
 	
 	public Element getDOM( Document doc ) throws Exception{
 		Element eValueFunction = doc.createElement( "ValueFunction" ), eAlphaVector = null;
-		AlphaVector avCurrent = null;
+		Generation gVectors = snapshot();
 		
 		eValueFunction = doc.createElement( "ValueFunction" );
-		eValueFunction.setAttribute( "AlphaVectorCount", m_vAlphaVectors.size() + "" );
+		eValueFunction.setAttribute( "AlphaVectorCount", gVectors.size() + "" );
 		eValueFunction.setAttribute( "Epsilon", m_dEpsilon + "" );
 		eValueFunction.setAttribute( "CacheValue", m_bCacheValues + "" );
 		eValueFunction.setAttribute( "MaxValue", m_dMaxValue + "" );		
 		doc.appendChild( eValueFunction );
 		
-		int iVector = 0;
-		for( iVector = 0 ; iVector < m_vAlphaVectors.size() ; iVector++ ){
-			avCurrent = m_vAlphaVectors.get( iVector );
+		for( AlphaVector avCurrent : gVectors ){
 			eAlphaVector = avCurrent.getDOM( doc );
 			eValueFunction.appendChild( eAlphaVector );
 		}
 		
 		return eValueFunction;
 	}
-	
+
 	public void save( String sFileName ) throws Exception{
 		Document docValueFunction = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
 		Element eValueFunction = getDOM( docValueFunction );
@@ -481,7 +848,7 @@ public class LinearValueFunctionApproximation implements Serializable{
 		for( iVector = 0 ; iVector < cVectors ; iVector++ ){
 			eVector = (Element)nlVectors.item( iVector );
 			avNew = AlphaVector.parseDOM( eVector, pomdp );
-			m_vAlphaVectors.add( avNew );
+			addVector( avNew );
 		}
 	}
 	
@@ -495,34 +862,41 @@ public class LinearValueFunctionApproximation implements Serializable{
 
 	
 	public void removeFirst() {
-		m_vAlphaVectors.remove( 0 );
+		AlphaVector avFirst = getFirst();
+		if( avFirst != null && removeVector( avFirst ) )
+			vectorRemoved( avFirst );
 	}
 
+	/**
+	 * Returns an immutable snapshot of the current vectors.
+	 */
 	public Collection<AlphaVector> getVectors() {
-		return m_vAlphaVectors;
+		return snapshot();
 	}
 
 	public void setVectors( Vector<AlphaVector> v ) {
-		m_vAlphaVectors = new LinkedList<AlphaVector>( v );		
+		m_gVectors.set( Generation.of( v ) );
 	}
 
 	public int countEntries() {
 		AlphaVector avCurrent = null;
 		int cEntries = 0;
 		
+		Generation gVectors = snapshot();
 		int iVector = 0;
-		for( iVector = 0 ; iVector < m_vAlphaVectors.size() ; iVector++ ){
-			avCurrent = m_vAlphaVectors.get( iVector );
+		for( iVector = 0 ; iVector < gVectors.size() ; iVector++ ){
+			avCurrent = gVectors.get( iVector );
 			cEntries += avCurrent.countEntries();
 		}
 		return cEntries;
 	}
 
 	public double getAvgAlphaVectorSize() {
+		Generation gVectors = snapshot();
 		double cNodes = 0;
-		for( AlphaVector av : m_vAlphaVectors )
+		for( AlphaVector av : gVectors )
 			cNodes += av.countEntries();
-		return cNodes / m_vAlphaVectors.size();
+		return cNodes / gVectors.size();
 	}
 	
 	public void skylinePruning( BeliefState bsStart, int cStates ){
@@ -530,7 +904,8 @@ public class LinearValueFunctionApproximation implements Serializable{
 		AlphaVector av0 = null, av1 = null;
 		double dMax = Double.NEGATIVE_INFINITY;
 		double dValue = 0.0;
-		for( AlphaVector avCurrent : m_vAlphaVectors ){
+		Generation gVectors = snapshot();
+		for( AlphaVector avCurrent : gVectors ){
 			dValue = avCurrent.dotProduct( bs );
 			if( dValue > dMax ){
 				dMax = dValue;
@@ -541,7 +916,7 @@ public class LinearValueFunctionApproximation implements Serializable{
 		int iState = av0.getNonZeroEntries().next().getKey();
 		double dT = 0.0, dMinT = Double.POSITIVE_INFINITY;
 		double dStateValue = av0.valueAt( iState );
-		for( AlphaVector avCurrent : m_vAlphaVectors ){
+		for( AlphaVector avCurrent : gVectors ){
 			if( avCurrent != av0 ){
 				dT = ( avCurrent.dotProduct( bs ) - dMax ) / ( dStateValue - avCurrent.valueAt( iState ) );
 				if( dT < dMinT ){
@@ -554,191 +929,40 @@ public class LinearValueFunctionApproximation implements Serializable{
 		
 		
 		
-	}
-
-	static{
-		try{
-			/*
-			String sLibraryPath = System.getProperty("java.library.path");
-			System.setProperty("java.library.path", sLibraryPath + ";" + "C:\\Windows\\System32\\lpsolve");
-			sLibraryPath = System.getProperty("java.library.path");
-			System.out.println( sLibraryPath );
-			*/
-			System.loadLibrary( "lpsolve55j" );
-			System.out.println( "lpsolve loaded" );
-		}
-		catch( UnsatisfiedLinkError err ){
-			System.out.println( "unable to load dll " + err );
-		}
 	}
 
 	private long m_cLPIterations = 0;
 	
-	private double[] dominateLP( AlphaVector avCurrent, LinkedList<AlphaVector> vAlphaVectors, int cStates ){
-		/*
-		try {
-			// Create a problem with 4 variables and 0 constraints
-			//cStates++;
-			LpSolve solver = LpSolve.makeLp( 0, cStates + 1 );
-			double[] adConstraint = new double[cStates + 1]; //states + delta
-			int iState = 0;
-			String sConstraint = "";
-			
-			//constraints for finding a witness for avCurrent
-			adConstraint[cStates] = -1;//-delta
-			for( AlphaVector av : vAlphaVectors ){
-				if( ( av != avCurrent ) && ( !av.isDominated() ) ){
-					sConstraint = "";
-					for( iState = 0 ; iState < cStates ; iState++ ){
-						adConstraint[iState] = avCurrent.valueAt( iState ) - av.valueAt( iState );
-						sConstraint += adConstraint[iState] + " ";
-					}
-					//x*a >= delta + x*a'  ==> x*a - x*a' - delta >= 0
-					sConstraint += "-1";
-					//solver.addConstraint( adConstraint, LpSolve.GE, 0.0 );
-					solver.strAddConstraint( sConstraint, LpSolve.GE, 0.0 );
-				}
-			}
-			
-			//add belief constraints
-			adConstraint[cStates] = 0;//delta
-			sConstraint = "";
-			for( iState = 0 ; iState < cStates ; iState++ ){
-				adConstraint[iState] = 1;
-				sConstraint += "1 ";
-			}
-			sConstraint += "0";
-			//solver.addConstraint( adConstraint, LpSolve.EQ, 1.0 );
-			solver.strAddConstraint( sConstraint, LpSolve.EQ, 1.0 );
-			
-			//set objective function - maximize delta
-			adConstraint[cStates] = 1;//delta
-			sConstraint = "";
-			for( iState = 0 ; iState < cStates ; iState++ ){
-				adConstraint[iState] = 0;
-				sConstraint += "0 ";
-			}
-			sConstraint += "1";
-			//solver.setObjFn( adConstraint );
-			solver.strSetObjFn( sConstraint );
-			solver.setMaxim();
-			
-			//solver.setLowbo( cStates + 1, -1 * solver.getInfinite() ); //we are interested only in delta greater than 0.0
-			//solver.setLowbo( cStates, 0 ); //we are interested only in delta greater than 0.0
-			
-			for( iState = 1 ; iState <= cStates ; iState++ ){
-				solver.setUpbo( iState, 1.0 );
-				solver.setLowbo( iState, 0.0 );
-			}			
-			
-			
-			// solve the problem
-			solver.setOutputfile( "" );
-			//solver.printLp();
-			int iResult = solver.solve();
-			double[] adSolution = null;
-			double dMaxDelta = solver.getObjective();
-			m_cLPIterations += solver.getTotalIter();
-			if( dMaxDelta > 0.0001 ){
-				adSolution = solver.getPtrVariables();
-			}
-			
-			// delete the problem and free memory
-			solver.deleteLp();
-			return adSolution;
-		}
-		catch (LpSolveException e) {
-			e.printStackTrace();
-			System.exit( 0 );
-		}
-		*/
-		return null;
-	}
-
+	/**
+	 * Exact pruning - keeps only vectors that have a witness belief where they are strictly better than all the other vectors.
+	 * Uses the pure Java witness LP (LPPruning), in parallel if ExecutionProperties.useParallelPruning().
+	 */
 	public void pruneLP( POMDP pPOMDP ) {
-		if( m_vAlphaVectors.size() < 2 )
+		PruningEvent ePruning = new PruningEvent();
+		ePruning.begin();
+		Generation gBase = snapshot();
+		if( gBase.size() < 2 )
 			return;
-		LinkedList<AlphaVector> vDirtyList = new LinkedList<AlphaVector>( m_vAlphaVectors );
-		LinkedList<AlphaVector> vCleanList = new LinkedList<AlphaVector>();
-		SkylinePruning sp = new SkylinePruning( this, pPOMDP.getStateCount() );
-		
-		int iState = 0;
-		BeliefState bsCurrent = null;
-		double[] adBelief = null;
-		AlphaVector avCurrent = null, avMax = null;
-		double dValue = 0.0, dMax = 0.0;
-		m_cLPIterations = 0;
-/*
-		for( iState = 0 ; iState < pPOMDP.getStateCount() ; iState++ ){
-			bsCurrent = pPOMDP.getBeliefStateFactory().getDeterministicBeliefState( iState );
-			avMax = getMaxAlpha( bsCurrent );
-			if( !vCleanList.contains( avMax ) ){
-				avMax.setWitness( bsCurrent );
-				vDirtyList.remove( avMax );
-				vCleanList.add( avMax );
-			}
-		}
-		
-		while( vDirtyList.size() > 0 ){
-			avCurrent = vDirtyList.getFirst();
-			//adBelief = dominateLP( avCurrent, vCleanList, pPOMDP.getStateCount() );
-			adBelief = sp.findWitness( vCleanList, avCurrent );
-			m_cLPIterations = sp.getProcessedCount();
-				
-			if( adBelief != null ){
-				
-				dMax = Double.NEGATIVE_INFINITY;
-				for( AlphaVector av : vDirtyList ){
-					dValue = av.dotProduct( adBelief );
-					if( dValue > dMax ){
-						dMax = dValue;
-						avMax = av;
-					}						
-				}
-				avMax.setWitness( pPOMDP.getBeliefStateFactory().newBeliefState( adBelief ) );
-				vDirtyList.remove( avMax );
-				vCleanList.add( avMax );
-			}
-			else{
-				avCurrent.setWitness( null );
-				vDirtyList.remove( avCurrent );
-			}
-		}
-*/
-		if( true ){
-			for( AlphaVector av : vDirtyList ){
-				av.setDominated( false );
-			}
-			for( AlphaVector av : vDirtyList ){
-				//adBelief = dominateLP( av, vDirtyList, pPOMDP.getStateCount() );
-				adBelief = sp.findWitness( vDirtyList, av );
-				m_cLPIterations = sp.getProcessedCount();
-				if( adBelief == null ){
-					//System.out.println( av );
-					av.setDominated( true );
-				}
-				else{
-					/*
-					BeliefState bs = pPOMDP.getBeliefStateFactory().newBeliefState( adBelief );
-					System.out.println( av + " * " + bs + " = " + av.dotProduct( bs ) );
-					for( AlphaVector avTag : vDirtyList ){
-						if( avTag != av ){
-							System.out.println( avTag + " * " + bs + " = " + avTag.dotProduct( bs ) );
-						}
-					}
-					*/
-					vCleanList.add( av );
-				}
-			}
-		}
-		System.out.println( "LP: Pruned the lower bound from " + m_vAlphaVectors.size() + " to " + vCleanList.size() + ", iterations = " + m_cLPIterations );
-		m_vAlphaVectors = vCleanList;
+		long cIterationsBefore = LPPruning.getIterationCount();
+		Vector<AlphaVector> vCleanList = LPPruning.prune( gBase, pPOMDP.getStateCount(), LP_EPSILON, ExecutionProperties.useParallelPruning() );
+		m_cLPIterations = LPPruning.getIterationCount() - cIterationsBefore;
+		IdentityHashMap<AlphaVector, Boolean> mClean = new IdentityHashMap<AlphaVector, Boolean>();
+		for( AlphaVector av : vCleanList )
+			mClean.put( av, Boolean.TRUE );
+		for( AlphaVector av : gBase )
+			av.setDominated( !mClean.containsKey( av ) );
+		System.out.println( "LP: Pruned the lower bound from " + gBase.size() + " to " + vCleanList.size() + ", iterations = " + m_cLPIterations );
+		replaceVectors( gBase, vCleanList );
+		ePruning.end( "LP", gBase.size(), vCleanList.size() );
 	}
 	
 	public void pruneRandomSampling( BeliefStateFactory bsf, int cSamples ) {
-		if( m_vAlphaVectors.size() < 2 )
+		PruningEvent ePruning = new PruningEvent();
+		ePruning.begin();
+		Generation gBase = snapshot();
+		if( gBase.size() < 2 )
 			return;
-		LinkedList<AlphaVector> vDirtyList = new LinkedList<AlphaVector>( m_vAlphaVectors );
+		LinkedList<AlphaVector> vDirtyList = new LinkedList<AlphaVector>( gBase );
 		LinkedList<AlphaVector> vCleanList = new LinkedList<AlphaVector>();
 		int iSample = 0;
 		BeliefState bsCurrent = null;
@@ -771,13 +995,17 @@ public class LinearValueFunctionApproximation implements Serializable{
 				vDirtyList.remove( avMax );
 			}
 		}
-		System.out.println( "Pruned the lower bound from " + m_vAlphaVectors.size() + " to " + vCleanList.size() );
-		m_vAlphaVectors = vCleanList;
+		System.out.println( "Pruned the lower bound from " + gBase.size() + " to " + vCleanList.size() );
+		replaceVectors( gBase, vCleanList );
+		ePruning.end( "RandomSampling", gBase.size(), vCleanList.size() );
 	}
 	public void pruneRandomSampling( POMDP pPOMDP, int cSamples ) {
-		if( m_vAlphaVectors.size() < 2 )
+		PruningEvent ePruning = new PruningEvent();
+		ePruning.begin();
+		Generation gBase = snapshot();
+		if( gBase.size() < 2 )
 			return;
-		LinkedList<AlphaVector> vDirtyList = new LinkedList<AlphaVector>( m_vAlphaVectors );
+		LinkedList<AlphaVector> vDirtyList = new LinkedList<AlphaVector>( gBase );
 		LinkedList<AlphaVector> vCleanList = new LinkedList<AlphaVector>();
 		int iState = 0, iSample = 0, cStates = pPOMDP.getStateCount();
 		BeliefState bsCurrent = null;
@@ -823,35 +1051,43 @@ public class LinearValueFunctionApproximation implements Serializable{
 				vDirtyList.remove( avMax );
 			}
 		}
-		System.out.println( "Pruned the lower bound from " + m_vAlphaVectors.size() + " to " + vCleanList.size() );
-		m_vAlphaVectors = vCleanList;
+		System.out.println( "Pruned the lower bound from " + gBase.size() + " to " + vCleanList.size() );
+		replaceVectors( gBase, vCleanList );
+		ePruning.end( "RandomSampling", gBase.size(), vCleanList.size() );
 	}
 	public void pruneTrials( POMDP pPOMDP, int cTrials, int cSteps, PolicyStrategy ps ){
+		PruningEvent ePruning = new PruningEvent();
+		ePruning.begin();
 		initHitCounts();
 		double dSimulatedADR = pPOMDP.computeAverageDiscountedReward( cTrials, cSteps, ps );
-		int cBefore = m_vAlphaVectors.size();
-		pruneLowHitCountVectors( 0 );
-		System.out.println( "Pruned the lower bound from " + cBefore + " to " + m_vAlphaVectors.size() );
+		int cBefore = size();
+		removeLowHitCountVectors( 0, Integer.MAX_VALUE );
+		System.out.println( "Pruned the lower bound from " + cBefore + " to " + size() );
+		ePruning.end( "Trials", cBefore, size() );
 	}
 	public boolean pruneSkyline( POMDP pPOMDP ){
-		int cBefore = m_vAlphaVectors.size(), cPruned = 0;
+		PruningEvent ePruning = new PruningEvent();
+		ePruning.begin();
+		Generation gBase = snapshot();
+		int cBefore = gBase.size(), cPruned = 0;
 		LinkedList<AlphaVector> vCleanList = new LinkedList<AlphaVector>();
 		SkylinePruning sp = new SkylinePruning( this, pPOMDP.getStateCount() );
-		for( AlphaVector av : m_vAlphaVectors ){
+		for( AlphaVector av : gBase ){
 			av.clearWitnesses();
 			av.setDominated( true );
 		}
 		sp.runSkylineWitness();
-		for( AlphaVector av : m_vAlphaVectors ){
+		for( AlphaVector av : gBase ){
 			//if( !av.isDominated() && av.countWitnesses() > 1 )
 			if( !av.isDominated() )
 				vCleanList.add( av );
 			else
 				cPruned++;
 		}
-		m_vAlphaVectors = vCleanList;
-		System.out.println( "Skyline: Pruned the lower bound from " + cBefore + " to " + m_vAlphaVectors.size()
+		replaceVectors( gBase, vCleanList );
+		System.out.println( "Skyline: Pruned the lower bound from " + cBefore + " to " + size()
 				+ ", iterations = " + sp.getProcessedCount() );
-		return cBefore > m_vAlphaVectors.size();
+		ePruning.end( "Skyline", cBefore, size() );
+		return cBefore > size();
 	}
 }
@@ -0,0 +1,339 @@
+package pomdp.valuefunction;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import pomdp.utilities.BeliefState;
+
+/**
+ * Sawtooth (jigsaw) upper bound over a set of inner points, stored in primitive arrays.
+ * V(b) = V_corners(b) + min_c r(b,c) * ( v(c) - V_corners(c) ), where r(b,c) = min_{s : c(s) > 0} b(s) / c(s).
+ * For every point the support, a 64 bit signature of the support and the gap v(c) - V_corners(c) are precomputed,
+ * so points whose support is not contained in the support of b are rejected without a scan.
+ * Points that do not improve the bound at their own belief are pruned when inserted. Large point sets are evaluated in parallel.
+ * In the approximate mode only the K points with the lowest gap are kept for every support pattern.
+ * Queries may run concurrently, insertions must not run concurrently with other operations.
+ */
+public class SawtoothUpperBound {
+	private static final int PARALLEL_THRESHOLD = 16384;
+	private static final int CHUNK_SIZE = 4096;
+	private static final double EPSILON = 1e-10;
+
+	private double[] m_adCornerValues;
+	private int m_cPoints;
+	private int m_cRemoved;
+	private BeliefState[] m_abPoints;
+	private double[] m_adGaps;
+	private long[] m_alSignatures;
+	private long[] m_alPatterns;
+	private int[] m_aiFirstEntry;
+	private int[] m_aiEntryCount;
+	private int[] m_aiStates;
+	private double[] m_adProbabilities;
+	private int m_cEntries;
+	private Map<BeliefState, Integer> m_mIndexes;
+	private Map<Long, Vector<Integer>> m_mPatterns;
+	private int m_cMaxPointsPerPattern;
+	private ThreadLocal<double[]> m_tlBelief;
+
+	/**
+	 * @param adCornerValues - the upper bound at the corners of the belief simplex
+	 * @param cMaxPointsPerPattern - K for the approximate mode, or 0 to keep all points
+	 */
+	public SawtoothUpperBound( double[] adCornerValues, int cMaxPointsPerPattern ){
+		final int cStates = adCornerValues.length;
+		m_adCornerValues = adCornerValues;
+		m_cMaxPointsPerPattern = cMaxPointsPerPattern;
+		m_tlBelief = new ThreadLocal<double[]>(){
+			protected double[] initialValue(){
+				return new double[cStates];
+			}
+		};
+		clear();
+	}
+
+	public void clear(){
+		m_cPoints = 0;
+		m_cRemoved = 0;
+		m_abPoints = new BeliefState[16];
+		m_adGaps = new double[16];
+		m_alSignatures = new long[16];
+		m_alPatterns = new long[16];
+		m_aiFirstEntry = new int[16];
+		m_aiEntryCount = new int[16];
+		m_aiStates = new int[64];
+		m_adProbabilities = new double[64];
+		m_cEntries = 0;
+		m_mIndexes = new HashMap<BeliefState, Integer>();
+		m_mPatterns = new HashMap<Long, Vector<Integer>>();
+	}
+
+	public int getPointCount(){
+		return m_cPoints - m_cRemoved;
+	}
+
+	public double valueGivenCornerPoints( BeliefState bs ){
+		int[] aiIndexes = bs.getNonZeroIndexes();
+		double dValue = 0.0;
+		if( aiIndexes != null ){
+			double[] adValues = bs.getNonZeroValues();
+			int cNonZero = bs.getNonZeroEntriesCount();
+			for( int iEntry = 0 ; iEntry < cNonZero ; iEntry++ )
+				dValue += adValues[iEntry] * m_adCornerValues[aiIndexes[iEntry]];
+		}
+		else{
+			for( Entry<Integer, Double> e : bs.getNonZeroEntries() )
+				dValue += e.getValue() * m_adCornerValues[e.getKey()];
+		}
+		return dValue;
+	}
+
+	/**
+	 * Adds an inner point, or lowers the value of an existing one.
+	 * @param bPrune - whether to skip points that do not improve the current bound at bs
+	 * @return a point evicted by the approximate mode, or null
+	 */
+	public BeliefState add( BeliefState bs, double dValue, boolean bPrune ){
+		double dGap = dValue - valueGivenCornerPoints( bs );
+		Integer iExisting = m_mIndexes.get( bs );
+		int iPoint = 0;
+
+		if( iExisting != null ){
+			iPoint = iExisting;
+			if( dGap < m_adGaps[iPoint] )
+				m_adGaps[iPoint] = dGap;
+			return null;
+		}
+		if( bPrune ){
+			if( dGap >= -EPSILON )
+				return null;
+			if( valueAt( bs ) <= dValue + EPSILON )
+				return null;
+		}
+
+		iPoint = insert( bs, dGap );
+		if( m_cMaxPointsPerPattern > 0 )
+			return limitPattern( iPoint );
+		return null;
+	}
+
+	private int insert( BeliefState bs, double dGap ){
+		int iPoint = m_cPoints, iEntry = 0;
+		ensureCapacity( m_cPoints + 1, m_cEntries + bs.getNonZeroEntriesCount() );
+		m_abPoints[iPoint] = bs;
+		m_adGaps[iPoint] = dGap;
+		m_aiFirstEntry[iPoint] = m_cEntries;
+		long lSignature = 0, lPattern = 0;
+		int[] aiIndexes = bs.getNonZeroIndexes();
+		if( aiIndexes != null ){
+			double[] adValues = bs.getNonZeroValues();
+			int cNonZero = bs.getNonZeroEntriesCount();
+			for( iEntry = 0 ; iEntry < cNonZero ; iEntry++ )
+				addEntry( aiIndexes[iEntry], adValues[iEntry] );
+		}
+		else{
+			for( Entry<Integer, Double> e : bs.getNonZeroEntries() )
+				addEntry( e.getKey(), e.getValue() );
+		}
+		m_aiEntryCount[iPoint] = m_cEntries - m_aiFirstEntry[iPoint];
+		for( iEntry = m_aiFirstEntry[iPoint] ; iEntry < m_cEntries ; iEntry++ ){
+			lSignature |= 1L << ( m_aiStates[iEntry] & 63 );
+			lPattern += mix( m_aiStates[iEntry] );
+		}
+		m_alSignatures[iPoint] = lSignature;
+		m_alPatterns[iPoint] = lPattern;
+		m_mIndexes.put( bs, iPoint );
+		m_cPoints++;
+		return iPoint;
+	}
+
+	private void addEntry( int iState, double dProb ){
+		m_aiStates[m_cEntries] = iState;
+		m_adProbabilities[m_cEntries] = dProb;
+		m_cEntries++;
+	}
+
+	/*
+	 * Keeps the K points with the lowest gap in the support pattern of iPoint.
+	 */
+	private BeliefState limitPattern( int iPoint ){
+		Vector<Integer> vPoints = m_mPatterns.get( m_alPatterns[iPoint] );
+		int iWorst = -1, iPosition = 0, iWorstPosition = -1;
+		if( vPoints == null ){
+			vPoints = new Vector<Integer>();
+			m_mPatterns.put( m_alPatterns[iPoint], vPoints );
+		}
+		vPoints.add( iPoint );
+		if( vPoints.size() <= m_cMaxPointsPerPattern )
+			return null;
+		for( iPosition = 0 ; iPosition < vPoints.size() ; iPosition++ ){
+			if( iWorst == -1 || m_adGaps[vPoints.get( iPosition )] > m_adGaps[iWorst] ){
+				iWorst = vPoints.get( iPosition );
+				iWorstPosition = iPosition;
+			}
+		}
+		vPoints.remove( iWorstPosition );
+		BeliefState bsEvicted = m_abPoints[iWorst];
+		remove( iWorst );
+		return bsEvicted;
+	}
+
+	private void remove( int iPoint ){
+		m_mIndexes.remove( m_abPoints[iPoint] );
+		m_abPoints[iPoint] = null;
+		m_adGaps[iPoint] = Double.POSITIVE_INFINITY;
+		m_alSignatures[iPoint] = -1L;
+		m_cRemoved++;
+		if( m_cRemoved > 1024 && m_cRemoved > m_cPoints / 2 )
+			compact();
+	}
+
+	/*
+	 * Rebuilds the arrays without the removed points.
+	 */
+	private void compact(){
+		BeliefState[] abPoints = m_abPoints;
+		double[] adGaps = m_adGaps;
+		int cPoints = m_cPoints, iPoint = 0, iNewPoint = 0;
+		clear();
+		for( iPoint = 0 ; iPoint < cPoints ; iPoint++ ){
+			if( abPoints[iPoint] != null ){
+				iNewPoint = insert( abPoints[iPoint], adGaps[iPoint] );
+				if( m_cMaxPointsPerPattern > 0 )
+					limitPattern( iNewPoint );
+			}
+		}
+	}
+
+	private void ensureCapacity( int cPoints, int cEntries ){
+		if( cPoints > m_abPoints.length ){
+			int cNewSize = Math.max( cPoints, m_abPoints.length * 2 );
+			BeliefState[] abPoints = new BeliefState[cNewSize];
+			System.arraycopy( m_abPoints, 0, abPoints, 0, m_cPoints );
+			m_abPoints = abPoints;
+			m_adGaps = Arrays.copyOf( m_adGaps, cNewSize );
+			m_alSignatures = Arrays.copyOf( m_alSignatures, cNewSize );
+			m_alPatterns = Arrays.copyOf( m_alPatterns, cNewSize );
+			m_aiFirstEntry = Arrays.copyOf( m_aiFirstEntry, cNewSize );
+			m_aiEntryCount = Arrays.copyOf( m_aiEntryCount, cNewSize );
+		}
+		if( cEntries > m_aiStates.length ){
+			int cNewSize = Math.max( cEntries, m_aiStates.length * 2 );
+			m_aiStates = Arrays.copyOf( m_aiStates, cNewSize );
+			m_adProbabilities = Arrays.copyOf( m_adProbabilities, cNewSize );
+		}
+	}
+
+	/**
+	 * The sawtooth interpolation at bs, ignoring bs itself if it is one of the inner points.
+	 */
+	public double valueAt( BeliefState bs ){
+		double[] adBelief = m_tlBelief.get();
+		int[] aiIndexes = bs.getNonZeroIndexes();
+		int cNonZero = bs.getNonZeroEntriesCount(), iEntry = 0, iState = 0;
+		long lSignature = 0;
+		double dCornerValue = 0.0, dMinGap = 0.0;
+		Integer iExclude = m_mIndexes.get( bs );
+		int[] aiStates = aiIndexes;
+
+		if( aiIndexes != null ){
+			double[] adValues = bs.getNonZeroValues();
+			for( iEntry = 0 ; iEntry < cNonZero ; iEntry++ ){
+				iState = aiIndexes[iEntry];
+				adBelief[iState] = adValues[iEntry];
+				lSignature |= 1L << ( iState & 63 );
+				dCornerValue += adValues[iEntry] * m_adCornerValues[iState];
+			}
+		}
+		else{
+			Iterator<Entry<Integer, Double>> itNonZero = bs.getNonZeroEntries().iterator();
+			Entry<Integer, Double> e = null;
+			aiStates = new int[cNonZero];
+			iEntry = 0;
+			while( itNonZero.hasNext() ){
+				e = itNonZero.next();
+				iState = e.getKey();
+				aiStates[iEntry++] = iState;
+				adBelief[iState] = e.getValue();
+				lSignature |= 1L << ( iState & 63 );
+				dCornerValue += e.getValue() * m_adCornerValues[iState];
+			}
+			cNonZero = iEntry;
+		}
+
+		int iExcluded = ( iExclude == null ) ? -1 : iExclude;
+		if( m_cPoints > PARALLEL_THRESHOLD )
+			dMinGap = ForkJoinPool.commonPool().invoke( new MinGap( adBelief, lSignature, iExcluded, 0, m_cPoints ) );
+		else
+			dMinGap = minGap( adBelief, lSignature, iExcluded, 0, m_cPoints );
+
+		for( iEntry = 0 ; iEntry < cNonZero ; iEntry++ )
+			adBelief[aiStates[iEntry]] = 0.0;
+		return dCornerValue + dMinGap;
+	}
+
+	/*
+	 * min_c r(b,c) * gap(c) over the points in [iFirst,iLast), with b given densely in adBelief.
+	 */
+	private double minGap( double[] adBelief, long lSignature, int iExclude, int iFirst, int iLast ){
+		double dMinGap = 0.0, dRatio = 0.0, dProb = 0.0;
+		int iPoint = 0, iEntry = 0, iEnd = 0;
+		for( iPoint = iFirst ; iPoint < iLast ; iPoint++ ){
+			if( ( m_alSignatures[iPoint] & ~lSignature ) != 0 || iPoint == iExclude )
+				continue;
+			dRatio = Double.POSITIVE_INFINITY;
+			iEnd = m_aiFirstEntry[iPoint] + m_aiEntryCount[iPoint];
+			for( iEntry = m_aiFirstEntry[iPoint] ; iEntry < iEnd ; iEntry++ ){
+				dProb = adBelief[m_aiStates[iEntry]];
+				if( dProb == 0.0 ){
+					dRatio = 0.0;
+					break;
+				}
+				if( dProb < dRatio * m_adProbabilities[iEntry] )
+					dRatio = dProb / m_adProbabilities[iEntry];
+			}
+			if( dRatio > 0.0 && dRatio * m_adGaps[iPoint] < dMinGap )
+				dMinGap = dRatio * m_adGaps[iPoint];
+		}
+		return dMinGap;
+	}
+
+	private class MinGap extends RecursiveTask<Double>{
+		private static final long serialVersionUID = 1L;
+		private double[] m_adBelief;
+		private long m_lSignature;
+		private int m_iExclude, m_iFirst, m_iLast;
+
+		public MinGap( double[] adBelief, long lSignature, int iExclude, int iFirst, int iLast ){
+			m_adBelief = adBelief;
+			m_lSignature = lSignature;
+			m_iExclude = iExclude;
+			m_iFirst = iFirst;
+			m_iLast = iLast;
+		}
+
+		protected Double compute(){
+			if( m_iLast - m_iFirst > CHUNK_SIZE ){
+				int iMiddle = ( m_iFirst + m_iLast ) >>> 1;
+				MinGap mgLeft = new MinGap( m_adBelief, m_lSignature, m_iExclude, m_iFirst, iMiddle );
+				MinGap mgRight = new MinGap( m_adBelief, m_lSignature, m_iExclude, iMiddle, m_iLast );
+				mgLeft.fork();
+				double dRight = mgRight.compute();
+				return Math.min( mgLeft.join(), dRight );
+			}
+			return minGap( m_adBelief, m_lSignature, m_iExclude, m_iFirst, m_iLast );
+		}
+	}
+
+	private static long mix( long lValue ){
+		lValue = ( lValue ^ ( lValue >>> 33 ) ) * 0xff51afd7ed558ccdL;
+		lValue = ( lValue ^ ( lValue >>> 33 ) ) * 0xc4ceb9fe1a85ec53L;
+		return lValue ^ ( lValue >>> 33 );
+	}
+}